@@ -0,0 +1,117 @@
+package com.github.davidmoten.rtree;
+
+import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+/**
+ * The aggregate of every node of an {@link RTree}, calculated once by
+ * {@link RTree#aggregateIndex(Aggregator)}. Aggregates of the entries
+ * intersecting a rectangle use the precalculated value for each node whose
+ * minimum bounding rectangle is covered by the rectangle and only descend into
+ * nodes that partially overlap it, so entries of covered subtrees are never
+ * visited.
+ * 
+ * <p>
+ * The index is a snapshot of the tree it was created from (and holds the
+ * precalculated aggregates in a structure parallel to the nodes of that tree).
+ * Create a new index for a modified tree.
+ *
+ * @param <T>
+ *            the value type
+ * @param <S>
+ *            the geometry type
+ * @param <A>
+ *            the aggregate type
+ */
+public final class AggregateIndex<T, S extends Geometry, A> {
+
+    private final Optional<? extends Node<T, S>> root;
+    private final Aggregator<T, S, A> aggregator;
+    // null if the tree is empty
+    private final Summary<A> summary;
+
+    AggregateIndex(Optional<? extends Node<T, S>> root, Aggregator<T, S, A> aggregator) {
+        this.root = root;
+        this.aggregator = aggregator;
+        this.summary = root.isPresent() ? summarize(root.get()) : null;
+    }
+
+    private static final class Summary<A> {
+        final A value;
+        // null for leaves
+        final Summary<A>[] children;
+
+        Summary(A value, Summary<A>[] children) {
+            this.value = value;
+            this.children = children;
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Summary<A> summarize(Node<T, S> node) {
+        A value = aggregator.zero();
+        if (node instanceof Leaf) {
+            Leaf<T, S> leaf = (Leaf<T, S>) node;
+            for (int i = 0; i < leaf.count(); i++)
+                value = aggregator.combine(value, aggregator.map(leaf.entry(i)));
+            return new Summary<A>(value, null);
+        } else {
+            NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+            Summary<A>[] children = new Summary[nonLeaf.count()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = summarize(nonLeaf.child(i));
+                value = aggregator.combine(value, children[i].value);
+            }
+            return new Summary<A>(value, children);
+        }
+    }
+
+    /**
+     * Returns the aggregate of all entries of the tree.
+     * 
+     * @return aggregate of all entries
+     */
+    public A total() {
+        return summary == null ? aggregator.zero() : summary.value;
+    }
+
+    /**
+     * Returns the aggregate of the entries whose geometry intersects the given
+     * rectangle.
+     * 
+     * @param r
+     *            rectangle to check intersection with
+     * @return aggregate of the matching entries
+     */
+    public A aggregate(Rectangle r) {
+        if (summary == null)
+            return aggregator.zero();
+        else
+            return aggregate(root.get(), summary, r);
+    }
+
+    private A aggregate(Node<T, S> node, Summary<A> summary, Rectangle r) {
+        Rectangle mbr = node.geometry().mbr();
+        if (!mbr.intersects(r))
+            return aggregator.zero();
+        else if (RTree.covers(r, mbr))
+            return summary.value;
+        A value = aggregator.zero();
+        if (node instanceof Leaf) {
+            Leaf<T, S> leaf = (Leaf<T, S>) node;
+            for (int i = 0; i < leaf.count(); i++) {
+                Entry<T, S> entry = leaf.entry(i);
+                if (entry.geometry().intersects(r))
+                    value = aggregator.combine(value, aggregator.map(entry));
+            }
+        } else {
+            NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+            for (int i = 0; i < summary.children.length; i++)
+                value = aggregator.combine(value,
+                        aggregate(nonLeaf.child(i), summary.children[i], r));
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.github.davidmoten.rtree;
+
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+/**
+ * Defines an aggregate of entries (for example a sum, minimum or maximum of a
+ * projection of the entry value) as a monoid so that it can be precalculated
+ * for every node of a tree. {@code combine} must be associative and
+ * {@code zero()} must be an identity for it. Used by {@link AggregateIndex}.
+ *
+ * @param <T>
+ *            the value type
+ * @param <S>
+ *            the geometry type
+ * @param <A>
+ *            the aggregate type
+ */
+public interface Aggregator<T, S extends Geometry, A> {
+
+    /**
+     * Returns the aggregate of no entries.
+     * 
+     * @return identity of {@link #combine(Object, Object)}
+     */
+    A zero();
+
+    /**
+     * Returns the aggregate of a single entry.
+     * 
+     * @param entry
+     *            entry
+     * @return aggregate of the entry
+     */
+    A map(Entry<T, S> entry);
+
+    /**
+     * Returns the aggregate of two aggregates.
+     * 
+     * @param a
+     *            an aggregate
+     * @param b
+     *            another aggregate
+     * @return combined aggregate
+     */
+    A combine(A a, A b);
+
+}
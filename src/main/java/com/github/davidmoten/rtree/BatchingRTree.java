@@ -0,0 +1,255 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.Subscription;
+import rx.functions.Action0;
+
+/**
+ * <p>
+ * Thread-safe buffer of inserts and deletes in front of an immutable
+ * {@link RTree}. Updates are collected and applied together with
+ * {@link RTree#update(Iterable, Iterable)} once {@code maxBatchSize} updates
+ * are pending or (if a scheduler is supplied) {@code maxDelay} after the first
+ * pending update, whichever comes first. {@link #flush()} applies the pending
+ * updates immediately.
+ * </p>
+ *
+ * <p>
+ * A delete of an entry added earlier in the same batch cancels that add, so the
+ * result of a batch is the same as applying its updates one at a time in order.
+ * {@link #tree()} returns the tree as of the last applied batch and does not
+ * reflect pending updates.
+ * </p>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+public final class BatchingRTree<T, S extends Geometry> {
+
+    private final int maxBatchSize;
+    private final long maxDelayMs;
+    private final Worker worker;
+
+    private volatile RTree<T, S> tree;
+
+    // guarded by this
+    private List<Entry<T, S>> adds = new ArrayList<Entry<T, S>>();
+    private List<Entry<T, S>> deletes = new ArrayList<Entry<T, S>>();
+    // number of instances of each entry in adds that have not been cancelled
+    private Map<Entry<T, S>, Integer> addCounts = new HashMap<Entry<T, S>, Integer>();
+    private int cancelled;
+    private Subscription scheduledFlush;
+
+    private BatchingRTree(RTree<T, S> tree, int maxBatchSize, long maxDelayMs, Worker worker) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.tree = tree;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMs = maxDelayMs;
+        this.worker = worker;
+    }
+
+    /**
+     * Returns a buffer in front of the given tree that applies updates in
+     * batches of {@code maxBatchSize}.
+     *
+     * @param tree
+     *            the tree to apply updates to
+     * @param maxBatchSize
+     *            number of pending updates that triggers a flush
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return a new buffer
+     */
+    public static <T, S extends Geometry> BatchingRTree<T, S> create(RTree<T, S> tree,
+            int maxBatchSize) {
+        return new BatchingRTree<T, S>(tree, maxBatchSize, 0, null);
+    }
+
+    /**
+     * Returns a buffer in front of the given tree that applies updates in
+     * batches of {@code maxBatchSize} or after {@code maxDelay} has elapsed since
+     * the first pending update. Call {@link #close()} to release the scheduler
+     * worker.
+     *
+     * @param tree
+     *            the tree to apply updates to
+     * @param maxBatchSize
+     *            number of pending updates that triggers a flush
+     * @param maxDelay
+     *            maximum time an update stays pending
+     * @param unit
+     *            unit of maxDelay
+     * @param scheduler
+     *            scheduler on which timed flushes are performed
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return a new buffer
+     */
+    public static <T, S extends Geometry> BatchingRTree<T, S> create(RTree<T, S> tree,
+            int maxBatchSize, long maxDelay, TimeUnit unit, Scheduler scheduler) {
+        return new BatchingRTree<T, S>(tree, maxBatchSize, unit.toMillis(maxDelay),
+                scheduler.createWorker());
+    }
+
+    /**
+     * Buffers the addition of the given entry.
+     *
+     * @param entry
+     *            entry to add
+     * @return this
+     */
+    @SuppressWarnings("unchecked")
+    public BatchingRTree<T, S> add(Entry<? extends T, ? extends S> entry) {
+        synchronized (this) {
+            Entry<T, S> e = (Entry<T, S>) entry;
+            adds.add(e);
+            Integer count = addCounts.get(e);
+            addCounts.put(e, count == null ? 1 : count + 1);
+            pendingChanged();
+        }
+        return this;
+    }
+
+    /**
+     * Buffers the addition of an entry with the given value and geometry.
+     *
+     * @param value
+     *            value of the entry to add
+     * @param geometry
+     *            geometry of the entry to add
+     * @return this
+     */
+    public BatchingRTree<T, S> add(T value, S geometry) {
+        return add(tree.context().factory().createEntry(value, geometry));
+    }
+
+    /**
+     * Buffers the deletion of one instance of the given entry.
+     *
+     * @param entry
+     *            entry to delete
+     * @return this
+     */
+    @SuppressWarnings("unchecked")
+    public BatchingRTree<T, S> delete(Entry<? extends T, ? extends S> entry) {
+        synchronized (this) {
+            // cancel a pending add if there is one
+            Integer count = addCounts.get(entry);
+            if (count != null && count > 0) {
+                addCounts.put((Entry<T, S>) entry, count - 1);
+                cancelled++;
+            } else
+                deletes.add((Entry<T, S>) entry);
+            pendingChanged();
+        }
+        return this;
+    }
+
+    /**
+     * Buffers the deletion of one instance of the entry with the given value and
+     * geometry.
+     *
+     * @param value
+     *            value of the entry to delete
+     * @param geometry
+     *            geometry of the entry to delete
+     * @return this
+     */
+    public BatchingRTree<T, S> delete(T value, S geometry) {
+        return delete(tree.context().factory().createEntry(value, geometry));
+    }
+
+    /**
+     * Applies all pending updates and returns the resulting tree.
+     *
+     * @return the tree with all updates applied
+     */
+    public synchronized RTree<T, S> flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.unsubscribe();
+            scheduledFlush = null;
+        }
+        if (!adds.isEmpty() || !deletes.isEmpty()) {
+            tree = tree.update(deletes, cancelled == 0 ? adds : uncancelledAdds());
+            adds = new ArrayList<Entry<T, S>>();
+            deletes = new ArrayList<Entry<T, S>>();
+            addCounts = new HashMap<Entry<T, S>, Integer>();
+            cancelled = 0;
+        }
+        return tree;
+    }
+
+    /**
+     * Returns the tree as of the last applied batch.
+     *
+     * @return the latest tree
+     */
+    public RTree<T, S> tree() {
+        return tree;
+    }
+
+    /**
+     * Returns the number of updates not yet applied.
+     *
+     * @return the number of pending updates
+     */
+    public synchronized int pending() {
+        return adds.size() - cancelled + deletes.size();
+    }
+
+    /**
+     * Applies all pending updates and stops timed flushes.
+     *
+     * @return the tree with all updates applied
+     */
+    public synchronized RTree<T, S> close() {
+        RTree<T, S> result = flush();
+        if (worker != null)
+            worker.unsubscribe();
+        return result;
+    }
+
+    // must hold the lock
+    private List<Entry<T, S>> uncancelledAdds() {
+        // all instances of an entry are equal so keep the first ones
+        List<Entry<T, S>> list = new ArrayList<Entry<T, S>>(adds.size() - cancelled);
+        for (Entry<T, S> entry : adds) {
+            int count = addCounts.get(entry);
+            if (count > 0) {
+                list.add(entry);
+                addCounts.put(entry, count - 1);
+            }
+        }
+        return list;
+    }
+
+    // must hold the lock
+    private void pendingChanged() {
+        if (adds.size() - cancelled + deletes.size() >= maxBatchSize)
+            flush();
+        else if (worker != null && scheduledFlush == null)
+            scheduledFlush = worker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    flush();
+                }
+            }, maxDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * Thread-safe 2D R-Tree for concurrent writers. Space within the configured
+ * bounds is partitioned into a grid of stripes and each stripe holds its own
+ * immutable {@link RTree}. An entry belongs to the stripe containing the centre
+ * of its minimum bounding rectangle (entries outside the bounds go to the
+ * nearest edge stripe).
+ * </p>
+ *
+ * <p>
+ * Each stripe's tree is held in its own slot of an atomic array. A writer
+ * copies the path in its stripe's tree only and then swaps the slot with a
+ * compare-and-set that is retried only when another writer changed the same
+ * stripe, so writers in different regions do not contend at all. Reads take
+ * each stripe's tree once: every stripe is seen at a point in time but a
+ * write to one stripe may be seen while a concurrent write to another is not.
+ * </p>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+public final class ConcurrentRTree<T, S extends Geometry> {
+
+    private final Context<T, S> context;
+    private final Rectangle bounds;
+    private final int stripesX;
+    private final int stripesY;
+    private final AtomicReferenceArray<RTree<T, S>> stripes;
+
+    private ConcurrentRTree(RTree<T, S> empty, Rectangle bounds, int stripesX, int stripesY) {
+        Preconditions.checkArgument(stripesX >= 1 && stripesY >= 1,
+                "number of stripes must be at least 1 in each direction");
+        this.context = empty.context();
+        this.bounds = bounds;
+        this.stripesX = stripesX;
+        this.stripesY = stripesY;
+        this.stripes = new AtomicReferenceArray<RTree<T, S>>(stripesX * stripesY);
+        for (int i = 0; i < stripes.length(); i++)
+            stripes.set(i, empty);
+    }
+
+    static <T, S extends Geometry> ConcurrentRTree<T, S> create(RTree<T, S> empty,
+            Rectangle bounds, int stripesX, int stripesY) {
+        return new ConcurrentRTree<T, S>(empty, bounds, stripesX, stripesY);
+    }
+
+    /**
+     * Adds the given entry to this tree.
+     *
+     * @param entry
+     *            the entry to add
+     * @return this
+     */
+    public ConcurrentRTree<T, S> add(final Entry<? extends T, ? extends S> entry) {
+        update(stripe(entry.geometry().mbr()), new Func1<RTree<T, S>, RTree<T, S>>() {
+            @Override
+            public RTree<T, S> call(RTree<T, S> tree) {
+                return tree.add(entry);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds an entry comprised of the given value and geometry to this tree.
+     *
+     * @param value
+     *            the value of the entry to add
+     * @param geometry
+     *            the geometry of the entry to add
+     * @return this
+     */
+    public ConcurrentRTree<T, S> add(T value, S geometry) {
+        return add(context.factory().createEntry(value, geometry));
+    }
+
+    /**
+     * Deletes one instance of the given entry if it exists.
+     *
+     * @param entry
+     *            the entry to delete
+     * @return true if an entry was deleted
+     */
+    public boolean delete(final Entry<? extends T, ? extends S> entry) {
+        return update(stripe(entry.geometry().mbr()), new Func1<RTree<T, S>, RTree<T, S>>() {
+            @Override
+            public RTree<T, S> call(RTree<T, S> tree) {
+                return tree.delete(entry);
+            }
+        });
+    }
+
+    /**
+     * Deletes one instance of the entry with the given value and geometry if it
+     * exists.
+     *
+     * @param value
+     *            the value of the entry to delete
+     * @param geometry
+     *            the geometry of the entry to delete
+     * @return true if an entry was deleted
+     */
+    public boolean delete(T value, S geometry) {
+        return delete(context.factory().createEntry(value, geometry));
+    }
+
+    /**
+     * Returns the current tree of each stripe. The trees are immutable and
+     * later changes to this tree are not visible in them.
+     *
+     * @return an immutable snapshot of the stripe trees
+     */
+    public List<RTree<T, S>> snapshot() {
+        List<RTree<T, S>> trees = new ArrayList<RTree<T, S>>(stripes.length());
+        for (int i = 0; i < stripes.length(); i++)
+            trees.add(stripes.get(i));
+        return Collections.unmodifiableList(trees);
+    }
+
+    /**
+     * Returns the entries intersecting the given rectangle from a snapshot of
+     * the stripes of this tree.
+     *
+     * @param r
+     *            rectangle to check intersection with
+     * @return entries intersecting the rectangle
+     */
+    public Observable<Entry<T, S>> search(final Rectangle r) {
+        return Observable.from(snapshot())
+                .concatMap(new Func1<RTree<T, S>, Observable<Entry<T, S>>>() {
+                    @Override
+                    public Observable<Entry<T, S>> call(RTree<T, S> tree) {
+                        return tree.search(r);
+                    }
+                });
+    }
+
+    /**
+     * Returns the entries intersecting the given point from a snapshot of the
+     * stripes of this tree.
+     *
+     * @param p
+     *            point to check intersection with
+     * @return entries intersecting the point
+     */
+    public Observable<Entry<T, S>> search(Point p) {
+        return search(p.mbr());
+    }
+
+    /**
+     * Calls the visitor synchronously with each entry intersecting the given
+     * rectangle in a snapshot of the stripes of this tree.
+     *
+     * @param r
+     *            rectangle to check intersection with
+     * @param visitor
+     *            called with each matching entry
+     */
+    public void search(Rectangle r, Action1<? super Entry<T, S>> visitor) {
+        for (int i = 0; i < stripes.length(); i++)
+            stripes.get(i).search(r, visitor);
+    }
+
+    /**
+     * Returns all entries in a snapshot of the stripes of this tree.
+     *
+     * @return all entries
+     */
+    public Observable<Entry<T, S>> entries() {
+        return Observable.from(snapshot())
+                .concatMap(new Func1<RTree<T, S>, Observable<Entry<T, S>>>() {
+                    @Override
+                    public Observable<Entry<T, S>> call(RTree<T, S> tree) {
+                        return tree.entries();
+                    }
+                });
+    }
+
+    /**
+     * Returns the number of entries in this tree.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stripes.length(); i++)
+            size += stripes.get(i).size();
+        return size;
+    }
+
+    /**
+     * Returns true if and only if this tree has no entries.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Applies the function to the tree of the given stripe and swaps in the
+     * result. Returns false without writing if the function returned its
+     * argument (nothing changed).
+     */
+    private boolean update(int stripe, Func1<RTree<T, S>, RTree<T, S>> f) {
+        while (true) {
+            RTree<T, S> base = stripes.get(stripe);
+            RTree<T, S> updated = f.call(base);
+            if (updated == base)
+                return false;
+            // fails only if another writer changed this stripe, in which case
+            // the path copy is redone on its tree
+            if (stripes.compareAndSet(stripe, base, updated))
+                return true;
+        }
+    }
+
+    private int stripe(Rectangle mbr) {
+        int i = index((mbr.x1() + mbr.x2()) / 2, bounds.x1(), bounds.x2(), stripesX);
+        int j = index((mbr.y1() + mbr.y2()) / 2, bounds.y1(), bounds.y2(), stripesY);
+        return j * stripesX + i;
+    }
+
+    private static int index(double value, double min, double max, int n) {
+        if (n == 1)
+            return 0;
+        // a NaN (zero width bounds) casts to 0
+        int i = (int) ((value - min) / (max - min) * n);
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+}
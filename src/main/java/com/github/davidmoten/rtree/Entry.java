@@ -3,6 +3,25 @@ package com.github.davidmoten.rtree;
 import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.geometry.HasGeometry;
 
+/**
+ * A value with a geometry held by an {@link RTree}.
+ * 
+ * <p>
+ * The entries of this library (those created by
+ * {@link Entries#entry(Object, Geometry)} and those read from serialized
+ * trees, which may deserialize their value lazily) are equal to any
+ * {@link Entry} with an equal value and geometry (with a hash code computed
+ * from the value and geometry only), so an entry found by a search of
+ * a serialized tree can be deleted from any tree and compares equal to the
+ * entry that was added. Custom implementations should follow the same
+ * contract if their entries are mixed with those of this library.
+ * </p>
+ *
+ * @param <T>
+ *            the value type
+ * @param <S>
+ *            the geometry type
+ */
 public interface Entry<T, S extends Geometry> extends HasGeometry {
 
     T value();
@@ -1,7 +1,10 @@
 package com.github.davidmoten.rtree;
 
 import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.internal.FactoryArrays;
 import com.github.davidmoten.rtree.internal.FactoryDefault;
+import com.github.davidmoten.rtree.internal.FactoryPoints;
 
 public final class Factories {
 
@@ -12,4 +15,38 @@ public final class Factories {
     public static <T, S extends Geometry> Factory<T, S> defaultFactory() {
         return FactoryDefault.instance();
     }
+
+    /**
+     * Returns a factory whose leaves store entry coordinates in primitive arrays
+     * (structure of arrays) instead of a list of entry objects. Rectangle
+     * searches scan the arrays and only create {@link Entry} objects for
+     * matches. Entries are recreated on each access, so reading
+     * {@code Leaf.entries()} is more expensive than with the default factory.
+     *
+     * @param <T>
+     *            the value type
+     * @param <S>
+     *            the geometry type
+     * @return factory creating array backed leaves
+     */
+    public static <T, S extends Geometry> Factory<T, S> arraysFactory() {
+        return FactoryArrays.instance();
+    }
+
+    /**
+     * Returns a factory for trees of {@link Point} entries whose leaves store
+     * just the coordinates (as {@code double}s) and values in arrays. Compared
+     * to the default factory this saves a point object and an entry object per
+     * entry, which cuts the heap used by a large tree of points (excluding the
+     * values themselves) to less than half. Points are recreated when accessed
+     * so the {@code search}, {@code nearest} and {@code entries} methods of
+     * {@link RTree} work as usual.
+     *
+     * @param <T>
+     *            the value type
+     * @return factory creating point array leaves
+     */
+    public static <T> Factory<T, Point> pointsFactory() {
+        return FactoryPoints.instance();
+    }
 }
@@ -0,0 +1,25 @@
+package com.github.davidmoten.rtree;
+
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+/**
+ * Search criterion for the synchronous search methods of {@link RTree}. Like
+ * the {@code Func1<Geometry, Boolean>} conditions used by the
+ * {@link rx.Observable} searches, {@code test(g)} being true for an entry
+ * geometry g must imply {@code test(r)} is true for the minimum bounding
+ * rectangles of the ancestor nodes of the entry. The result is a primitive
+ * {@code boolean} so no boxing occurs per node or entry.
+ */
+public interface GeometryPredicate {
+
+    /**
+     * Returns true if and only if the geometry (an entry geometry or the
+     * minimum bounding rectangle of a node) matches.
+     * 
+     * @param geometry
+     *            geometry to test
+     * @return true if the geometry matches
+     */
+    boolean test(Geometry geometry);
+
+}
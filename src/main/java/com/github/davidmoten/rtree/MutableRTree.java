@@ -0,0 +1,391 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Group;
+import com.github.davidmoten.rtree.geometry.HasGeometry;
+import com.github.davidmoten.rtree.geometry.ListPair;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.LeafMutable;
+import com.github.davidmoten.rtree.internal.NonLeafMutable;
+import com.github.davidmoten.rtree.internal.Util;
+
+/**
+ * <p>
+ * Mutable 2D R-Tree for write-heavy workloads. Unlike {@link RTree} an insert
+ * or delete updates the leaf and the ancestor minimum bounding rectangles in
+ * place rather than copying the path from the root, so an insert allocates
+ * little more than the entry itself. The same {@link Selector} and
+ * {@link Splitter} configured for an {@link RTree} are used.
+ * </p>
+ *
+ * <p>
+ * {@link #snapshot()} returns an immutable {@link RTree} in O(1) time. The
+ * nodes at the time of the snapshot are shared with the returned tree and are
+ * never modified again: the first subsequent write to a node copies it
+ * (copy-on-write), so readers of snapshots are unaffected by later writes.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe. A snapshot is immutable and safe to share
+ * with other threads once safely published (for example via a volatile field
+ * or an {@code AtomicReference}).
+ * </p>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+public final class MutableRTree<T, S extends Geometry> {
+
+    private final Context<T, S> context;
+    private Node<T, S> root;
+    private int size;
+
+    /**
+     * Nodes created or copied by this tree since the last snapshot carry this
+     * token and may be modified in place. A new token is assigned on each
+     * snapshot.
+     */
+    private Object owner = new Object();
+
+    private MutableRTree(Node<T, S> root, int size, Context<T, S> context) {
+        this.root = root;
+        this.size = size;
+        this.context = context;
+    }
+
+    static <T, S extends Geometry> MutableRTree<T, S> create(Context<T, S> context) {
+        return new MutableRTree<T, S>(null, 0, context);
+    }
+
+    /**
+     * Returns a mutable tree with the entries of the given tree. This is an O(1)
+     * operation because the nodes of {@code tree} are shared and only copied
+     * when first written to.
+     *
+     * @param tree
+     *            the tree to start from
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return a mutable tree with the same entries and configuration as tree
+     */
+    public static <T, S extends Geometry> MutableRTree<T, S> from(RTree<T, S> tree) {
+        Node<T, S> root = tree.root().isPresent() ? tree.root().get() : null;
+        return new MutableRTree<T, S>(root, tree.size(), tree.context());
+    }
+
+    /**
+     * Returns an immutable {@link RTree} with the current entries of this tree in
+     * O(1) time. Later changes to this tree are not visible in the returned
+     * tree.
+     *
+     * @return an immutable snapshot of this tree
+     */
+    public RTree<T, S> snapshot() {
+        // freeze the current nodes
+        owner = new Object();
+        return RTree.create(Optional.fromNullable(root), size, context);
+    }
+
+    /**
+     * Adds the given entry to this tree.
+     *
+     * @param entry
+     *            item to add to the R-tree
+     * @return this
+     */
+    @SuppressWarnings("unchecked")
+    public MutableRTree<T, S> add(Entry<? extends T, ? extends S> entry) {
+        Entry<T, S> ent = (Entry<T, S>) entry;
+        if (root == null) {
+            List<Entry<T, S>> entries = new ArrayList<Entry<T, S>>(context.maxChildren() + 1);
+            entries.add(ent);
+            root = new LeafMutable<T, S>(entries, Util.mbr(entries), context, owner);
+        } else {
+            Node<T, S> node = editable(root);
+            Node<T, S> sibling = insert(node, ent);
+            if (sibling == null) {
+                root = node;
+            } else {
+                List<Node<T, S>> children = new ArrayList<Node<T, S>>(context.maxChildren() + 1);
+                children.add(node);
+                children.add(sibling);
+                root = new NonLeafMutable<T, S>(children, Util.mbr(children), context, owner);
+            }
+        }
+        size++;
+        return this;
+    }
+
+    /**
+     * Adds an entry comprised of the given value and geometry to this tree.
+     *
+     * @param value
+     *            the value of the {@link Entry} to be added
+     * @param geometry
+     *            the geometry of the {@link Entry} to be added
+     * @return this
+     */
+    public MutableRTree<T, S> add(T value, S geometry) {
+        return add(context.factory().createEntry(value, geometry));
+    }
+
+    /**
+     * Adds the given entries to this tree.
+     *
+     * @param entries
+     *            entries to add
+     * @return this
+     */
+    public MutableRTree<T, S> add(Iterable<Entry<T, S>> entries) {
+        for (Entry<T, S> entry : entries)
+            add(entry);
+        return this;
+    }
+
+    /**
+     * Deletes one or all matching entries depending on the value of
+     * <code>all</code>. The entry must match on both value and geometry to be
+     * deleted.
+     *
+     * @param entry
+     *            the {@link Entry} to be deleted
+     * @param all
+     *            if true deletes all matches otherwise deletes first found
+     * @return the number of entries deleted
+     */
+    public int delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        if (root == null)
+            return 0;
+        List<Entry<T, S>> orphans = new ArrayList<Entry<T, S>>();
+        int[] deleted = new int[1];
+        Node<T, S> node = delete(root, entry, all, orphans, deleted);
+        if (deleted[0] == 0)
+            return 0;
+        root = node;
+        // collapse the root while it has a single non-leaf child
+        while (root instanceof NonLeaf && ((NonLeaf<T, S>) root).count() == 1)
+            root = ((NonLeaf<T, S>) root).child(0);
+        size -= deleted[0] + orphans.size();
+        add(orphans);
+        return deleted[0];
+    }
+
+    /**
+     * Deletes maximum one entry matching the given entry.
+     *
+     * @param entry
+     *            the {@link Entry} to be deleted
+     * @return true if an entry was deleted
+     */
+    public boolean delete(Entry<? extends T, ? extends S> entry) {
+        return delete(entry, false) > 0;
+    }
+
+    /**
+     * Deletes maximum one entry matching the given value and geometry.
+     *
+     * @param value
+     *            the value to be matched for deletion
+     * @param geometry
+     *            the geometry to be matched for deletion
+     * @return true if an entry was deleted
+     */
+    public boolean delete(T value, S geometry) {
+        return delete(context.factory().createEntry(value, geometry));
+    }
+
+    /**
+     * Returns the number of entries in this tree.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if and only if this tree has no entries.
+     *
+     * @return is tree empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the minimum bounding rectangle of all entries in the tree or
+     * {@link Optional#absent()} if the tree is empty.
+     *
+     * @return minimum bounding rectangle of all entries
+     */
+    public Optional<Rectangle> mbr() {
+        if (root == null)
+            return Optional.absent();
+        else
+            return Optional.of(root.geometry().mbr());
+    }
+
+    /**
+     * Returns the configuration of the tree.
+     *
+     * @return the configuration of the tree
+     */
+    public Context<T, S> context() {
+        return context;
+    }
+
+    /**
+     * Inserts the entry into the subtree below the given editable node.
+     *
+     * @return the new sibling of node if node was split otherwise null
+     */
+    private Node<T, S> insert(Node<T, S> node, Entry<T, S> entry) {
+        Rectangle r = entry.geometry().mbr();
+        if (node instanceof LeafMutable) {
+            LeafMutable<T, S> leaf = (LeafMutable<T, S>) node;
+            List<Entry<T, S>> entries = leaf.entries();
+            entries.add(entry);
+            if (entries.size() <= context.maxChildren()) {
+                leaf.setMbr(leaf.geometry().mbr().add(r));
+                return null;
+            } else {
+                ListPair<Entry<T, S>> pair = context.splitter().split(entries,
+                        context.minChildren());
+                replaceContents(entries, pair.group1().list());
+                leaf.setMbr(pair.group1().geometry().mbr());
+                return new LeafMutable<T, S>(copy(pair.group2()),
+                        pair.group2().geometry().mbr(), context, owner);
+            }
+        } else {
+            NonLeafMutable<T, S> nonLeaf = (NonLeafMutable<T, S>) node;
+            List<Node<T, S>> children = nonLeaf.children();
+            Node<T, S> child = context.selector().select(r, children);
+            Node<T, S> editableChild = editable(child);
+            if (editableChild != child)
+                children.set(children.indexOf(child), editableChild);
+            Node<T, S> sibling = insert(editableChild, entry);
+            if (sibling != null)
+                children.add(sibling);
+            if (children.size() <= context.maxChildren()) {
+                nonLeaf.setMbr(nonLeaf.geometry().mbr().add(r));
+                nonLeaf.updateSize();
+                return null;
+            } else {
+                ListPair<Node<T, S>> pair = context.splitter().split(children,
+                        context.minChildren());
+                replaceContents(children, pair.group1().list());
+                nonLeaf.setMbr(pair.group1().geometry().mbr());
+                nonLeaf.updateSize();
+                return new NonLeafMutable<T, S>(copy(pair.group2()),
+                        pair.group2().geometry().mbr(), context, owner);
+            }
+        }
+    }
+
+    /**
+     * Deletes from the subtree below node. Mirrors the rebalancing of the
+     * immutable delete: a leaf that drops below minChildren is removed and its
+     * remaining entries are added to orphans for reinsertion, a non-leaf is
+     * removed only when it has no children left.
+     *
+     * @return node if nothing was deleted, otherwise the editable replacement
+     *         for node or null if node was removed
+     */
+    private Node<T, S> delete(Node<T, S> node, Entry<? extends T, ? extends S> entry, boolean all,
+            List<Entry<T, S>> orphans, int[] deleted) {
+        if (node instanceof Leaf) {
+            Leaf<T, S> leaf = (Leaf<T, S>) node;
+            if (!leaf.entries().contains(entry))
+                return node;
+            LeafMutable<T, S> ed = (LeafMutable<T, S>) editable(leaf);
+            List<Entry<T, S>> entries = ed.entries();
+            entries.remove(entry);
+            int count = 1;
+            while (all && entries.remove(entry))
+                count++;
+            deleted[0] += count;
+            if (entries.size() >= context.minChildren()) {
+                ed.setMbr(Util.mbr(entries));
+                return ed;
+            } else {
+                orphans.addAll(entries);
+                return null;
+            }
+        } else {
+            NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+            NonLeafMutable<T, S> ed = null;
+            int i = 0;
+            while (i < nonLeaf.count()) {
+                Node<T, S> child = (ed == null ? nonLeaf : ed).child(i);
+                if (entry.geometry().intersects(child.geometry().mbr())) {
+                    int before = deleted[0];
+                    Node<T, S> result = delete(child, entry, all, orphans, deleted);
+                    if (deleted[0] > before) {
+                        if (ed == null)
+                            ed = (NonLeafMutable<T, S>) editable(nonLeaf);
+                        if (result == null) {
+                            ed.children().remove(i);
+                            i--;
+                        } else
+                            ed.children().set(i, result);
+                        if (!all)
+                            break;
+                    }
+                }
+                i++;
+            }
+            if (ed == null)
+                return node;
+            else if (ed.children().isEmpty())
+                return null;
+            else {
+                ed.setMbr(Util.mbr(ed.children()));
+                ed.updateSize();
+                return ed;
+            }
+        }
+    }
+
+    /**
+     * Returns node if it may be modified in place otherwise returns a copy of
+     * node owned by the current generation.
+     */
+    private Node<T, S> editable(Node<T, S> node) {
+        if (node instanceof LeafMutable && ((LeafMutable<T, S>) node).owner() == owner)
+            return node;
+        else if (node instanceof NonLeafMutable
+                && ((NonLeafMutable<T, S>) node).owner() == owner)
+            return node;
+        else if (node instanceof Leaf) {
+            List<Entry<T, S>> entries = new ArrayList<Entry<T, S>>(context.maxChildren() + 1);
+            entries.addAll(((Leaf<T, S>) node).entries());
+            return new LeafMutable<T, S>(entries, node.geometry().mbr(), context, owner);
+        } else {
+            List<Node<T, S>> children = new ArrayList<Node<T, S>>(context.maxChildren() + 1);
+            children.addAll(((NonLeaf<T, S>) node).children());
+            return new NonLeafMutable<T, S>(children, node.geometry().mbr(), context, owner);
+        }
+    }
+
+    private static <E> void replaceContents(List<E> list, List<E> contents) {
+        // contents may be a view of list so copy first
+        List<E> copy = new ArrayList<E>(contents);
+        list.clear();
+        list.addAll(copy);
+    }
+
+    private <E extends HasGeometry> List<E> copy(Group<E> group) {
+        List<E> list = new ArrayList<E>(context.maxChildren() + 1);
+        list.addAll(group.list());
+        return list;
+    }
+
+}
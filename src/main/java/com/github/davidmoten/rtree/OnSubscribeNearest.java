@@ -0,0 +1,181 @@
+package com.github.davidmoten.rtree;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.util.PriorityQueue;
+
+import rx.Observable.OnSubscribe;
+import rx.Producer;
+import rx.Subscriber;
+
+/**
+ * Best-first (Hjaltason and Samet) k-nearest-neighbour search. Nodes and
+ * entries are held in a priority queue ordered by distance to the query
+ * rectangle. Because the distance to a node's minimum bounding rectangle is a
+ * lower bound for the distance to anything inside that node an entry at the
+ * head of the queue is guaranteed to be the next nearest, so entries are
+ * emitted in ascending distance as they are confirmed and only the nodes
+ * needed to confirm them are visited.
+ *
+ * @param <T>
+ *            value type
+ * @param <S>
+ *            geometry type
+ */
+final class OnSubscribeNearest<T, S extends Geometry> implements OnSubscribe<Entry<T, S>> {
+
+    private final Node<T, S> node;
+    private final Rectangle r;
+    private final double maxDistance;
+    private final int maxCount;
+
+    OnSubscribeNearest(Node<T, S> node, Rectangle r, double maxDistance, int maxCount) {
+        this.node = node;
+        this.r = r;
+        this.maxDistance = maxDistance;
+        this.maxCount = maxCount;
+    }
+
+    @Override
+    public void call(Subscriber<? super Entry<T, S>> subscriber) {
+        subscriber.setProducer(
+                new NearestProducer<T, S>(node, r, maxDistance, maxCount, subscriber));
+    }
+
+    static final class NearestProducer<T, S extends Geometry> implements Producer {
+
+        private final Subscriber<? super Entry<T, S>> subscriber;
+        private final Rectangle r;
+        private final double maxDistance;
+        private final AtomicLong requested = new AtomicLong(0);
+
+        // only accessed by the thread that wins the drain (requested moves away
+        // from zero) so no further synchronization is required
+        private final PriorityQueue<Candidate> queue;
+        private long sequence;
+        private int remaining;
+
+        NearestProducer(Node<T, S> node, Rectangle r, double maxDistance, int maxCount,
+                Subscriber<? super Entry<T, S>> subscriber) {
+            this.r = r;
+            this.maxDistance = maxDistance;
+            this.subscriber = subscriber;
+            this.remaining = maxCount;
+            this.queue = new PriorityQueue<Candidate>(CANDIDATE_COMPARATOR);
+            if (maxCount > 0)
+                offer(node, node.geometry());
+        }
+
+        @Override
+        public void request(long n) {
+            try {
+                if (n <= 0)
+                    return;
+                else if (OnSubscribeSearch.getAndAddRequest(requested, n) == 0)
+                    drain();
+            } catch (RuntimeException e) {
+                subscriber.onError(e);
+            }
+        }
+
+        private void drain() {
+            long n = requested.get();
+            while (true) {
+                long emitted = 0;
+                while (emitted != n) {
+                    if (subscriber.isUnsubscribed())
+                        return;
+                    Entry<T, S> entry = next();
+                    if (entry == null) {
+                        complete();
+                        return;
+                    }
+                    subscriber.onNext(entry);
+                    emitted++;
+                    if (--remaining == 0) {
+                        // don't wait for another request to complete
+                        complete();
+                        return;
+                    }
+                }
+                n = requested.addAndGet(-emitted);
+                if (n == 0)
+                    return;
+            }
+        }
+
+        private void complete() {
+            // release the queue for gc
+            queue.clear();
+            if (!subscriber.isUnsubscribed())
+                subscriber.onCompleted();
+        }
+
+        /**
+         * Expands nodes from the head of the queue until an entry reaches the
+         * head.
+         *
+         * @return the next nearest entry or null if there are none left within
+         *         maxDistance
+         */
+        @SuppressWarnings("unchecked")
+        private Entry<T, S> next() {
+            Candidate c;
+            while ((c = queue.poll()) != null) {
+                if (c.item instanceof Entry) {
+                    return (Entry<T, S>) c.item;
+                } else if (c.item instanceof Leaf) {
+                    Leaf<T, S> leaf = (Leaf<T, S>) c.item;
+                    int count = leaf.count();
+                    for (int i = 0; i < count; i++) {
+                        Entry<T, S> entry = leaf.entry(i);
+                        offer(entry, entry.geometry());
+                    }
+                } else {
+                    NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) c.item;
+                    int count = nonLeaf.count();
+                    for (int i = 0; i < count; i++) {
+                        Node<T, S> child = nonLeaf.child(i);
+                        offer(child, child.geometry());
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void offer(Object item, Geometry g) {
+            double distance = g.distance(r);
+            if (distance < maxDistance)
+                queue.add(new Candidate(item, distance, sequence++));
+        }
+
+    }
+
+    private static final class Candidate {
+        final Object item;
+        final double distance;
+        // breaks ties in discovery order so results are deterministic
+        final long sequence;
+
+        Candidate(Object item, double distance, long sequence) {
+            this.item = item;
+            this.distance = distance;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Candidate> CANDIDATE_COMPARATOR = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            int value = Double.compare(a.distance, b.distance);
+            if (value == 0)
+                return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            else
+                return value;
+        }
+    };
+
+}
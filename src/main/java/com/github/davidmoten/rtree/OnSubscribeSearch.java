@@ -111,7 +111,7 @@ final class OnSubscribeSearch<T, S extends Geometry> implements OnSubscribe<Entr
      *            the number of requests to add to the requested count
      * @return requested value just prior to successful addition
      */
-    private static long getAndAddRequest(AtomicLong requested, long n) {
+    static long getAndAddRequest(AtomicLong requested, long n) {
         // add n to field but check for overflow
         while (true) {
             long current = requested.get();
@@ -0,0 +1,25 @@
+package com.github.davidmoten.rtree;
+
+/**
+ * The method used to group entries into nodes when bulk loading an
+ * {@link RTree} via {@link RTree.Builder#create(java.util.List)}.
+ */
+public enum Packing {
+
+    /**
+     * Sort-Tile-Recursive: entries are sorted by x into vertical slices and
+     * each slice is sorted by y before being cut into nodes. STR: a simple and
+     * efficient algorithm for R-tree packing
+     * http://ieeexplore.ieee.org/abstract/document/582015/
+     */
+    STR,
+
+    /**
+     * Entries are sorted by the Hilbert curve index of their centre and cut
+     * into nodes in curve order. Because the curve preserves locality this
+     * tends to give tighter nodes than STR for clustered or skewed data. On
+     * Packing R-trees, Kamel and Faloutsos (1993).
+     */
+    HILBERT;
+
+}
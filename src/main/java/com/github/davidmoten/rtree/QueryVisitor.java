@@ -0,0 +1,28 @@
+package com.github.davidmoten.rtree;
+
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+/**
+ * Receives the results of a batch search (see
+ * {@link RTree#searchAll(java.util.List, QueryVisitor)}) tagged with the index
+ * of the query that matched.
+ *
+ * @param <T>
+ *            the value type
+ * @param <S>
+ *            the geometry type
+ */
+public interface QueryVisitor<T, S extends Geometry> {
+
+    /**
+     * Called for each entry matching a query. An entry matching several queries
+     * is reported once for each of them.
+     * 
+     * @param query
+     *            index of the query in the list of queries
+     * @param entry
+     *            matching entry
+     */
+    void visit(int query, Entry<T, S> entry);
+
+}
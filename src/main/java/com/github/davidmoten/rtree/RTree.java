@@ -5,9 +5,15 @@ import static com.github.davidmoten.guavamini.Optional.of;
 import static com.github.davidmoten.rtree.geometry.Geometries.rectangle;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.github.davidmoten.guavamini.Lists;
 import com.github.davidmoten.guavamini.Optional;
@@ -19,11 +25,21 @@ import com.github.davidmoten.rtree.geometry.Intersects;
 import com.github.davidmoten.rtree.geometry.Line;
 import com.github.davidmoten.rtree.geometry.Point;
 import com.github.davidmoten.rtree.geometry.Rectangle;
-import com.github.davidmoten.rtree.internal.Comparators;
+import com.github.davidmoten.rtree.internal.IntersectsRectangle;
+import com.github.davidmoten.rtree.internal.Join;
+import com.github.davidmoten.rtree.internal.LeafHelper;
+import com.github.davidmoten.rtree.internal.LeafTombstoned;
 import com.github.davidmoten.rtree.internal.NodeAndEntries;
-import com.github.davidmoten.rtree.internal.operators.OperatorBoundedPriorityQueue;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
+import com.github.davidmoten.rtree.internal.SearchIterator;
+import com.github.davidmoten.rtree.internal.Util;
+import com.github.davidmoten.rtree.internal.util.HilbertCurve;
+import com.github.davidmoten.rtree.internal.util.KeySort;
 
 import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action1;
+import rx.functions.Action2;
 import rx.functions.Func1;
 import rx.functions.Func2;
 
@@ -217,12 +233,18 @@ public final class RTree<T, S extends Geometry> {
          */
         private static final double DEFAULT_FILLING_FACTOR = 0.4;
         private static final double DEFAULT_LOADING_FACTOR = 0.7;
+        /**
+         * Bulk loading levels with fewer objects than this are packed on the
+         * calling thread even when an executor is supplied.
+         */
+        private static final int PARALLEL_THRESHOLD = 8192;
         private Optional<Integer> maxChildren = absent();
         private Optional<Integer> minChildren = absent();
         private Splitter splitter = new SplitterQuadratic();
         private Selector selector = new SelectorMinimalAreaIncrease();
         private double loadingFactor;
         private boolean star = false;
+        private Packing packing = Packing.STR;
         private Factory<Object, Geometry> factory = Factories.defaultFactory();
 
         private Builder() {
@@ -241,6 +263,19 @@ public final class RTree<T, S extends Geometry> {
             return this;
         }
 
+        /**
+         * Sets the method used to group entries into nodes when bulk loading.
+         * Defaults to {@link Packing#STR}.
+         * 
+         * @param packing
+         *            bulk loading method
+         * @return this
+         */
+        public Builder packing(Packing packing) {
+            this.packing = packing;
+            return this;
+        }
+
         /**
          * When the number of children in an R-tree node drops below this number the
          * node is deleted and the children are added on to the R-tree again.
@@ -333,13 +368,51 @@ public final class RTree<T, S extends Geometry> {
         }
 
         /**
-         * Create an RTree by bulk loading, using the STR method. STR: a simple and
-         * efficient algorithm for R-tree packing
-         * http://ieeexplore.ieee.org/abstract/document/582015/
-         * <p>
-         * Note: this method mutates the input entries, the internal order of the List
-         * may be changed.
-         * </p>
+         * Builds a {@link MutableRTree} with this configuration. Note that the
+         * nodes of a {@link MutableRTree} are not created by the configured
+         * factory, only its entries are.
+         * 
+         * @param <T>
+         *            value type
+         * @param <S>
+         *            geometry type
+         * @return MutableRTree
+         */
+        @SuppressWarnings("unchecked")
+        public <T, S extends Geometry> MutableRTree<T, S> createMutable() {
+            setDefaultCapacity();
+
+            return MutableRTree.create(new Context<T, S>(minChildren.get(), maxChildren.get(),
+                    selector, splitter, (Factory<T, S>) factory));
+        }
+
+        /**
+         * Builds a thread-safe {@link ConcurrentRTree} with this configuration that
+         * partitions the given bounds into a grid of stripesX x stripesY stripes,
+         * each with its own tree. Entries outside the bounds are still accepted
+         * and go to the nearest edge stripe.
+         *
+         * @param bounds
+         *            region the entries are expected to lie in
+         * @param stripesX
+         *            number of stripes in the x direction
+         * @param stripesY
+         *            number of stripes in the y direction
+         * @param <T>
+         *            value type
+         * @param <S>
+         *            geometry type
+         * @return ConcurrentRTree
+         */
+        public <T, S extends Geometry> ConcurrentRTree<T, S> createConcurrent(Rectangle bounds,
+                int stripesX, int stripesY) {
+            return ConcurrentRTree.create(this.<T, S> create(), bounds, stripesX, stripesY);
+        }
+
+        /**
+         * Create an RTree by bulk loading, using the configured {@link Packing}
+         * method (STR by default). STR: a simple and efficient algorithm for
+         * R-tree packing http://ieeexplore.ieee.org/abstract/document/582015/
          * 
          * @param entries
          *            entries to be added to the r-tree
@@ -351,7 +424,32 @@ public final class RTree<T, S extends Geometry> {
 
             Context<T, S> context = new Context<T, S>(minChildren.get(), maxChildren.get(),
                     selector, splitter, (Factory<T, S>) factory);
-            return packingSTR(entries, true, entries.size(), context);
+            return pack(entries, true, entries.size(), context,
+                    Optional.<ExecutorService> absent());
+        }
+
+        /**
+         * Create an RTree by bulk loading, using the configured {@link Packing}
+         * method, with the sorting and packing performed concurrently on the
+         * given executor. The resulting tree is identical to the one returned
+         * by {@link #create(List)}. Small levels (typically the upper levels of
+         * the tree) are packed on the calling thread.
+         * 
+         * @param entries
+         *            entries to be added to the r-tree
+         * @param executor
+         *            executor used for sorting and packing, is not shut down by
+         *            this method
+         * @return a loaded RTree
+         */
+        @SuppressWarnings("unchecked")
+        public <T, S extends Geometry> RTree<T, S> create(List<Entry<T, S>> entries,
+                ExecutorService executor) {
+            setDefaultCapacity();
+
+            Context<T, S> context = new Context<T, S>(minChildren.get(), maxChildren.get(),
+                    selector, splitter, (Factory<T, S>) factory);
+            return pack(entries, true, entries.size(), context, Optional.of(executor));
         }
 
         private void setDefaultCapacity() {
@@ -364,9 +462,15 @@ public final class RTree<T, S extends Geometry> {
                 minChildren = of((int) Math.round(maxChildren.get() * DEFAULT_FILLING_FACTOR));
         }
 
+        /**
+         * Packs objects (entries if isLeaf otherwise nodes) into the nodes of the
+         * next level up using the configured {@link Packing} and recurses until
+         * a single root remains.
+         */
         @SuppressWarnings("unchecked")
-        private <T, S extends Geometry> RTree<T, S> packingSTR(List<? extends HasGeometry> objects,
-                boolean isLeaf, int size, Context<T, S> context) {
+        private <T, S extends Geometry> RTree<T, S> pack(List<? extends HasGeometry> objects,
+                boolean isLeaf, int size, Context<T, S> context,
+                Optional<ExecutorService> executor) {
             int capacity = (int) Math.round(maxChildren.get() * loadingFactor);
             int nodeCount = (int) Math.ceil(1.0 * objects.size() / capacity);
 
@@ -381,56 +485,164 @@ public final class RTree<T, S extends Geometry> {
                 }
                 return new RTree<T, S>(of(root), size, context);
             }
+            List<Node<T, S>> nodes;
+            if (packing == Packing.HILBERT)
+                nodes = packingHilbert(objects, isLeaf, capacity, context, executor);
+            else
+                nodes = packingSTR(objects, isLeaf, capacity, nodeCount, context, executor);
+            return pack(nodes, false, size, context, executor);
+        }
 
+        private static <T, S extends Geometry> List<Node<T, S>> packingSTR(
+                List<? extends HasGeometry> objects, boolean isLeaf, int capacity, int nodeCount,
+                Context<T, S> context, Optional<ExecutorService> executor) {
             int nodePerSlice = (int) Math.ceil(Math.sqrt(nodeCount));
             int sliceCapacity = nodePerSlice * capacity;
             int sliceCount = (int) Math.ceil(1.0 * objects.size() / sliceCapacity);
-            Collections.sort(objects, new MidComparator((short) 0));
+            boolean parallel = executor.isPresent() && objects.size() >= PARALLEL_THRESHOLD;
+
+            // the centre of each object is extracted once as a primitive sort
+            // key rather than calling mbr() on every comparison
+            final Object[] items = objects.toArray();
+            int n = items.length;
+            long[] xKeys = new long[n];
+            final long[] yKeys = new long[n];
+            final int[] index = new int[n];
+            for (int i = 0; i < n; i++) {
+                Rectangle mbr = ((HasGeometry) items[i]).geometry().mbr();
+                xKeys[i] = KeySort.key((mbr.x1() + mbr.x2()) / 2);
+                yKeys[i] = KeySort.key((mbr.y1() + mbr.y2()) / 2);
+                index[i] = i;
+            }
+            if (parallel)
+                KeySort.sort(xKeys, index, executor.get(),
+                        Runtime.getRuntime().availableProcessors());
+            else
+                KeySort.sort(xKeys, index, 0, n);
+            // arrange the y keys in x order so that each slice is a contiguous
+            // range to be sorted by y
+            final long[] sliceKeys = xKeys;
+            for (int i = 0; i < n; i++)
+                sliceKeys[i] = yKeys[index[i]];
 
             List<Node<T, S>> nodes = new ArrayList<Node<T, S>>(nodeCount);
-            for (int s = 0; s < sliceCount; s++) {
-                @SuppressWarnings("rawtypes")
-                List slice = objects.subList(s * sliceCapacity,
-                        Math.min((s + 1) * sliceCapacity, objects.size()));
-                Collections.sort(slice, new MidComparator((short) 1));
-
-                for (int i = 0; i < slice.size(); i += capacity) {
-                    if (isLeaf) {
-                        List<Entry<T, S>> entries = slice.subList(i,
-                                Math.min(slice.size(), i + capacity));
-                        Node<T, S> leaf = context.factory().createLeaf(entries, context);
-                        nodes.add(leaf);
-                    } else {
-                        List<Node<T, S>> children = slice.subList(i,
-                                Math.min(slice.size(), i + capacity));
-                        Node<T, S> nonleaf = context.factory().createNonLeaf(children, context);
-                        nodes.add(nonleaf);
-                    }
+            if (parallel) {
+                List<Future<List<Node<T, S>>>> futures = new ArrayList<Future<List<Node<T, S>>>>(
+                        sliceCount);
+                for (int s = 0; s < sliceCount; s++) {
+                    futures.add(executor.get().submit(packSliceTask(items, sliceKeys, index,
+                            s * sliceCapacity, Math.min((s + 1) * sliceCapacity, n), isLeaf,
+                            capacity, context)));
+                }
+                // slices are assembled in order so the result is identical to
+                // the sequential packing
+                for (List<Node<T, S>> list : Util.getAll(futures))
+                    nodes.addAll(list);
+            } else {
+                for (int s = 0; s < sliceCount; s++) {
+                    nodes.addAll(packSlice(items, sliceKeys, index, s * sliceCapacity,
+                            Math.min((s + 1) * sliceCapacity, n), isLeaf, capacity, context));
                 }
             }
-            return packingSTR(nodes, false, size, context);
+            return nodes;
         }
 
-        private static final class MidComparator implements Comparator<HasGeometry> {
-            private final short dimension; // leave space for multiple dimensions, 0 for x, 1 for y,
-                                           // ...
-
-            public MidComparator(short dim) {
-                dimension = dim;
+        @SuppressWarnings("unchecked")
+        private static <T, S extends Geometry> List<Node<T, S>> packingHilbert(
+                List<? extends HasGeometry> objects, boolean isLeaf, int capacity,
+                Context<T, S> context, Optional<ExecutorService> executor) {
+            Object[] items = objects.toArray();
+            int n = items.length;
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            double minX = Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            double maxY = -Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                Rectangle mbr = ((HasGeometry) items[i]).geometry().mbr();
+                double x = (mbr.x1() + mbr.x2()) / 2;
+                double y = (mbr.y1() + mbr.y2()) / 2;
+                xs[i] = x;
+                ys[i] = y;
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+            // map the centres on to a grid covering their bounds
+            double cells = (1L << HilbertCurve.MAX_ORDER) - 1;
+            double scaleX = maxX > minX ? cells / (maxX - minX) : 0;
+            double scaleY = maxY > minY ? cells / (maxY - minY) : 0;
+            long[] keys = new long[n];
+            int[] index = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = HilbertCurve.index(HilbertCurve.MAX_ORDER,
+                        (long) ((xs[i] - minX) * scaleX), (long) ((ys[i] - minY) * scaleY));
+                index[i] = i;
             }
+            if (executor.isPresent() && n >= PARALLEL_THRESHOLD)
+                KeySort.sort(keys, index, executor.get(),
+                        Runtime.getRuntime().availableProcessors());
+            else
+                KeySort.sort(keys, index, 0, n);
 
-            @Override
-            public int compare(HasGeometry o1, HasGeometry o2) {
-                return Double.compare(mid(o1), mid(o2));
+            List<Node<T, S>> nodes = new ArrayList<Node<T, S>>((n + capacity - 1) / capacity);
+            for (int i = 0; i < n; i += capacity) {
+                int end = Math.min(n, i + capacity);
+                if (isLeaf) {
+                    List<Entry<T, S>> entries = new ArrayList<Entry<T, S>>(end - i);
+                    for (int j = i; j < end; j++)
+                        entries.add((Entry<T, S>) items[index[j]]);
+                    nodes.add(context.factory().createLeaf(entries, context));
+                } else {
+                    List<Node<T, S>> children = new ArrayList<Node<T, S>>(end - i);
+                    for (int j = i; j < end; j++)
+                        children.add((Node<T, S>) items[index[j]]);
+                    nodes.add(context.factory().createNonLeaf(children, context));
+                }
             }
+            return nodes;
+        }
 
-            private double mid(HasGeometry o) {
-                Rectangle mbr = o.geometry().mbr();
-                if (dimension == 0)
-                    return (mbr.x1() + mbr.x2()) / 2;
-                else
-                    return (mbr.y1() + mbr.y2()) / 2;
+        private static <T, S extends Geometry> Callable<List<Node<T, S>>> packSliceTask(
+                final Object[] items, final long[] keys, final int[] index, final int from,
+                final int to, final boolean isLeaf, final int capacity,
+                final Context<T, S> context) {
+            return new Callable<List<Node<T, S>>>() {
+                @Override
+                public List<Node<T, S>> call() {
+                    return packSlice(items, keys, index, from, to, isLeaf, capacity, context);
+                }
+            };
+        }
+
+        /**
+         * Sorts the slice [from, to) by y key and packs it into nodes of
+         * capacity items.
+         */
+        @SuppressWarnings("unchecked")
+        private static <T, S extends Geometry> List<Node<T, S>> packSlice(Object[] items,
+                long[] keys, int[] index, int from, int to, boolean isLeaf, int capacity,
+                Context<T, S> context) {
+            KeySort.sort(keys, index, from, to);
+            List<Node<T, S>> nodes = new ArrayList<Node<T, S>>(
+                    (to - from + capacity - 1) / capacity);
+            for (int i = from; i < to; i += capacity) {
+                int end = Math.min(to, i + capacity);
+                if (isLeaf) {
+                    List<Entry<T, S>> entries = new ArrayList<Entry<T, S>>(end - i);
+                    for (int j = i; j < end; j++)
+                        entries.add((Entry<T, S>) items[index[j]]);
+                    nodes.add(context.factory().createLeaf(entries, context));
+                } else {
+                    List<Node<T, S>> children = new ArrayList<Node<T, S>>(end - i);
+                    for (int j = i; j < end; j++)
+                        children.add((Node<T, S>) items[index[j]]);
+                    nodes.add(context.factory().createNonLeaf(children, context));
+                }
             }
+            return nodes;
         }
 
     }
@@ -489,6 +701,180 @@ public final class RTree<T, S extends Geometry> {
         return tree;
     }
 
+    /**
+     * Returns an immutable RTree with the given entries deleted and then the
+     * given entries added, applied as a single batch. Each node on the paths
+     * touched by the batch is copied at most once (rather than once per entry
+     * as with {@link #add(Iterable)} and {@link #delete(Iterable)}). When the
+     * number of entries added is at least the current size of the tree the
+     * whole tree is instead rebuilt by STR bulk loading, which is both faster
+     * and gives a better structure than that many inserts.
+     * 
+     * <p>
+     * Only one instance of each entry in {@code deletes} is deleted (an entry
+     * that appears twice deletes two instances). The nodes of the returned tree
+     * that were modified by the batch are not created by the configured
+     * factory (see {@link MutableRTree}).
+     * 
+     * @param deletes
+     *            entries to delete
+     * @param adds
+     *            entries to add after the deletes
+     * @return R-tree with the entries deleted and added
+     */
+    public RTree<T, S> update(Iterable<? extends Entry<? extends T, ? extends S>> deletes,
+            Iterable<? extends Entry<? extends T, ? extends S>> adds) {
+        // adds is sized then iterated so may not be a one-shot iterable
+        Collection<? extends Entry<? extends T, ? extends S>> addList = Util.toCollection(adds);
+        int numAdds = addList.size();
+        if (numAdds > 0 && numAdds >= size)
+            return rebuild(deletes, addList);
+        MutableRTree<T, S> tree = MutableRTree.from(this);
+        for (Entry<? extends T, ? extends S> entry : deletes)
+            tree.delete(entry);
+        for (Entry<? extends T, ? extends S> entry : addList)
+            tree.add(entry);
+        if (tree.size() == size && numAdds == 0)
+            // nothing was deleted
+            return this;
+        return tree.snapshot();
+    }
+
+    /**
+     * Returns the Observable sequence of trees created by adding the entries in
+     * batches of up to {@code maxBatchSize} using
+     * {@link #update(Iterable, Iterable)}. Unlike {@link #add(Observable)} a tree
+     * is emitted per batch rather than per entry.
+     * 
+     * @param entries
+     *            the entries to add
+     * @param maxBatchSize
+     *            maximum number of entries added in one batch
+     * @return a sequence of trees
+     */
+    public Observable<RTree<T, S>> add(Observable<Entry<T, S>> entries, int maxBatchSize) {
+        return entries.buffer(maxBatchSize).scan(this,
+                new Func2<RTree<T, S>, List<Entry<T, S>>, RTree<T, S>>() {
+
+                    @Override
+                    public RTree<T, S> call(RTree<T, S> tree, List<Entry<T, S>> batch) {
+                        return tree.update(Collections.<Entry<T, S>> emptyList(), batch);
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private RTree<T, S> rebuild(Iterable<? extends Entry<? extends T, ? extends S>> deletes,
+            Iterable<? extends Entry<? extends T, ? extends S>> adds) {
+        final Map<Entry<T, S>, Integer> deleteCounts = new HashMap<Entry<T, S>, Integer>();
+        for (Entry<? extends T, ? extends S> entry : deletes) {
+            Integer count = deleteCounts.get(entry);
+            deleteCounts.put((Entry<T, S>) entry, count == null ? 1 : count + 1);
+        }
+        final List<Entry<T, S>> list = new ArrayList<Entry<T, S>>();
+        entries(new Action1<Entry<T, S>>() {
+            @Override
+            public void call(Entry<T, S> entry) {
+                Integer count = deleteCounts.isEmpty() ? null : deleteCounts.get(entry);
+                if (count == null)
+                    list.add(entry);
+                else if (count == 1)
+                    deleteCounts.remove(entry);
+                else
+                    deleteCounts.put(entry, count - 1);
+            }
+        });
+        for (Entry<? extends T, ? extends S> entry : adds)
+            list.add((Entry<T, S>) entry);
+        return bulkLoad(list);
+    }
+
+    /**
+     * Returns a new tree with this tree's configuration loaded with the given
+     * entries by STR bulk loading.
+     */
+    RTree<T, S> bulkLoad(List<Entry<T, S>> entries) {
+        return RTree.minChildren(context.minChildren()).maxChildren(context.maxChildren())
+                .selector(context.selector()).splitter(context.splitter())
+                .factory(context.factory()).create(entries);
+    }
+
+    /**
+     * Returns a tree with one instance of the entry marked dead in its leaf by a
+     * tombstone (see {@link LeafTombstoned}) or this tree if the entry is not
+     * present. Unlike {@link #delete(Entry)} no leaf is dissolved and no entries
+     * are reinserted: only the path to the leaf is copied. A leaf whose last
+     * live entry is marked is removed from its parent (and a parent left with
+     * no children from its own parent) so that no node of the tree is empty.
+     */
+    RTree<T, S> markDead(Entry<? extends T, ? extends S> entry) {
+        if (!root.isPresent())
+            return this;
+        Optional<Node<T, S>> node = markDead(root.get(), entry);
+        if (node == null)
+            return this;
+        else
+            return new RTree<T, S>(node, size - 1, context);
+    }
+
+    /**
+     * Returns null if the entry is not below the node, otherwise the node with
+     * the entry marked dead or absent if the node has no live entries left.
+     */
+    private static <T, S extends Geometry> Optional<Node<T, S>> markDead(Node<T, S> node,
+            Entry<? extends T, ? extends S> entry) {
+        if (node instanceof Leaf) {
+            LeafTombstoned<T, S> leaf = LeafTombstoned.markDead((Leaf<T, S>) node, entry);
+            if (leaf == null)
+                return null;
+            else if (leaf.count() == 0)
+                return Optional.absent();
+            else
+                return Optional.<Node<T, S>> of(leaf);
+        }
+        NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+        Rectangle r = entry.geometry().mbr();
+        for (int i = 0; i < nonLeaf.count(); i++) {
+            Node<T, S> child = nonLeaf.child(i);
+            if (child.geometry().mbr().intersects(r)) {
+                Optional<Node<T, S>> marked = markDead(child, entry);
+                if (marked != null) {
+                    List<Node<T, S>> children = new ArrayList<Node<T, S>>(nonLeaf.children());
+                    if (marked.isPresent())
+                        children.set(i, marked.get());
+                    else
+                        children.remove(i);
+                    if (children.isEmpty())
+                        return Optional.absent();
+                    else
+                        return Optional.<Node<T, S>> of(
+                                node.context().factory().createNonLeaf(children, node.context()));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of entries marked dead by {@link #markDead(Entry)} that
+     * are still held by the leaves of this tree.
+     */
+    int deadCount() {
+        return root.isPresent() ? deadCount(root.get()) : 0;
+    }
+
+    private static <T, S extends Geometry> int deadCount(Node<T, S> node) {
+        if (node instanceof LeafTombstoned)
+            return ((LeafTombstoned<T, S>) node).deadCount();
+        else if (node instanceof Leaf)
+            return 0;
+        int count = 0;
+        NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+        for (int i = 0; i < nonLeaf.count(); i++)
+            count += deadCount(nonLeaf.child(i));
+        return count;
+    }
+
     /**
      * Returns the Observable sequence of trees created by progressively adding
      * entries.
@@ -595,6 +981,104 @@ public final class RTree<T, S extends Geometry> {
         return delete(context.factory().createEntry(value, geometry), false);
     }
 
+    /**
+     * Moves one entry with the given value from oldGeometry to newGeometry. This
+     * is equivalent to deleting the old entry and adding the new one but when
+     * the new geometry lies within the minimum bounding rectangle of the leaf
+     * holding the old entry the entry is replaced in that leaf, copying the path
+     * from the root only once (as in bottom-up update schemes for moving
+     * objects). Otherwise the move falls back to delete followed by add. This
+     * method has no effect if the old entry is not present.
+     * 
+     * @param value
+     *            the value of the entry to move
+     * @param oldGeometry
+     *            the current geometry of the entry
+     * @param newGeometry
+     *            the geometry to move the entry to
+     * @return an immutable RTree with the entry moved if it was present
+     *         otherwise this tree
+     */
+    public RTree<T, S> move(T value, S oldGeometry, S newGeometry) {
+        return move(value, oldGeometry, newGeometry, 0);
+    }
+
+    /**
+     * As {@link #move(Object, Geometry, Geometry)} but the entry is replaced in
+     * its leaf if the new geometry lies within the leaf's minimum bounding
+     * rectangle expanded by tolerance on every side. A small tolerance lets
+     * objects that move slightly past the edge of their leaf avoid a delete and
+     * insert at the cost of slightly enlarging the leaf.
+     * 
+     * @param value
+     *            the value of the entry to move
+     * @param oldGeometry
+     *            the current geometry of the entry
+     * @param newGeometry
+     *            the geometry to move the entry to
+     * @param tolerance
+     *            distance the new geometry may extend beyond the leaf's mbr
+     * @return an immutable RTree with the entry moved if it was present
+     *         otherwise this tree
+     */
+    public RTree<T, S> move(T value, S oldGeometry, S newGeometry, double tolerance) {
+        if (!root.isPresent())
+            return this;
+        Entry<T, S> oldEntry = context.factory().createEntry(value, oldGeometry);
+        Entry<T, S> newEntry = context.factory().createEntry(value, newGeometry);
+        boolean[] found = new boolean[1];
+        Node<T, S> node = move(root.get(), oldEntry, newEntry, tolerance, found);
+        if (node != null)
+            return new RTree<T, S>(node, size, context);
+        else if (found[0])
+            return delete(oldEntry).add(newEntry);
+        else
+            return this;
+    }
+
+    /**
+     * Returns the node with oldEntry replaced by newEntry in its leaf or null if
+     * the entry was not found (found[0] is false) or does not fit within its
+     * leaf (found[0] is true).
+     */
+    private static <T, S extends Geometry> Node<T, S> move(Node<T, S> node, Entry<T, S> oldEntry,
+            Entry<T, S> newEntry, double tolerance, boolean[] found) {
+        Context<T, S> context = node.context();
+        if (node instanceof Leaf) {
+            Leaf<T, S> leaf = (Leaf<T, S>) node;
+            int count = leaf.count();
+            for (int i = 0; i < count; i++) {
+                if (leaf.entry(i).equals(oldEntry)) {
+                    found[0] = true;
+                    Rectangle mbr = leaf.geometry().mbr();
+                    if (!covers(rectangle(mbr.x1() - tolerance, mbr.y1() - tolerance,
+                            mbr.x2() + tolerance, mbr.y2() + tolerance),
+                            newEntry.geometry().mbr()))
+                        return null;
+                    List<Entry<T, S>> entries = new ArrayList<Entry<T, S>>(leaf.entries());
+                    entries.set(i, newEntry);
+                    return context.factory().createLeaf(entries, context);
+                }
+            }
+            return null;
+        }
+        NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+        Rectangle r = oldEntry.geometry().mbr();
+        for (int i = 0; i < nonLeaf.count(); i++) {
+            Node<T, S> child = nonLeaf.child(i);
+            if (child.geometry().mbr().intersects(r)) {
+                Node<T, S> moved = move(child, oldEntry, newEntry, tolerance, found);
+                if (moved != null) {
+                    List<Node<T, S>> children = new ArrayList<Node<T, S>>(nonLeaf.children());
+                    children.set(i, moved);
+                    return context.factory().createNonLeaf(children, context);
+                } else if (found[0])
+                    return null;
+            }
+        }
+        return null;
+    }
+
     /**
      * Deletes one or all matching entries depending on the value of
      * <code>all</code>. If multiple copies of the entry are in the R-tree only one
@@ -670,12 +1154,7 @@ public final class RTree<T, S extends Geometry> {
      * @return whether the geometry and the rectangle intersect
      */
     public static Func1<Geometry, Boolean> intersects(final Rectangle r) {
-        return new Func1<Geometry, Boolean>() {
-            @Override
-            public Boolean call(Geometry g) {
-                return g.intersects(r);
-            }
-        };
+        return new IntersectsRectangle(r);
     }
 
     /**
@@ -689,6 +1168,13 @@ public final class RTree<T, S extends Geometry> {
         }
     };
 
+    private static final GeometryPredicate ALWAYS_TRUE_PREDICATE = new GeometryPredicate() {
+        @Override
+        public boolean test(Geometry geometry) {
+            return true;
+        }
+    };
+
     /**
      * Returns an {@link Observable} sequence of all {@link Entry}s in the R-tree
      * whose minimum bounding rectangle intersects with the given rectangle.
@@ -713,6 +1199,378 @@ public final class RTree<T, S extends Geometry> {
         return search(p.mbr());
     }
 
+    /**
+     * Synchronously calls the visitor with each {@link Entry} in the R-tree whose
+     * geometry matches the criterion. No {@link Observable} is involved so there
+     * is no subscription or backpressure overhead and no boxing of the criterion
+     * result. See {@link GeometryPredicate} for the constraint on the criterion.
+     * 
+     * @param criterion
+     *            returns true for matching geometries
+     * @param visitor
+     *            called on the current thread with each matching entry
+     */
+    public void search(GeometryPredicate criterion, Action1<? super Entry<T, S>> visitor) {
+        if (root.isPresent())
+            NonLeafHelper.searchNode(criterion, visitor, root.get());
+    }
+
+    /**
+     * Synchronously calls the visitor with each {@link Entry} in the R-tree whose
+     * geometry intersects the given rectangle.
+     * 
+     * @param r
+     *            rectangle to check intersection with
+     * @param visitor
+     *            called on the current thread with each matching entry
+     */
+    public void search(Rectangle r, Action1<? super Entry<T, S>> visitor) {
+        search(new IntersectsRectangle(r), visitor);
+    }
+
+    /**
+     * Synchronously calls the visitor with each {@link Entry} in the R-tree whose
+     * geometry intersects the given point.
+     * 
+     * @param p
+     *            point to check intersection with
+     * @param visitor
+     *            called on the current thread with each matching entry
+     */
+    public void search(Point p, Action1<? super Entry<T, S>> visitor) {
+        search(p.mbr(), visitor);
+    }
+
+    /**
+     * Returns a lazy {@link Iterator} over the entries whose geometry matches the
+     * criterion. The tree is only traversed as far as needed to find the next
+     * entry, using a reusable array based stack, which suits paging through
+     * results. The iterator is not thread-safe and does not support
+     * {@code remove()}.
+     * 
+     * @param criterion
+     *            returns true for matching geometries
+     * @return iterator over matching entries
+     */
+    public Iterator<Entry<T, S>> searchIterator(GeometryPredicate criterion) {
+        return new SearchIterator<T, S>(root, criterion);
+    }
+
+    /**
+     * Returns a lazy {@link Iterator} over the entries whose geometry intersects
+     * the given rectangle. See {@link #searchIterator(GeometryPredicate)}.
+     * 
+     * @param r
+     *            rectangle to check intersection with
+     * @return iterator over matching entries
+     */
+    public Iterator<Entry<T, S>> searchIterator(Rectangle r) {
+        return searchIterator(new IntersectsRectangle(r));
+    }
+
+    /**
+     * Returns an {@link Iterable} whose iterators lazily search for the entries
+     * whose geometry intersects the given rectangle. See
+     * {@link #searchIterator(GeometryPredicate)}.
+     * 
+     * @param r
+     *            rectangle to check intersection with
+     * @return iterable over matching entries
+     */
+    public Iterable<Entry<T, S>> searchIterable(final Rectangle r) {
+        return new Iterable<Entry<T, S>>() {
+            @Override
+            public Iterator<Entry<T, S>> iterator() {
+                return searchIterator(r);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of entries whose geometry intersects the given
+     * rectangle. Nodes whose minimum bounding rectangle is covered by the
+     * rectangle contribute their number of entries without being visited, so
+     * only nodes that partially overlap the rectangle are descended into and no
+     * entries of covered nodes are created.
+     * 
+     * @param r
+     *            rectangle to check intersection with
+     * @return number of entries intersecting the rectangle
+     */
+    public int count(Rectangle r) {
+        if (root.isPresent())
+            return count(root.get(), r);
+        else
+            return 0;
+    }
+
+    private static <T, S extends Geometry> int count(Node<T, S> node, Rectangle r) {
+        Rectangle mbr = node.geometry().mbr();
+        if (!mbr.intersects(r))
+            return 0;
+        else if (covers(r, mbr))
+            return NonLeafHelper.size(node);
+        int count = 0;
+        if (node instanceof Leaf) {
+            Leaf<T, S> leaf = (Leaf<T, S>) node;
+            for (int i = 0; i < leaf.count(); i++)
+                if (leaf.entry(i).geometry().intersects(r))
+                    count++;
+        } else {
+            NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+            for (int i = 0; i < nonLeaf.count(); i++)
+                count += count(nonLeaf.child(i), r);
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if and only if rectangle r contains rectangle a.
+     */
+    static boolean covers(Rectangle r, Rectangle a) {
+        return r.x1() <= a.x1() && a.x2() <= r.x2() && r.y1() <= a.y1() && a.y2() <= r.y2();
+    }
+
+    /**
+     * Calculates the aggregate of every node of this tree so that aggregates of
+     * the entries intersecting a rectangle can be answered without visiting the
+     * entries of nodes covered by the rectangle. Takes time proportional to the
+     * size of the tree.
+     * 
+     * @param aggregator
+     *            defines the aggregate
+     * @param <A>
+     *            the aggregate type
+     * @return aggregates of this tree
+     */
+    public <A> AggregateIndex<T, S, A> aggregateIndex(Aggregator<T, S, A> aggregator) {
+        return new AggregateIndex<T, S, A>(root, aggregator);
+    }
+
+    /**
+     * Synchronously searches for the entries intersecting each of the given
+     * rectangles in a single traversal of the tree. Each node is visited at most
+     * once, carrying the subset of the queries that intersect it, so the visits
+     * to upper level nodes are shared between queries. Matches are reported
+     * tagged with the index of the query in {@code rectangles}, in no particular
+     * order.
+     * 
+     * @param rectangles
+     *            queries
+     * @param visitor
+     *            called on the current thread with each match
+     */
+    public void searchAll(List<? extends Rectangle> rectangles, QueryVisitor<T, S> visitor) {
+        if (!root.isPresent())
+            return;
+        Node<T, S> node = root.get();
+        Rectangle[] queries = rectangles.toArray(new Rectangle[rectangles.size()]);
+        Rectangle mbr = node.geometry().mbr();
+        // sort the queries by x1 so that the helpers can stop checking queries
+        // at the first one to the right of a node
+        long[] keys = new long[queries.length];
+        int[] active = new int[queries.length];
+        int numActive = 0;
+        for (int i = 0; i < queries.length; i++)
+            if (mbr.intersects(queries[i])) {
+                keys[numActive] = KeySort.key(queries[i].x1());
+                active[numActive++] = i;
+            }
+        KeySort.sort(keys, active, 0, numActive);
+        if (numActive == 0)
+            return;
+        else if (node instanceof Leaf)
+            LeafHelper.searchAll(queries, active, numActive, visitor, (Leaf<T, S>) node);
+        else
+            NonLeafHelper.searchAll(queries, active, numActive, visitor, (NonLeaf<T, S>) node);
+    }
+
+    /**
+     * Returns the entries intersecting each of the given rectangles, found in a
+     * single traversal of the tree (see {@link #searchAll(List, QueryVisitor)}).
+     * 
+     * @param rectangles
+     *            queries
+     * @return list of matching entries for each query, in the same order as the
+     *         queries
+     */
+    public List<List<Entry<T, S>>> searchAll(List<? extends Rectangle> rectangles) {
+        final List<List<Entry<T, S>>> results = new ArrayList<List<Entry<T, S>>>(
+                rectangles.size());
+        for (int i = 0; i < rectangles.size(); i++)
+            results.add(new ArrayList<Entry<T, S>>());
+        searchAll(rectangles, new QueryVisitor<T, S>() {
+            @Override
+            public void visit(int query, Entry<T, S> entry) {
+                results.get(query).add(entry);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Spatial join of this tree with another tree. Synchronously calls the
+     * visitor with every pair of entries (one from each tree) whose geometries
+     * have intersecting minimum bounding rectangles and that satisfy the
+     * condition. The two trees are traversed together, so pairs of subtrees
+     * whose bounds do not intersect are never visited.
+     * 
+     * @param other
+     *            tree to join with
+     * @param condition
+     *            further condition applied to pairs of entries with
+     *            intersecting bounds (for example an exact geometry test)
+     * @param visitor
+     *            called on the current thread with each matching pair
+     * @param <R>
+     *            value type of the other tree
+     * @param <U>
+     *            geometry type of the other tree
+     */
+    public <R, U extends Geometry> void join(RTree<R, U> other,
+            Func2<? super Entry<T, S>, ? super Entry<R, U>, Boolean> condition,
+            Action2<? super Entry<T, S>, ? super Entry<R, U>> visitor) {
+        if (root.isPresent() && other.root.isPresent())
+            Join.join(root.get(), other.root.get(), condition, visitor);
+    }
+
+    /**
+     * As {@link #join(RTree, Func2, Action2)} but pairs of subtrees from the top
+     * levels of the two trees are joined concurrently on the given executor. The
+     * visitor is called from the executor's threads so must be thread-safe. This
+     * method blocks until the join is complete.
+     * 
+     * @param other
+     *            tree to join with
+     * @param condition
+     *            further condition applied to pairs of entries with
+     *            intersecting bounds
+     * @param visitor
+     *            thread-safe visitor called with each matching pair
+     * @param executor
+     *            executor to run joins of subtree pairs on
+     * @param <R>
+     *            value type of the other tree
+     * @param <U>
+     *            geometry type of the other tree
+     */
+    public <R, U extends Geometry> void join(RTree<R, U> other,
+            Func2<? super Entry<T, S>, ? super Entry<R, U>, Boolean> condition,
+            Action2<? super Entry<T, S>, ? super Entry<R, U>> visitor,
+            ExecutorService executor) {
+        if (root.isPresent() && other.root.isPresent())
+            Join.join(root.get(), other.root.get(), condition, visitor, executor,
+                    Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * As {@link #search(GeometryPredicate, Action1)} but the subtrees below the
+     * top levels of the tree are searched concurrently on the given executor.
+     * The top levels are expanded (pruning nodes that do not match the
+     * criterion) until there are at least {@code 4 x availableProcessors}
+     * subtrees or only leaves remain. The visitor is called from the executor's
+     * threads so must be thread-safe. This method blocks until the search is
+     * complete.
+     * 
+     * @param criterion
+     *            returns true for matching geometries
+     * @param visitor
+     *            thread-safe visitor called with each matching entry
+     * @param executor
+     *            executor to search subtrees on
+     */
+    public void search(final GeometryPredicate criterion,
+            final Action1<? super Entry<T, S>> visitor, ExecutorService executor) {
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (final Node<T, S> node : subtrees(criterion))
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    NonLeafHelper.searchNode(criterion, visitor, node);
+                    return null;
+                }
+            }));
+        Util.getAll(futures);
+    }
+
+    /**
+     * Searches for entries intersecting the rectangle with the subtrees below the
+     * top levels of the tree searched concurrently on the given executor. See
+     * {@link #search(GeometryPredicate, Action1, ExecutorService)}.
+     * 
+     * @param r
+     *            rectangle to check intersection with
+     * @param visitor
+     *            thread-safe visitor called with each matching entry
+     * @param executor
+     *            executor to search subtrees on
+     */
+    public void search(Rectangle r, Action1<? super Entry<T, S>> visitor,
+            ExecutorService executor) {
+        search(new IntersectsRectangle(r), visitor, executor);
+    }
+
+    /**
+     * Returns the entries intersecting the rectangle as the merge of concurrent
+     * searches of the subtrees below the top levels of the tree, each subscribed
+     * to on the given scheduler. See
+     * {@link #search(GeometryPredicate, Action1, ExecutorService)} for how the
+     * subtrees are chosen. Entries are emitted in no particular order. The merge
+     * supports backpressure.
+     * 
+     * @param r
+     *            rectangle to check intersection with
+     * @param scheduler
+     *            scheduler to search each subtree on
+     * @return entries intersecting the rectangle
+     */
+    public Observable<Entry<T, S>> search(Rectangle r, final Scheduler scheduler) {
+        final IntersectsRectangle criterion = new IntersectsRectangle(r);
+        return Observable.from(subtrees(criterion))
+                .flatMap(new Func1<Node<T, S>, Observable<Entry<T, S>>>() {
+                    @Override
+                    public Observable<Entry<T, S>> call(Node<T, S> node) {
+                        return Observable
+                                .unsafeCreate(new OnSubscribeSearch<T, S>(node, criterion))
+                                .subscribeOn(scheduler);
+                    }
+                });
+    }
+
+    /**
+     * Returns disjoint subtrees that together hold all entries that might match
+     * the criterion, expanding the top levels of the tree until there are
+     * enough subtrees to keep all processors busy.
+     */
+    private List<Node<T, S>> subtrees(GeometryPredicate criterion) {
+        List<Node<T, S>> nodes = new ArrayList<Node<T, S>>();
+        if (!root.isPresent() || !criterion.test(root.get().geometry().mbr()))
+            return nodes;
+        nodes.add(root.get());
+        int minSubtrees = Runtime.getRuntime().availableProcessors() * 4;
+        while (nodes.size() < minSubtrees) {
+            List<Node<T, S>> next = new ArrayList<Node<T, S>>();
+            boolean expanded = false;
+            for (Node<T, S> node : nodes) {
+                if (node instanceof Leaf)
+                    next.add(node);
+                else {
+                    expanded = true;
+                    NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+                    for (int i = 0; i < nonLeaf.count(); i++) {
+                        Node<T, S> child = nonLeaf.child(i);
+                        if (criterion.test(child.geometry().mbr()))
+                            next.add(child);
+                    }
+                }
+            }
+            nodes = next;
+            if (!expanded)
+                break;
+        }
+        return nodes;
+    }
+
     public Observable<Entry<T, S>> search(Circle circle) {
         return search(circle, Intersects.geometryIntersectsCircle);
     }
@@ -817,6 +1675,13 @@ public final class RTree<T, S extends Geometry> {
      * Returns the nearest k entries (k=maxCount) to the given rectangle where the
      * entries are strictly less than a given maximum distance from the rectangle.
      * 
+     * <p>
+     * The search is best-first: nodes are visited in ascending order of distance
+     * from the rectangle and the search stops as soon as maxCount entries have
+     * been confirmed, so a generous maxDistance does not cause every entry within
+     * that distance to be visited. Entries are emitted as they are confirmed and
+     * backpressure is supported.
+     * 
      * @param r
      *            rectangle
      * @param maxDistance
@@ -827,8 +1692,11 @@ public final class RTree<T, S extends Geometry> {
      */
     public Observable<Entry<T, S>> nearest(final Rectangle r, final double maxDistance,
             int maxCount) {
-        return search(r, maxDistance).lift(new OperatorBoundedPriorityQueue<Entry<T, S>>(maxCount,
-                Comparators.<T, S>ascendingDistance(r)));
+        if (root.isPresent())
+            return Observable.unsafeCreate(
+                    new OnSubscribeNearest<T, S>(root.get(), r, maxDistance, maxCount));
+        else
+            return Observable.empty();
     }
 
     /**
@@ -856,6 +1724,16 @@ public final class RTree<T, S extends Geometry> {
         return search(ALWAYS_TRUE);
     }
 
+    /**
+     * Synchronously calls the visitor with every entry in the tree.
+     * 
+     * @param visitor
+     *            called on the current thread with each entry
+     */
+    public void entries(Action1<? super Entry<T, S>> visitor) {
+        search(ALWAYS_TRUE_PREDICATE, visitor);
+    }
+
     /**
      * Returns a {@link Visualizer} for an image of given width and height and
      * restricted to the given view of the coordinates. The points in the view are
@@ -14,6 +14,7 @@ import com.github.davidmoten.rtree.fbs.SerializerFlatBuffers;
 import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.internal.Functions;
 import com.github.davidmoten.rtree.kryo.SerializerKryo;
+import com.github.davidmoten.rtree.packed.SerializerPacked;
 
 import rx.functions.Func0;
 import rx.functions.Func1;
@@ -117,14 +118,17 @@ public final class Serializers {
 
         @SuppressWarnings("unchecked")
         public <S extends Geometry> Serializer<T, S> create() {
-            if (method == Method.FLATBUFFERS) {
+            if (method == Method.FLATBUFFERS || method == Method.PACKED) {
                 if (serializer == null) {
                     serializer = (Func1<T, byte[]>) javaIoSerializer();
                 }
                 if (deserializer == null) {
                     deserializer = (Func1<byte[], T>) javaIoDeserializer();
                 }
-                return SerializerFlatBuffers.create(serializer, deserializer);
+                if (method == Method.PACKED)
+                    return SerializerPacked.create(serializer, deserializer);
+                else
+                    return SerializerFlatBuffers.create(serializer, deserializer);
             } else {
                 return SerializerKryo.create(serializer, deserializer, kryoFactory);
             }
@@ -136,8 +140,22 @@ public final class Serializers {
         return new SerializerBuilder().method(Method.FLATBUFFERS);
     }
 
+    /**
+     * Returns a builder of serializers to the packed format of fixed-size node
+     * records (see {@link SerializerPacked}).
+     * 
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return builder
+     */
+    public static <T, S extends Geometry> SerializerBuilder packed() {
+        return new SerializerBuilder().method(Method.PACKED);
+    }
+
     public enum Method {
-        FLATBUFFERS, KRYO;
+        FLATBUFFERS, KRYO, PACKED;
     }
 
     private static Func1<String, byte[]> createStringSerializer(final Charset charset) {
@@ -0,0 +1,302 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.guavamini.annotations.VisibleForTesting;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.functions.Action0;
+import rx.functions.Action1;
+
+/**
+ * <p>
+ * Thread-safe holder of an immutable {@link RTree} whose deletes are lazy. A
+ * delete marks the entry dead with a tombstone bit in its leaf and copies the
+ * path to that leaf only: unlike {@link RTree#delete(Entry)} underfull leaves
+ * are not dissolved and their entries are not reinserted from the root, so the
+ * cost of a delete stays flat during deletion bursts. Dead entries are never
+ * returned by searches.
+ * </p>
+ *
+ * <p>
+ * Once the ratio of dead entries to all entries held by the leaves exceeds
+ * {@code maxDeadRatio} the live entries are bulk loaded into a new tree on the
+ * given scheduler. Updates made while the compaction runs are applied to the
+ * current tree as usual and replayed onto the compacted tree before it is
+ * swapped in. A compaction that fails is abandoned and the next delete past
+ * the threshold starts another one.
+ * </p>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+public final class TombstoneRTree<T, S extends Geometry> {
+
+    private final double maxDeadRatio;
+    private final Worker worker;
+
+    private volatile RTree<T, S> tree;
+
+    // guarded by this
+
+    /**
+     * Upper bound on the number of dead entries in tree. Inserting into a leaf
+     * drops its dead entries so the exact count is only calculated when this
+     * bound passes the threshold.
+     */
+    private int dead;
+
+    /**
+     * Updates since the running compaction started (adds are entries, deletes
+     * are wrapped in {@link Delete}) or null if no compaction is running.
+     */
+    private List<Object> log;
+
+    /**
+     * Number of the latest background compaction started. A compaction that
+     * finishes after another one was started or after {@link #compact()} is
+     * discarded.
+     */
+    private long compaction;
+
+    private boolean closed;
+
+    private TombstoneRTree(RTree<T, S> tree, double maxDeadRatio, Worker worker) {
+        Preconditions.checkArgument(maxDeadRatio > 0 && maxDeadRatio <= 1,
+                "maxDeadRatio must be in (0, 1]");
+        this.tree = tree;
+        this.maxDeadRatio = maxDeadRatio;
+        this.worker = worker;
+    }
+
+    /**
+     * Returns a holder of the given tree with lazy deletes that compacts the
+     * tree on the scheduler once the ratio of dead entries exceeds maxDeadRatio.
+     * Call {@link #close()} to release the scheduler worker.
+     *
+     * @param tree
+     *            initial tree
+     * @param maxDeadRatio
+     *            ratio of dead entries to all entries held in leaves above
+     *            which the tree is compacted
+     * @param scheduler
+     *            scheduler on which compactions run
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return a new holder
+     */
+    public static <T, S extends Geometry> TombstoneRTree<T, S> create(RTree<T, S> tree,
+            double maxDeadRatio, Scheduler scheduler) {
+        return new TombstoneRTree<T, S>(tree, maxDeadRatio, scheduler.createWorker());
+    }
+
+    /**
+     * Adds the given entry.
+     *
+     * @param entry
+     *            entry to add
+     * @return this
+     */
+    public synchronized TombstoneRTree<T, S> add(Entry<? extends T, ? extends S> entry) {
+        tree = tree.add(entry);
+        if (log != null)
+            log.add(entry);
+        return this;
+    }
+
+    /**
+     * Adds an entry with the given value and geometry.
+     *
+     * @param value
+     *            value of the entry to add
+     * @param geometry
+     *            geometry of the entry to add
+     * @return this
+     */
+    public TombstoneRTree<T, S> add(T value, S geometry) {
+        return add(tree.context().factory().createEntry(value, geometry));
+    }
+
+    /**
+     * Marks one instance of the given entry dead if it exists.
+     *
+     * @param entry
+     *            entry to delete
+     * @return true if an entry was marked dead
+     */
+    public synchronized boolean delete(Entry<? extends T, ? extends S> entry) {
+        RTree<T, S> t = tree.markDead(entry);
+        if (t == tree)
+            return false;
+        tree = t;
+        dead++;
+        if (log != null)
+            log.add(new Delete(entry));
+        else if (dead > maxDeadRatio * (tree.size() + dead)) {
+            dead = tree.deadCount();
+            if (dead > maxDeadRatio * (tree.size() + dead))
+                startCompaction();
+        }
+        return true;
+    }
+
+    /**
+     * Marks one instance of the entry with the given value and geometry dead if
+     * it exists.
+     *
+     * @param value
+     *            value of the entry to delete
+     * @param geometry
+     *            geometry of the entry to delete
+     * @return true if an entry was marked dead
+     */
+    public boolean delete(T value, S geometry) {
+        return delete(tree.context().factory().createEntry(value, geometry));
+    }
+
+    /**
+     * Returns the current tree. Dead entries held by its leaves are not visible
+     * through any of its methods.
+     *
+     * @return the current tree
+     */
+    public RTree<T, S> tree() {
+        return tree;
+    }
+
+    /**
+     * Returns the live entries intersecting the rectangle in the current tree.
+     *
+     * @param r
+     *            rectangle to check intersection with
+     * @return live entries intersecting the rectangle
+     */
+    public Observable<Entry<T, S>> search(Rectangle r) {
+        return tree.search(r);
+    }
+
+    /**
+     * Returns the number of live entries.
+     *
+     * @return number of live entries
+     */
+    public int size() {
+        return tree.size();
+    }
+
+    /**
+     * Returns the number of dead entries still held by the current tree.
+     *
+     * @return number of dead entries
+     */
+    public int deadCount() {
+        return tree.deadCount();
+    }
+
+    /**
+     * Rebuilds the tree from its live entries on the calling thread. The result
+     * of a background compaction still running is discarded.
+     *
+     * @return the compacted tree
+     */
+    public synchronized RTree<T, S> compact() {
+        compaction++;
+        log = null;
+        tree = tree.bulkLoad(liveEntries(tree));
+        dead = 0;
+        return tree;
+    }
+
+    /**
+     * Stops background compactions. The result of a compaction still running is
+     * discarded and no compaction is started by later deletes.
+     */
+    public synchronized void close() {
+        closed = true;
+        worker.unsubscribe();
+        log = null;
+    }
+
+    @VisibleForTesting
+    synchronized boolean isCompacting() {
+        return log != null;
+    }
+
+    // must hold the lock
+    private void startCompaction() {
+        if (closed)
+            return;
+        final RTree<T, S> snapshot = tree;
+        final long number = ++compaction;
+        log = new ArrayList<Object>();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                RTree<T, S> compacted = null;
+                try {
+                    compacted = snapshot.bulkLoad(liveEntries(snapshot));
+                } finally {
+                    // a null result (failure) ends the compaction so that
+                    // deletes stop logging and a later delete can retry
+                    finishCompaction(number, compacted);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void finishCompaction(long number, RTree<T, S> compacted) {
+        if (number != compaction || log == null)
+            // superseded or closed
+            return;
+        if (compacted == null) {
+            // failed, dead is still the bound for the current tree
+            log = null;
+            return;
+        }
+        RTree<T, S> t = compacted;
+        int d = 0;
+        for (Object update : log) {
+            if (update instanceof Delete) {
+                RTree<T, S> marked = t.markDead((Entry<T, S>) ((Delete) update).entry);
+                if (marked != t)
+                    d++;
+                t = marked;
+            } else
+                t = t.add((Entry<T, S>) update);
+        }
+        tree = t;
+        dead = d;
+        log = null;
+    }
+
+    private static <T, S extends Geometry> List<Entry<T, S>> liveEntries(RTree<T, S> tree) {
+        final List<Entry<T, S>> list = new ArrayList<Entry<T, S>>(tree.size());
+        tree.entries(new Action1<Entry<T, S>>() {
+            @Override
+            public void call(Entry<T, S> entry) {
+                list.add(entry);
+            }
+        });
+        return list;
+    }
+
+    private static final class Delete {
+        final Entry<?, ?> entry;
+
+        Delete(Entry<?, ?> entry) {
+            this.entry = entry;
+        }
+    }
+
+}
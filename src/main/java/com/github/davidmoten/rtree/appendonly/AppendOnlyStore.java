@@ -0,0 +1,470 @@
+package com.github.davidmoten.rtree.appendonly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.SerializerHelper;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * Log-structured persistence of successive versions of an immutable
+ * {@link RTree}. Because an update of an {@link RTree} copies only the path
+ * from the root to the changed leaves, a {@link #checkpoint(RTree)} appends
+ * only the nodes that have not been written before (children before parents)
+ * followed by a root record, so its cost is proportional to the changes since
+ * the previous checkpoint rather than to the size of the tree. Nodes are
+ * identified by reference so nodes created on demand as views of a buffer
+ * (like those of trees read with {@code InternalStructure.SINGLE_ARRAY}) are
+ * written in full at every checkpoint.
+ * </p>
+ *
+ * <p>
+ * Every record carries a CRC32 checksum. On {@link #open(File, Func1, Func1)}
+ * the log is scanned for the last complete root record, anything after it (a
+ * checkpoint interrupted by a crash) is truncated and the tree of that root is
+ * loaded. Nodes of superseded versions stay in the file until
+ * {@link #compact()} rewrites it with only the nodes of the latest checkpoint.
+ * If a crash left the compacted log without the log it replaces the compacted
+ * log is adopted.
+ * </p>
+ *
+ * <p>
+ * Layout (big-endian):
+ * </p>
+ *
+ * <pre>
+ * file     int magic, int version, record*
+ * record   int length, byte[length] body, int crc32 of body
+ * leaf     byte 1, int count, (byte type, coordinates, int length, byte[length] value)*
+ * non-leaf byte 2, int count, long offset of child record*
+ * root     byte 3, long offset of root node record (-1 if empty), int size,
+ *          int minChildren, int maxChildren
+ * </pre>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+public final class AppendOnlyStore<T, S extends Geometry> implements Closeable {
+
+    private static final int MAGIC = 0x474c5452; // "RTLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte LEAF = 1;
+    private static final byte NON_LEAF = 2;
+    private static final byte ROOT = 3;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private final File file;
+    private final Func1<? super T, byte[]> serializer;
+    private final Func1<byte[], ? extends T> deserializer;
+
+    // guarded by this
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /**
+     * Offsets of the records of the written nodes that are still reachable.
+     * Nodes do not override equals so the map is keyed by identity.
+     */
+    private Map<Node<T, S>, Long> offsets;
+
+    private RTree<T, S> tree;
+
+    /**
+     * Records appended by the current checkpoint that have not been written to
+     * the channel yet.
+     */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+
+    /**
+     * Nodes appended by the current checkpoint.
+     */
+    private final List<Node<T, S>> appended = new ArrayList<Node<T, S>>();
+
+    // the record being built
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    private long end;
+
+    private AppendOnlyStore(File file, Func1<? super T, byte[]> serializer,
+            Func1<byte[], ? extends T> deserializer) {
+        this.file = file;
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+    }
+
+    /**
+     * Opens the log in the given file, creating it if it does not exist, and
+     * recovers the tree of the last complete checkpoint.
+     *
+     * @param file
+     *            log file
+     * @param serializer
+     *            serializes entry values
+     * @param deserializer
+     *            deserializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return the opened store, must be closed to release the file
+     * @throws IOException
+     *             on I/O error or if the file is not a log
+     */
+    public static <T, S extends Geometry> AppendOnlyStore<T, S> open(File file,
+            Func1<? super T, byte[]> serializer, Func1<byte[], ? extends T> deserializer)
+            throws IOException {
+        return open(file, RTree.<T, S> create(), serializer, deserializer);
+    }
+
+    /**
+     * Opens the log in the given file, creating it if it does not exist, and
+     * recovers the tree of the last complete checkpoint or {@code initial} if
+     * nothing has been checkpointed. A checkpoint keeps the min and max children
+     * of the context of the tree it was written from; the recovered tree
+     * otherwise uses the context (and so the factory) of {@code initial}.
+     *
+     * @param file
+     *            log file
+     * @param initial
+     *            tree to recover when nothing has been checkpointed
+     * @param serializer
+     *            serializes entry values
+     * @param deserializer
+     *            deserializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return the opened store, must be closed to release the file
+     * @throws IOException
+     *             on I/O error or if the file is not a log
+     */
+    public static <T, S extends Geometry> AppendOnlyStore<T, S> open(File file,
+            RTree<T, S> initial, Func1<? super T, byte[]> serializer,
+            Func1<byte[], ? extends T> deserializer) throws IOException {
+        AppendOnlyStore<T, S> store = new AppendOnlyStore<T, S>(file, serializer, deserializer);
+        store.recover(initial);
+        return store;
+    }
+
+    /**
+     * Returns the tree of the last checkpoint (or the recovered tree, the
+     * initial tree if nothing has been checkpointed).
+     *
+     * @return tree of the last checkpoint
+     */
+    public synchronized RTree<T, S> tree() {
+        return tree;
+    }
+
+    /**
+     * Appends the nodes of the tree not written by earlier checkpoints and a
+     * root record pointing to its root and forces the appended bytes to the
+     * storage device. When this method returns the tree will be recovered by
+     * {@link #open(File, Func1, Func1)}.
+     *
+     * @param tree
+     *            tree to persist
+     * @return the number of node records appended
+     * @throws IOException
+     *             on I/O error
+     */
+    public synchronized int checkpoint(RTree<T, S> tree) throws IOException {
+        long start = end;
+        appended.clear();
+        try {
+            long root = tree.root().isPresent() ? append(tree.root().get()) : -1;
+            appendRoot(root, tree);
+            flush();
+            channel.force(false);
+        } catch (IOException e) {
+            // forget the partly written checkpoint so that the next one
+            // writes its nodes again
+            for (Node<T, S> node : appended)
+                offsets.remove(node);
+            buffer.reset();
+            end = start;
+            channel.truncate(start);
+            throw e;
+        }
+        this.tree = tree;
+        int count = appended.size();
+        appended.clear();
+        return count;
+    }
+
+    /**
+     * Rewrites the log with only the nodes of the last checkpoint, reclaiming
+     * the space of the nodes of earlier versions. The new log is written to a
+     * temporary file which then replaces the log. If the log cannot be replaced
+     * the store carries on with the log, or with the compacted log if the log
+     * has already been deleted (which {@link #open(File, Func1, Func1)} then
+     * adopts).
+     *
+     * @throws IOException
+     *             on I/O error
+     */
+    public synchronized void compact() throws IOException {
+        File tmp = compactFile(file);
+        if (!file.exists())
+            throw new IOException("log " + file + " has been replaced by " + tmp
+                    + " by a failed compaction, reopen the store");
+        AppendOnlyStore<T, S> store = new AppendOnlyStore<T, S>(tmp, serializer, deserializer);
+        tmp.delete();
+        boolean written = false;
+        try {
+            store.recover(tree);
+            store.checkpoint(tree);
+            written = true;
+        } finally {
+            if (store.raf != null)
+                store.close();
+            if (!written)
+                tmp.delete();
+        }
+        raf.close();
+        try {
+            if (!tmp.renameTo(file)) {
+                // some platforms do not rename over an existing file
+                if (!file.delete() || !tmp.renameTo(file))
+                    throw new IOException("could not replace " + file + " with " + tmp);
+            }
+        } finally {
+            // carry on with the log if it is still there, otherwise the
+            // compacted log has replaced it or will on the next open
+            boolean replaced = !file.exists() || !tmp.exists();
+            raf = new RandomAccessFile(file.exists() ? file : tmp, "rw");
+            channel = raf.getChannel();
+            end = channel.size();
+            if (replaced)
+                offsets = store.offsets;
+        }
+    }
+
+    /**
+     * Returns the length of the log in bytes.
+     *
+     * @return length of the log
+     */
+    public synchronized long fileSize() {
+        return end;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    private long append(Node<T, S> node) throws IOException {
+        Long offset = offsets.get(node);
+        if (offset != null)
+            // written before and so are all its descendants
+            return offset;
+        DataOutputStream out;
+        if (node instanceof Leaf) {
+            Leaf<T, S> leaf = (Leaf<T, S>) node;
+            out = startRecord(LEAF);
+            out.writeInt(leaf.count());
+            for (Entry<T, S> entry : leaf.entries()) {
+                Records.writeGeometry(out, entry.geometry());
+                byte[] bytes = serializer.call(entry.value());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        } else {
+            NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+            int count = nonLeaf.count();
+            long[] children = new long[count];
+            for (int i = 0; i < count; i++)
+                children[i] = append(nonLeaf.child(i));
+            out = startRecord(NON_LEAF);
+            out.writeInt(count);
+            for (long child : children)
+                out.writeLong(child);
+        }
+        long position = endRecord();
+        offsets.put(node, position);
+        appended.add(node);
+        return position;
+    }
+
+    private void appendRoot(long root, RTree<T, S> tree) throws IOException {
+        DataOutputStream out = startRecord(ROOT);
+        out.writeLong(root);
+        out.writeInt(tree.size());
+        out.writeInt(tree.context().minChildren());
+        out.writeInt(tree.context().maxChildren());
+        endRecord();
+    }
+
+    private DataOutputStream startRecord(byte kind) throws IOException {
+        record.reset();
+        recordOut.writeByte(kind);
+        return recordOut;
+    }
+
+    /**
+     * Adds the record to the buffer and returns its offset in the file.
+     */
+    private long endRecord() throws IOException {
+        long position = end + buffer.size();
+        Records.writeRecord(record, new DataOutputStream(buffer));
+        if (buffer.size() >= BUFFER_SIZE)
+            flush();
+        return position;
+    }
+
+    private void flush() throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buffer.toByteArray());
+        while (bb.hasRemaining())
+            end += channel.write(bb, end);
+        buffer.reset();
+    }
+
+    private void recover(RTree<T, S> initial) throws IOException {
+        File tmp = compactFile(file);
+        if (!file.exists() && tmp.exists() && !tmp.renameTo(file))
+            // a compaction was interrupted after deleting the log
+            throw new IOException("could not replace " + file + " with " + tmp);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        offsets = new WeakHashMap<Node<T, S>, Long>();
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            end = HEADER_SIZE;
+            tree = initial;
+            return;
+        }
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            raf.close();
+            throw new IOException("not an rtree log: " + file);
+        }
+        if (header.getInt() != VERSION) {
+            raf.close();
+            throw new IOException("unsupported rtree log version: " + file);
+        }
+        // find the last complete root record
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        long committed = HEADER_SIZE;
+        ByteBuffer root = null;
+        while (position + 4 <= size) {
+            int length = read(position, 4).getInt();
+            if (length <= 0 || position + Records.FRAME_SIZE + length > size)
+                break;
+            ByteBuffer body = readRecord(position);
+            if (body == null)
+                break;
+            position += Records.FRAME_SIZE + length;
+            if (body.get(0) == ROOT) {
+                root = body;
+                committed = position;
+            }
+        }
+        // discard anything written after the last checkpoint
+        channel.truncate(committed);
+        end = committed;
+        if (root == null) {
+            tree = initial;
+            return;
+        }
+        root.position(1);
+        long rootOffset = root.getLong();
+        int treeSize = root.getInt();
+        Context<T, S> context = new Context<T, S>(root.getInt(), root.getInt(),
+                initial.context().selector(), initial.context().splitter(),
+                initial.context().factory());
+        Optional<Node<T, S>> rootNode = rootOffset == -1 ? Optional.<Node<T, S>> absent()
+                : Optional.of(load(rootOffset, context));
+        tree = SerializerHelper.create(rootNode, treeSize, context);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<T, S> load(long offset, Context<T, S> context) throws IOException {
+        ByteBuffer body = readRecord(offset);
+        if (body == null)
+            throw new IOException("corrupt record at " + offset + " in " + file);
+        byte kind = body.get();
+        int count = body.getInt();
+        final Node<T, S> node;
+        if (kind == LEAF) {
+            List<Entry<T, S>> entries = new ArrayList<Entry<T, S>>(count);
+            for (int i = 0; i < count; i++) {
+                S geometry = (S) Records.readGeometry(body);
+                byte[] bytes = new byte[body.getInt()];
+                body.get(bytes);
+                entries.add(context.factory().createEntry(deserializer.call(bytes), geometry));
+            }
+            node = context.factory().createLeaf(entries, context);
+        } else {
+            List<Node<T, S>> children = new ArrayList<Node<T, S>>(count);
+            for (int i = 0; i < count; i++)
+                children.add(load(body.getLong(), context));
+            node = context.factory().createNonLeaf(children, context);
+        }
+        offsets.put(node, offset);
+        return node;
+    }
+
+    private static File compactFile(File file) {
+        return new File(file.getPath() + COMPACT_SUFFIX);
+    }
+
+    /**
+     * Returns the body of the record at the given position or null if its
+     * checksum does not match.
+     */
+    private ByteBuffer readRecord(long position) throws IOException {
+        int length = read(position, 4).getInt();
+        ByteBuffer bb = read(position + 4, length + 4);
+        if (!Records.checksumMatches(bb.array(), length, bb.getInt(length)))
+            return null;
+        bb.limit(length);
+        return bb;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(length);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, position + bb.position()) < 0)
+                throw new EOFException();
+        }
+        bb.flip();
+        return bb;
+    }
+
+}
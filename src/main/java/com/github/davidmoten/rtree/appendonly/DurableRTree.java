@@ -0,0 +1,450 @@
+package com.github.davidmoten.rtree.appendonly;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.rtree.BatchingRTree;
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entries;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.InternalStructure;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.SerializerHelper;
+import com.github.davidmoten.rtree.fbs.SerializerFlatBuffers;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * An {@link RTree} whose inserts and deletes are durable. Each update is
+ * appended to a write-ahead log in a directory and {@link #add(Entry)} and
+ * {@link #delete(Entry)} return once the log record is on the storage device.
+ * Concurrent updates share an fsync (group commit) so throughput grows with
+ * the number of writers rather than being limited to one update per fsync.
+ * </p>
+ *
+ * <p>
+ * {@link #checkpoint()} starts a new log and writes a snapshot of the tree (in
+ * the {@link SerializerFlatBuffers} format) of the moment the log was started,
+ * after which the older snapshot and logs are deleted. Writers are only blocked
+ * while the old log is synced, not while the snapshot is written.
+ * {@link #open(File, Func1, Func1)} loads the latest complete snapshot and
+ * replays the logs written since in batches through
+ * {@link BatchingRTree} (so through {@link RTree#update(Iterable, Iterable)}
+ * rather than one {@code add} at a time). A record torn by a crash ends the
+ * replay and is truncated.
+ * </p>
+ *
+ * <p>
+ * {@link #tree()} only reflects updates whose log records have been synced so
+ * it never shows a state that a crash could lose. If a write to the log fails
+ * the updates not yet synced are never published, every later update fails
+ * too and the tree must be reopened to recover the durable state.
+ * </p>
+ *
+ * <p>
+ * Files in the directory are {@code snapshot-<generation>} and
+ * {@code wal-<generation>}: the snapshot of a generation holds the tree as of
+ * the start of the log of the same generation. The directory itself is not
+ * synced (there is no way to do so on Java 6) so on file systems that do not
+ * order metadata updates a crash just after a checkpoint may lose it, in which
+ * case recovery falls back to the previous snapshot if its logs are intact.
+ * </p>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+public final class DurableRTree<T, S extends Geometry> implements Closeable {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // large so that replaying onto a smaller tree goes through the bulk loading
+    // of RTree.update rather than through inserts
+    private static final int REPLAY_BATCH_SIZE = 1 << 22;
+
+    private final File directory;
+    private final Func1<? super T, byte[]> serializer;
+    private final Func1<byte[], ? extends T> deserializer;
+    private final SerializerFlatBuffers<T, S> snapshots;
+
+    private final Object checkpointLock = new Object();
+
+    // the tree with all synced updates applied
+    private volatile RTree<T, S> tree;
+
+    // guarded by this
+    private WriteAheadLog<T, S> log;
+    private long generation;
+    // the tree with all logged updates applied
+    private RTree<T, S> latest;
+    private long updates;
+    // trees of logged updates not yet published, in update order
+    private final Deque<Pending<T, S>> pending = new ArrayDeque<Pending<T, S>>();
+
+    private DurableRTree(File directory, Func1<? super T, byte[]> serializer,
+            Func1<byte[], ? extends T> deserializer) {
+        this.directory = directory;
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.snapshots = SerializerFlatBuffers.createForFiles(serializer, deserializer);
+    }
+
+    /**
+     * Opens the tree persisted in the given directory, creating the directory
+     * and an empty tree with the default context if it does not exist.
+     *
+     * @param directory
+     *            directory holding the snapshots and logs
+     * @param serializer
+     *            serializes entry values
+     * @param deserializer
+     *            deserializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return the recovered tree, must be closed to release the log
+     * @throws IOException
+     *             on I/O error
+     */
+    public static <T, S extends Geometry> DurableRTree<T, S> open(File directory,
+            Func1<? super T, byte[]> serializer, Func1<byte[], ? extends T> deserializer)
+            throws IOException {
+        return open(directory, RTree.<T, S> create(), serializer, deserializer);
+    }
+
+    /**
+     * Opens the tree persisted in the given directory, starting from
+     * {@code initial} if no snapshot has been written yet. A snapshot keeps the
+     * min and max children of the context of the tree it was written from; the
+     * recovered tree otherwise uses the context (and so the factory) of
+     * {@code initial}.
+     *
+     * @param directory
+     *            directory holding the snapshots and logs
+     * @param initial
+     *            tree to apply the logs to when there is no snapshot
+     * @param serializer
+     *            serializes entry values
+     * @param deserializer
+     *            deserializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return the recovered tree, must be closed to release the log
+     * @throws IOException
+     *             on I/O error
+     */
+    public static <T, S extends Geometry> DurableRTree<T, S> open(File directory,
+            RTree<T, S> initial, Func1<? super T, byte[]> serializer,
+            Func1<byte[], ? extends T> deserializer) throws IOException {
+        DurableRTree<T, S> tree = new DurableRTree<T, S>(directory, serializer, deserializer);
+        tree.recover(initial);
+        return tree;
+    }
+
+    /**
+     * Returns the tree with all durable updates applied.
+     *
+     * @return the latest durable tree
+     */
+    public RTree<T, S> tree() {
+        return tree;
+    }
+
+    /**
+     * Adds the entry and returns once the addition is durable.
+     *
+     * @param entry
+     *            entry to add
+     * @return the tree with the entry added
+     * @throws IOException
+     *             on I/O error
+     */
+    public RTree<T, S> add(Entry<? extends T, ? extends S> entry) throws IOException {
+        WriteAheadLog<T, S> log;
+        long sequence;
+        long update;
+        RTree<T, S> result;
+        synchronized (this) {
+            log = this.log;
+            sequence = log.add(entry);
+            result = latest.add(entry);
+            update = logged(result);
+        }
+        log.sync(sequence);
+        publish(update);
+        return result;
+    }
+
+    /**
+     * Adds an entry with the given value and geometry and returns once the
+     * addition is durable.
+     *
+     * @param value
+     *            value of the entry to add
+     * @param geometry
+     *            geometry of the entry to add
+     * @return the tree with the entry added
+     * @throws IOException
+     *             on I/O error
+     */
+    public RTree<T, S> add(T value, S geometry) throws IOException {
+        return add(Entries.entry(value, geometry));
+    }
+
+    /**
+     * Deletes one instance of the entry and returns once the deletion is
+     * durable. Nothing is logged if the entry is not present.
+     *
+     * @param entry
+     *            entry to delete
+     * @return the tree with the entry deleted
+     * @throws IOException
+     *             on I/O error
+     */
+    public RTree<T, S> delete(Entry<? extends T, ? extends S> entry) throws IOException {
+        WriteAheadLog<T, S> log;
+        long sequence;
+        long update;
+        RTree<T, S> result;
+        synchronized (this) {
+            result = latest.delete(entry);
+            if (result == latest)
+                return result;
+            log = this.log;
+            sequence = log.delete(entry);
+            update = logged(result);
+        }
+        log.sync(sequence);
+        publish(update);
+        return result;
+    }
+
+    /**
+     * Deletes one instance of the entry with the given value and geometry and
+     * returns once the deletion is durable.
+     *
+     * @param value
+     *            value of the entry to delete
+     * @param geometry
+     *            geometry of the entry to delete
+     * @return the tree with the entry deleted
+     * @throws IOException
+     *             on I/O error
+     */
+    public RTree<T, S> delete(T value, S geometry) throws IOException {
+        return delete(Entries.entry(value, geometry));
+    }
+
+    /**
+     * Writes a snapshot of the tree and deletes the logs it makes redundant so
+     * that the next recovery replays only the updates made after this call.
+     *
+     * @throws IOException
+     *             on I/O error
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            RTree<T, S> snapshot;
+            long gen;
+            synchronized (this) {
+                // records of the new log must not reach the device before
+                // those of the old one
+                log.close();
+                publishAll();
+                gen = generation + 1;
+                log = WriteAheadLog.open(file(LOG_PREFIX, gen), 0, serializer);
+                generation = gen;
+                snapshot = latest;
+            }
+            File tmp = new File(directory, SNAPSHOT_PREFIX + gen + TMP_SUFFIX);
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            try {
+                snapshots.write(snapshot, raf.getChannel());
+                raf.getChannel().force(true);
+            } finally {
+                raf.close();
+            }
+            File target = file(SNAPSHOT_PREFIX, gen);
+            if (!tmp.renameTo(target))
+                throw new IOException("could not rename " + tmp + " to " + target);
+            deleteBefore(gen);
+        }
+    }
+
+    /**
+     * Returns the length in bytes of the current log including updates that
+     * are not yet synced.
+     *
+     * @return length of the current log
+     */
+    public synchronized long logSize() {
+        return log.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+        publishAll();
+    }
+
+    // guarded by this
+    private long logged(RTree<T, S> result) {
+        latest = result;
+        updates++;
+        pending.add(new Pending<T, S>(updates, result));
+        return updates;
+    }
+
+    // called once the log records of all updates up to the given one are
+    // synced (records of earlier logs were synced when their log was closed)
+    private synchronized void publish(long update) {
+        RTree<T, S> t = null;
+        while (!pending.isEmpty() && pending.peek().update <= update)
+            t = pending.poll().tree;
+        if (t != null)
+            tree = t;
+    }
+
+    // guarded by this
+    private void publishAll() {
+        pending.clear();
+        tree = latest;
+    }
+
+    private void recover(RTree<T, S> initial) throws IOException {
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("could not create " + directory);
+        long snapshot = -1;
+        long last = 0;
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("could not list " + directory);
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(TMP_SUFFIX))
+                // an interrupted checkpoint
+                f.delete();
+            else if (name.startsWith(SNAPSHOT_PREFIX))
+                snapshot = Math.max(snapshot, generation(name, SNAPSHOT_PREFIX));
+            else if (name.startsWith(LOG_PREFIX))
+                last = Math.max(last, generation(name, LOG_PREFIX));
+        }
+        RTree<T, S> t = snapshot == -1 ? initial
+                : withContext(
+                        snapshots.read(file(SNAPSHOT_PREFIX, snapshot), InternalStructure.DEFAULT),
+                        initial.context());
+        long first = Math.max(snapshot, 0);
+        last = Math.max(last, first);
+        BatchingRTree<T, S> batch = BatchingRTree.create(t, REPLAY_BATCH_SIZE);
+        long length = 0;
+        for (long gen = first; gen <= last; gen++) {
+            File f = file(LOG_PREFIX, gen);
+            length = WriteAheadLog.replay(f, batch, deserializer);
+            // only the last log can end with a record torn by a crash, a later
+            // log is only started once the earlier one is complete
+            if (gen < last && length != f.length())
+                throw new IOException("log " + f + " is damaged at " + length);
+        }
+        tree = batch.flush();
+        latest = tree;
+        generation = last;
+        log = WriteAheadLog.open(file(LOG_PREFIX, last), length, serializer);
+        deleteBefore(first);
+    }
+
+    // rebuilds the nodes of a tree read from a snapshot (whose context uses the
+    // flatbuffers factory) with the selector, splitter and factory of the given
+    // context so that the updates replayed onto it and made after recovery
+    // create the same kind of nodes as the tree the snapshot was written from
+    private static <T, S extends Geometry> RTree<T, S> withContext(RTree<T, S> snapshot,
+            Context<T, S> initial) {
+        Context<T, S> context = new Context<T, S>(snapshot.context().minChildren(),
+                snapshot.context().maxChildren(), initial.selector(), initial.splitter(),
+                initial.factory());
+        if (snapshot.root().isPresent())
+            return SerializerHelper.create(
+                    Optional.of(rebuild(snapshot.root().get(), context)), snapshot.size(),
+                    context);
+        else
+            return SerializerHelper.create(Optional.<Node<T, S>> absent(), 0, context);
+    }
+
+    private static <T, S extends Geometry> Node<T, S> rebuild(Node<T, S> node,
+            Context<T, S> context) {
+        if (node instanceof Leaf) {
+            List<Entry<T, S>> entries = ((Leaf<T, S>) node).entries();
+            List<Entry<T, S>> list = new ArrayList<Entry<T, S>>(entries.size());
+            for (Entry<T, S> entry : entries)
+                list.add(context.factory().createEntry(entry.value(), entry.geometry()));
+            return context.factory().createLeaf(list, context);
+        } else {
+            List<Node<T, S>> children = ((NonLeaf<T, S>) node).children();
+            List<Node<T, S>> list = new ArrayList<Node<T, S>>(children.size());
+            for (Node<T, S> child : children)
+                list.add(rebuild(child, context));
+            return context.factory().createNonLeaf(list, context);
+        }
+    }
+
+    private void deleteBefore(long gen) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            String name = f.getName();
+            final long g;
+            if (name.endsWith(TMP_SUFFIX))
+                continue;
+            else if (name.startsWith(SNAPSHOT_PREFIX))
+                g = generation(name, SNAPSHOT_PREFIX);
+            else if (name.startsWith(LOG_PREFIX))
+                g = generation(name, LOG_PREFIX);
+            else
+                continue;
+            if (g >= 0 && g < gen)
+                f.delete();
+        }
+    }
+
+    private File file(String prefix, long gen) {
+        return new File(directory, prefix + gen);
+    }
+
+    private static final class Pending<T, S extends Geometry> {
+        final long update;
+        final RTree<T, S> tree;
+
+        Pending(long update, RTree<T, S> tree) {
+            this.update = update;
+            this.tree = tree;
+        }
+    }
+
+    private static long generation(String name, String prefix) {
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            // not one of ours
+            return -1;
+        }
+    }
+
+}
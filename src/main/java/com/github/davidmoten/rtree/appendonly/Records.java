@@ -0,0 +1,70 @@
+package com.github.davidmoten.rtree.appendonly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.internal.GeometryCodec;
+
+/**
+ * Encoding shared by the logs of this package. A record is framed as
+ * {@code int length, byte[length] body, int crc32 of body} so that a record
+ * torn by a crash is detected when the log is read back. Geometries are
+ * encoded as the type byte of {@link GeometryCodec} followed by the coordinates
+ * the type needs (floats or doubles depending on their precision).
+ */
+final class Records {
+
+    static final int FRAME_SIZE = 8;
+
+    private Records() {
+        // prevent instantiation
+    }
+
+    /**
+     * Writes the body framed with its length and checksum.
+     */
+    static void writeRecord(ByteArrayOutputStream body, DataOutputStream out) throws IOException {
+        out.writeInt(body.size());
+        body.writeTo(out);
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Returns true if the checksum read from the log matches the body.
+     */
+    static boolean checksumMatches(byte[] body, int length, int checksum) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, length);
+        return (int) crc.getValue() == checksum;
+    }
+
+    static void writeGeometry(DataOutputStream out, Geometry g) throws IOException {
+        double[] coordinates = new double[4];
+        int type = GeometryCodec.encode(g, coordinates);
+        boolean doubles = (type & GeometryCodec.DOUBLE_PRECISION) != 0;
+        out.writeByte(type);
+        for (int i = 0; i < GeometryCodec.dimensions(type); i++) {
+            if (doubles)
+                out.writeDouble(coordinates[i]);
+            else
+                out.writeFloat((float) coordinates[i]);
+        }
+    }
+
+    static Geometry readGeometry(ByteBuffer bb) {
+        byte type = bb.get();
+        boolean doubles = (type & GeometryCodec.DOUBLE_PRECISION) != 0;
+        double[] coordinates = new double[4];
+        for (int i = 0; i < GeometryCodec.dimensions(type); i++)
+            coordinates[i] = doubles ? bb.getDouble() : bb.getFloat();
+        return GeometryCodec.decode(type, coordinates[0], coordinates[1], coordinates[2],
+                coordinates[3]);
+    }
+
+}
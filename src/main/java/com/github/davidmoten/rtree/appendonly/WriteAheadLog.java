@@ -0,0 +1,280 @@
+package com.github.davidmoten.rtree.appendonly;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.github.davidmoten.rtree.BatchingRTree;
+import com.github.davidmoten.rtree.Entries;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * A file of insert and delete records with group commit. {@link #append} only
+ * buffers a record. {@link #sync(long)} returns once the record is on the
+ * storage device: the first caller to find no sync in progress writes all
+ * buffered records (including those appended by other threads after its own)
+ * and forces the file while later callers wait for it, so concurrent writers
+ * share one fsync rather than queueing for one each.
+ * </p>
+ *
+ * <p>
+ * Layout (big-endian):
+ * </p>
+ *
+ * <pre>
+ * file   int magic, int version, record*
+ * record int length, byte[length] body, int crc32 of body
+ * body   byte op (add or delete), byte geometry type, coordinates, value bytes
+ * </pre>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+final class WriteAheadLog<T, S extends Geometry> implements Closeable {
+
+    private static final int MAGIC = 0x4c575452; // "RTWL"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Func1<? super T, byte[]> serializer;
+
+    // guarded by this
+
+    /**
+     * Records appended but not yet handed to a sync.
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+
+    // the record being built
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    private long appended;
+    private long synced;
+    private boolean syncing;
+    private IOException failure;
+    private boolean closed;
+    private long end;
+
+    private WriteAheadLog(File file, long length, Func1<? super T, byte[]> serializer)
+            throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.serializer = serializer;
+        if (length < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            length = HEADER_SIZE;
+        }
+        // discard a torn tail
+        channel.truncate(length);
+        channel.force(true);
+        this.end = length;
+    }
+
+    /**
+     * Opens the log for appending after its first {@code length} bytes (as
+     * returned by {@link #replay}), creating it if it does not exist.
+     */
+    static <T, S extends Geometry> WriteAheadLog<T, S> open(File file, long length,
+            Func1<? super T, byte[]> serializer) throws IOException {
+        return new WriteAheadLog<T, S>(file, length, serializer);
+    }
+
+    /**
+     * Applies the complete records of the log in the given file (if it exists)
+     * to the batch in order and returns the length of the file up to the end of
+     * the last complete record.
+     */
+    @SuppressWarnings("unchecked")
+    static <T, S extends Geometry> long replay(File file, BatchingRTree<T, S> batch,
+            Func1<byte[], ? extends T> deserializer) throws IOException {
+        if (!file.exists())
+            return 0;
+        long size = file.length();
+        if (size < HEADER_SIZE)
+            // crashed while creating the log
+            return 0;
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not an rtree write-ahead log: " + file);
+            if (in.readInt() != VERSION)
+                throw new IOException("unsupported rtree write-ahead log version: " + file);
+            long position = HEADER_SIZE;
+            byte[] body = new byte[256];
+            while (position + Records.FRAME_SIZE <= size) {
+                int length = in.readInt();
+                if (length <= 0 || position + Records.FRAME_SIZE + length > size)
+                    break;
+                if (body.length < length)
+                    body = new byte[Math.max(length, body.length * 2)];
+                in.readFully(body, 0, length);
+                if (!Records.checksumMatches(body, length, in.readInt()))
+                    break;
+                ByteBuffer bb = ByteBuffer.wrap(body, 0, length);
+                byte op = bb.get();
+                S geometry = (S) Records.readGeometry(bb);
+                byte[] bytes = new byte[bb.remaining()];
+                bb.get(bytes);
+                Entry<T, S> entry = Entries.<T, S> entry(deserializer.call(bytes), geometry);
+                if (op == ADD)
+                    batch.add(entry);
+                else if (op == DELETE)
+                    batch.delete(entry);
+                else
+                    throw new IOException(
+                            "unexpected op " + op + " at " + position + " in " + file);
+                position += Records.FRAME_SIZE + length;
+            }
+            return position;
+        } catch (EOFException e) {
+            throw new IOException("unexpected end of " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Buffers a record of the addition of the entry and returns its sequence
+     * number to pass to {@link #sync(long)}.
+     */
+    synchronized long add(Entry<? extends T, ? extends S> entry) throws IOException {
+        return append(ADD, entry);
+    }
+
+    /**
+     * Buffers a record of the deletion of the entry and returns its sequence
+     * number to pass to {@link #sync(long)}.
+     */
+    synchronized long delete(Entry<? extends T, ? extends S> entry) throws IOException {
+        return append(DELETE, entry);
+    }
+
+    // must hold the lock
+    private long append(byte op, Entry<? extends T, ? extends S> entry) throws IOException {
+        checkUsable();
+        record.reset();
+        recordOut.writeByte(op);
+        Records.writeGeometry(recordOut, entry.geometry());
+        recordOut.write(serializer.call(entry.value()));
+        Records.writeRecord(record, pendingOut);
+        return ++appended;
+    }
+
+    /**
+     * Blocks until the record with the given sequence number and all records
+     * before it are on the storage device.
+     */
+    void sync(long sequence) throws IOException {
+        byte[] bytes;
+        long position;
+        long upTo;
+        synchronized (this) {
+            while (synced < sequence) {
+                checkUsable();
+                if (!syncing)
+                    break;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while waiting for sync");
+                }
+            }
+            if (synced >= sequence)
+                return;
+            // lead a sync of everything appended so far
+            syncing = true;
+            bytes = pending.toByteArray();
+            pending.reset();
+            upTo = appended;
+            position = end;
+            end += bytes.length;
+        }
+        IOException error = null;
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(bytes);
+            while (bb.hasRemaining())
+                channel.write(bb, position + bb.position());
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            syncing = false;
+            if (error == null)
+                synced = upTo;
+            else
+                failure = error;
+            notifyAll();
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Returns the length of the log including buffered records.
+     */
+    synchronized long size() {
+        return end + pending.size();
+    }
+
+    /**
+     * Syncs all appended records and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        long sequence;
+        synchronized (this) {
+            if (closed)
+                return;
+            sequence = appended;
+        }
+        try {
+            sync(sequence);
+        } finally {
+            synchronized (this) {
+                closed = true;
+                raf.close();
+            }
+        }
+    }
+
+    // must hold the lock
+    private void checkUsable() throws IOException {
+        if (failure != null)
+            // the records after the failed write are not durable so the log
+            // must be recovered from the file
+            throw new IOException("earlier write to " + file + " failed", failure);
+        if (closed)
+            throw new IOException("closed: " + file);
+    }
+
+}
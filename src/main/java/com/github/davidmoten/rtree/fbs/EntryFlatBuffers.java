@@ -0,0 +1,31 @@
+package com.github.davidmoten.rtree.fbs;
+
+import java.nio.ByteBuffer;
+
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.internal.EntryLazy;
+
+import rx.functions.Func1;
+
+/**
+ * Entry read from a flatbuffers node whose value is deserialized from the
+ * buffer when it is first requested.
+ */
+final class EntryFlatBuffers<T, S extends Geometry> extends EntryLazy<T, S> {
+
+    // positioned at the object vector, null if the entry has no object
+    private final ByteBuffer object;
+    private final Func1<byte[], ? extends T> deserializer;
+
+    EntryFlatBuffers(S geometry, ByteBuffer object, Func1<byte[], ? extends T> deserializer) {
+        super(geometry);
+        this.object = object;
+        this.deserializer = deserializer;
+    }
+
+    @Override
+    protected T decode() {
+        return FlatBuffersHelper.parseObject(deserializer, object);
+    }
+
+}
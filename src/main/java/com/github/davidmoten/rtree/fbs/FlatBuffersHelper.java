@@ -2,7 +2,6 @@ package com.github.davidmoten.rtree.fbs;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import com.github.davidmoten.guavamini.Preconditions;
@@ -139,15 +138,33 @@ final class FlatBuffersHelper {
 
     }
 
+    /**
+     * Returns the entries of the node with their values deserialized.
+     */
     static <T, S extends Geometry> List<Entry<T, S>> createEntries(Node_ node,
             Func1<byte[], ? extends T> deserializer) {
+        return createEntries(node, deserializer, false);
+    }
+
+    /**
+     * Returns the entries of the node with their values deserialized on
+     * demand (see {@link EntryFlatBuffers}). The entries keep a view of the
+     * buffer of the node.
+     */
+    static <T, S extends Geometry> List<Entry<T, S>> createLazyEntries(Node_ node,
+            Func1<byte[], ? extends T> deserializer) {
+        return createEntries(node, deserializer, true);
+    }
+
+    private static <T, S extends Geometry> List<Entry<T, S>> createEntries(Node_ node,
+            Func1<byte[], ? extends T> deserializer, boolean lazy) {
         int numEntries = node.entriesLength();
         List<Entry<T, S>> entries = new ArrayList<Entry<T, S>>(numEntries);
         Preconditions.checkArgument(numEntries > 0);
         Entry_ entry = new Entry_();
         Geometry_ geom = new Geometry_();
         for (int i = 0; i < numEntries; i++) {
-            Entry<T, S> ent = createEntry(node, deserializer, entry, geom, i);
+            Entry<T, S> ent = createEntry(node, deserializer, entry, geom, i, lazy);
             entries.add(ent);
         }
         return entries;
@@ -155,24 +172,40 @@ final class FlatBuffersHelper {
 
     @SuppressWarnings("unchecked")
     private static <T, S extends Geometry> Entry<T, S> createEntry(Node_ node,
-            Func1<byte[], ? extends T> deserializer, Entry_ entry, Geometry_ geom, int i) {
+            Func1<byte[], ? extends T> deserializer, Entry_ entry, Geometry_ geom, int i,
+            boolean lazy) {
         node.entries(entry, i);
         entry.geometry(geom);
         final Geometry g = toGeometry(geom);
-        return Entries.entry(parseObject(deserializer, entry), (S) g);
+        if (lazy)
+            return lazyEntry((S) g, deserializer, entry);
+        else
+            return Entries.entry(parseObject(deserializer, entry.objectAsByteBuffer()), (S) g);
+    }
+
+    /**
+     * Returns an entry with the given geometry whose value is only deserialized
+     * from the object of the flatbuffers entry when first requested.
+     */
+    static <T, S extends Geometry> Entry<T, S> lazyEntry(S geometry,
+            Func1<byte[], ? extends T> deserializer, Entry_ entry) {
+        return new EntryFlatBuffers<T, S>(geometry, entry.objectAsByteBuffer(), deserializer);
     }
 
-    static <T, S extends Geometry> Entry<T, S> createEntry(Node_ node,
+    static <T, S extends Geometry> Entry<T, S> createLazyEntry(Node_ node,
             Func1<byte[], ? extends T> deserializer, int i) {
-        return createEntry(node, deserializer, new Entry_(), new Geometry_(), i);
+        return createEntry(node, deserializer, new Entry_(), new Geometry_(), i, true);
     }
 
-    static <T> T parseObject(Func1<byte[], ? extends T> deserializer, Entry_ entry) {
-        ByteBuffer bb = entry.objectAsByteBuffer();
+    static <T> T parseObject(Func1<byte[], ? extends T> deserializer, ByteBuffer bb) {
         if (bb == null) {
             return null;
         } else {
-            byte[] bytes = Arrays.copyOfRange(bb.array(), bb.position(), bb.limit());
+            // bb is positioned at the vector and may be a direct
+            // (memory-mapped) buffer without a backing array. Read from a
+            // duplicate so that bb can be shared between threads
+            byte[] bytes = new byte[bb.remaining()];
+            bb.duplicate().get(bytes);
             T t = deserializer.call(bytes);
             return t;
         }
@@ -88,12 +88,12 @@ final class LeafFlatBuffers<T, S extends Geometry> implements Leaf<T, S> {
 
     @Override
     public List<Entry<T, S>> entries() {
-        return FlatBuffersHelper.createEntries(node, deserializer);
+        return FlatBuffersHelper.createLazyEntries(node, deserializer);
     }
 
     @Override
     public Entry<T, S> entry(int i) {
-        return FlatBuffersHelper.createEntry(node, deserializer, i);
+        return FlatBuffersHelper.createLazyEntry(node, deserializer, i);
     }
 
 }
@@ -1,16 +1,17 @@
 package com.github.davidmoten.rtree.fbs;
 
 import static com.github.davidmoten.rtree.fbs.FlatBuffersHelper.createBox;
-import static com.github.davidmoten.rtree.fbs.FlatBuffersHelper.parseObject;
+import static com.github.davidmoten.rtree.fbs.FlatBuffersHelper.lazyEntry;
 import static com.github.davidmoten.rtree.fbs.FlatBuffersHelper.toGeometry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.github.davidmoten.guavamini.Preconditions;
 import com.github.davidmoten.rtree.Context;
-import com.github.davidmoten.rtree.Entries;
 import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
 import com.github.davidmoten.rtree.Node;
 import com.github.davidmoten.rtree.NonLeaf;
 import com.github.davidmoten.rtree.fbs.generated.BoundsType_;
@@ -18,22 +19,35 @@ import com.github.davidmoten.rtree.fbs.generated.Bounds_;
 import com.github.davidmoten.rtree.fbs.generated.BoxDouble_;
 import com.github.davidmoten.rtree.fbs.generated.BoxFloat_;
 import com.github.davidmoten.rtree.fbs.generated.Entry_;
+import com.github.davidmoten.rtree.fbs.generated.GeometryType_;
 import com.github.davidmoten.rtree.fbs.generated.Geometry_;
 import com.github.davidmoten.rtree.fbs.generated.Node_;
+import com.github.davidmoten.rtree.fbs.generated.PointDouble_;
+import com.github.davidmoten.rtree.fbs.generated.PointFloat_;
 import com.github.davidmoten.rtree.geometry.Geometries;
 import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.geometry.internal.GeometryUtil;
+import com.github.davidmoten.rtree.internal.Functions;
+import com.github.davidmoten.rtree.internal.IntersectsRectangle;
 import com.github.davidmoten.rtree.internal.NodeAndEntries;
 import com.github.davidmoten.rtree.internal.NonLeafHelper;
+import com.github.davidmoten.rtree.internal.SizedNode;
+import com.github.davidmoten.rtree.internal.VisitableNode;
 
 import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action1;
 import rx.functions.Func1;
 
-final class NonLeafFlatBuffers<T, S extends Geometry> implements NonLeaf<T, S> {
+final class NonLeafFlatBuffers<T, S extends Geometry>
+        implements NonLeaf<T, S>, VisitableNode<T, S>, SizedNode {
 
     private final Node_ node;
     private final Context<T, S> context;
     private final Func1<byte[], ? extends T> deserializer;
+    // lazily calculated, -1 if not calculated yet
+    private int size = -1;
 
     NonLeafFlatBuffers(Node_ node, Context<T, S> context, Func1<byte[], ? extends T> deserializer) {
         Preconditions.checkNotNull(node);
@@ -57,6 +71,14 @@ final class NonLeafFlatBuffers<T, S extends Geometry> implements NonLeaf<T, S> {
     @Override
     public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> criterion,
             Subscriber<? super Entry<T, S>> subscriber) {
+        if (criterion instanceof IntersectsRectangle) {
+            // rectangle searches (the common case) are tested against the raw
+            // coordinates in the buffer without creating geometries
+            new RectangleSearch<T, S>(((IntersectsRectangle) criterion).rectangle(),
+                    Functions.<Entry<T, S>> onNext(subscriber), subscriber, deserializer)
+                            .search(node, 0);
+            return;
+        }
         // pass through entry and geometry and box instances to be reused for
         // flatbuffers extraction this reduces allocation/gc costs (but of
         // course introduces some mutable ugliness into the codebase)
@@ -64,6 +86,15 @@ final class NonLeafFlatBuffers<T, S extends Geometry> implements NonLeaf<T, S> {
                 new Geometry_(), new Bounds_());
     }
 
+    @Override
+    public void search(GeometryPredicate criterion, Action1<? super Entry<T, S>> visitor) {
+        if (criterion instanceof IntersectsRectangle)
+            new RectangleSearch<T, S>(((IntersectsRectangle) criterion).rectangle(), visitor,
+                    null, deserializer).search(node, 0);
+        else
+            NonLeafHelper.search(criterion, visitor, this);
+    }
+
     @SuppressWarnings("unchecked")
     private static <T, S extends Geometry> void searchWithoutBackpressure(Node_ node,
             Func1<? super Geometry, Boolean> criterion, Subscriber<? super Entry<T, S>> subscriber,
@@ -108,8 +139,7 @@ final class NonLeafFlatBuffers<T, S extends Geometry> implements NonLeaf<T, S> {
                 entry.geometry(geometry);
                 final Geometry g = toGeometry(geometry);
                 if (criterion.call(g)) {
-                    T t = parseObject(deserializer, entry);
-                    Entry<T, S> ent = Entries.entry(t, (S) g);
+                    Entry<T, S> ent = lazyEntry((S) g, deserializer, entry);
                     subscriber.onNext(ent);
                 }
             }
@@ -117,6 +147,126 @@ final class NonLeafFlatBuffers<T, S extends Geometry> implements NonLeaf<T, S> {
 
     }
 
+    /**
+     * Allocation-free (apart from emitted entries) search for entries
+     * intersecting a rectangle. The flatbuffers accessor objects are reused,
+     * with one {@link Node_} per depth of the tree, and bounds and entry
+     * geometries are compared to the rectangle using their raw float or double
+     * fields. Geometry objects are only created for matching entries (and for
+     * non-point, non-box entry geometries).
+     */
+    private static final class RectangleSearch<T, S extends Geometry> {
+
+        private final Rectangle r;
+        private final double x1;
+        private final double y1;
+        private final double x2;
+        private final double y2;
+        private final Action1<? super Entry<T, S>> visitor;
+        // null for synchronous searches
+        private final Subscription subscription;
+        private final Func1<byte[], ? extends T> deserializer;
+        private final Entry_ entry = new Entry_();
+        private final Geometry_ geometry = new Geometry_();
+        private final Bounds_ bounds = new Bounds_();
+        private final BoxFloat_ boxFloat = new BoxFloat_();
+        private final BoxDouble_ boxDouble = new BoxDouble_();
+        private final PointFloat_ pointFloat = new PointFloat_();
+        private final PointDouble_ pointDouble = new PointDouble_();
+        private Node_[] nodes = new Node_[8];
+
+        RectangleSearch(Rectangle r, Action1<? super Entry<T, S>> visitor,
+                Subscription subscription, Func1<byte[], ? extends T> deserializer) {
+            this.r = r;
+            this.x1 = r.x1();
+            this.y1 = r.y1();
+            this.x2 = r.x2();
+            this.y2 = r.y2();
+            this.visitor = visitor;
+            this.subscription = subscription;
+            this.deserializer = deserializer;
+        }
+
+        @SuppressWarnings("unchecked")
+        void search(Node_ node, int depth) {
+            if (!boundsIntersect(node))
+                return;
+            int numChildren = node.childrenLength();
+            if (numChildren > 0) {
+                Node_ child = node(depth);
+                for (int i = 0; i < numChildren; i++) {
+                    if (isUnsubscribed())
+                        return;
+                    node.children(child, i);
+                    search(child, depth + 1);
+                }
+            } else {
+                int numEntries = node.entriesLength();
+                for (int i = 0; i < numEntries; i++) {
+                    if (isUnsubscribed())
+                        return;
+                    node.entries(entry, i);
+                    entry.geometry(geometry);
+                    if (geometryIntersects()) {
+                        final Geometry g = toGeometry(geometry);
+                        visitor.call(FlatBuffersHelper.<T, S> lazyEntry((S) g, deserializer,
+                                entry));
+                    }
+                }
+            }
+        }
+
+        private boolean isUnsubscribed() {
+            return subscription != null && subscription.isUnsubscribed();
+        }
+
+        private Node_ node(int depth) {
+            if (depth == nodes.length)
+                nodes = Arrays.copyOf(nodes, depth * 2);
+            Node_ n = nodes[depth];
+            if (n == null) {
+                n = new Node_();
+                nodes[depth] = n;
+            }
+            return n;
+        }
+
+        private boolean boundsIntersect(Node_ node) {
+            node.mbb(bounds);
+            if (bounds.type() == BoundsType_.BoundsDouble) {
+                BoxDouble_ b = bounds.boxDouble(boxDouble);
+                return intersects(b.minX(), b.minY(), b.maxX(), b.maxY());
+            } else {
+                BoxFloat_ b = bounds.boxFloat(boxFloat);
+                return intersects(b.minX(), b.minY(), b.maxX(), b.maxY());
+            }
+        }
+
+        private boolean geometryIntersects() {
+            byte type = geometry.type();
+            if (type == GeometryType_.PointFloat) {
+                PointFloat_ p = geometry.pointFloat(pointFloat);
+                return intersects(p.x(), p.y(), p.x(), p.y());
+            } else if (type == GeometryType_.PointDouble) {
+                PointDouble_ p = geometry.pointDouble(pointDouble);
+                return intersects(p.x(), p.y(), p.x(), p.y());
+            } else if (type == GeometryType_.BoxFloat) {
+                BoxFloat_ b = geometry.boxFloat(boxFloat);
+                return intersects(b.minX(), b.minY(), b.maxX(), b.maxY());
+            } else if (type == GeometryType_.BoxDouble) {
+                BoxDouble_ b = geometry.boxDouble(boxDouble);
+                return intersects(b.minX(), b.minY(), b.maxX(), b.maxY());
+            } else {
+                return toGeometry(geometry).intersects(r);
+            }
+        }
+
+        private boolean intersects(double a1, double b1, double a2, double b2) {
+            return GeometryUtil.intersects(x1, y1, x2, y2, a1, b1, a2, b2);
+        }
+
+    }
+
     private List<Node<T, S>> createChildren() {
 
         // reduce allocations by resusing objects
@@ -138,6 +288,35 @@ final class NonLeafFlatBuffers<T, S extends Geometry> implements NonLeaf<T, S> {
         return node.childrenLength();
     }
 
+    /**
+     * Returns the number of entries below this node, read from the node in
+     * the buffer. Buffers written before subtree sizes were stored have none
+     * so the first call on this object then reads the entry counts of every
+     * node of the subtree (without creating any nodes or entries).
+     */
+    @Override
+    public int size() {
+        if (size == -1)
+            size = size(node);
+        return size;
+    }
+
+    private static int size(Node_ node) {
+        int numChildren = node.childrenLength();
+        if (numChildren == 0)
+            return node.entriesLength();
+        long stored = node.size();
+        if (stored != 0)
+            return (int) stored;
+        Node_ child = new Node_();
+        int size = 0;
+        for (int i = 0; i < numChildren; i++) {
+            node.children(child, i);
+            size += size(child);
+        }
+        return size;
+    }
+
     @Override
     public Context<T, S> context() {
         return context;
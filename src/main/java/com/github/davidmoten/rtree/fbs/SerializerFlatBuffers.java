@@ -1,13 +1,20 @@
 package com.github.davidmoten.rtree.fbs;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.guavamini.Preconditions;
 import com.github.davidmoten.guavamini.annotations.VisibleForTesting;
 import com.github.davidmoten.rtree.Context;
 import com.github.davidmoten.rtree.Entry;
@@ -32,6 +39,7 @@ import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.geometry.Rectangle;
 import com.github.davidmoten.rtree.internal.LeafDefault;
 import com.github.davidmoten.rtree.internal.NonLeafDefault;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
 import com.google.flatbuffers.FlatBufferBuilder;
 
 import rx.functions.Func1;
@@ -47,24 +55,33 @@ public final class SerializerFlatBuffers<T, S extends Geometry> implements Seria
 
     public static <T, S extends Geometry> Serializer<T, S> create(
             Func1<? super T, byte[]> serializer, Func1<byte[], ? extends T> deserializer) {
+        return createForFiles(serializer, deserializer);
+    }
+
+    /**
+     * Returns a serializer like {@link #create(Func1, Func1)} but typed as
+     * {@link SerializerFlatBuffers} so that the methods writing to and reading
+     * from files, channels and buffers are available.
+     * 
+     * @param serializer
+     *            serializes entry values
+     * @param deserializer
+     *            deserializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return the serializer
+     */
+    public static <T, S extends Geometry> SerializerFlatBuffers<T, S> createForFiles(
+            Func1<? super T, byte[]> serializer, Func1<byte[], ? extends T> deserializer) {
         return new SerializerFlatBuffers<T, S>(serializer, deserializer);
     }
 
     @Override
     public void write(RTree<T, S> tree, OutputStream os) throws IOException {
         FlatBufferBuilder builder = new FlatBufferBuilder();
-        final Rectangle mbb;
-        if (tree.root().isPresent()) {
-            mbb = tree.root().get().geometry().mbr();
-        } else {
-            mbb = Geometries.rectangle(0, 0, 0, 0);
-        }
-        int b = toBounds(builder, mbb);
-        Context_.startContext_(builder);
-        Context_.addBounds(builder, b);
-        Context_.addMinChildren(builder, tree.context().minChildren());
-        Context_.addMaxChildren(builder, tree.context().maxChildren());
-        int c = Context_.endContext_(builder);
+        int c = addContext(tree, builder);
         final int n;
         if (tree.root().isPresent()) {
             n = addNode(tree.root().get(), builder, factory.serializer());
@@ -86,6 +103,195 @@ public final class SerializerFlatBuffers<T, S extends Geometry> implements Seria
         os.write(bb.array(), bb.position(), bb.remaining());
     }
 
+    /**
+     * Writes the tree to the given file node by node so that the whole encoded
+     * tree is never held in memory (see {@link #write(RTree, FileChannel)}).
+     * 
+     * @param tree
+     *            tree to write
+     * @param file
+     *            file to write to, is overwritten
+     * @throws IOException
+     *             on I/O error
+     */
+    public void write(RTree<T, S> tree, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            write(tree, raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the tree to the channel, starting at position 0 and truncating
+     * the channel to the written length. The output can be read by any of the
+     * read methods of this class.
+     * 
+     * <p>
+     * Unlike {@link #write(RTree, OutputStream)} which encodes the whole tree in
+     * one buffer before writing it, each node is encoded in its own small
+     * buffer and written to the channel immediately. Nodes are laid out
+     * parent before children and the offsets from a non-leaf to its children
+     * are filled in once the children have been written, so the heap used is
+     * proportional to the depth of the tree times the node size rather than to
+     * the size of the tree.
+     * 
+     * @param tree
+     *            tree to write
+     * @param channel
+     *            channel to write to
+     * @throws IOException
+     *             on I/O error
+     */
+    public void write(RTree<T, S> tree, FileChannel channel) throws IOException {
+        channel.truncate(0);
+        if (!tree.root().isPresent()) {
+            // small enough to write in one go
+            write(tree, Channels.newOutputStream(channel.position(0)));
+            return;
+        }
+        FlatBufferBuilder builder = new FlatBufferBuilder();
+        int c = addContext(tree, builder);
+        Tree_.startTree_(builder);
+        Tree_.addContext(builder, c);
+        Tree_.addSize(builder, tree.size());
+        // placeholder for the offset to the root node (written after the root
+        // node), not equal to the default so that it is always written
+        builder.addInt(1, 0, 1);
+        int rootSlot = builder.offset();
+        int t = Tree_.endTree_(builder);
+        Tree_.finishTree_Buffer(builder, t);
+
+        ChunkWriter<T, S> writer = new ChunkWriter<T, S>(channel, builder, factory.serializer());
+        long rootSlotPosition = writer.write() + writer.length - rootSlot;
+        long rootPosition = writer.writeNode(tree.root().get());
+        writer.patch(rootSlotPosition, new long[] { rootPosition });
+        channel.truncate(writer.position);
+    }
+
+    private static <T, S extends Geometry> int addContext(RTree<T, S> tree,
+            FlatBufferBuilder builder) {
+        final Rectangle mbb;
+        if (tree.root().isPresent()) {
+            mbb = tree.root().get().geometry().mbr();
+        } else {
+            mbb = Geometries.rectangle(0, 0, 0, 0);
+        }
+        int b = toBounds(builder, mbb);
+        Context_.startContext_(builder);
+        Context_.addBounds(builder, b);
+        Context_.addMinChildren(builder, tree.context().minChildren());
+        Context_.addMaxChildren(builder, tree.context().maxChildren());
+        return Context_.endContext_(builder);
+    }
+
+    /**
+     * Writes the contents of a {@link FlatBufferBuilder} to successive
+     * positions of a channel and patches offsets between the written chunks.
+     * FlatBuffers offsets are relative to the position they are stored at so a
+     * chunk encoded in isolation is valid wherever it is placed.
+     */
+    private static final class ChunkWriter<T, S extends Geometry> {
+
+        private final FileChannel channel;
+        private final FlatBufferBuilder builder;
+        private final Func1<? super T, byte[]> serializer;
+        private final ByteBuffer patch = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * Position to write the next chunk at.
+         */
+        long position;
+
+        /**
+         * Length of the last chunk written.
+         */
+        int length;
+
+        ChunkWriter(FileChannel channel, FlatBufferBuilder builder,
+                Func1<? super T, byte[]> serializer) {
+            this.channel = channel;
+            this.builder = builder;
+            this.serializer = serializer;
+        }
+
+        /**
+         * Writes the subtree below node and returns the position of the Node_
+         * table of node.
+         */
+        long writeNode(Node<T, S> node) throws IOException {
+            builder.init(builder.dataBuffer());
+            if (node instanceof Leaf) {
+                Leaf<T, S> leaf = (Leaf<T, S>) node;
+                int n = FlatBuffersHelper.addEntries(leaf.entries(), builder, serializer);
+                builder.finish(n);
+                return write() + length - n;
+            } else {
+                NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+                int count = nonLeaf.count();
+                Node_.startChildrenVector(builder, count);
+                // placeholders for the offsets to the children
+                for (int i = 0; i < count; i++)
+                    builder.addInt(0);
+                int ch = builder.endVector();
+                int b = toBounds(builder, nonLeaf.geometry().mbr());
+                Node_.startNode_(builder);
+                Node_.addChildren(builder, ch);
+                Node_.addMbb(builder, b);
+                Node_.addSize(builder, NonLeafHelper.size(nonLeaf));
+                int n = Node_.endNode_(builder);
+                builder.finish(n);
+                long start = write();
+                long nodePosition = start + length - n;
+                // skip the vector length
+                long childrenPosition = start + length - ch + 4;
+                long[] childPositions = new long[count];
+                for (int i = 0; i < count; i++)
+                    childPositions[i] = writeNode(nonLeaf.child(i));
+                patch(childrenPosition, childPositions);
+                return nodePosition;
+            }
+        }
+
+        /**
+         * Writes the data of the (finished) builder to the channel and returns
+         * the position it was written at. Chunks are placed so that they end on
+         * an 8 byte boundary because the builder aligns values relative to the
+         * end of its buffer. Each chunk starts with the unused root offset
+         * written by {@link FlatBufferBuilder#finish(int)}.
+         */
+        long write() throws IOException {
+            ByteBuffer bb = builder.dataBuffer();
+            length = bb.remaining();
+            long start = position == 0 ? 0 : position + ((8 - (position + length) % 8) % 8);
+            if (start + length > Integer.MAX_VALUE)
+                throw new IOException("FlatBuffers serialized trees cannot exceed 2GB");
+            long p = start;
+            while (bb.hasRemaining())
+                p += channel.write(bb, p);
+            position = p;
+            return start;
+        }
+
+        /**
+         * Writes at position the offsets to the given target positions as
+         * consecutive FlatBuffers uoffsets.
+         */
+        void patch(long position, long[] targets) throws IOException {
+            ByteBuffer bb = targets.length == 1 ? patch
+                    : ByteBuffer.allocate(4 * targets.length).order(ByteOrder.LITTLE_ENDIAN);
+            bb.clear();
+            for (int i = 0; i < targets.length; i++)
+                bb.putInt((int) (targets[i] - (position + 4 * i)));
+            bb.flip();
+            long p = position;
+            while (bb.hasRemaining())
+                p += channel.write(bb, p);
+        }
+    }
+
     private static int toBounds(FlatBufferBuilder builder, final Rectangle r) {
         Bounds_.startBounds_(builder);
         if (r.isDoublePrecision()) {
@@ -119,6 +325,7 @@ public final class SerializerFlatBuffers<T, S extends Geometry> implements Seria
             Node_.startNode_(builder);
             Node_.addChildren(builder, ch);
             Node_.addMbb(builder, b);
+            Node_.addSize(builder, NonLeafHelper.size(nonLeaf));
             return Node_.endNode_(builder);
         }
     }
@@ -127,7 +334,70 @@ public final class SerializerFlatBuffers<T, S extends Geometry> implements Seria
     public RTree<T, S> read(InputStream is, long sizeBytes, InternalStructure structure)
             throws IOException {
         byte[] bytes = readFully(is, (int) sizeBytes);
-        Tree_ t = Tree_.getRootAsTree_(ByteBuffer.wrap(bytes));
+        return read(ByteBuffer.wrap(bytes), structure);
+    }
+
+    /**
+     * Reads a tree from the given file by memory-mapping it rather than copying
+     * it on to the heap. With {@link InternalStructure#SINGLE_ARRAY} the nodes
+     * are traversed in place in the mapped file so startup is near instant and
+     * the pages are shared (via the OS page cache) with other processes mapping
+     * the same file. The mapping remains valid after this method returns.
+     * 
+     * <p>
+     * FlatBuffers uses 32-bit offsets so the file must be smaller than 2GB.
+     * 
+     * @param file
+     *            file written by {@link #write(RTree, OutputStream)}
+     * @param structure
+     *            internal structure of the returned tree
+     * @return tree
+     * @throws IOException
+     *             on I/O error
+     */
+    public RTree<T, S> read(File file, InternalStructure structure) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return read(raf.getChannel(), structure);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a tree from the whole of the given channel by memory-mapping it. See
+     * {@link #read(File, InternalStructure)}. The channel may be closed once
+     * this method returns.
+     * 
+     * @param channel
+     *            channel positioned anywhere, read from position 0
+     * @param structure
+     *            internal structure of the returned tree
+     * @return tree
+     * @throws IOException
+     *             on I/O error
+     */
+    public RTree<T, S> read(FileChannel channel, InternalStructure structure)
+            throws IOException {
+        long size = channel.size();
+        Preconditions.checkArgument(size <= Integer.MAX_VALUE,
+                "FlatBuffers serialized trees cannot exceed 2GB");
+        return read(channel.map(MapMode.READ_ONLY, 0, size), structure);
+    }
+
+    /**
+     * Reads a tree from the given buffer (heap, direct or memory-mapped) from
+     * its current position. With {@link InternalStructure#SINGLE_ARRAY} the
+     * buffer is used in place and must not be modified afterwards.
+     * 
+     * @param bb
+     *            buffer containing a serialized tree
+     * @param structure
+     *            internal structure of the returned tree
+     * @return tree
+     */
+    public RTree<T, S> read(ByteBuffer bb, InternalStructure structure) {
+        Tree_ t = Tree_.getRootAsTree_(bb);
         Context<T, S> context = new Context<T, S>(t.context().minChildren(),
                 t.context().maxChildren(), new SelectorRStar(), new SplitterRStar(), factory);
         Node_ node = t.root();
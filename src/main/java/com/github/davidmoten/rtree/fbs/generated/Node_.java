@@ -22,19 +22,22 @@ public final class Node_ extends Table {
   public Entry_ entries(int j) { return entries(new Entry_(), j); }
   public Entry_ entries(Entry_ obj, int j) { int o = __offset(8); return o != 0 ? obj.__init(__indirect(__vector(o) + j * 4), bb) : null; }
   public int entriesLength() { int o = __offset(8); return o != 0 ? __vector_len(o) : 0; }
+  public long size() { int o = __offset(10); return o != 0 ? (long)bb.getInt(o + bb_pos) & 0xFFFFFFFFL : 0; }
 
   public static int createNode_(FlatBufferBuilder builder,
       int mbbOffset,
       int childrenOffset,
-      int entriesOffset) {
-    builder.startObject(3);
+      int entriesOffset,
+      long size) {
+    builder.startObject(4);
+    Node_.addSize(builder, size);
     Node_.addEntries(builder, entriesOffset);
     Node_.addChildren(builder, childrenOffset);
     Node_.addMbb(builder, mbbOffset);
     return Node_.endNode_(builder);
   }
 
-  public static void startNode_(FlatBufferBuilder builder) { builder.startObject(3); }
+  public static void startNode_(FlatBufferBuilder builder) { builder.startObject(4); }
   public static void addMbb(FlatBufferBuilder builder, int mbbOffset) { builder.addOffset(0, mbbOffset, 0); }
   public static void addChildren(FlatBufferBuilder builder, int childrenOffset) { builder.addOffset(1, childrenOffset, 0); }
   public static int createChildrenVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
@@ -42,6 +45,7 @@ public final class Node_ extends Table {
   public static void addEntries(FlatBufferBuilder builder, int entriesOffset) { builder.addOffset(2, entriesOffset, 0); }
   public static int createEntriesVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
   public static void startEntriesVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addSize(FlatBufferBuilder builder, long size) { builder.addInt(3, (int)size, 0); }
   public static int endNode_(FlatBufferBuilder builder) {
     int o = builder.endObject();
     return o;
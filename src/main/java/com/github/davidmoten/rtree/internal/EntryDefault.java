@@ -1,11 +1,9 @@
 package com.github.davidmoten.rtree.internal;
 
 import com.github.davidmoten.guavamini.Objects;
-import com.github.davidmoten.guavamini.Optional;
 import com.github.davidmoten.guavamini.Preconditions;
 import com.github.davidmoten.rtree.Entry;
 import com.github.davidmoten.rtree.geometry.Geometry;
-import com.github.davidmoten.rtree.internal.util.ObjectsHelper;
 
 /**
  * An entry in the R-tree which has a spatial representation.
@@ -76,13 +74,16 @@ public final class EntryDefault<T, S extends Geometry> implements Entry<T, S> {
         return Objects.hashCode(value, geometry);
     }
 
+    /**
+     * Returns true if obj is an {@link Entry} (of any implementation) with an
+     * equal value and geometry.
+     */
     @Override
     public boolean equals(Object obj) {
-        @SuppressWarnings("rawtypes")
-        Optional<EntryDefault> other = ObjectsHelper.asClass(obj, EntryDefault.class);
-        if (other.isPresent()) {
-            return Objects.equal(value, other.get().value)
-                    && Objects.equal(geometry, other.get().geometry);
+        if (obj instanceof Entry) {
+            Entry<?, ?> other = (Entry<?, ?>) obj;
+            return Objects.equal(value, other.value())
+                    && Objects.equal(geometry, other.geometry());
         } else
             return false;
     }
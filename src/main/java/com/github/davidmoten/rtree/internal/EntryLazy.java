@@ -0,0 +1,77 @@
+package com.github.davidmoten.rtree.internal;
+
+import com.github.davidmoten.guavamini.Objects;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+/**
+ * Entry read from a serialized tree whose value is deserialized by
+ * {@link #decode()} on the first call to {@link #value()} and then cached, so
+ * consumers that only use the geometry (or count or discard entries) never pay
+ * for value deserialization. Equal to any {@link Entry} with an equal value and
+ * geometry.
+ *
+ * @param <T>
+ *            value type
+ * @param <S>
+ *            geometry type
+ */
+public abstract class EntryLazy<T, S extends Geometry> implements Entry<T, S> {
+
+    private static final Object NOT_DECODED = new Object();
+
+    private final S geometry;
+    private volatile Object value = NOT_DECODED;
+
+    protected EntryLazy(S geometry) {
+        this.geometry = geometry;
+    }
+
+    /**
+     * Deserializes the value. May be called more than once if the value is
+     * first read by concurrent threads.
+     *
+     * @return the value of the entry
+     */
+    protected abstract T decode();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T value() {
+        Object v = value;
+        if (v == NOT_DECODED) {
+            // a race may deserialize twice which is harmless
+            v = decode();
+            value = v;
+        }
+        return (T) v;
+    }
+
+    @Override
+    public final S geometry() {
+        return geometry;
+    }
+
+    @Override
+    public String toString() {
+        return "Entry [value=" + value() + ", geometry=" + geometry + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value(), geometry);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        else if (obj instanceof Entry) {
+            Entry<?, ?> other = (Entry<?, ?>) obj;
+            return Objects.equal(geometry, other.geometry())
+                    && Objects.equal(value(), other.value());
+        } else
+            return false;
+    }
+
+}
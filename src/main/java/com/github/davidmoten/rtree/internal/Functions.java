@@ -1,5 +1,7 @@
 package com.github.davidmoten.rtree.internal;
 
+import rx.Subscriber;
+import rx.functions.Action1;
 import rx.functions.Func1;
 
 public final class Functions {
@@ -34,5 +36,25 @@ public final class Functions {
             }
         };
     }
+
+    /**
+     * Returns an action that passes its argument to
+     * {@link Subscriber#onNext(Object)} of the subscriber, for emitting the
+     * results of a synchronous search.
+     * 
+     * @param subscriber
+     *            subscriber to emit to
+     * @param <T>
+     *            the emitted type
+     * @return action emitting to the subscriber
+     */
+    public static <T> Action1<T> onNext(final Subscriber<? super T> subscriber) {
+        return new Action1<T>() {
+            @Override
+            public void call(T t) {
+                subscriber.onNext(t);
+            }
+        };
+    }
     
 }
@@ -0,0 +1,173 @@
+package com.github.davidmoten.rtree.internal;
+
+import com.github.davidmoten.rtree.geometry.Circle;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Line;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+/**
+ * Encoding of geometries as a type and four coordinates shared by the binary
+ * formats of this library: points and rectangles as x1, y1, x2, y2 (so both
+ * can be compared to a rectangle using their raw coordinates), circles as x, y,
+ * radius, 0 and lines as x1, y1, x2, y2. The type is flagged with
+ * {@link #DOUBLE_PRECISION} if the geometry is double precision.
+ */
+public final class GeometryCodec {
+
+    public static final int POINT = 1;
+    public static final int RECTANGLE = 2;
+    public static final int CIRCLE = 3;
+    public static final int LINE = 4;
+    // or'ed with the type of double precision geometries
+    public static final int DOUBLE_PRECISION = 8;
+
+    private GeometryCodec() {
+        // prevent instantiation
+    }
+
+    /**
+     * Writes the four coordinates of the geometry to {@code coordinates} and
+     * returns its type.
+     *
+     * @param g
+     *            geometry to encode
+     * @param coordinates
+     *            array of at least four elements to write the coordinates to
+     * @return the type of the geometry
+     */
+    public static int encode(Geometry g, double[] coordinates) {
+        int precision = g.isDoublePrecision() ? DOUBLE_PRECISION : 0;
+        // Must check Point before Rectangle because Point is instance of
+        // Rectangle
+        if (g instanceof Point) {
+            Point p = (Point) g;
+            return set(coordinates, POINT | precision, p.x(), p.y(), p.x(), p.y());
+        } else if (g instanceof Rectangle) {
+            Rectangle r = (Rectangle) g;
+            return set(coordinates, RECTANGLE | precision, r.x1(), r.y1(), r.x2(), r.y2());
+        } else if (g instanceof Circle) {
+            Circle c = (Circle) g;
+            return set(coordinates, CIRCLE | precision, c.x(), c.y(), c.radius(), 0);
+        } else if (g instanceof Line) {
+            Line line = (Line) g;
+            return set(coordinates, LINE | precision, line.x1(), line.y1(), line.x2(),
+                    line.y2());
+        } else
+            throw new IllegalArgumentException("unexpected geometry " + g);
+    }
+
+    private static int set(double[] coordinates, int type, double a, double b, double c,
+            double d) {
+        coordinates[0] = a;
+        coordinates[1] = b;
+        coordinates[2] = c;
+        coordinates[3] = d;
+        return type;
+    }
+
+    /**
+     * Returns the number of leading coordinates that are needed to decode a
+     * geometry of the type (the others are duplicates or zero).
+     *
+     * @param type
+     *            type returned by {@link #encode(Geometry, double[])}
+     * @return 2, 3 or 4
+     */
+    public static int dimensions(int type) {
+        switch (type & ~DOUBLE_PRECISION) {
+        case POINT:
+            return 2;
+        case CIRCLE:
+            return 3;
+        case RECTANGLE:
+        case LINE:
+            return 4;
+        default:
+            throw new IllegalStateException("unexpected geometry type " + type);
+        }
+    }
+
+    /**
+     * Returns true if the four coordinates of a geometry of the type are the
+     * bounds of the geometry (points and rectangles) so that it can be tested
+     * for intersection with a rectangle without decoding it.
+     *
+     * @param type
+     *            type returned by {@link #encode(Geometry, double[])}
+     * @return true for points and rectangles
+     */
+    public static boolean isRectangular(int type) {
+        return (type & ~DOUBLE_PRECISION) <= RECTANGLE;
+    }
+
+    /**
+     * Returns the geometry of the given type and coordinates.
+     *
+     * @param type
+     *            type returned by {@link #encode(Geometry, double[])}
+     * @param a
+     *            first coordinate
+     * @param b
+     *            second coordinate
+     * @param c
+     *            third coordinate, ignored for points
+     * @param d
+     *            fourth coordinate, ignored for points and circles
+     * @return the decoded geometry
+     */
+    public static Geometry decode(int type, double a, double b, double c, double d) {
+        if ((type & DOUBLE_PRECISION) != 0) {
+            switch (type & ~DOUBLE_PRECISION) {
+            case POINT:
+                return Geometries.point(a, b);
+            case RECTANGLE:
+                return Geometries.rectangle(a, b, c, d);
+            case CIRCLE:
+                return Geometries.circle(a, b, c);
+            case LINE:
+                return Geometries.line(a, b, c, d);
+            default:
+                throw new IllegalStateException("unexpected geometry type " + type);
+            }
+        } else {
+            switch (type) {
+            case POINT:
+                return Geometries.point((float) a, (float) b);
+            case RECTANGLE:
+                return Geometries.rectangle((float) a, (float) b, (float) c, (float) d);
+            case CIRCLE:
+                return Geometries.circle((float) a, (float) b, (float) c);
+            case LINE:
+                return Geometries.line((float) a, (float) b, (float) c, (float) d);
+            default:
+                throw new IllegalStateException("unexpected geometry type " + type);
+            }
+        }
+    }
+
+    /**
+     * Returns the rectangle with the given coordinates and the precision
+     * flagged in {@code type}, for reading the bounds of nodes.
+     *
+     * @param type
+     *            a type with {@link #DOUBLE_PRECISION} set for double precision
+     * @param x1
+     *            min x
+     * @param y1
+     *            min y
+     * @param x2
+     *            max x
+     * @param y2
+     *            max y
+     * @return the rectangle
+     */
+    public static Rectangle bounds(int type, double x1, double y1, double x2, double y2) {
+        if ((type & DOUBLE_PRECISION) != 0)
+            return Geometries.rectangle(x1, y1, x2, y2);
+        else
+            return Geometries.rectangle((float) x1, (float) y1, (float) x2, (float) y2);
+    }
+
+}
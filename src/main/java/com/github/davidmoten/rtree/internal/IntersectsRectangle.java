@@ -0,0 +1,37 @@
+package com.github.davidmoten.rtree.internal;
+
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Func1;
+
+/**
+ * Search criterion that is true for geometries intersecting a rectangle. A named
+ * class (rather than an anonymous one) so that node implementations can
+ * recognise it and test their raw coordinates against {@link #rectangle()}
+ * directly instead of materialising {@link Geometry} objects.
+ */
+public final class IntersectsRectangle implements Func1<Geometry, Boolean>, GeometryPredicate {
+
+    private final Rectangle r;
+
+    public IntersectsRectangle(Rectangle r) {
+        this.r = r;
+    }
+
+    public Rectangle rectangle() {
+        return r;
+    }
+
+    @Override
+    public Boolean call(Geometry g) {
+        return g.intersects(r);
+    }
+
+    @Override
+    public boolean test(Geometry g) {
+        return g.intersects(r);
+    }
+
+}
@@ -0,0 +1,220 @@
+package com.github.davidmoten.rtree.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.HasGeometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.geometry.internal.RectangleDouble;
+
+import rx.functions.Action2;
+import rx.functions.Func2;
+
+/**
+ * Spatial join of two trees by synchronized traversal (Brinkhoff, Kriegel and
+ * Seeger, "Efficient Processing of Spatial Joins Using R-trees", 1993). Pairs
+ * of nodes are only descended into when their bounds intersect, and only the
+ * children (or entries) of each node that intersect the intersection of the
+ * two nodes' bounds are considered when pairing up the next level. Trees of
+ * different heights are handled by descending only the non-leaf side of a
+ * leaf/non-leaf pair.
+ */
+public final class Join {
+
+    private Join() {
+        // prevent instantiation
+    }
+
+    /**
+     * Reports to the visitor every pair of entries (one from each tree) whose
+     * geometries have intersecting bounds and satisfy the condition.
+     * 
+     * @param a
+     *            root of the first tree
+     * @param b
+     *            root of the second tree
+     * @param condition
+     *            condition applied to pairs of entries with intersecting bounds
+     * @param visitor
+     *            called with each matching pair
+     * @param <T>
+     *            value type of the first tree
+     * @param <S>
+     *            geometry type of the first tree
+     * @param <R>
+     *            value type of the second tree
+     * @param <U>
+     *            geometry type of the second tree
+     */
+    public static <T, S extends Geometry, R, U extends Geometry> void join(Node<T, S> a,
+            Node<R, U> b, Func2<? super Entry<T, S>, ? super Entry<R, U>, Boolean> condition,
+            Action2<? super Entry<T, S>, ? super Entry<R, U>> visitor) {
+        if (a.geometry().mbr().intersects(b.geometry().mbr()))
+            joinIntersecting(a, b, condition, visitor);
+    }
+
+    /**
+     * As {@link #join(Node, Node, Func2, Action2)} but expands the top levels of
+     * the traversal into at least {@code parallelism * 4} node pairs (where the
+     * trees are big enough) and joins the pairs concurrently on the executor.
+     * The visitor is called from the executor threads so must be thread-safe.
+     * 
+     * @param a
+     *            root of the first tree
+     * @param b
+     *            root of the second tree
+     * @param condition
+     *            condition applied to pairs of entries with intersecting bounds
+     * @param visitor
+     *            thread-safe visitor called with each matching pair
+     * @param executor
+     *            executor to run the joins of node pairs on
+     * @param parallelism
+     *            number of threads expected to be available in the executor
+     * @param <T>
+     *            value type of the first tree
+     * @param <S>
+     *            geometry type of the first tree
+     * @param <R>
+     *            value type of the second tree
+     * @param <U>
+     *            geometry type of the second tree
+     */
+    public static <T, S extends Geometry, R, U extends Geometry> void join(Node<T, S> a,
+            Node<R, U> b, final Func2<? super Entry<T, S>, ? super Entry<R, U>, Boolean> condition,
+            final Action2<? super Entry<T, S>, ? super Entry<R, U>> visitor,
+            ExecutorService executor, int parallelism) {
+        if (!a.geometry().mbr().intersects(b.geometry().mbr()))
+            return;
+        List<NodePair<T, S, R, U>> pairs = new ArrayList<NodePair<T, S, R, U>>();
+        pairs.add(new NodePair<T, S, R, U>(a, b));
+        int minPairs = parallelism * 4;
+        while (pairs.size() < minPairs) {
+            List<NodePair<T, S, R, U>> next = new ArrayList<NodePair<T, S, R, U>>();
+            boolean expanded = false;
+            for (NodePair<T, S, R, U> pair : pairs) {
+                if (pair.a instanceof Leaf && pair.b instanceof Leaf)
+                    next.add(pair);
+                else {
+                    expand(pair.a, pair.b, next);
+                    expanded = true;
+                }
+            }
+            pairs = next;
+            if (!expanded)
+                break;
+        }
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(pairs.size());
+        for (final NodePair<T, S, R, U> pair : pairs)
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    joinIntersecting(pair.a, pair.b, condition, visitor);
+                    return null;
+                }
+            }));
+        Util.getAll(futures);
+    }
+
+    private static final class NodePair<T, S extends Geometry, R, U extends Geometry> {
+        final Node<T, S> a;
+        final Node<R, U> b;
+
+        NodePair(Node<T, S> a, Node<R, U> b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private static <T, S extends Geometry, R, U extends Geometry> void joinIntersecting(
+            Node<T, S> a, Node<R, U> b,
+            Func2<? super Entry<T, S>, ? super Entry<R, U>, Boolean> condition,
+            Action2<? super Entry<T, S>, ? super Entry<R, U>> visitor) {
+        if (a instanceof Leaf && b instanceof Leaf)
+            joinLeaves((Leaf<T, S>) a, (Leaf<R, U>) b, condition, visitor);
+        else {
+            List<NodePair<T, S, R, U>> pairs = new ArrayList<NodePair<T, S, R, U>>();
+            expand(a, b, pairs);
+            for (NodePair<T, S, R, U> pair : pairs)
+                joinIntersecting(pair.a, pair.b, condition, visitor);
+        }
+    }
+
+    /**
+     * Adds to {@code pairs} the pairs of nodes with intersecting bounds one
+     * level down from the given pair of intersecting nodes, at least one of
+     * which is a non-leaf.
+     */
+    private static <T, S extends Geometry, R, U extends Geometry> void expand(Node<T, S> a,
+            Node<R, U> b, List<NodePair<T, S, R, U>> pairs) {
+        Rectangle ra = a.geometry().mbr();
+        Rectangle rb = b.geometry().mbr();
+        if (a instanceof Leaf) {
+            NonLeaf<R, U> nb = (NonLeaf<R, U>) b;
+            for (int j = 0; j < nb.count(); j++) {
+                Node<R, U> child = nb.child(j);
+                if (child.geometry().mbr().intersects(ra))
+                    pairs.add(new NodePair<T, S, R, U>(a, child));
+            }
+        } else if (b instanceof Leaf) {
+            NonLeaf<T, S> na = (NonLeaf<T, S>) a;
+            for (int i = 0; i < na.count(); i++) {
+                Node<T, S> child = na.child(i);
+                if (child.geometry().mbr().intersects(rb))
+                    pairs.add(new NodePair<T, S, R, U>(child, b));
+            }
+        } else {
+            // restrict both sides to the intersection of the two nodes' bounds
+            Rectangle window = intersection(ra, rb);
+            List<Node<T, S>> as = restrict(((NonLeaf<T, S>) a).children(), window);
+            List<Node<R, U>> bs = restrict(((NonLeaf<R, U>) b).children(), window);
+            for (Node<T, S> ca : as) {
+                Rectangle rca = ca.geometry().mbr();
+                for (Node<R, U> cb : bs)
+                    if (rca.intersects(cb.geometry().mbr()))
+                        pairs.add(new NodePair<T, S, R, U>(ca, cb));
+            }
+        }
+    }
+
+    private static <T, S extends Geometry, R, U extends Geometry> void joinLeaves(Leaf<T, S> a,
+            Leaf<R, U> b, Func2<? super Entry<T, S>, ? super Entry<R, U>, Boolean> condition,
+            Action2<? super Entry<T, S>, ? super Entry<R, U>> visitor) {
+        Rectangle window = intersection(a.geometry().mbr(), b.geometry().mbr());
+        List<Entry<T, S>> as = restrict(a.entries(), window);
+        if (as.isEmpty())
+            return;
+        List<Entry<R, U>> bs = restrict(b.entries(), window);
+        for (Entry<T, S> ea : as) {
+            Rectangle rea = ea.geometry().mbr();
+            for (Entry<R, U> eb : bs)
+                if (rea.intersects(eb.geometry().mbr()) && condition.call(ea, eb))
+                    visitor.call(ea, eb);
+        }
+    }
+
+    private static <T extends HasGeometry> List<T> restrict(List<? extends T> items,
+            Rectangle window) {
+        List<T> list = new ArrayList<T>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            T item = items.get(i);
+            if (item.geometry().mbr().intersects(window))
+                list.add(item);
+        }
+        return list;
+    }
+
+    private static Rectangle intersection(Rectangle a, Rectangle b) {
+        return RectangleDouble.create(Math.max(a.x1(), b.x1()), Math.max(a.y1(), b.y1()),
+                Math.min(a.x2(), b.x2()), Math.min(a.y2(), b.y2()));
+    }
+
+}
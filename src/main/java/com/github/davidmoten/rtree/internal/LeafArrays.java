@@ -0,0 +1,248 @@
+package com.github.davidmoten.rtree.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.geometry.internal.PointDouble;
+import com.github.davidmoten.rtree.geometry.internal.PointFloat;
+import com.github.davidmoten.rtree.geometry.internal.RectangleDouble;
+import com.github.davidmoten.rtree.geometry.internal.RectangleFloat;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Leaf that stores the bounding rectangles of its entries in parallel
+ * primitive arrays and the values in an {@code Object[]} rather than as a list
+ * of {@link Entry} objects. Points and rectangles are rebuilt from the arrays
+ * (with their original precision) so only other geometry types (circles,
+ * lines, custom geometries) keep a reference to the geometry object.
+ * Rectangle searches scan the arrays directly and entries are only created
+ * for matches.
+ *
+ * @param <T>
+ *            the value type
+ * @param <S>
+ *            the geometry type
+ */
+public final class LeafArrays<T, S extends Geometry> implements Leaf<T, S>, VisitableNode<T, S> {
+
+    private static final byte POINT_DOUBLE = 0;
+    private static final byte POINT_FLOAT = 1;
+    private static final byte RECTANGLE_DOUBLE = 2;
+    private static final byte RECTANGLE_FLOAT = 3;
+    private static final byte OTHER = 4;
+
+    private final double[] x1s;
+    private final double[] y1s;
+    private final double[] x2s;
+    private final double[] y2s;
+    private final byte[] types;
+    private final Object[] values;
+    // null unless at least one geometry is not a point or rectangle
+    private final Geometry[] others;
+    private final Rectangle mbr;
+    private final Context<T, S> context;
+
+    public LeafArrays(List<Entry<T, S>> entries, Context<T, S> context) {
+        Preconditions.checkArgument(!entries.isEmpty());
+        int n = entries.size();
+        this.x1s = new double[n];
+        this.y1s = new double[n];
+        this.x2s = new double[n];
+        this.y2s = new double[n];
+        this.types = new byte[n];
+        this.values = new Object[n];
+        this.context = context;
+        Geometry[] others = null;
+        double minX1 = Double.MAX_VALUE;
+        double minY1 = Double.MAX_VALUE;
+        double maxX2 = -Double.MAX_VALUE;
+        double maxY2 = -Double.MAX_VALUE;
+        boolean isDoublePrecision = false;
+        for (int i = 0; i < n; i++) {
+            Entry<T, S> entry = entries.get(i);
+            S g = entry.geometry();
+            values[i] = entry.value();
+            types[i] = type(g);
+            if (types[i] == OTHER) {
+                if (others == null)
+                    others = new Geometry[n];
+                others[i] = g;
+            }
+            Rectangle r = g.mbr();
+            x1s[i] = r.x1();
+            y1s[i] = r.y1();
+            x2s[i] = r.x2();
+            y2s[i] = r.y2();
+            if (r.isDoublePrecision())
+                isDoublePrecision = true;
+            minX1 = Math.min(minX1, x1s[i]);
+            minY1 = Math.min(minY1, y1s[i]);
+            maxX2 = Math.max(maxX2, x2s[i]);
+            maxY2 = Math.max(maxY2, y2s[i]);
+        }
+        this.others = others;
+        // same bounds (and precision) as Util.mbr(entries)
+        if (isDoublePrecision)
+            this.mbr = Geometries.rectangle(minX1, minY1, maxX2, maxY2);
+        else
+            this.mbr = Geometries.rectangle((float) minX1, (float) minY1, (float) maxX2,
+                    (float) maxY2);
+    }
+
+    private static byte type(Geometry g) {
+        if (g instanceof PointDouble)
+            return POINT_DOUBLE;
+        else if (g instanceof PointFloat)
+            return POINT_FLOAT;
+        else if (g instanceof RectangleDouble)
+            return RECTANGLE_DOUBLE;
+        else if (g instanceof RectangleFloat)
+            return RECTANGLE_FLOAT;
+        else
+            return OTHER;
+    }
+
+    @SuppressWarnings("unchecked")
+    private S geometry(int i) {
+        switch (types[i]) {
+        case POINT_DOUBLE:
+            return (S) Geometries.point(x1s[i], y1s[i]);
+        case POINT_FLOAT:
+            return (S) Geometries.point((float) x1s[i], (float) y1s[i]);
+        case RECTANGLE_DOUBLE:
+            return (S) Geometries.rectangle(x1s[i], y1s[i], x2s[i], y2s[i]);
+        case RECTANGLE_FLOAT:
+            return (S) Geometries.rectangle((float) x1s[i], (float) y1s[i], (float) x2s[i],
+                    (float) y2s[i]);
+        default:
+            return (S) others[i];
+        }
+    }
+
+    @Override
+    public Geometry geometry() {
+        return mbr;
+    }
+
+    @Override
+    public List<Entry<T, S>> entries() {
+        List<Entry<T, S>> list = new ArrayList<Entry<T, S>>(values.length);
+        for (int i = 0; i < values.length; i++)
+            list.add(entry(i));
+        return list;
+    }
+
+    @Override
+    public Entry<T, S> entry(int i) {
+        return context.factory().createEntry(value(i), geometry(i));
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> condition,
+            Subscriber<? super Entry<T, S>> subscriber) {
+        if (!condition.call(mbr))
+            return;
+        if (condition instanceof IntersectsRectangle) {
+            searchRectangle(((IntersectsRectangle) condition).rectangle(), subscriber);
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (subscriber.isUnsubscribed())
+                return;
+            S g = geometry(i);
+            if (condition.call(g))
+                subscriber.onNext(context.factory().createEntry(value(i), g));
+        }
+    }
+
+    private void searchRectangle(Rectangle r, Subscriber<? super Entry<T, S>> subscriber) {
+        // the subscription is checked once before the scan and then only
+        // after each emission so the loop over non-matching entries is tight
+        if (subscriber.isUnsubscribed())
+            return;
+        for (int i = next(r, 0); i < values.length; i = next(r, i + 1)) {
+            subscriber.onNext(entry(i));
+            if (subscriber.isUnsubscribed())
+                return;
+        }
+    }
+
+    @Override
+    public void search(GeometryPredicate criterion, Action1<? super Entry<T, S>> visitor) {
+        if (!criterion.test(mbr))
+            return;
+        if (criterion instanceof IntersectsRectangle) {
+            Rectangle r = ((IntersectsRectangle) criterion).rectangle();
+            for (int i = next(r, 0); i < values.length; i = next(r, i + 1))
+                visitor.call(entry(i));
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                S g = geometry(i);
+                if (criterion.test(g))
+                    visitor.call(context.factory().createEntry(value(i), g));
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first entry from {@code from} that intersects r
+     * or the number of entries if there is none.
+     */
+    private int next(Rectangle r, int from) {
+        double rx1 = r.x1();
+        double ry1 = r.y1();
+        double rx2 = r.x2();
+        double ry2 = r.y2();
+        double[] x1s = this.x1s;
+        double[] y1s = this.y1s;
+        double[] x2s = this.x2s;
+        double[] y2s = this.y2s;
+        int n = x1s.length;
+        for (int i = from; i < n; i++) {
+            // the bounds test is exact for points and rectangles, non-short
+            // circuit operators keep the loop free of branches per coordinate
+            if ((x1s[i] <= rx2) & (rx1 <= x2s[i]) & (y1s[i] <= ry2) & (ry1 <= y2s[i])
+                    && (types[i] != OTHER || others[i].intersects(r)))
+                return i;
+        }
+        return n;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(int i) {
+        return (T) values[i];
+    }
+
+    @Override
+    public int count() {
+        return values.length;
+    }
+
+    @Override
+    public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
+        return LeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, S> delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        return LeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public Context<T, S> context() {
+        return context;
+    }
+
+}
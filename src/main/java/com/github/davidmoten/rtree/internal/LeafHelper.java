@@ -9,12 +9,16 @@ import java.util.List;
 import com.github.davidmoten.guavamini.Optional;
 import com.github.davidmoten.rtree.Context;
 import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
 import com.github.davidmoten.rtree.Leaf;
 import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.QueryVisitor;
 import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.geometry.ListPair;
+import com.github.davidmoten.rtree.geometry.Rectangle;
 
 import rx.Subscriber;
+import rx.functions.Action1;
 import rx.functions.Func1;
 
 public final class LeafHelper {
@@ -26,11 +30,12 @@ public final class LeafHelper {
     public static <T, S extends Geometry> NodeAndEntries<T, S> delete(
             Entry<? extends T, ? extends S> entry, boolean all, Leaf<T, S> leaf) {
         List<Entry<T, S>> entries = leaf.entries();
-        if (!entries.contains(entry)) {
+        int index = entries.indexOf(entry);
+        if (index < 0) {
             return new NodeAndEntries<T, S>(of(leaf), Collections.<Entry<T, S>> emptyList(), 0);
         } else {
             final List<Entry<T, S>> entries2 = new ArrayList<Entry<T, S>>(entries);
-            entries2.remove(entry);
+            entries2.remove(index);
             int numDeleted = 1;
             // keep deleting if all specified
             while (all && entries2.remove(entry))
@@ -70,6 +75,42 @@ public final class LeafHelper {
         return list;
     }
 
+    public static <T, S extends Geometry> void search(GeometryPredicate criterion,
+            Action1<? super Entry<T, S>> visitor, Leaf<T, S> leaf) {
+        if (!criterion.test(leaf.geometry().mbr()))
+            return;
+        int count = leaf.count();
+        for (int i = 0; i < count; i++) {
+            Entry<T, S> entry = leaf.entry(i);
+            if (criterion.test(entry.geometry()))
+                visitor.call(entry);
+        }
+    }
+
+    /**
+     * Reports the entries of the leaf intersecting each of the active queries.
+     * The active queries are those listed in {@code active[0..numActive)}, must
+     * already intersect the leaf and must be sorted by their minimum x
+     * coordinate.
+     */
+    public static <T, S extends Geometry> void searchAll(Rectangle[] queries, int[] active,
+            int numActive, QueryVisitor<T, S> visitor, Leaf<T, S> leaf) {
+        int count = leaf.count();
+        for (int i = 0; i < count; i++) {
+            Entry<T, S> entry = leaf.entry(i);
+            S g = entry.geometry();
+            double maxX = g.mbr().x2();
+            for (int j = 0; j < numActive; j++) {
+                int query = active[j];
+                Rectangle r = queries[query];
+                if (r.x1() > maxX)
+                    break;
+                else if (g.intersects(r))
+                    visitor.visit(query, entry);
+            }
+        }
+    }
+
     public static <T, S extends Geometry> void search(Func1<? super Geometry, Boolean> condition,
             Subscriber<? super Entry<T, S>> subscriber, Leaf<T, S> leaf) {
 
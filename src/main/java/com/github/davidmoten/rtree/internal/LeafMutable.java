@@ -0,0 +1,93 @@
+package com.github.davidmoten.rtree.internal;
+
+import java.util.List;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.MutableRTree;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Subscriber;
+import rx.functions.Func1;
+
+/**
+ * Leaf used by {@link MutableRTree}. The entries list and mbr are updated in
+ * place while the leaf is owned by the current generation of the mutable tree.
+ * Once a snapshot is taken the owner changes and the leaf is never modified
+ * again (it is copied on the next write instead) so from then on it behaves as
+ * an immutable leaf. The {@link Node} methods {@code add} and {@code delete}
+ * never modify this leaf.
+ *
+ * @param <T>
+ *            value type
+ * @param <S>
+ *            geometry type
+ */
+public final class LeafMutable<T, S extends Geometry> implements Leaf<T, S> {
+
+    private final List<Entry<T, S>> entries;
+    private Rectangle mbr;
+    private final Context<T, S> context;
+    private final Object owner;
+
+    public LeafMutable(List<Entry<T, S>> entries, Rectangle mbr, Context<T, S> context,
+            Object owner) {
+        this.entries = entries;
+        this.mbr = mbr;
+        this.context = context;
+        this.owner = owner;
+    }
+
+    public Object owner() {
+        return owner;
+    }
+
+    public void setMbr(Rectangle mbr) {
+        this.mbr = mbr;
+    }
+
+    @Override
+    public Geometry geometry() {
+        return mbr;
+    }
+
+    @Override
+    public List<Entry<T, S>> entries() {
+        return entries;
+    }
+
+    @Override
+    public Entry<T, S> entry(int i) {
+        return entries.get(i);
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> condition,
+            Subscriber<? super Entry<T, S>> subscriber) {
+        LeafHelper.search(condition, subscriber, this);
+    }
+
+    @Override
+    public int count() {
+        return entries.size();
+    }
+
+    @Override
+    public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
+        return LeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, S> delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        return LeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public Context<T, S> context() {
+        return context;
+    }
+
+}
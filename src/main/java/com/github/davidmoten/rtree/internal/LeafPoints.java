@@ -0,0 +1,211 @@
+package com.github.davidmoten.rtree.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Leaf for point entries that stores the coordinates in primitive arrays and
+ * the values in an {@code Object[]}. The arrays are {@code float[]} when every
+ * point of the leaf is single precision and {@code double[]} otherwise. No
+ * {@link Point} or {@link Entry} objects are retained; they are created (with
+ * the original float or double precision) when an entry is accessed or
+ * emitted by a search.
+ *
+ * @param <T>
+ *            the value type
+ */
+public final class LeafPoints<T> implements Leaf<T, Point>, VisitableNode<T, Point> {
+
+    // one of the pairs of coordinate arrays is null
+    private final float[] xsFloat;
+    private final float[] ysFloat;
+    private final double[] xs;
+    private final double[] ys;
+    private final Object[] values;
+    // flags for leaves holding both precisions, null otherwise
+    private final boolean[] doublePrecision;
+    private final Rectangle mbr;
+    private final Context<T, Point> context;
+
+    public LeafPoints(List<Entry<T, Point>> entries, Context<T, Point> context) {
+        Preconditions.checkArgument(!entries.isEmpty());
+        int n = entries.size();
+        this.values = new Object[n];
+        this.context = context;
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        int doubles = 0;
+        for (int i = 0; i < n; i++) {
+            Entry<T, Point> entry = entries.get(i);
+            Point p = entry.geometry();
+            values[i] = entry.value();
+            if (p.isDoublePrecision())
+                doubles++;
+            minX = Math.min(minX, p.x());
+            minY = Math.min(minY, p.y());
+            maxX = Math.max(maxX, p.x());
+            maxY = Math.max(maxY, p.y());
+        }
+        if (doubles == 0) {
+            this.xsFloat = new float[n];
+            this.ysFloat = new float[n];
+            this.xs = null;
+            this.ys = null;
+            for (int i = 0; i < n; i++) {
+                Point p = entries.get(i).geometry();
+                xsFloat[i] = (float) p.x();
+                ysFloat[i] = (float) p.y();
+            }
+        } else {
+            this.xsFloat = null;
+            this.ysFloat = null;
+            this.xs = new double[n];
+            this.ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                Point p = entries.get(i).geometry();
+                xs[i] = p.x();
+                ys[i] = p.y();
+            }
+        }
+        if (doubles == 0 || doubles == n)
+            this.doublePrecision = null;
+        else {
+            this.doublePrecision = new boolean[n];
+            for (int i = 0; i < n; i++)
+                doublePrecision[i] = entries.get(i).geometry().isDoublePrecision();
+        }
+        // same bounds (and precision) as Util.mbr(entries)
+        if (doubles > 0)
+            this.mbr = Geometries.rectangle(minX, minY, maxX, maxY);
+        else
+            this.mbr = Geometries.rectangle((float) minX, (float) minY, (float) maxX,
+                    (float) maxY);
+    }
+
+    private double x(int i) {
+        return xsFloat != null ? xsFloat[i] : xs[i];
+    }
+
+    private double y(int i) {
+        return ysFloat != null ? ysFloat[i] : ys[i];
+    }
+
+    private Point point(int i) {
+        if (xsFloat != null)
+            return Geometries.point(xsFloat[i], ysFloat[i]);
+        else if (doublePrecision == null || doublePrecision[i])
+            return Geometries.point(xs[i], ys[i]);
+        else
+            return Geometries.point((float) xs[i], (float) ys[i]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(int i) {
+        return (T) values[i];
+    }
+
+    @Override
+    public Geometry geometry() {
+        return mbr;
+    }
+
+    @Override
+    public List<Entry<T, Point>> entries() {
+        List<Entry<T, Point>> list = new ArrayList<Entry<T, Point>>(values.length);
+        for (int i = 0; i < values.length; i++)
+            list.add(entry(i));
+        return list;
+    }
+
+    @Override
+    public Entry<T, Point> entry(int i) {
+        return context.factory().createEntry(value(i), point(i));
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> condition,
+            Subscriber<? super Entry<T, Point>> subscriber) {
+        if (!condition.call(mbr))
+            return;
+        if (condition instanceof IntersectsRectangle) {
+            Rectangle r = ((IntersectsRectangle) condition).rectangle();
+            for (int i = 0; i < values.length; i++) {
+                if (subscriber.isUnsubscribed())
+                    return;
+                if (contains(r, i))
+                    subscriber.onNext(entry(i));
+            }
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                if (subscriber.isUnsubscribed())
+                    return;
+                Point p = point(i);
+                if (condition.call(p))
+                    subscriber.onNext(context.factory().createEntry(value(i), p));
+            }
+        }
+    }
+
+    @Override
+    public void search(GeometryPredicate criterion, Action1<? super Entry<T, Point>> visitor) {
+        if (!criterion.test(mbr))
+            return;
+        if (criterion instanceof IntersectsRectangle) {
+            Rectangle r = ((IntersectsRectangle) criterion).rectangle();
+            for (int i = 0; i < values.length; i++)
+                if (contains(r, i))
+                    visitor.call(entry(i));
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                Point p = point(i);
+                if (criterion.test(p))
+                    visitor.call(context.factory().createEntry(value(i), p));
+            }
+        }
+    }
+
+    private boolean contains(Rectangle r, int i) {
+        double x = x(i);
+        double y = y(i);
+        return r.x1() <= x && x <= r.x2() && r.y1() <= y && y <= r.y2();
+    }
+
+    @Override
+    public int count() {
+        return values.length;
+    }
+
+    @Override
+    public List<Node<T, Point>> add(Entry<? extends T, ? extends Point> entry) {
+        return LeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, Point> delete(Entry<? extends T, ? extends Point> entry,
+            boolean all) {
+        return LeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public Context<T, Point> context() {
+        return context;
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.github.davidmoten.rtree.internal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Subscriber;
+import rx.functions.Func1;
+
+/**
+ * Leaf whose entries include some marked dead by a tombstone bit. Dead entries
+ * are invisible through the {@link Leaf} methods (so searches, inserts and
+ * deletes only see live entries) but the minimum bounding rectangle is that of
+ * the leaf before any entries were marked dead, so no ancestor needs to change
+ * when an entry is marked. Marking another entry shares the entries list and
+ * copies only the tombstone bits. A leaf with no live entries is not a valid
+ * node (serializers compute the bounds of its entries for example) so callers
+ * of {@link #markDead(Leaf, Entry)} must remove such a leaf from the tree.
+ */
+public final class LeafTombstoned<T, S extends Geometry> implements Leaf<T, S> {
+
+    private final List<Entry<T, S>> all;
+    private final BitSet dead;
+    private final List<Entry<T, S>> live;
+    private final Rectangle mbr;
+    private final Context<T, S> context;
+
+    private LeafTombstoned(List<Entry<T, S>> all, BitSet dead, Rectangle mbr,
+            Context<T, S> context) {
+        this.all = all;
+        this.dead = dead;
+        this.mbr = mbr;
+        this.context = context;
+        List<Entry<T, S>> list = new ArrayList<Entry<T, S>>(all.size() - dead.cardinality());
+        for (int i = 0; i < all.size(); i++)
+            if (!dead.get(i))
+                list.add(all.get(i));
+        this.live = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns a copy of the leaf with the first live entry equal to the given
+     * entry marked dead or null if the leaf has no such entry.
+     *
+     * @param leaf
+     *            leaf to mark an entry of
+     * @param entry
+     *            entry to mark dead
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return copy of the leaf with the entry marked dead or null if not found
+     */
+    public static <T, S extends Geometry> LeafTombstoned<T, S> markDead(Leaf<T, S> leaf,
+            Entry<? extends T, ? extends S> entry) {
+        List<Entry<T, S>> all;
+        BitSet dead;
+        if (leaf instanceof LeafTombstoned) {
+            LeafTombstoned<T, S> t = (LeafTombstoned<T, S>) leaf;
+            all = t.all;
+            dead = (BitSet) t.dead.clone();
+        } else {
+            all = leaf.entries();
+            dead = new BitSet(all.size());
+        }
+        for (int i = 0; i < all.size(); i++) {
+            if (!dead.get(i) && all.get(i).equals(entry)) {
+                dead.set(i);
+                return new LeafTombstoned<T, S>(all, dead, leaf.geometry().mbr(),
+                        leaf.context());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of entries marked dead in this leaf.
+     *
+     * @return number of dead entries
+     */
+    public int deadCount() {
+        return all.size() - live.size();
+    }
+
+    @Override
+    public Geometry geometry() {
+        return mbr;
+    }
+
+    @Override
+    public List<Entry<T, S>> entries() {
+        return live;
+    }
+
+    @Override
+    public Entry<T, S> entry(int i) {
+        return live.get(i);
+    }
+
+    @Override
+    public int count() {
+        return live.size();
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> condition,
+            Subscriber<? super Entry<T, S>> subscriber) {
+        LeafHelper.search(condition, subscriber, this);
+    }
+
+    @Override
+    public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
+        // dead entries are dropped
+        return LeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, S> delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        return LeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public Context<T, S> context() {
+        return context;
+    }
+
+}
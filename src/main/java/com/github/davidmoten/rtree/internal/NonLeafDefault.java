@@ -13,17 +13,19 @@ import com.github.davidmoten.rtree.geometry.Rectangle;
 import rx.Subscriber;
 import rx.functions.Func1;
 
-public final class NonLeafDefault<T, S extends Geometry> implements NonLeaf<T, S> {
+public final class NonLeafDefault<T, S extends Geometry> implements NonLeaf<T, S>, SizedNode {
 
     private final List<? extends Node<T, S>> children;
     private final Rectangle mbr;
     private final Context<T, S> context;
+    private final int size;
 
     public NonLeafDefault(List<? extends Node<T, S>> children, Context<T, S> context) {
         Preconditions.checkArgument(!children.isEmpty());
         this.context = context;
         this.children = children;
         this.mbr = Util.mbr(children);
+        this.size = NonLeafHelper.size(children);
     }
 
     @Override
@@ -42,6 +44,11 @@ public final class NonLeafDefault<T, S extends Geometry> implements NonLeaf<T, S
         return children.size();
     }
 
+    @Override
+    public int size() {
+        return size;
+    }
+
     @Override
     public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
         return NonLeafHelper.add(entry, this);
@@ -9,12 +9,17 @@ import java.util.List;
 import com.github.davidmoten.guavamini.Optional;
 import com.github.davidmoten.rtree.Context;
 import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.Leaf;
 import com.github.davidmoten.rtree.Node;
 import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.QueryVisitor;
 import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.geometry.ListPair;
+import com.github.davidmoten.rtree.geometry.Rectangle;
 
 import rx.Subscriber;
+import rx.functions.Action1;
 import rx.functions.Func1;
 
 public final class NonLeafHelper {
@@ -23,6 +28,93 @@ public final class NonLeafHelper {
         // prevent instantiation
     }
 
+    public static int size(List<? extends Node<?, ?>> children) {
+        int size = 0;
+        for (int i = 0; i < children.size(); i++)
+            size += size(children.get(i));
+        return size;
+    }
+
+    /**
+     * Returns the number of entries in the node and its descendants. Leaves
+     * and nodes implementing {@link SizedNode} answer directly, the
+     * descendants of other nodes are visited.
+     */
+    public static int size(Node<?, ?> node) {
+        if (node instanceof Leaf)
+            return node.count();
+        else if (node instanceof SizedNode)
+            return ((SizedNode) node).size();
+        else {
+            NonLeaf<?, ?> nonLeaf = (NonLeaf<?, ?>) node;
+            int size = 0;
+            int numChildren = nonLeaf.count();
+            for (int i = 0; i < numChildren; i++)
+                size += size(nonLeaf.child(i));
+            return size;
+        }
+    }
+
+    /**
+     * Reports the entries below the node intersecting each of the active
+     * queries. The active queries are those listed in
+     * {@code active[0..numActive)}, must already intersect the node and must be
+     * sorted by their minimum x coordinate. Each child is only visited (once)
+     * with the subset of the active queries that intersect its bounds.
+     */
+    public static <T, S extends Geometry> void searchAll(Rectangle[] queries, int[] active,
+            int numActive, QueryVisitor<T, S> visitor, NonLeaf<T, S> node) {
+        int[] childActive = new int[numActive];
+        int numChildren = node.count();
+        for (int i = 0; i < numChildren; i++) {
+            Node<T, S> child = node.child(i);
+            Rectangle mbr = child.geometry().mbr();
+            int numChildActive = 0;
+            double maxX = mbr.x2();
+            for (int j = 0; j < numActive; j++) {
+                Rectangle query = queries[active[j]];
+                if (query.x1() > maxX)
+                    // this and all following queries are to the right of the child
+                    break;
+                else if (mbr.intersects(query))
+                    childActive[numChildActive++] = active[j];
+            }
+            if (numChildActive == 0)
+                continue;
+            else if (child instanceof Leaf)
+                LeafHelper.searchAll(queries, childActive, numChildActive, visitor,
+                        (Leaf<T, S>) child);
+            else
+                searchAll(queries, childActive, numChildActive, visitor, (NonLeaf<T, S>) child);
+        }
+    }
+
+    /**
+     * Synchronously reports the entries of the node and its descendants that
+     * match the criterion to the visitor. Nodes implementing
+     * {@link VisitableNode} search themselves, other nodes are traversed with
+     * {@code count()}, {@code child(i)} and {@code entry(i)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, S extends Geometry> void searchNode(GeometryPredicate criterion,
+            Action1<? super Entry<T, S>> visitor, Node<T, S> node) {
+        if (node instanceof VisitableNode)
+            ((VisitableNode<T, S>) node).search(criterion, visitor);
+        else if (node instanceof Leaf)
+            LeafHelper.search(criterion, visitor, (Leaf<T, S>) node);
+        else
+            search(criterion, visitor, (NonLeaf<T, S>) node);
+    }
+
+    public static <T, S extends Geometry> void search(GeometryPredicate criterion,
+            Action1<? super Entry<T, S>> visitor, NonLeaf<T, S> node) {
+        if (!criterion.test(node.geometry().mbr()))
+            return;
+        int numChildren = node.count();
+        for (int i = 0; i < numChildren; i++)
+            searchNode(criterion, visitor, node.child(i));
+    }
+
     public static <T, S extends Geometry> void search(Func1<? super Geometry, Boolean> criterion,
             Subscriber<? super Entry<T, S>> subscriber, NonLeaf<T, S> node) {
         if (!criterion.call(node.geometry().mbr()))
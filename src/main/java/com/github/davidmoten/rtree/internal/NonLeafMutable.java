@@ -0,0 +1,105 @@
+package com.github.davidmoten.rtree.internal;
+
+import java.util.List;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.MutableRTree;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Subscriber;
+import rx.functions.Func1;
+
+/**
+ * Non-leaf used by {@link MutableRTree}. See {@link LeafMutable} for the
+ * ownership rules that make in-place modification safe.
+ *
+ * @param <T>
+ *            value type
+ * @param <S>
+ *            geometry type
+ */
+public final class NonLeafMutable<T, S extends Geometry> implements NonLeaf<T, S>, SizedNode {
+
+    private final List<Node<T, S>> children;
+    private Rectangle mbr;
+    private final Context<T, S> context;
+    private final Object owner;
+    private int size;
+
+    public NonLeafMutable(List<Node<T, S>> children, Rectangle mbr, Context<T, S> context,
+            Object owner) {
+        this.children = children;
+        this.mbr = mbr;
+        this.context = context;
+        this.owner = owner;
+        this.size = NonLeafHelper.size(children);
+    }
+
+    public Object owner() {
+        return owner;
+    }
+
+    public void setMbr(Rectangle mbr) {
+        this.mbr = mbr;
+    }
+
+    /**
+     * Recalculates the number of entries below this node from the sizes of
+     * its children. Must be called after the children (or their descendants)
+     * have been modified in place.
+     */
+    public void updateSize() {
+        size = NonLeafHelper.size(children);
+    }
+
+    @Override
+    public Geometry geometry() {
+        return mbr;
+    }
+
+    @Override
+    public Node<T, S> child(int i) {
+        return children.get(i);
+    }
+
+    @Override
+    public List<Node<T, S>> children() {
+        return children;
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> criterion,
+            Subscriber<? super Entry<T, S>> subscriber) {
+        NonLeafHelper.search(criterion, subscriber, this);
+    }
+
+    @Override
+    public int count() {
+        return children.size();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
+        return NonLeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, S> delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        return NonLeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public Context<T, S> context() {
+        return context;
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.github.davidmoten.rtree.internal;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+/**
+ * Lazy depth-first search of a tree that finds the next matching entry only
+ * when requested. The traversal state is a mutable stack of nodes and child
+ * positions held in arrays that grow with the depth of the tree, so advancing
+ * through the tree does not allocate (apart from whatever the node
+ * implementations allocate in {@code child(i)} and {@code entry(i)}).
+ * 
+ * <p>
+ * Not thread-safe.
+ *
+ * @param <T>
+ *            the value type
+ * @param <S>
+ *            the geometry type
+ */
+public final class SearchIterator<T, S extends Geometry> implements Iterator<Entry<T, S>> {
+
+    private final GeometryPredicate criterion;
+    private Node<T, S>[] nodes;
+    private int[] positions;
+    // index of the top of the stack, -1 when the search is finished
+    private int top = -1;
+    private Entry<T, S> next;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public SearchIterator(Optional<? extends Node<T, S>> root, GeometryPredicate criterion) {
+        this.criterion = criterion;
+        this.nodes = new Node[8];
+        this.positions = new int[8];
+        if (root.isPresent() && criterion.test(root.get().geometry().mbr()))
+            push(root.get());
+    }
+
+    private void push(Node<T, S> node) {
+        top++;
+        if (top == nodes.length) {
+            nodes = Arrays.copyOf(nodes, top * 2);
+            positions = Arrays.copyOf(positions, top * 2);
+        }
+        nodes[top] = node;
+        positions[top] = 0;
+    }
+
+    private Entry<T, S> advance() {
+        while (top >= 0) {
+            Node<T, S> node = nodes[top];
+            int position = positions[top];
+            if (position == node.count()) {
+                // release the node for gc
+                nodes[top] = null;
+                top--;
+                continue;
+            }
+            positions[top] = position + 1;
+            if (node instanceof Leaf) {
+                Entry<T, S> entry = ((Leaf<T, S>) node).entry(position);
+                if (criterion.test(entry.geometry()))
+                    return entry;
+            } else {
+                Node<T, S> child = ((NonLeaf<T, S>) node).child(position);
+                if (criterion.test(child.geometry().mbr()))
+                    push(child);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null)
+            next = advance();
+        return next != null;
+    }
+
+    @Override
+    public Entry<T, S> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Entry<T, S> result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
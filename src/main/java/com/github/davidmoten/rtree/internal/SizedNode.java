@@ -0,0 +1,19 @@
+package com.github.davidmoten.rtree.internal;
+
+/**
+ * Implemented by the non-leaf nodes of this library that know the number of
+ * entries below them without visiting their descendants (see
+ * {@link NonLeafHelper#size(com.github.davidmoten.rtree.Node)}). Not part of
+ * the {@link com.github.davidmoten.rtree.Node} interface so that custom nodes
+ * do not have to implement it.
+ */
+public interface SizedNode {
+
+    /**
+     * Returns the number of entries in this node and its descendants.
+     *
+     * @return number of entries in the subtree rooted at this node
+     */
+    int size();
+
+}
@@ -3,6 +3,8 @@ package com.github.davidmoten.rtree.internal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.github.davidmoten.guavamini.Preconditions;
 import com.github.davidmoten.rtree.geometry.Geometries;
@@ -68,6 +70,25 @@ public final class Util {
         }
     }
 
+    /**
+     * Returns the iterable itself if it is a collection, otherwise a list of
+     * its elements, so that it can be sized and iterated more than once.
+     * 
+     * @param iterable
+     *            elements, only iterated once
+     * @param <T>
+     *            element type
+     * @return the elements as a collection
+     */
+    public static <T> Collection<T> toCollection(Iterable<T> iterable) {
+        if (iterable instanceof Collection)
+            return (Collection<T>) iterable;
+        List<T> list = new ArrayList<T>();
+        for (T t : iterable)
+            list.add(t);
+        return list;
+    }
+
     public static <T> List<T> add(List<T> list, T element) {
         final ArrayList<T> result = new ArrayList<T>(list.size() + 2);
         result.addAll(list);
@@ -91,4 +112,34 @@ public final class Util {
         return list2;
     }
 
+    /**
+     * Waits for the given futures to complete and returns their results in
+     * order. A failure of any task is rethrown as a {@link RuntimeException}
+     * (unwrapped if it already is one).
+     * 
+     * @param futures
+     *            futures to wait for
+     * @param <T>
+     *            result type
+     * @return results of the futures
+     */
+    public static <T> List<T> getAll(List<Future<T>> futures) {
+        List<T> list = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures)
+                list.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            else if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            else
+                throw new RuntimeException(e.getCause());
+        }
+        return list;
+    }
+
 }
@@ -0,0 +1,35 @@
+package com.github.davidmoten.rtree.internal;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+import rx.functions.Action1;
+
+/**
+ * Implemented by the nodes of this library that have a faster synchronous
+ * search than the generic traversal of
+ * {@link NonLeafHelper#searchNode(GeometryPredicate, Action1, com.github.davidmoten.rtree.Node)}
+ * (for example by scanning their raw coordinates). Not part of the
+ * {@link com.github.davidmoten.rtree.Node} interface so that custom nodes do
+ * not have to implement it.
+ *
+ * @param <T>
+ *            the value type
+ * @param <S>
+ *            the geometry type
+ */
+public interface VisitableNode<T, S extends Geometry> {
+
+    /**
+     * Synchronously reports the entries of this node and its descendants that
+     * match the criterion to the visitor.
+     *
+     * @param criterion
+     *            predicate that returns true if the geometry is a search match
+     * @param visitor
+     *            called with each matching entry
+     */
+    void search(GeometryPredicate criterion, Action1<? super Entry<T, S>> visitor);
+
+}
@@ -0,0 +1,55 @@
+package com.github.davidmoten.rtree.internal.util;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Maps cells of a 2<sup>order</sup> x 2<sup>order</sup> grid to their
+ * distance along a Hilbert curve covering the grid.
+ */
+public final class HilbertCurve {
+
+    /**
+     * The largest supported order, indexes then use 62 bits.
+     */
+    public static final int MAX_ORDER = 31;
+
+    private HilbertCurve() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the distance along the Hilbert curve of the given order of the
+     * cell (x, y).
+     * 
+     * @param order
+     *            the curve covers a grid with sides of length 2^order
+     * @param x
+     *            the cell column, between 0 and 2^order - 1
+     * @param y
+     *            the cell row, between 0 and 2^order - 1
+     * @return the distance of the cell along the curve, between 0 and 4^order
+     *         - 1
+     */
+    public static long index(int order, long x, long y) {
+        Preconditions.checkArgument(order > 0 && order <= MAX_ORDER, "order out of range");
+        long n = 1L << order;
+        long d = 0;
+        for (long s = n >> 1; s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant so the sub-curve has the standard orientation
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+}
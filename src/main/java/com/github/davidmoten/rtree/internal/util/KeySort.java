@@ -0,0 +1,247 @@
+package com.github.davidmoten.rtree.internal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.github.davidmoten.rtree.internal.Util;
+
+/**
+ * Stable sorts of primitive {@code long} keys carrying an {@code int} value
+ * each (typically the index of the object the key was extracted from). Keys
+ * are compared as signed longs and {@link #key(double)} maps a double to a key
+ * with the same ordering as {@link Double#compare(double, double)}, so sorting
+ * extracted keys gives the same order as a stable sort of the objects with a
+ * comparator on the double but without any virtual calls or allocation per
+ * comparison.
+ *
+ * <p>
+ * Ranges are sorted with an LSD radix sort (8 bits per pass, passes where all
+ * keys share the same digit are skipped). The parallel variant radix sorts
+ * chunks concurrently and then merges pairs of sorted runs concurrently on an
+ * {@link ExecutorService}. Tasks never wait on other tasks so any executor
+ * (including a single threaded one) can be used without risk of deadlock.
+ */
+public final class KeySort {
+
+    /**
+     * Arrays shorter than this are sorted on the calling thread.
+     */
+    static final int MIN_CHUNK_SIZE = 8192;
+
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private KeySort() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns a key for d such that the signed comparison of keys is consistent
+     * with {@link Double#compare(double, double)}.
+     *
+     * @param d
+     *            value
+     * @return sortable key
+     */
+    public static long key(double d) {
+        long bits = Double.doubleToLongBits(d);
+        // negative values sort in reverse order of their magnitude bits
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * Stable sort of keys[from, to) carrying values[from, to) along.
+     *
+     * @param keys
+     *            keys
+     * @param values
+     *            values moved with their keys
+     * @param from
+     *            start index inclusive
+     * @param to
+     *            end index exclusive
+     */
+    public static void sort(long[] keys, int[] values, int from, int to) {
+        int n = to - from;
+        if (n < INSERTION_SORT_THRESHOLD) {
+            insertionSort(keys, values, from, to);
+            return;
+        }
+        long[] srcKeys = keys;
+        int[] srcValues = values;
+        int srcOffset = from;
+        long[] dstKeys = new long[n];
+        int[] dstValues = new int[n];
+        int dstOffset = 0;
+        int[] count = new int[257];
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(count, 0);
+            for (int i = srcOffset; i < srcOffset + n; i++)
+                count[digit(srcKeys[i], shift) + 1]++;
+            if (count[digit(srcKeys[srcOffset], shift) + 1] == n)
+                // every key has the same digit so this pass would not move
+                // anything
+                continue;
+            for (int i = 0; i < 256; i++)
+                count[i + 1] += count[i];
+            for (int i = srcOffset; i < srcOffset + n; i++) {
+                long k = srcKeys[i];
+                int j = dstOffset + count[digit(k, shift)]++;
+                dstKeys[j] = k;
+                dstValues[j] = srcValues[i];
+            }
+            long[] tk = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tk;
+            int[] tv = srcValues;
+            srcValues = dstValues;
+            dstValues = tv;
+            int t = srcOffset;
+            srcOffset = dstOffset;
+            dstOffset = t;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, srcOffset, keys, from, n);
+            System.arraycopy(srcValues, srcOffset, values, from, n);
+        }
+    }
+
+    /**
+     * Stable sort of the whole of keys carrying values along, performed
+     * concurrently on the given executor when the arrays are large enough.
+     *
+     * @param keys
+     *            keys
+     * @param values
+     *            values moved with their keys
+     * @param executor
+     *            executor to run sorting and merging tasks on
+     * @param parallelism
+     *            maximum number of chunks to sort concurrently
+     */
+    public static void sort(long[] keys, int[] values, ExecutorService executor,
+            int parallelism) {
+        final int n = keys.length;
+        int chunks = Math.min(parallelism, n / MIN_CHUNK_SIZE);
+        if (chunks <= 1) {
+            sort(keys, values, 0, n);
+            return;
+        }
+        // bounds[i] is the start of run i, bounds[runs] == n
+        int[] bounds = new int[chunks + 1];
+        for (int i = 0; i <= chunks; i++)
+            bounds[i] = (int) ((long) n * i / chunks);
+
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(chunks);
+        for (int i = 0; i < chunks; i++)
+            futures.add(executor.submit(sortTask(keys, values, bounds[i], bounds[i + 1])));
+        Util.getAll(futures);
+
+        long[] srcKeys = keys;
+        int[] srcValues = values;
+        long[] dstKeys = new long[n];
+        int[] dstValues = new int[n];
+        int runs = chunks;
+        while (runs > 1) {
+            futures.clear();
+            int[] next = new int[(runs + 1) / 2 + 1];
+            for (int i = 0; i < runs; i += 2) {
+                next[i / 2] = bounds[i];
+                if (i + 1 < runs)
+                    futures.add(executor.submit(mergeTask(srcKeys, srcValues, dstKeys,
+                            dstValues, bounds[i], bounds[i + 1], bounds[i + 2])));
+                else {
+                    System.arraycopy(srcKeys, bounds[i], dstKeys, bounds[i], n - bounds[i]);
+                    System.arraycopy(srcValues, bounds[i], dstValues, bounds[i], n - bounds[i]);
+                }
+            }
+            next[next.length - 1] = n;
+            Util.getAll(futures);
+            long[] tk = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tk;
+            int[] tv = srcValues;
+            srcValues = dstValues;
+            dstValues = tv;
+            bounds = next;
+            runs = next.length - 1;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcValues, 0, values, 0, n);
+        }
+    }
+
+    private static int digit(long key, int shift) {
+        // flip the sign bit so that unsigned digits order like signed keys
+        return (int) (((key ^ Long.MIN_VALUE) >>> shift) & 0xFF);
+    }
+
+    private static void insertionSort(long[] keys, int[] values, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            long k = keys[i];
+            int v = values[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > k) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = k;
+            values[j + 1] = v;
+        }
+    }
+
+    private static Callable<Object> sortTask(final long[] keys, final int[] values,
+            final int from, final int to) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                sort(keys, values, from, to);
+                return null;
+            }
+        };
+    }
+
+    private static Callable<Object> mergeTask(final long[] srcKeys, final int[] srcValues,
+            final long[] dstKeys, final int[] dstValues, final int from, final int mid,
+            final int to) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                merge(srcKeys, srcValues, dstKeys, dstValues, from, mid, to);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Merges the sorted runs [from, mid) and [mid, to) of the source arrays into
+     * [from, to) of the destination arrays. Ties are taken from the left run to
+     * preserve stability.
+     */
+    private static void merge(long[] srcKeys, int[] srcValues, long[] dstKeys,
+            int[] dstValues, int from, int mid, int to) {
+        int i = from;
+        int j = mid;
+        int k = from;
+        while (i < mid && j < to) {
+            if (srcKeys[j] < srcKeys[i]) {
+                dstKeys[k] = srcKeys[j];
+                dstValues[k++] = srcValues[j++];
+            } else {
+                dstKeys[k] = srcKeys[i];
+                dstValues[k++] = srcValues[i++];
+            }
+        }
+        System.arraycopy(srcKeys, i, dstKeys, k, mid - i);
+        System.arraycopy(srcValues, i, dstValues, k, mid - i);
+        k += mid - i;
+        System.arraycopy(srcKeys, j, dstKeys, k, to - j);
+        System.arraycopy(srcValues, j, dstValues, k, to - j);
+    }
+
+}
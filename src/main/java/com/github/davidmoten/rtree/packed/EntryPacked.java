@@ -0,0 +1,27 @@
+package com.github.davidmoten.rtree.packed;
+
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.internal.EntryLazy;
+
+/**
+ * Entry read from a packed leaf whose value is deserialized from the values
+ * region when it is first requested.
+ */
+final class EntryPacked<T, S extends Geometry> extends EntryLazy<T, S> {
+
+    private final PackedBuffer<T, S> buffer;
+    // offset of the value in the buffer
+    private final int ref;
+
+    EntryPacked(S geometry, PackedBuffer<T, S> buffer, int ref) {
+        super(geometry);
+        this.buffer = buffer;
+        this.ref = ref;
+    }
+
+    @Override
+    protected T decode() {
+        return buffer.value(ref);
+    }
+
+}
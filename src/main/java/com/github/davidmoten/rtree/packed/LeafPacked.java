@@ -0,0 +1,95 @@
+package com.github.davidmoten.rtree.packed;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.internal.Functions;
+import com.github.davidmoten.rtree.internal.IntersectsRectangle;
+import com.github.davidmoten.rtree.internal.LeafHelper;
+import com.github.davidmoten.rtree.internal.NodeAndEntries;
+import com.github.davidmoten.rtree.internal.VisitableNode;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+final class LeafPacked<T, S extends Geometry> implements Leaf<T, S>, VisitableNode<T, S> {
+
+    private final PackedBuffer<T, S> buffer;
+    // slot of the parent holding the bounds and offset of this node
+    private final int slot;
+    private final int record;
+    private final Context<T, S> context;
+
+    LeafPacked(PackedBuffer<T, S> buffer, int slot, Context<T, S> context) {
+        this.buffer = buffer;
+        this.slot = slot;
+        this.record = buffer.ref(slot);
+        this.context = context;
+    }
+
+    @Override
+    public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
+        return LeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, S> delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        return LeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> condition,
+            Subscriber<? super Entry<T, S>> subscriber) {
+        if (condition instanceof IntersectsRectangle)
+            buffer.search(record, ((IntersectsRectangle) condition).rectangle(),
+                    Functions.<Entry<T, S>> onNext(subscriber), subscriber);
+        else
+            LeafHelper.search(condition, subscriber, this);
+    }
+
+    @Override
+    public void search(GeometryPredicate criterion, Action1<? super Entry<T, S>> visitor) {
+        if (criterion instanceof IntersectsRectangle)
+            buffer.search(record, ((IntersectsRectangle) criterion).rectangle(), visitor, null);
+        else
+            LeafHelper.search(criterion, visitor, this);
+    }
+
+    @Override
+    public int count() {
+        return buffer.count(record);
+    }
+
+    @Override
+    public Context<T, S> context() {
+        return context;
+    }
+
+    @Override
+    public Geometry geometry() {
+        // create on demand to reduce memory use
+        return buffer.bounds(slot);
+    }
+
+    @Override
+    public List<Entry<T, S>> entries() {
+        int count = count();
+        List<Entry<T, S>> list = new ArrayList<Entry<T, S>>(count);
+        for (int i = 0; i < count; i++)
+            list.add(entry(i));
+        return list;
+    }
+
+    @Override
+    public Entry<T, S> entry(int i) {
+        return buffer.entry(buffer.slot(record, i));
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.github.davidmoten.rtree.packed;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.internal.Functions;
+import com.github.davidmoten.rtree.internal.IntersectsRectangle;
+import com.github.davidmoten.rtree.internal.NodeAndEntries;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
+import com.github.davidmoten.rtree.internal.SizedNode;
+import com.github.davidmoten.rtree.internal.VisitableNode;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+final class NonLeafPacked<T, S extends Geometry>
+        implements NonLeaf<T, S>, VisitableNode<T, S>, SizedNode {
+
+    private final PackedBuffer<T, S> buffer;
+    // slot of the parent holding the bounds and offset of this node
+    private final int slot;
+    private final int record;
+    private final Context<T, S> context;
+
+    NonLeafPacked(PackedBuffer<T, S> buffer, int slot, Context<T, S> context) {
+        this.buffer = buffer;
+        this.slot = slot;
+        this.record = buffer.ref(slot);
+        this.context = context;
+    }
+
+    @Override
+    public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
+        return NonLeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, S> delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        return NonLeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> criterion,
+            Subscriber<? super Entry<T, S>> subscriber) {
+        if (criterion instanceof IntersectsRectangle)
+            // the common case is searched in the buffer without creating nodes
+            buffer.search(record, ((IntersectsRectangle) criterion).rectangle(),
+                    Functions.<Entry<T, S>> onNext(subscriber), subscriber);
+        else
+            NonLeafHelper.search(criterion, subscriber, this);
+    }
+
+    @Override
+    public void search(GeometryPredicate criterion, Action1<? super Entry<T, S>> visitor) {
+        if (criterion instanceof IntersectsRectangle)
+            buffer.search(record, ((IntersectsRectangle) criterion).rectangle(), visitor, null);
+        else
+            NonLeafHelper.search(criterion, visitor, this);
+    }
+
+    @Override
+    public int count() {
+        return buffer.count(record);
+    }
+
+    @Override
+    public int size() {
+        return buffer.size(slot);
+    }
+
+    @Override
+    public Context<T, S> context() {
+        return context;
+    }
+
+    @Override
+    public Geometry geometry() {
+        return buffer.bounds(slot);
+    }
+
+    @Override
+    public Node<T, S> child(int i) {
+        return buffer.node(buffer.slot(record, i), context);
+    }
+
+    @Override
+    public List<Node<T, S>> children() {
+        int count = count();
+        List<Node<T, S>> children = new ArrayList<Node<T, S>>(count);
+        for (int i = 0; i < count; i++)
+            children.add(child(i));
+        return children;
+    }
+
+    @Override
+    public String toString() {
+        return "Node [NonLeaf," + geometry() + "]";
+    }
+
+}
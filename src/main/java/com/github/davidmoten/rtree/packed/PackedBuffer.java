@@ -0,0 +1,217 @@
+package com.github.davidmoten.rtree.packed;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.geometry.internal.GeometryUtil;
+import com.github.davidmoten.rtree.internal.GeometryCodec;
+
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * Read access to a tree in the packed format written by
+ * {@link SerializerPacked}. All reads use absolute gets so one buffer is safely
+ * shared by concurrent searches. All offsets are relative to the start of the
+ * tree so the format can be read from any position of a buffer or file.
+ * </p>
+ *
+ * <p>
+ * Layout (little-endian):
+ * </p>
+ *
+ * <pre>
+ * header  int magic, int version, int flags, int minChildren, int maxChildren,
+ *         int capacity, int size, int valuesOffset, slot root
+ * nodes   record*
+ * values  (int length, byte[length] value)*
+ *
+ * record  int kind (leaf or non-leaf), int count, slot[capacity]
+ * slot    int type, int ref, int size,
+ *         4 coordinates (float or double for the whole file)
+ * </pre>
+ *
+ * <p>
+ * Every record has the same size. A slot of a non-leaf holds the bounds of a
+ * child node, the offset of its record and the number of entries below it (so
+ * the size of a subtree is read rather than counted). A slot of a leaf holds
+ * the type and coordinates of the geometry of an entry as encoded by
+ * {@link GeometryCodec}, the offset of its value in the values region and a
+ * size of 1. The root slot holds the bounds, offset and size of the root
+ * record or an offset of -1 for an empty tree. The type of a slot is flagged
+ * with {@link GeometryCodec#DOUBLE_PRECISION} if its geometry or bounds are
+ * double precision.
+ * </p>
+ */
+final class PackedBuffer<T, S extends Geometry> {
+
+    static final int MAGIC = 0x4b505452; // "RTPK"
+    static final int VERSION = 2;
+    static final int FLAG_DOUBLE = 1;
+
+    static final int MAGIC_POSITION = 0;
+    static final int VERSION_POSITION = 4;
+    static final int FLAGS_POSITION = 8;
+    static final int MIN_CHILDREN_POSITION = 12;
+    static final int MAX_CHILDREN_POSITION = 16;
+    static final int CAPACITY_POSITION = 20;
+    static final int SIZE_POSITION = 24;
+    static final int VALUES_POSITION = 28;
+    static final int ROOT_SLOT_POSITION = 32;
+
+    static final int RECORD_HEADER_SIZE = 8;
+    static final int SLOT_HEADER_SIZE = 12;
+
+    static final int LEAF = 1;
+    static final int NON_LEAF = 0;
+
+    // type of non-leaf slots, entry slots have the types of GeometryCodec
+    static final int NODE = 0;
+
+    private final ByteBuffer bb;
+    private final boolean doubles;
+    private final int slotSize;
+    private final Func1<byte[], ? extends T> deserializer;
+
+    PackedBuffer(ByteBuffer bb, Func1<byte[], ? extends T> deserializer) {
+        // slice so that offsets are relative to the start of the tree
+        this.bb = bb.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.bb.getInt(MAGIC_POSITION) != MAGIC)
+            throw new IllegalArgumentException("not a packed rtree");
+        if (this.bb.getInt(VERSION_POSITION) != VERSION)
+            throw new IllegalArgumentException(
+                    "unsupported packed rtree version " + this.bb.getInt(VERSION_POSITION));
+        this.doubles = (this.bb.getInt(FLAGS_POSITION) & FLAG_DOUBLE) != 0;
+        this.slotSize = slotSize(doubles);
+        this.deserializer = deserializer;
+    }
+
+    static int slotSize(boolean doubles) {
+        return SLOT_HEADER_SIZE + 4 * (doubles ? 8 : 4);
+    }
+
+    static int recordSize(boolean doubles, int capacity) {
+        return RECORD_HEADER_SIZE + capacity * slotSize(doubles);
+    }
+
+    int minChildren() {
+        return bb.getInt(MIN_CHILDREN_POSITION);
+    }
+
+    int maxChildren() {
+        return bb.getInt(MAX_CHILDREN_POSITION);
+    }
+
+    int size() {
+        return bb.getInt(SIZE_POSITION);
+    }
+
+    int rootSlot() {
+        return ROOT_SLOT_POSITION;
+    }
+
+    boolean isLeaf(int record) {
+        return bb.getInt(record) == LEAF;
+    }
+
+    int count(int record) {
+        return bb.getInt(record + 4);
+    }
+
+    int slot(int record, int i) {
+        return record + RECORD_HEADER_SIZE + i * slotSize;
+    }
+
+    int type(int slot) {
+        return bb.getInt(slot);
+    }
+
+    int ref(int slot) {
+        return bb.getInt(slot + 4);
+    }
+
+    /**
+     * Returns the number of entries below the slot as stored by the writer.
+     */
+    int size(int slot) {
+        return bb.getInt(slot + 8);
+    }
+
+    double coordinate(int slot, int i) {
+        if (doubles)
+            return bb.getDouble(slot + SLOT_HEADER_SIZE + 8 * i);
+        else
+            return bb.getFloat(slot + SLOT_HEADER_SIZE + 4 * i);
+    }
+
+    Rectangle bounds(int slot) {
+        return GeometryCodec.bounds(type(slot), coordinate(slot, 0), coordinate(slot, 1),
+                coordinate(slot, 2), coordinate(slot, 3));
+    }
+
+    Geometry geometry(int slot) {
+        return GeometryCodec.decode(type(slot), coordinate(slot, 0), coordinate(slot, 1),
+                coordinate(slot, 2), coordinate(slot, 3));
+    }
+
+    T value(int ref) {
+        byte[] bytes = new byte[bb.getInt(ref)];
+        ByteBuffer b = bb.duplicate();
+        b.position(ref + 4);
+        b.get(bytes);
+        return deserializer.call(bytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    Entry<T, S> entry(int slot) {
+        return new EntryPacked<T, S>((S) geometry(slot), this, ref(slot));
+    }
+
+    Node<T, S> node(int slot, Context<T, S> context) {
+        if (isLeaf(ref(slot)))
+            return new LeafPacked<T, S>(this, slot, context);
+        else
+            return new NonLeafPacked<T, S>(this, slot, context);
+    }
+
+    /**
+     * Visits the entries below the record that intersect r. Bounds and point
+     * and rectangle geometries are compared to r using the raw coordinates in
+     * the buffer so the only objects created are the matching entries (and the
+     * geometries of circles and lines that are tested).
+     */
+    void search(int record, Rectangle r, Action1<? super Entry<T, S>> visitor,
+            Subscription subscription) {
+        double x1 = r.x1();
+        double y1 = r.y1();
+        double x2 = r.x2();
+        double y2 = r.y2();
+        boolean leaf = isLeaf(record);
+        int count = count(record);
+        for (int i = 0; i < count; i++) {
+            if (subscription != null && subscription.isUnsubscribed())
+                return;
+            int slot = slot(record, i);
+            boolean intersects;
+            if (GeometryCodec.isRectangular(type(slot)))
+                intersects = GeometryUtil.intersects(x1, y1, x2, y2, coordinate(slot, 0),
+                        coordinate(slot, 1), coordinate(slot, 2), coordinate(slot, 3));
+            else
+                intersects = geometry(slot).intersects(r);
+            if (intersects) {
+                if (leaf)
+                    visitor.call(entry(slot));
+                else
+                    search(ref(slot), r, visitor, subscription);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.github.davidmoten.rtree.packed;
+
+import static com.github.davidmoten.rtree.packed.PackedBuffer.CAPACITY_POSITION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.FLAGS_POSITION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.FLAG_DOUBLE;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.LEAF;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.MAGIC;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.MAGIC_POSITION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.MAX_CHILDREN_POSITION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.MIN_CHILDREN_POSITION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.NODE;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.NON_LEAF;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.ROOT_SLOT_POSITION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.SIZE_POSITION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.VALUES_POSITION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.VERSION;
+import static com.github.davidmoten.rtree.packed.PackedBuffer.VERSION_POSITION;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entries;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Factories;
+import com.github.davidmoten.rtree.InternalStructure;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.SelectorRStar;
+import com.github.davidmoten.rtree.Serializer;
+import com.github.davidmoten.rtree.SerializerHelper;
+import com.github.davidmoten.rtree.SplitterRStar;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.GeometryCodec;
+import com.github.davidmoten.rtree.internal.LeafDefault;
+import com.github.davidmoten.rtree.internal.NonLeafDefault;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
+
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * Serializes trees to a packed read-optimised format where every node is a
+ * fixed-size record of the bounds and offsets of its children (or of the
+ * geometries and value offsets of its entries) and the serialized values are
+ * held in a separate region after the nodes. Coordinates are stored as floats
+ * unless the tree has a double precision geometry. See {@link PackedBuffer}
+ * for the layout.
+ * </p>
+ *
+ * <p>
+ * Compared to the FlatBuffers format there are no vtables or nested tables to
+ * follow: a search reads the coordinates of the children of the nodes it visits
+ * at computed offsets and only reads a value when it is requested from a
+ * matching entry. With {@link InternalStructure#SINGLE_ARRAY} the tree is read
+ * in place from the buffer (which can be memory-mapped). Added and deleted
+ * nodes of such a tree are ordinary heap nodes.
+ * </p>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+public final class SerializerPacked<T, S extends Geometry> implements Serializer<T, S> {
+
+    private final Func1<? super T, byte[]> serializer;
+    private final Func1<byte[], ? extends T> deserializer;
+
+    private SerializerPacked(Func1<? super T, byte[]> serializer,
+            Func1<byte[], ? extends T> deserializer) {
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+    }
+
+    public static <T, S extends Geometry> SerializerPacked<T, S> create(
+            Func1<? super T, byte[]> serializer, Func1<byte[], ? extends T> deserializer) {
+        return new SerializerPacked<T, S>(serializer, deserializer);
+    }
+
+    /**
+     * Writes the tree to the stream. Nodes are written breadth first so the
+     * top levels of the tree are at the start of the output. The serialized
+     * values are buffered on the heap until the nodes have been written.
+     *
+     * @param tree
+     *            tree to write
+     * @param os
+     *            stream to write to
+     * @throws IOException
+     *             on I/O error or if the output would exceed 2GB
+     */
+    @Override
+    public void write(RTree<T, S> tree, OutputStream os) throws IOException {
+        int capacity = tree.context().maxChildren();
+        boolean doubles = false;
+        int numNodes = 0;
+        if (tree.root().isPresent()) {
+            // first pass to size the records
+            LinkedList<Node<T, S>> queue = new LinkedList<Node<T, S>>();
+            queue.add(tree.root().get());
+            while (!queue.isEmpty()) {
+                Node<T, S> node = queue.removeFirst();
+                numNodes++;
+                capacity = Math.max(capacity, node.count());
+                doubles |= node.geometry().isDoublePrecision();
+                if (node instanceof Leaf) {
+                    for (Entry<T, S> entry : ((Leaf<T, S>) node).entries())
+                        doubles |= entry.geometry().isDoublePrecision();
+                } else
+                    queue.addAll(((NonLeaf<T, S>) node).children());
+            }
+        }
+        int slotSize = PackedBuffer.slotSize(doubles);
+        int recordSize = PackedBuffer.recordSize(doubles, capacity);
+        long nodesStart = ROOT_SLOT_POSITION + slotSize;
+        long valuesStart = nodesStart + (long) numNodes * recordSize;
+        if (valuesStart > Integer.MAX_VALUE)
+            throw new IOException("packed serialized trees cannot exceed 2GB");
+
+        ByteBuffer header = ByteBuffer.allocate((int) nodesStart).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC_POSITION, MAGIC);
+        header.putInt(VERSION_POSITION, VERSION);
+        header.putInt(FLAGS_POSITION, doubles ? FLAG_DOUBLE : 0);
+        header.putInt(MIN_CHILDREN_POSITION, tree.context().minChildren());
+        header.putInt(MAX_CHILDREN_POSITION, tree.context().maxChildren());
+        header.putInt(CAPACITY_POSITION, capacity);
+        header.putInt(SIZE_POSITION, tree.size());
+        header.putInt(VALUES_POSITION, (int) valuesStart);
+        header.position(ROOT_SLOT_POSITION);
+        if (tree.root().isPresent())
+            putSlot(header, NODE, (int) nodesStart, tree.size(),
+                    tree.root().get().geometry().mbr(), doubles);
+        else
+            putSlot(header, NODE, -1, 0, (Rectangle) null, doubles);
+        os.write(header.array());
+
+        if (!tree.root().isPresent())
+            return;
+        ByteBuffer record = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        byte[] length = new byte[4];
+        double[] coordinates = new double[4];
+        // index of the next record to be allocated
+        long next = 1;
+        LinkedList<Node<T, S>> queue = new LinkedList<Node<T, S>>();
+        queue.add(tree.root().get());
+        while (!queue.isEmpty()) {
+            Node<T, S> node = queue.removeFirst();
+            record.clear();
+            Arrays.fill(record.array(), (byte) 0);
+            if (node instanceof Leaf) {
+                Leaf<T, S> leaf = (Leaf<T, S>) node;
+                record.putInt(LEAF).putInt(leaf.count());
+                for (Entry<T, S> entry : leaf.entries()) {
+                    long ref = valuesStart + values.size();
+                    if (ref > Integer.MAX_VALUE)
+                        throw new IOException("packed serialized trees cannot exceed 2GB");
+                    int type = GeometryCodec.encode(entry.geometry(), coordinates);
+                    putSlot(record, type, (int) ref, 1, coordinates[0], coordinates[1],
+                            coordinates[2], coordinates[3], doubles);
+                    byte[] bytes = serializer.call(entry.value());
+                    int n = bytes.length;
+                    length[0] = (byte) n;
+                    length[1] = (byte) (n >>> 8);
+                    length[2] = (byte) (n >>> 16);
+                    length[3] = (byte) (n >>> 24);
+                    values.write(length);
+                    values.write(bytes);
+                }
+            } else {
+                NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+                record.putInt(NON_LEAF).putInt(nonLeaf.count());
+                for (Node<T, S> child : nonLeaf.children()) {
+                    putSlot(record, NODE, (int) (nodesStart + next * recordSize),
+                            NonLeafHelper.size(child), child.geometry().mbr(), doubles);
+                    next++;
+                    queue.add(child);
+                }
+            }
+            os.write(record.array());
+        }
+        if (valuesStart + values.size() > Integer.MAX_VALUE)
+            throw new IOException("packed serialized trees cannot exceed 2GB");
+        values.writeTo(os);
+    }
+
+    /**
+     * Writes the tree to the given file (see {@link #write(RTree, OutputStream)}).
+     *
+     * @param tree
+     *            tree to write
+     * @param file
+     *            file to write to, is overwritten
+     * @throws IOException
+     *             on I/O error
+     */
+    public void write(RTree<T, S> tree, File file) throws IOException {
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(tree, os);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void putSlot(ByteBuffer bb, int type, int ref, int size, Rectangle r,
+            boolean doubles) {
+        if (r == null)
+            putSlot(bb, type, ref, size, 0, 0, 0, 0, doubles);
+        else
+            putSlot(bb, type | (r.isDoublePrecision() ? GeometryCodec.DOUBLE_PRECISION : 0), ref,
+                    size, r.x1(), r.y1(), r.x2(), r.y2(), doubles);
+    }
+
+    private static void putSlot(ByteBuffer bb, int type, int ref, int size, double a, double b,
+            double c, double d, boolean doubles) {
+        bb.putInt(type).putInt(ref).putInt(size);
+        if (doubles)
+            bb.putDouble(a).putDouble(b).putDouble(c).putDouble(d);
+        else
+            bb.putFloat((float) a).putFloat((float) b).putFloat((float) c).putFloat((float) d);
+    }
+
+    @Override
+    public RTree<T, S> read(InputStream is, long sizeBytes, InternalStructure structure)
+            throws IOException {
+        byte[] bytes = readFully(is, (int) sizeBytes);
+        return read(ByteBuffer.wrap(bytes), structure);
+    }
+
+    /**
+     * Reads a tree from the given file by memory-mapping it rather than copying
+     * it on to the heap. With {@link InternalStructure#SINGLE_ARRAY} searches
+     * only touch the pages of the nodes they visit. The mapping remains valid
+     * after this method returns.
+     *
+     * @param file
+     *            file written by {@link #write(RTree, OutputStream)}
+     * @param structure
+     *            internal structure of the returned tree
+     * @return tree
+     * @throws IOException
+     *             on I/O error
+     */
+    public RTree<T, S> read(File file, InternalStructure structure) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return read(raf.getChannel(), structure);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a tree from the whole of the given channel by memory-mapping it. See
+     * {@link #read(File, InternalStructure)}. The channel may be closed once
+     * this method returns.
+     *
+     * @param channel
+     *            channel positioned anywhere, read from position 0
+     * @param structure
+     *            internal structure of the returned tree
+     * @return tree
+     * @throws IOException
+     *             on I/O error
+     */
+    public RTree<T, S> read(FileChannel channel, InternalStructure structure)
+            throws IOException {
+        long size = channel.size();
+        Preconditions.checkArgument(size <= Integer.MAX_VALUE,
+                "packed serialized trees cannot exceed 2GB");
+        return read(channel.map(MapMode.READ_ONLY, 0, size), structure);
+    }
+
+    /**
+     * Reads a tree starting at the current position of the given buffer (heap,
+     * direct or memory-mapped). With {@link InternalStructure#SINGLE_ARRAY} the
+     * buffer is used in place and must not be modified afterwards.
+     *
+     * @param bb
+     *            buffer containing a serialized tree from its position
+     * @param structure
+     *            internal structure of the returned tree
+     * @return tree
+     */
+    public RTree<T, S> read(ByteBuffer bb, InternalStructure structure) {
+        PackedBuffer<T, S> buffer = new PackedBuffer<T, S>(bb, deserializer);
+        Context<T, S> context = new Context<T, S>(buffer.minChildren(), buffer.maxChildren(),
+                new SelectorRStar(), new SplitterRStar(), Factories.<T, S> defaultFactory());
+        int rootSlot = buffer.rootSlot();
+        if (buffer.ref(rootSlot) == -1)
+            return SerializerHelper.create(Optional.<Node<T, S>> absent(), 0, context);
+        final Node<T, S> root;
+        if (structure == InternalStructure.SINGLE_ARRAY)
+            root = buffer.node(rootSlot, context);
+        else
+            root = toNodeDefault(buffer, rootSlot, context);
+        return SerializerHelper.create(Optional.of(root), buffer.size(), context);
+    }
+
+    // values are deserialized here so that the tree keeps no reference to the
+    // buffer (which may be a mapped file)
+    @SuppressWarnings("unchecked")
+    private static <T, S extends Geometry> Node<T, S> toNodeDefault(PackedBuffer<T, S> buffer,
+            int slot, Context<T, S> context) {
+        int record = buffer.ref(slot);
+        int count = buffer.count(record);
+        if (buffer.isLeaf(record)) {
+            List<Entry<T, S>> entries = new ArrayList<Entry<T, S>>(count);
+            for (int i = 0; i < count; i++) {
+                int s = buffer.slot(record, i);
+                entries.add(Entries.entry(buffer.value(buffer.ref(s)), (S) buffer.geometry(s)));
+            }
+            return new LeafDefault<T, S>(entries, context);
+        } else {
+            List<Node<T, S>> children = new ArrayList<Node<T, S>>(count);
+            for (int i = 0; i < count; i++)
+                children.add(toNodeDefault(buffer, buffer.slot(record, i), context));
+            return new NonLeafDefault<T, S>(children, context);
+        }
+    }
+
+    private static byte[] readFully(InputStream is, int numBytes) throws IOException {
+        byte[] b = new byte[numBytes];
+        int count = 0;
+        while (count < numBytes) {
+            int n = is.read(b, count, numBytes - count);
+            if (n < 0)
+                throw new IOException("unexpected end of stream");
+            count += n;
+        }
+        return b;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.github.davidmoten.rtree.paged;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed capacity cache of the pages of a file with CLOCK (second chance)
+ * eviction. Each page is read into its own buffer which is never written to
+ * after it is loaded, so a buffer returned by {@link #get(int)} stays valid
+ * for the caller after the page is evicted. Pages are read outside the lock so
+ * faults on different pages proceed in parallel.
+ */
+final class BufferPool {
+
+    private static final int EMPTY = -1;
+
+    private final FileChannel channel;
+    private final int pageSize;
+
+    // guarded by this
+    private final int[] pages;
+    private final ByteBuffer[] buffers;
+    private final boolean[] referenced;
+    private final Map<Integer, Integer> frames;
+    private int hand;
+    private long hits;
+    private long faults;
+
+    BufferPool(FileChannel channel, int pageSize, int capacity) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.pages = new int[capacity];
+        Arrays.fill(pages, EMPTY);
+        this.buffers = new ByteBuffer[capacity];
+        this.referenced = new boolean[capacity];
+        this.frames = new HashMap<Integer, Integer>(capacity * 2);
+    }
+
+    ByteBuffer get(int page) throws IOException {
+        synchronized (this) {
+            Integer frame = frames.get(page);
+            if (frame != null) {
+                hits++;
+                referenced[frame] = true;
+                return buffers[frame];
+            }
+            faults++;
+        }
+        ByteBuffer bb = read(page);
+        synchronized (this) {
+            Integer frame = frames.get(page);
+            if (frame != null)
+                // loaded by another thread meanwhile
+                return buffers[frame];
+            int f = victim();
+            if (pages[f] != EMPTY)
+                frames.remove(pages[f]);
+            pages[f] = page;
+            buffers[f] = bb;
+            referenced[f] = false;
+            frames.put(page, f);
+            return bb;
+        }
+    }
+
+    // must hold the lock
+    private int victim() {
+        while (true) {
+            int f = hand;
+            hand = (hand + 1) % pages.length;
+            if (pages[f] == EMPTY || !referenced[f])
+                return f;
+            referenced[f] = false;
+        }
+    }
+
+    private ByteBuffer read(int page) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(pageSize).order(ByteOrder.LITTLE_ENDIAN);
+        long position = (long) page * pageSize;
+        while (bb.hasRemaining()) {
+            int n = channel.read(bb, position + bb.position());
+            if (n < 0)
+                throw new EOFException("page " + page + " is beyond the end of the file");
+        }
+        return bb;
+    }
+
+    int capacity() {
+        return pages.length;
+    }
+
+    synchronized int cachedPages() {
+        return frames.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long faults() {
+        return faults;
+    }
+
+}
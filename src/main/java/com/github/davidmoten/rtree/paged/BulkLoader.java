@@ -0,0 +1,452 @@
+package com.github.davidmoten.rtree.paged;
+
+import static com.github.davidmoten.rtree.paged.PageFile.LEAF;
+import static com.github.davidmoten.rtree.paged.PageFile.LEAF_CHILD;
+import static com.github.davidmoten.rtree.paged.PageFile.NON_LEAF;
+import static com.github.davidmoten.rtree.paged.PageFile.NON_LEAF_CHILD;
+import static com.github.davidmoten.rtree.paged.PageFile.PAGE_HEADER_SIZE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.GeometryCodec;
+import com.github.davidmoten.rtree.internal.util.KeySort;
+
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * Writes a paged file from a stream of entries by Sort-Tile-Recursive packing
+ * (as {@link com.github.davidmoten.rtree.RTree#create(List)} does on the
+ * heap) with a bounded amount of memory. The values are written as the
+ * entries arrive, straight after the header page, and each entry is reduced
+ * to a fixed-size item (its geometry, the offset of its value and its
+ * bounds) in a temporary file. The items of a level are sorted by the x
+ * coordinate of their centres, cut into vertical slices and each slice is
+ * sorted by the y coordinate and packed into full nodes, whose pages follow
+ * the values. The nodes of a level become the items of the next level up
+ * until a single root remains.
+ * </p>
+ *
+ * <p>
+ * Sorts are external merge sorts whose runs are sorted in memory with
+ * {@link KeySort}, so no more than about {@code sortBytes} of items are on
+ * the heap at once. Runs are merged in passes of at most 64 runs so that the
+ * number of files open at once stays well below the usual per-process limit.
+ * Temporary files are created next to the output file and deleted before
+ * returning.
+ * </p>
+ */
+final class BulkLoader {
+
+    // same as the default of RTree.Builder
+    private static final double FILLING_FACTOR = 0.4;
+
+    // item layout (big-endian): int type, long page or value offset, long
+    // size, 4 coordinates, 4 bounds
+    private static final int TYPE = 0;
+    private static final int REF = 4;
+    private static final int SIZE = 12;
+    private static final int COORDINATES = 20;
+    private static final int BOUNDS = 52;
+    private static final int ITEM_SIZE = 84;
+
+    private static final int X = 0;
+    private static final int Y = 1;
+
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    // fan-in of a merge pass
+    static final int MAX_MERGE_RUNS = 64;
+
+    private final File directory;
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int maxChildren;
+    private final long sortBytes;
+    private final List<File> temporaryFiles = new ArrayList<File>();
+    // set once the entries have been read
+    private boolean doubles;
+    // number of the page of the next node to be written
+    private long nextPage;
+
+    private BulkLoader(File directory, FileChannel channel, int pageSize, int maxChildren,
+            long sortBytes) {
+        this.directory = directory;
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.maxChildren = maxChildren;
+        this.sortBytes = sortBytes;
+    }
+
+    static <T, S extends Geometry> void write(
+            Iterable<? extends Entry<? extends T, ? extends S>> entries, File file, int pageSize,
+            int maxChildren, long sortBytes, Func1<? super T, byte[]> serializer)
+            throws IOException {
+        Preconditions.checkArgument(pageSize >= PageFile.ROOT_SLOT_POSITION
+                + PageFile.slotSize(true), "pageSize too small");
+        Preconditions.checkArgument(maxChildren >= 2, "maxChildren must be at least 2");
+        Preconditions.checkArgument(sortBytes >= ITEM_SIZE * (long) maxChildren,
+                "sortBytes too small");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        BulkLoader loader = null;
+        try {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            loader = new BulkLoader(file.getAbsoluteFile().getParentFile(), channel, pageSize,
+                    maxChildren, sortBytes);
+            loader.load(entries, serializer);
+        } finally {
+            try {
+                if (loader != null)
+                    loader.deleteTemporaryFiles();
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private <T, S extends Geometry> void load(
+            Iterable<? extends Entry<? extends T, ? extends S>> entries,
+            Func1<? super T, byte[]> serializer) throws IOException {
+        File items = temporaryFile();
+        PagedRTree.ValuesWriter values = new PagedRTree.ValuesWriter(channel, pageSize);
+        DataOutputStream out = output(items);
+        long size = 0;
+        try {
+            ByteBuffer item = ByteBuffer.allocate(ITEM_SIZE);
+            double[] coordinates = new double[4];
+            for (Entry<? extends T, ? extends S> entry : entries) {
+                Geometry g = entry.geometry();
+                int type = GeometryCodec.encode(g, coordinates);
+                doubles |= g.isDoublePrecision();
+                long offset = values.write(serializer.call(entry.value()));
+                putItem(item, type, offset, 1, coordinates, g.mbr());
+                out.write(item.array());
+                size++;
+            }
+        } finally {
+            out.close();
+        }
+        values.flush();
+        Preconditions.checkArgument(size <= Integer.MAX_VALUE, "too many entries");
+        Preconditions.checkArgument(
+                PAGE_HEADER_SIZE + maxChildren * PageFile.slotSize(doubles) <= pageSize,
+                "pageSize too small for nodes of " + maxChildren + " children");
+        // node pages start at the first page boundary after the values
+        nextPage = (values.position() + pageSize - 1) / pageSize;
+
+        ByteBuffer header = PagedRTree.header(pageSize, doubles,
+                Math.max(1, (int) Math.round(maxChildren * FILLING_FACTOR)), maxChildren, size,
+                pageSize);
+        if (size == 0)
+            PagedRTree.putSlot(header, NON_LEAF_CHILD, -1, 0, 0, 0, 0, 0, doubles);
+        else {
+            long count = size;
+            boolean leaf = true;
+            do {
+                File parents = temporaryFile();
+                count = packLevel(items, count, leaf, parents);
+                delete(items);
+                items = parents;
+                leaf = false;
+            } while (count > 1);
+            // the single item of the last level is the root
+            DataInputStream in = input(items, 0, STREAM_BUFFER_SIZE);
+            ByteBuffer root = ByteBuffer.allocate(ITEM_SIZE);
+            try {
+                in.readFully(root.array());
+            } finally {
+                in.close();
+            }
+            putSlot(header, root, false);
+        }
+        PagedRTree.write(channel, header, 0);
+    }
+
+    /**
+     * Packs the items into nodes with STR, writes the node pages and writes an
+     * item for each node to {@code parents}. Returns the number of nodes.
+     */
+    private long packLevel(File items, long count, boolean leaf, File parents)
+            throws IOException {
+        long nodeCount = (count + maxChildren - 1) / maxChildren;
+        long sliceCapacity = (long) Math.ceil(Math.sqrt(nodeCount)) * maxChildren;
+        File byX = sort(items, 0, count, X);
+        DataOutputStream out = output(parents);
+        try {
+            ByteBuffer page = ByteBuffer.allocate(pageSize).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer item = ByteBuffer.allocate(ITEM_SIZE);
+            ByteBuffer parent = ByteBuffer.allocate(ITEM_SIZE);
+            for (long from = 0; from < count; from += sliceCapacity) {
+                long to = Math.min(from + sliceCapacity, count);
+                File slice = sort(byX, from, to, Y);
+                DataInputStream in = input(slice, 0, STREAM_BUFFER_SIZE);
+                try {
+                    for (long i = from; i < to; i += maxChildren) {
+                        int n = (int) Math.min(maxChildren, to - i);
+                        writeNode(in, n, leaf, page, item, parent);
+                        out.write(parent.array());
+                    }
+                } finally {
+                    in.close();
+                }
+                delete(slice);
+            }
+        } finally {
+            out.close();
+        }
+        delete(byX);
+        return nodeCount;
+    }
+
+    /**
+     * Writes the next n items of the stream to a new node page and puts the
+     * item of the node in {@code parent}.
+     */
+    private void writeNode(DataInputStream in, int n, boolean leaf, ByteBuffer page,
+            ByteBuffer item, ByteBuffer parent) throws IOException {
+        Arrays.fill(page.array(), (byte) 0);
+        page.clear();
+        page.putInt(leaf ? LEAF : NON_LEAF).putInt(n);
+        double x1 = Double.MAX_VALUE;
+        double y1 = Double.MAX_VALUE;
+        double x2 = -Double.MAX_VALUE;
+        double y2 = -Double.MAX_VALUE;
+        boolean doublePrecision = false;
+        long size = 0;
+        for (int i = 0; i < n; i++) {
+            in.readFully(item.array());
+            putSlot(page, item, leaf);
+            doublePrecision |= (item.getInt(TYPE) & GeometryCodec.DOUBLE_PRECISION) != 0;
+            size += item.getLong(SIZE);
+            x1 = Math.min(x1, item.getDouble(BOUNDS));
+            y1 = Math.min(y1, item.getDouble(BOUNDS + 8));
+            x2 = Math.max(x2, item.getDouble(BOUNDS + 16));
+            y2 = Math.max(y2, item.getDouble(BOUNDS + 24));
+        }
+        Preconditions.checkArgument(nextPage < Integer.MAX_VALUE, "too many pages");
+        long pageNumber = nextPage++;
+        PagedRTree.write(channel, page, pageNumber * pageSize);
+        int type = (leaf ? LEAF_CHILD : NON_LEAF_CHILD)
+                | (doublePrecision ? GeometryCodec.DOUBLE_PRECISION : 0);
+        // the coordinates of the slot of a node are its bounds
+        putItem(parent, type, pageNumber, size, new double[] { x1, y1, x2, y2 }, x1, y1, x2,
+                y2);
+    }
+
+    /**
+     * Puts the slot of the item on the page, an entry if the item is in a leaf
+     * otherwise a child node.
+     */
+    private void putSlot(ByteBuffer page, ByteBuffer item, boolean leaf) {
+        int type = item.getInt(TYPE);
+        long ref = item.getLong(REF);
+        double a = item.getDouble(COORDINATES);
+        double b = item.getDouble(COORDINATES + 8);
+        double c = item.getDouble(COORDINATES + 16);
+        double d = item.getDouble(COORDINATES + 24);
+        if (leaf)
+            PagedRTree.putSlot(page, type, 0, ref, a, b, c, d, doubles);
+        else
+            PagedRTree.putSlot(page, type, (int) ref, item.getLong(SIZE), a, b, c, d, doubles);
+    }
+
+    private static void putItem(ByteBuffer item, int type, long ref, long size,
+            double[] coordinates, Rectangle bounds) {
+        putItem(item, type, ref, size, coordinates, bounds.x1(), bounds.y1(), bounds.x2(),
+                bounds.y2());
+    }
+
+    private static void putItem(ByteBuffer item, int type, long ref, long size,
+            double[] coordinates, double x1, double y1, double x2, double y2) {
+        item.clear();
+        item.putInt(type).putLong(ref).putLong(size);
+        for (int i = 0; i < 4; i++)
+            item.putDouble(coordinates[i]);
+        item.putDouble(x1).putDouble(y1).putDouble(x2).putDouble(y2);
+    }
+
+    /**
+     * Returns a new temporary file holding items [from, to) of the given file
+     * sorted by the centre of their bounds on the axis.
+     */
+    private File sort(File items, long from, long to, int axis) throws IOException {
+        int runSize = (int) Math.min(to - from,
+                Math.min(Integer.MAX_VALUE / ITEM_SIZE, sortBytes / ITEM_SIZE));
+        List<File> runs = new ArrayList<File>();
+        DataInputStream in = input(items, from, STREAM_BUFFER_SIZE);
+        try {
+            byte[] run = new byte[runSize * ITEM_SIZE];
+            ByteBuffer bb = ByteBuffer.wrap(run);
+            long[] keys = new long[runSize];
+            int[] index = new int[runSize];
+            for (long start = from; start < to; start += runSize) {
+                int n = (int) Math.min(runSize, to - start);
+                in.readFully(run, 0, n * ITEM_SIZE);
+                for (int i = 0; i < n; i++) {
+                    keys[i] = KeySort.key(centre(bb, i * ITEM_SIZE, axis));
+                    index[i] = i;
+                }
+                KeySort.sort(keys, index, 0, n);
+                File file = temporaryFile();
+                DataOutputStream out = output(file);
+                try {
+                    for (int i = 0; i < n; i++)
+                        out.write(run, index[i] * ITEM_SIZE, ITEM_SIZE);
+                } finally {
+                    out.close();
+                }
+                runs.add(file);
+            }
+        } finally {
+            in.close();
+        }
+        while (runs.size() > 1) {
+            // consecutive runs are merged so that the sort stays stable
+            List<File> merged = new ArrayList<File>();
+            for (int i = 0; i < runs.size(); i += MAX_MERGE_RUNS) {
+                List<File> group = runs.subList(i, Math.min(i + MAX_MERGE_RUNS, runs.size()));
+                merged.add(group.size() == 1 ? group.get(0) : merge(group, axis));
+            }
+            runs = merged;
+        }
+        return runs.get(0);
+    }
+
+    private File merge(List<File> runs, int axis) throws IOException {
+        int bufferSize = (int) Math.max(4096,
+                Math.min(STREAM_BUFFER_SIZE, sortBytes / (runs.size() + 1)));
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size());
+        File file = temporaryFile();
+        DataOutputStream out = output(file);
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = new Run(input(runs.get(i), 0, bufferSize), runs.get(i).length()
+                        / ITEM_SIZE, i, axis);
+                if (run.next())
+                    queue.add(run);
+                else
+                    run.close();
+            }
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                out.write(run.item.array());
+                if (run.next())
+                    queue.add(run);
+                else
+                    run.close();
+            }
+        } finally {
+            try {
+                for (Run run : queue)
+                    run.close();
+            } finally {
+                out.close();
+            }
+        }
+        for (File run : runs)
+            delete(run);
+        return file;
+    }
+
+    private static double centre(ByteBuffer bb, int item, int axis) {
+        int offset = item + BOUNDS + 8 * axis;
+        return (bb.getDouble(offset) + bb.getDouble(offset + 16)) / 2;
+    }
+
+    /**
+     * Sorted run being merged, ordered by the key of its current item and then
+     * by its index so that the merge is stable.
+     */
+    private static final class Run implements Comparable<Run> {
+
+        private final DataInputStream in;
+        private final int index;
+        private final int axis;
+        private final ByteBuffer item = ByteBuffer.allocate(ITEM_SIZE);
+        private long remaining;
+        private long key;
+
+        Run(DataInputStream in, long count, int index, int axis) {
+            this.in = in;
+            this.remaining = count;
+            this.index = index;
+            this.axis = axis;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0)
+                return false;
+            in.readFully(item.array());
+            key = KeySort.key(centre(item, 0, axis));
+            remaining--;
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            if (key != other.key)
+                return key < other.key ? -1 : 1;
+            else
+                return index < other.index ? -1 : (index == other.index ? 0 : 1);
+        }
+    }
+
+    private File temporaryFile() throws IOException {
+        File file = File.createTempFile("rtree-bulk-", ".tmp", directory);
+        temporaryFiles.add(file);
+        return file;
+    }
+
+    private void delete(File file) {
+        if (file.delete())
+            temporaryFiles.remove(file);
+    }
+
+    private void deleteTemporaryFiles() {
+        for (File file : temporaryFiles)
+            file.delete();
+        temporaryFiles.clear();
+    }
+
+    private static DataOutputStream output(File file) throws IOException {
+        return new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), STREAM_BUFFER_SIZE));
+    }
+
+    private static DataInputStream input(File file, long item, int bufferSize)
+            throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            fis.getChannel().position(item * ITEM_SIZE);
+        } catch (IOException e) {
+            fis.close();
+            throw e;
+        }
+        return new DataInputStream(new BufferedInputStream(fis, bufferSize));
+    }
+
+}
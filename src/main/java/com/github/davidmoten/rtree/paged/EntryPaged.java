@@ -0,0 +1,27 @@
+package com.github.davidmoten.rtree.paged;
+
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.internal.EntryLazy;
+
+/**
+ * Entry read from a paged leaf whose value is deserialized from the file when
+ * it is first requested.
+ */
+final class EntryPaged<T, S extends Geometry> extends EntryLazy<T, S> {
+
+    private final PageFile<T, S> file;
+    // offset of the value in the file
+    private final long offset;
+
+    EntryPaged(S geometry, PageFile<T, S> file, long offset) {
+        super(geometry);
+        this.file = file;
+        this.offset = offset;
+    }
+
+    @Override
+    protected T decode() {
+        return file.value(offset);
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.github.davidmoten.rtree.paged;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.Functions;
+import com.github.davidmoten.rtree.internal.IntersectsRectangle;
+import com.github.davidmoten.rtree.internal.LeafHelper;
+import com.github.davidmoten.rtree.internal.NodeAndEntries;
+import com.github.davidmoten.rtree.internal.VisitableNode;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Leaf whose entries are on a page of a file. The page is only read (through
+ * the buffer pool) when the entries are first accessed and is then kept by
+ * this node.
+ */
+final class LeafPaged<T, S extends Geometry> implements Leaf<T, S>, VisitableNode<T, S> {
+
+    private final PageFile<T, S> file;
+    private final int page;
+    private final Rectangle mbr;
+    private final Context<T, S> context;
+    // the page once read, buffers of the pool are never reused
+    private volatile ByteBuffer bb;
+
+    LeafPaged(PageFile<T, S> file, int page, Rectangle mbr, Context<T, S> context) {
+        this.file = file;
+        this.page = page;
+        this.mbr = mbr;
+        this.context = context;
+    }
+
+    @Override
+    public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
+        return LeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, S> delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        return LeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> condition,
+            Subscriber<? super Entry<T, S>> subscriber) {
+        if (condition instanceof IntersectsRectangle)
+            file.search(page, ((IntersectsRectangle) condition).rectangle(),
+                    Functions.<Entry<T, S>> onNext(subscriber), subscriber);
+        else
+            LeafHelper.search(condition, subscriber, this);
+    }
+
+    @Override
+    public void search(GeometryPredicate criterion, Action1<? super Entry<T, S>> visitor) {
+        if (criterion instanceof IntersectsRectangle)
+            file.search(page, ((IntersectsRectangle) criterion).rectangle(), visitor, null);
+        else
+            LeafHelper.search(criterion, visitor, this);
+    }
+
+    @Override
+    public int count() {
+        return PageFile.count(page());
+    }
+
+    @Override
+    public Context<T, S> context() {
+        return context;
+    }
+
+    @Override
+    public Geometry geometry() {
+        return mbr;
+    }
+
+    @Override
+    public List<Entry<T, S>> entries() {
+        ByteBuffer bb = page();
+        int count = PageFile.count(bb);
+        List<Entry<T, S>> list = new ArrayList<Entry<T, S>>(count);
+        for (int i = 0; i < count; i++)
+            list.add(file.entry(bb, file.slot(i)));
+        return list;
+    }
+
+    @Override
+    public Entry<T, S> entry(int i) {
+        return file.entry(page(), file.slot(i));
+    }
+
+    private ByteBuffer page() {
+        ByteBuffer b = bb;
+        if (b == null) {
+            b = file.page(page);
+            bb = b;
+        }
+        return b;
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.github.davidmoten.rtree.paged;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GeometryPredicate;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.Functions;
+import com.github.davidmoten.rtree.internal.IntersectsRectangle;
+import com.github.davidmoten.rtree.internal.NodeAndEntries;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
+import com.github.davidmoten.rtree.internal.SizedNode;
+import com.github.davidmoten.rtree.internal.VisitableNode;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Non-leaf whose children are on a page of a file. The page is only read
+ * (through the buffer pool) when the children are first accessed and is then
+ * kept by this node, so a loop over the children looks it up once. The pages
+ * of the children are only read when they are accessed in turn.
+ */
+final class NonLeafPaged<T, S extends Geometry>
+        implements NonLeaf<T, S>, VisitableNode<T, S>, SizedNode {
+
+    private final PageFile<T, S> file;
+    private final int page;
+    private final Rectangle mbr;
+    private final int size;
+    private final Context<T, S> context;
+    // the page once read, buffers of the pool are never reused
+    private volatile ByteBuffer bb;
+
+    NonLeafPaged(PageFile<T, S> file, int page, Rectangle mbr, int size,
+            Context<T, S> context) {
+        this.file = file;
+        this.page = page;
+        this.mbr = mbr;
+        this.size = size;
+        this.context = context;
+    }
+
+    @Override
+    public List<Node<T, S>> add(Entry<? extends T, ? extends S> entry) {
+        return NonLeafHelper.add(entry, this);
+    }
+
+    @Override
+    public NodeAndEntries<T, S> delete(Entry<? extends T, ? extends S> entry, boolean all) {
+        return NonLeafHelper.delete(entry, all, this);
+    }
+
+    @Override
+    public void searchWithoutBackpressure(Func1<? super Geometry, Boolean> criterion,
+            Subscriber<? super Entry<T, S>> subscriber) {
+        if (criterion instanceof IntersectsRectangle)
+            file.search(page, ((IntersectsRectangle) criterion).rectangle(),
+                    Functions.<Entry<T, S>> onNext(subscriber), subscriber);
+        else
+            NonLeafHelper.search(criterion, subscriber, this);
+    }
+
+    @Override
+    public void search(GeometryPredicate criterion, Action1<? super Entry<T, S>> visitor) {
+        if (criterion instanceof IntersectsRectangle)
+            file.search(page, ((IntersectsRectangle) criterion).rectangle(), visitor, null);
+        else
+            NonLeafHelper.search(criterion, visitor, this);
+    }
+
+    @Override
+    public int count() {
+        return PageFile.count(page());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Context<T, S> context() {
+        return context;
+    }
+
+    @Override
+    public Geometry geometry() {
+        return mbr;
+    }
+
+    @Override
+    public Node<T, S> child(int i) {
+        return file.node(page(), file.slot(i), context);
+    }
+
+    @Override
+    public List<Node<T, S>> children() {
+        ByteBuffer bb = page();
+        int count = PageFile.count(bb);
+        List<Node<T, S>> children = new ArrayList<Node<T, S>>(count);
+        for (int i = 0; i < count; i++)
+            children.add(file.node(bb, file.slot(i), context));
+        return children;
+    }
+
+    private ByteBuffer page() {
+        ByteBuffer b = bb;
+        if (b == null) {
+            b = file.page(page);
+            bb = b;
+        }
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        return "Node [NonLeaf," + mbr + "]";
+    }
+
+}
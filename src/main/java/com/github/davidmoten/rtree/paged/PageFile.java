@@ -0,0 +1,268 @@
+package com.github.davidmoten.rtree.paged;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.geometry.internal.GeometryUtil;
+import com.github.davidmoten.rtree.internal.GeometryCodec;
+
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * Read access to a tree in the paged format written by {@link PagedRTree}. Node
+ * pages are read through a {@link BufferPool} and values are read from the
+ * file when they are requested.
+ * </p>
+ *
+ * <p>
+ * Layout (little-endian):
+ * </p>
+ *
+ * <pre>
+ * page 0   int magic, int version, int flags, int minChildren, int maxChildren,
+ *          int pageSize, long size, long valuesOffset, slot root
+ * page n   int kind (leaf or non-leaf), int count, slot[count]
+ * values   (int length, byte[length] value)*
+ *          after the node pages or, if written from a stream of entries,
+ *          from page 1 up to the node pages
+ *
+ * slot     int type, int child page, long value offset or size,
+ *          4 coordinates (float or double for the whole file)
+ * </pre>
+ *
+ * <p>
+ * Every node occupies one page. A slot of a non-leaf holds the bounds and page
+ * of a child node, whether the child is a leaf and the number of entries below
+ * the child (so the size of a subtree is read without reading its pages). A
+ * slot of a leaf holds the type and coordinates of the geometry of an entry as
+ * encoded by {@link GeometryCodec} and the file offset of its value. The root
+ * slot holds the bounds, page and size of the root node or a page of -1 for an
+ * empty tree. The type of a slot is flagged with
+ * {@link GeometryCodec#DOUBLE_PRECISION} if its geometry or bounds are double
+ * precision.
+ * </p>
+ */
+final class PageFile<T, S extends Geometry> {
+
+    static final int MAGIC = 0x47505452; // "RTPG"
+    static final int VERSION = 2;
+    static final int FLAG_DOUBLE = 1;
+
+    static final int MAGIC_POSITION = 0;
+    static final int VERSION_POSITION = 4;
+    static final int FLAGS_POSITION = 8;
+    static final int MIN_CHILDREN_POSITION = 12;
+    static final int MAX_CHILDREN_POSITION = 16;
+    static final int PAGE_SIZE_POSITION = 20;
+    static final int SIZE_POSITION = 24;
+    static final int VALUES_POSITION = 32;
+    static final int ROOT_SLOT_POSITION = 40;
+
+    static final int PAGE_HEADER_SIZE = 8;
+    static final int SLOT_HEADER_SIZE = 16;
+
+    static final int LEAF = 1;
+    static final int NON_LEAF = 0;
+
+    // slot types of non-leaf nodes, slots of leaf nodes have the types of
+    // GeometryCodec
+    static final int NON_LEAF_CHILD = 0;
+    static final int LEAF_CHILD = 16;
+
+    private final FileChannel channel;
+    private final BufferPool pool;
+    private final boolean doubles;
+    private final int slotSize;
+    private final int minChildren;
+    private final int maxChildren;
+    private final long size;
+    private final Func1<byte[], ? extends T> deserializer;
+
+    PageFile(FileChannel channel, long cacheBytes, Func1<byte[], ? extends T> deserializer)
+            throws IOException {
+        this.channel = channel;
+        this.deserializer = deserializer;
+        ByteBuffer header = read(channel, 0, ROOT_SLOT_POSITION);
+        if (header.getInt(MAGIC_POSITION) != MAGIC)
+            throw new IllegalArgumentException("not a paged rtree");
+        if (header.getInt(VERSION_POSITION) != VERSION)
+            throw new IllegalArgumentException(
+                    "unsupported paged rtree version " + header.getInt(VERSION_POSITION));
+        this.doubles = (header.getInt(FLAGS_POSITION) & FLAG_DOUBLE) != 0;
+        this.slotSize = slotSize(doubles);
+        this.minChildren = header.getInt(MIN_CHILDREN_POSITION);
+        this.maxChildren = header.getInt(MAX_CHILDREN_POSITION);
+        this.size = header.getLong(SIZE_POSITION);
+        int pageSize = header.getInt(PAGE_SIZE_POSITION);
+        this.pool = new BufferPool(channel, pageSize,
+                (int) Math.min(Integer.MAX_VALUE, Math.max(1, cacheBytes / pageSize)));
+    }
+
+    static int slotSize(boolean doubles) {
+        return SLOT_HEADER_SIZE + 4 * (doubles ? 8 : 4);
+    }
+
+    int minChildren() {
+        return minChildren;
+    }
+
+    int maxChildren() {
+        return maxChildren;
+    }
+
+    long size() {
+        return size;
+    }
+
+    BufferPool pool() {
+        return pool;
+    }
+
+    ByteBuffer page(int page) {
+        try {
+            return pool.get(page);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static boolean isLeaf(ByteBuffer page) {
+        return page.getInt(0) == LEAF;
+    }
+
+    static int count(ByteBuffer page) {
+        return page.getInt(4);
+    }
+
+    int slot(int i) {
+        return PAGE_HEADER_SIZE + i * slotSize;
+    }
+
+    static int type(ByteBuffer page, int slot) {
+        return page.getInt(slot);
+    }
+
+    static int childPage(ByteBuffer page, int slot) {
+        return page.getInt(slot + 4);
+    }
+
+    static long valueOffset(ByteBuffer page, int slot) {
+        return page.getLong(slot + 8);
+    }
+
+    /**
+     * Returns the number of entries below the child node of a non-leaf slot.
+     */
+    static long size(ByteBuffer page, int slot) {
+        return page.getLong(slot + 8);
+    }
+
+    double coordinate(ByteBuffer page, int slot, int i) {
+        if (doubles)
+            return page.getDouble(slot + SLOT_HEADER_SIZE + 8 * i);
+        else
+            return page.getFloat(slot + SLOT_HEADER_SIZE + 4 * i);
+    }
+
+    Rectangle bounds(ByteBuffer page, int slot) {
+        return GeometryCodec.bounds(type(page, slot), coordinate(page, slot, 0),
+                coordinate(page, slot, 1), coordinate(page, slot, 2), coordinate(page, slot, 3));
+    }
+
+    Geometry geometry(ByteBuffer page, int slot) {
+        return GeometryCodec.decode(type(page, slot), coordinate(page, slot, 0),
+                coordinate(page, slot, 1), coordinate(page, slot, 2), coordinate(page, slot, 3));
+    }
+
+    /**
+     * Returns the root node or null if the tree is empty.
+     */
+    Node<T, S> root(Context<T, S> context) {
+        ByteBuffer header = page(0);
+        if (childPage(header, ROOT_SLOT_POSITION) == -1)
+            return null;
+        return node(header, ROOT_SLOT_POSITION, context);
+    }
+
+    /**
+     * Returns the node referenced by the slot without reading its page.
+     */
+    Node<T, S> node(ByteBuffer page, int slot, Context<T, S> context) {
+        if ((type(page, slot) & LEAF_CHILD) != 0)
+            return new LeafPaged<T, S>(this, childPage(page, slot), bounds(page, slot), context);
+        else
+            return new NonLeafPaged<T, S>(this, childPage(page, slot), bounds(page, slot),
+                    (int) size(page, slot), context);
+    }
+
+    @SuppressWarnings("unchecked")
+    Entry<T, S> entry(ByteBuffer page, int slot) {
+        return new EntryPaged<T, S>((S) geometry(page, slot), this, valueOffset(page, slot));
+    }
+
+    T value(long offset) {
+        try {
+            int length = read(channel, offset, 4).getInt(0);
+            return deserializer.call(read(channel, offset + 4, length).array());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Visits the entries below the node on the given page that intersect r.
+     * Only the pages of nodes whose bounds intersect r are read. Bounds and
+     * point and rectangle geometries are compared to r using the raw
+     * coordinates of the page.
+     */
+    void search(int page, Rectangle r, Action1<? super Entry<T, S>> visitor,
+            Subscription subscription) {
+        double x1 = r.x1();
+        double y1 = r.y1();
+        double x2 = r.x2();
+        double y2 = r.y2();
+        ByteBuffer bb = page(page);
+        boolean leaf = isLeaf(bb);
+        int count = count(bb);
+        for (int i = 0; i < count; i++) {
+            if (subscription != null && subscription.isUnsubscribed())
+                return;
+            int slot = slot(i);
+            boolean intersects;
+            if (!leaf || GeometryCodec.isRectangular(type(bb, slot)))
+                intersects = GeometryUtil.intersects(x1, y1, x2, y2, coordinate(bb, slot, 0),
+                        coordinate(bb, slot, 1), coordinate(bb, slot, 2),
+                        coordinate(bb, slot, 3));
+            else
+                intersects = geometry(bb, slot).intersects(r);
+            if (intersects) {
+                if (leaf)
+                    visitor.call(entry(bb, slot));
+                else
+                    search(childPage(bb, slot), r, visitor, subscription);
+            }
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length)
+            throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, position + bb.position()) < 0)
+                throw new EOFException();
+        }
+        return bb;
+    }
+
+}
@@ -0,0 +1,516 @@
+package com.github.davidmoten.rtree.paged;
+
+import static com.github.davidmoten.rtree.paged.PageFile.FLAGS_POSITION;
+import static com.github.davidmoten.rtree.paged.PageFile.FLAG_DOUBLE;
+import static com.github.davidmoten.rtree.paged.PageFile.LEAF;
+import static com.github.davidmoten.rtree.paged.PageFile.LEAF_CHILD;
+import static com.github.davidmoten.rtree.paged.PageFile.MAGIC;
+import static com.github.davidmoten.rtree.paged.PageFile.MAGIC_POSITION;
+import static com.github.davidmoten.rtree.paged.PageFile.MAX_CHILDREN_POSITION;
+import static com.github.davidmoten.rtree.paged.PageFile.MIN_CHILDREN_POSITION;
+import static com.github.davidmoten.rtree.paged.PageFile.NON_LEAF;
+import static com.github.davidmoten.rtree.paged.PageFile.NON_LEAF_CHILD;
+import static com.github.davidmoten.rtree.paged.PageFile.PAGE_HEADER_SIZE;
+import static com.github.davidmoten.rtree.paged.PageFile.PAGE_SIZE_POSITION;
+import static com.github.davidmoten.rtree.paged.PageFile.ROOT_SLOT_POSITION;
+import static com.github.davidmoten.rtree.paged.PageFile.SIZE_POSITION;
+import static com.github.davidmoten.rtree.paged.PageFile.VALUES_POSITION;
+import static com.github.davidmoten.rtree.paged.PageFile.VERSION;
+import static com.github.davidmoten.rtree.paged.PageFile.VERSION_POSITION;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import com.github.davidmoten.guavamini.Optional;
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Factories;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.SelectorRStar;
+import com.github.davidmoten.rtree.SerializerHelper;
+import com.github.davidmoten.rtree.SplitterRStar;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.GeometryCodec;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * <p>
+ * An {@link RTree} held in a local file of fixed-size pages, one node per page,
+ * whose pages are read on demand through a buffer pool with a fixed memory
+ * budget. Pages are evicted with the CLOCK algorithm so the nodes near the
+ * root, which every search visits, stay cached while the rest of the tree is
+ * read from the file (and the OS page cache) as searches reach it. This allows
+ * {@link RTree#search(Rectangle)}, {@link RTree#nearest(Rectangle, double, int)}
+ * and the rest of the read API to be used on trees much larger than the heap.
+ * </p>
+ *
+ * <p>
+ * Values are stored after the node pages and are read from the file (not
+ * through the buffer pool) when {@link Entry#value()} is first called on a
+ * returned entry. The tree returned by {@link #tree()} can be modified as
+ * usual: new nodes are created on the heap and the file is never written to.
+ * </p>
+ *
+ * <p>
+ * A file can be written from an {@link RTree} or, for trees that do not fit on
+ * the heap, from an {@link Iterable} or {@link Observable} of entries with
+ * {@link #write(Iterable, File, int, int, long, Func1)}, which bulk loads the
+ * tree with external sorts.
+ * </p>
+ *
+ * <p>
+ * A file holds at most {@link Integer#MAX_VALUE} entries (the size of an
+ * {@link RTree}) and at most {@link Integer#MAX_VALUE} node pages, as subtree
+ * sizes and page numbers are read as ints. Writing a larger input fails with
+ * an {@link IllegalArgumentException}.
+ * </p>
+ *
+ * @param <T>
+ *            the entry value type
+ * @param <S>
+ *            the entry geometry type
+ */
+public final class PagedRTree<T, S extends Geometry> implements Closeable {
+
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    public static final long DEFAULT_SORT_BYTES = 1 << 26;
+
+    private static final int VALUES_BUFFER_SIZE = 1 << 16;
+
+    private final RandomAccessFile raf;
+    private final PageFile<T, S> file;
+    private final RTree<T, S> tree;
+
+    private PagedRTree(RandomAccessFile raf, PageFile<T, S> file) {
+        this.raf = raf;
+        this.file = file;
+        Context<T, S> context = new Context<T, S>(file.minChildren(), file.maxChildren(),
+                new SelectorRStar(), new SplitterRStar(), Factories.<T, S> defaultFactory());
+        Node<T, S> root = file.root(context);
+        Preconditions.checkArgument(file.size() <= Integer.MAX_VALUE, "too many entries");
+        this.tree = SerializerHelper.create(Optional.fromNullable(root), (int) file.size(),
+                context);
+    }
+
+    /**
+     * Opens the given file written by {@link #write(RTree, File, int, Func1)}
+     * or {@link #write(Iterable, File, int, int, long, Func1)} for reading.
+     * Only the header page is read by this method.
+     *
+     * @param file
+     *            file to read
+     * @param cacheBytes
+     *            memory budget of the buffer pool in bytes, at least one page
+     *            is cached
+     * @param deserializer
+     *            deserializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @return the opened tree, must be closed to release the file
+     * @throws IOException
+     *             on I/O error
+     */
+    public static <T, S extends Geometry> PagedRTree<T, S> open(File file, long cacheBytes,
+            Func1<byte[], ? extends T> deserializer) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new PagedRTree<T, S>(raf,
+                    new PageFile<T, S>(raf.getChannel(), cacheBytes, deserializer));
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the tree to the file with pages of {@link #DEFAULT_PAGE_SIZE}
+     * bytes.
+     *
+     * @param tree
+     *            tree to write
+     * @param file
+     *            file to write to, is overwritten
+     * @param serializer
+     *            serializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @throws IOException
+     *             on I/O error
+     */
+    public static <T, S extends Geometry> void write(RTree<T, S> tree, File file,
+            Func1<? super T, byte[]> serializer) throws IOException {
+        write(tree, file, DEFAULT_PAGE_SIZE, serializer);
+    }
+
+    /**
+     * Writes the tree to the file, one node per page. Nodes are written breadth
+     * first so the top levels of the tree occupy the first pages. The page size
+     * must be large enough to hold the largest node: a slot takes 32 bytes for
+     * trees of single precision geometries and 48 bytes otherwise and a page
+     * has an 8 byte header.
+     *
+     * @param tree
+     *            tree to write
+     * @param file
+     *            file to write to, is overwritten
+     * @param pageSize
+     *            size of a page in bytes
+     * @param serializer
+     *            serializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @throws IOException
+     *             on I/O error
+     */
+    public static <T, S extends Geometry> void write(RTree<T, S> tree, File file, int pageSize,
+            Func1<? super T, byte[]> serializer) throws IOException {
+        Preconditions.checkArgument(pageSize >= ROOT_SLOT_POSITION + PageFile.slotSize(true),
+                "pageSize too small");
+        int maxCount = 0;
+        boolean doubles = false;
+        long numNodes = 0;
+        if (tree.root().isPresent()) {
+            // first pass to count the pages
+            LinkedList<Node<T, S>> queue = new LinkedList<Node<T, S>>();
+            queue.add(tree.root().get());
+            while (!queue.isEmpty()) {
+                Node<T, S> node = queue.removeFirst();
+                numNodes++;
+                maxCount = Math.max(maxCount, node.count());
+                doubles |= node.geometry().isDoublePrecision();
+                if (node instanceof Leaf) {
+                    for (Entry<T, S> entry : ((Leaf<T, S>) node).entries())
+                        doubles |= entry.geometry().isDoublePrecision();
+                } else
+                    queue.addAll(((NonLeaf<T, S>) node).children());
+            }
+        }
+        Preconditions.checkArgument(
+                PAGE_HEADER_SIZE + maxCount * PageFile.slotSize(doubles) <= pageSize,
+                "pageSize too small for nodes of " + maxCount + " children");
+        Preconditions.checkArgument(numNodes < Integer.MAX_VALUE, "too many nodes");
+        long valuesStart = (numNodes + 1) * pageSize;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            ByteBuffer page = header(pageSize, doubles, tree.context().minChildren(),
+                    tree.context().maxChildren(), tree.size(), valuesStart);
+            if (tree.root().isPresent())
+                putNodeSlot(page, tree.root().get(), 1, tree.size(), doubles);
+            else
+                putSlot(page, NON_LEAF_CHILD, -1, 0, 0, 0, 0, 0, doubles);
+            write(channel, page, 0);
+            if (!tree.root().isPresent())
+                return;
+
+            ValuesWriter values = new ValuesWriter(channel, valuesStart);
+            double[] coordinates = new double[4];
+            // number of the next page to be allocated
+            int next = 2;
+            int pageNumber = 1;
+            LinkedList<Node<T, S>> queue = new LinkedList<Node<T, S>>();
+            queue.add(tree.root().get());
+            while (!queue.isEmpty()) {
+                Node<T, S> node = queue.removeFirst();
+                Arrays.fill(page.array(), (byte) 0);
+                page.clear();
+                if (node instanceof Leaf) {
+                    Leaf<T, S> leaf = (Leaf<T, S>) node;
+                    page.putInt(LEAF).putInt(leaf.count());
+                    for (Entry<T, S> entry : leaf.entries()) {
+                        int type = GeometryCodec.encode(entry.geometry(), coordinates);
+                        putSlot(page, type, 0, values.write(serializer.call(entry.value())),
+                                coordinates[0], coordinates[1], coordinates[2], coordinates[3],
+                                doubles);
+                    }
+                } else {
+                    NonLeaf<T, S> nonLeaf = (NonLeaf<T, S>) node;
+                    page.putInt(NON_LEAF).putInt(nonLeaf.count());
+                    for (Node<T, S> child : nonLeaf.children()) {
+                        putNodeSlot(page, child, next++, NonLeafHelper.size(child), doubles);
+                        queue.add(child);
+                    }
+                }
+                write(channel, page, (long) pageNumber * pageSize);
+                pageNumber++;
+            }
+            values.flush();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes a tree of the given entries to the file without building the tree
+     * on the heap (see
+     * {@link #write(Iterable, File, int, int, long, Func1)}), with pages of
+     * {@link #DEFAULT_PAGE_SIZE} bytes, as many children per node as fit in a
+     * page and up to {@link #DEFAULT_SORT_BYTES} of sort buffers.
+     *
+     * @param entries
+     *            entries of the tree, read once
+     * @param file
+     *            file to write to, is overwritten
+     * @param serializer
+     *            serializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @throws IOException
+     *             on I/O error
+     */
+    public static <T, S extends Geometry> void write(
+            Iterable<? extends Entry<? extends T, ? extends S>> entries, File file,
+            Func1<? super T, byte[]> serializer) throws IOException {
+        write(entries, file, DEFAULT_PAGE_SIZE, maxChildren(DEFAULT_PAGE_SIZE),
+                DEFAULT_SORT_BYTES, serializer);
+    }
+
+    /**
+     * Writes a tree of the entries emitted by the observable to the file
+     * without building the tree on the heap (see
+     * {@link #write(Iterable, File, Func1)}). The observable is subscribed to
+     * on the calling thread, which blocks until it completes.
+     *
+     * @param entries
+     *            entries of the tree
+     * @param file
+     *            file to write to, is overwritten
+     * @param serializer
+     *            serializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @throws IOException
+     *             on I/O error
+     */
+    public static <T, S extends Geometry> void write(
+            Observable<? extends Entry<? extends T, ? extends S>> entries, File file,
+            Func1<? super T, byte[]> serializer) throws IOException {
+        write(entries.toBlocking().toIterable(), file, serializer);
+    }
+
+    /**
+     * Writes a tree of the given entries to the file by Sort-Tile-Recursive
+     * bulk loading (the packing of {@link RTree#create(java.util.List)}) with
+     * full nodes. The entries are read once and their values are written as
+     * they are read, so only the sort buffers and one page are held in memory
+     * whatever the number of entries. Temporary files of about 84 bytes per
+     * entry are created in the directory of {@code file} while sorting.
+     *
+     * @param entries
+     *            entries of the tree, read once
+     * @param file
+     *            file to write to, is overwritten
+     * @param pageSize
+     *            size of a page in bytes
+     * @param maxChildren
+     *            number of children of a full node, nodes of that many slots
+     *            must fit in a page
+     * @param sortBytes
+     *            memory budget in bytes of the in-memory runs of the external
+     *            sorts
+     * @param serializer
+     *            serializes entry values
+     * @param <T>
+     *            the entry value type
+     * @param <S>
+     *            the entry geometry type
+     * @throws IOException
+     *             on I/O error
+     */
+    public static <T, S extends Geometry> void write(
+            Iterable<? extends Entry<? extends T, ? extends S>> entries, File file, int pageSize,
+            int maxChildren, long sortBytes, Func1<? super T, byte[]> serializer)
+            throws IOException {
+        BulkLoader.write(entries, file, pageSize, maxChildren, sortBytes, serializer);
+    }
+
+    /**
+     * Returns the number of slots of double precision geometries that fit in a
+     * page of the given size.
+     *
+     * @param pageSize
+     *            size of a page in bytes
+     * @return the largest maxChildren for any entries
+     */
+    public static int maxChildren(int pageSize) {
+        return (pageSize - PAGE_HEADER_SIZE) / PageFile.slotSize(true);
+    }
+
+    /**
+     * Returns the tree whose nodes are read from the file on demand. Must not
+     * be used after {@link #close()}.
+     *
+     * @return the tree
+     */
+    public RTree<T, S> tree() {
+        return tree;
+    }
+
+    /**
+     * Returns the number of page requests that were satisfied from the buffer
+     * pool.
+     *
+     * @return number of buffer pool hits
+     */
+    public long pageHits() {
+        return file.pool().hits();
+    }
+
+    /**
+     * Returns the number of page requests that read the page from the file.
+     *
+     * @return number of page faults
+     */
+    public long pageFaults() {
+        return file.pool().faults();
+    }
+
+    /**
+     * Returns the number of pages currently held by the buffer pool.
+     *
+     * @return number of cached pages
+     */
+    public int cachedPages() {
+        return file.pool().cachedPages();
+    }
+
+    /**
+     * Returns the maximum number of pages held by the buffer pool.
+     *
+     * @return buffer pool capacity in pages
+     */
+    public int cacheCapacity() {
+        return file.pool().capacity();
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Returns a page holding the header of a file, positioned at the root slot.
+     */
+    static ByteBuffer header(int pageSize, boolean doubles, int minChildren, int maxChildren,
+            long size, long valuesStart) {
+        ByteBuffer page = ByteBuffer.allocate(pageSize).order(ByteOrder.LITTLE_ENDIAN);
+        page.putInt(MAGIC_POSITION, MAGIC);
+        page.putInt(VERSION_POSITION, VERSION);
+        page.putInt(FLAGS_POSITION, doubles ? FLAG_DOUBLE : 0);
+        page.putInt(MIN_CHILDREN_POSITION, minChildren);
+        page.putInt(MAX_CHILDREN_POSITION, maxChildren);
+        page.putInt(PAGE_SIZE_POSITION, pageSize);
+        page.putLong(SIZE_POSITION, size);
+        page.putLong(VALUES_POSITION, valuesStart);
+        page.position(ROOT_SLOT_POSITION);
+        return page;
+    }
+
+    private static void putNodeSlot(ByteBuffer bb, Node<?, ?> node, int page, long size,
+            boolean doubles) {
+        Rectangle r = node.geometry().mbr();
+        int precision = r.isDoublePrecision() ? GeometryCodec.DOUBLE_PRECISION : 0;
+        putSlot(bb, (node instanceof Leaf ? LEAF_CHILD : NON_LEAF_CHILD) | precision, page,
+                size, r.x1(), r.y1(), r.x2(), r.y2(), doubles);
+    }
+
+    // valueOrSize is the value offset of an entry or the size of a child node
+    static void putSlot(ByteBuffer bb, int type, int page, long valueOrSize, double a,
+            double b, double c, double d, boolean doubles) {
+        bb.putInt(type).putInt(page).putLong(valueOrSize);
+        if (doubles)
+            bb.putDouble(a).putDouble(b).putDouble(c).putDouble(d);
+        else
+            bb.putFloat((float) a).putFloat((float) b).putFloat((float) c).putFloat((float) d);
+    }
+
+    static void write(FileChannel channel, ByteBuffer bb, long position)
+            throws IOException {
+        bb.clear();
+        long p = position;
+        while (bb.hasRemaining())
+            p += channel.write(bb, p);
+    }
+
+    /**
+     * Appends length-prefixed values to the values region in chunks.
+     */
+    static final class ValuesWriter {
+
+        private final FileChannel channel;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                VALUES_BUFFER_SIZE);
+        private final byte[] length = new byte[4];
+        // position of the start of the buffer in the file
+        private long position;
+
+        ValuesWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        /**
+         * Appends the value and returns its offset in the file.
+         */
+        long write(byte[] bytes) throws IOException {
+            long offset = position + buffer.size();
+            int n = bytes.length;
+            length[0] = (byte) n;
+            length[1] = (byte) (n >>> 8);
+            length[2] = (byte) (n >>> 16);
+            length[3] = (byte) (n >>> 24);
+            buffer.write(length);
+            buffer.write(bytes);
+            if (buffer.size() >= VALUES_BUFFER_SIZE)
+                flush();
+            return offset;
+        }
+
+        /**
+         * Returns the offset in the file of the next value to be written.
+         */
+        long position() {
+            return position + buffer.size();
+        }
+
+        void flush() throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(buffer.toByteArray());
+            while (bb.hasRemaining())
+                position += channel.write(bb, position);
+            buffer.reset();
+        }
+    }
+
+}
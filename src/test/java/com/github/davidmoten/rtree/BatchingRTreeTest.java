@@ -0,0 +1,193 @@
+package com.github.davidmoten.rtree;
+
+import static com.github.davidmoten.rtree.Utilities.entries;
+import static com.github.davidmoten.rtree.Utilities.sorted;
+import static com.github.davidmoten.rtree.geometry.Geometries.point;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Observable;
+import rx.schedulers.TestScheduler;
+
+public class BatchingRTreeTest {
+
+    @Test
+    public void testUpdateMatchesSequentialUpdates() {
+        List<Entry<Integer, Point>> entries = entries(0, 1000, 1);
+        for (RTree<Integer, Point> tree : trees(entries)) {
+            List<Entry<Integer, Point>> deletes = new ArrayList<Entry<Integer, Point>>(
+                    entries.subList(0, 300));
+            // deleting an entry that is not present does nothing
+            deletes.add(Entries.entry(-1, point(1, 1)));
+            List<Entry<Integer, Point>> adds = entries(1000, 200, 2);
+            RTree<Integer, Point> expected = tree.delete(deletes).add(adds);
+            RTree<Integer, Point> updated = tree.update(deletes, adds);
+            assertEquals(900, updated.size());
+            checkSameEntries(expected, updated);
+            // the original tree is unaffected
+            assertEquals(1000, tree.size());
+            assertEquals(1000, (int) tree.entries().count().toBlocking().single());
+        }
+    }
+
+    @Test
+    public void testLargeUpdateRebuildsTree() {
+        RTree<Integer, Point> tree = RTree.maxChildren(4).<Integer, Point> create()
+                .add(entries(0, 100, 3));
+        List<Entry<Integer, Point>> adds = entries(100, 1000, 4);
+        List<Entry<Integer, Point>> deletes = entries(0, 10, 3);
+        // a duplicate delete removes one instance only
+        tree = tree.add(deletes.get(0));
+        deletes.add(deletes.get(0));
+        RTree<Integer, Point> expected = tree.delete(deletes).add(adds);
+        RTree<Integer, Point> updated = tree.update(deletes, adds);
+        assertEquals(1090, updated.size());
+        checkSameEntries(expected, updated);
+        assertEquals(tree.context().maxChildren(), updated.context().maxChildren());
+    }
+
+    @Test
+    public void testUpdateWithSingleUseIterable() {
+        List<Entry<Integer, Point>> adds = entries(0, 10, 4);
+        List<Entry<Integer, Point>> none = Collections.emptyList();
+        // fewer adds than entries updates the tree in place
+        RTree<Integer, Point> tree = RTree.maxChildren(4).<Integer, Point> create()
+                .add(entries(100, 20, 6));
+        checkSameEntries(tree.add(adds), tree.update(none, singleUse(adds)));
+        // at least as many adds as entries rebuilds the tree
+        tree = RTree.maxChildren(4).<Integer, Point> create().add(entries(100, 5, 6));
+        checkSameEntries(tree.add(adds), tree.update(none, singleUse(adds)));
+    }
+
+    private static <T> Iterable<T> singleUse(final List<T> list) {
+        return new Iterable<T>() {
+            boolean used;
+
+            @Override
+            public Iterator<T> iterator() {
+                assertFalse(used);
+                used = true;
+                return list.iterator();
+            }
+        };
+    }
+
+    @Test
+    public void testEmptyUpdateReturnsSameTree() {
+        RTree<Integer, Point> tree = RTree.<Integer, Point> create().add(entries(0, 10, 5));
+        List<Entry<Integer, Point>> none = Collections.emptyList();
+        assertSame(tree, tree.update(none, none));
+        assertSame(tree, tree.update(entries(100, 2, 6), none));
+    }
+
+    @Test
+    public void testAddObservableInBatches() {
+        List<Entry<Integer, Point>> entries = entries(0, 1000, 7);
+        List<RTree<Integer, Point>> trees = RTree.maxChildren(4).<Integer, Point> create()
+                .add(Observable.from(entries), 300).toList().toBlocking().single();
+        // the initial tree and one per batch
+        assertEquals(5, trees.size());
+        assertEquals(1000, trees.get(4).size());
+        checkSameEntries(RTree.maxChildren(4).<Integer, Point> create().add(entries),
+                trees.get(4));
+    }
+
+    @Test
+    public void testFlushesWhenBatchIsFull() {
+        BatchingRTree<Integer, Point> batching = BatchingRTree
+                .create(RTree.maxChildren(4).<Integer, Point> create(), 10);
+        List<Entry<Integer, Point>> entries = entries(0, 25, 8);
+        for (Entry<Integer, Point> entry : entries)
+            batching.add(entry);
+        assertEquals(20, batching.tree().size());
+        assertEquals(5, batching.pending());
+        assertEquals(25, batching.flush().size());
+        assertEquals(0, batching.pending());
+    }
+
+    @Test
+    public void testDeleteCancelsPendingAdd() {
+        RTree<Integer, Point> tree = RTree.maxChildren(4).<Integer, Point> create()
+                .add(1, point(1, 1));
+        BatchingRTree<Integer, Point> batching = BatchingRTree.create(tree, 100);
+        batching.add(2, point(2, 2));
+        batching.add(1, point(1, 1));
+        batching.delete(1, point(1, 1));
+        batching.delete(1, point(1, 1));
+        batching.delete(2, point(2, 2));
+        batching.add(2, point(2, 2));
+        assertEquals(2, batching.pending());
+        RTree<Integer, Point> result = batching.flush();
+        assertEquals(1, result.size());
+        assertEquals(2, (int) result.entries().toBlocking().single().value());
+    }
+
+    @Test
+    public void testEntriesAreCreatedByTheFactoryOfTheTree() {
+        AtomicInteger created = new AtomicInteger();
+        RTree<Integer, Point> tree = RTree.maxChildren(4)
+                .factory(Utilities.<Integer, Point> countingFactory(created)).create();
+        BatchingRTree<Integer, Point> batching = BatchingRTree.create(tree, 100);
+        batching.add(1, point(1, 1));
+        batching.add(2, point(2, 2));
+        batching.delete(1, point(1, 1));
+        assertEquals(3, created.get());
+        assertEquals(1, batching.flush().size());
+    }
+
+    @Test
+    public void testFlushesAfterDelay() {
+        TestScheduler scheduler = new TestScheduler();
+        BatchingRTree<Integer, Point> batching = BatchingRTree.create(
+                RTree.maxChildren(4).<Integer, Point> create(), 100, 1, TimeUnit.SECONDS,
+                scheduler);
+        batching.add(1, point(1, 1));
+        scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        batching.add(2, point(2, 2));
+        assertTrue(batching.tree().isEmpty());
+        scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        assertEquals(2, batching.tree().size());
+        batching.add(3, point(3, 3));
+        assertEquals(3, batching.close().size());
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        assertEquals(3, batching.tree().size());
+    }
+
+    private static List<RTree<Integer, Point>> trees(List<Entry<Integer, Point>> entries) {
+        List<RTree<Integer, Point>> trees = new ArrayList<RTree<Integer, Point>>();
+        trees.add(RTree.maxChildren(4).<Integer, Point> create().add(entries));
+        trees.add(RTree.star().maxChildren(6).<Integer, Point> create().add(entries));
+        trees.add(RTree.maxChildren(10).factory(Factories.<Integer> pointsFactory())
+                .create(entries));
+        return trees;
+    }
+
+    private static void checkSameEntries(RTree<Integer, Point> expected,
+            RTree<Integer, Point> actual) {
+        assertEquals(sorted(expected.entries()), sorted(actual.entries()));
+        Random random = new Random(9);
+        for (int i = 0; i < 20; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            Rectangle r = Geometries.rectangle(x, y, x + 20, y + 20);
+            assertEquals(sorted(expected.search(r)), sorted(actual.search(r)));
+        }
+    }
+
+}
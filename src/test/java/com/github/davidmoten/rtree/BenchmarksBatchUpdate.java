@@ -0,0 +1,48 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+
+/**
+ * Adds 1,000 entries to a tree of 100,000 entries one at a time versus as a
+ * single batch.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksBatchUpdate {
+
+    private final RTree<Integer, Point> tree = RTree.star().maxChildren(10).create(points(0,
+            100000, 1));
+
+    private final List<Entry<Integer, Point>> adds = points(100000, 1000, 2);
+
+    private final List<Entry<Integer, Point>> none = Collections.emptyList();
+
+    @Benchmark
+    public RTree<Integer, Point> addOneAtATime() {
+        return tree.add(adds);
+    }
+
+    @Benchmark
+    public RTree<Integer, Point> addAsBatch() {
+        return tree.update(none, adds);
+    }
+
+    private static List<Entry<Integer, Point>> points(int start, int n, long seed) {
+        Random random = new Random(seed);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(n);
+        for (int i = 0; i < n; i++)
+            list.add(Entries.entry(start + i, Geometries.point(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000)));
+        return list;
+    }
+
+}
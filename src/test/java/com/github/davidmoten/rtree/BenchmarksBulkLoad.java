@@ -0,0 +1,101 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.davidmoten.rtree.geometry.Circle;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+/**
+ * STR bulk loading of 100,000 entries of each geometry type.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksBulkLoad {
+
+    private static final int N = 100000;
+
+    private final List<Entry<Integer, Point>> points = points();
+
+    private final List<Entry<Integer, Rectangle>> rectangles = rectangles();
+
+    private final List<Entry<Integer, Circle>> circles = circles();
+
+    private final ExecutorService executor = Executors
+            .newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public RTree<Integer, Point> bulkLoadPoints() {
+        return RTree.maxChildren(10).create(points);
+    }
+
+    @Benchmark
+    public RTree<Integer, Rectangle> bulkLoadRectangles() {
+        return RTree.maxChildren(10).create(rectangles);
+    }
+
+    @Benchmark
+    public RTree<Integer, Circle> bulkLoadCircles() {
+        return RTree.maxChildren(10).create(circles);
+    }
+
+    @Benchmark
+    public RTree<Integer, Point> bulkLoadPointsParallel() {
+        return RTree.maxChildren(10).create(points, executor);
+    }
+
+    @Benchmark
+    public RTree<Integer, Rectangle> bulkLoadRectanglesParallel() {
+        return RTree.maxChildren(10).create(rectangles, executor);
+    }
+
+    @Benchmark
+    public RTree<Integer, Circle> bulkLoadCirclesParallel() {
+        return RTree.maxChildren(10).create(circles, executor);
+    }
+
+    private static List<Entry<Integer, Point>> points() {
+        Random random = new Random(1);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(N);
+        for (int i = 0; i < N; i++)
+            list.add(Entries.entry(i, Geometries.point(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000)));
+        return list;
+    }
+
+    private static List<Entry<Integer, Rectangle>> rectangles() {
+        Random random = new Random(2);
+        List<Entry<Integer, Rectangle>> list = new ArrayList<Entry<Integer, Rectangle>>(N);
+        for (int i = 0; i < N; i++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            list.add(Entries.entry(i, Geometries.rectangle(x, y, x + random.nextDouble() * 10,
+                    y + random.nextDouble() * 10)));
+        }
+        return list;
+    }
+
+    private static List<Entry<Integer, Circle>> circles() {
+        Random random = new Random(3);
+        List<Entry<Integer, Circle>> list = new ArrayList<Entry<Integer, Circle>>(N);
+        for (int i = 0; i < N; i++)
+            list.add(Entries.entry(i, Geometries.circle(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000, random.nextDouble() * 5)));
+        return list;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.github.davidmoten.rtree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rtree.fbs.SerializerFlatBuffers;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Searches a flatbuffers backed tree of 100,000 points with string values,
+ * consuming only the geometries of the matches versus their values too.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksFlatBuffersValues {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RTree<String, Point> tree = create();
+
+    private final Rectangle r = Geometries.rectangle(400, 400, 500, 500);
+
+    @Benchmark
+    public void searchGeometriesOnly(final Blackhole bh) {
+        tree.search(r, new Action1<Entry<String, Point>>() {
+            @Override
+            public void call(Entry<String, Point> entry) {
+                bh.consume(entry.geometry());
+            }
+        });
+    }
+
+    @Benchmark
+    public void searchValues(final Blackhole bh) {
+        tree.search(r, new Action1<Entry<String, Point>>() {
+            @Override
+            public void call(Entry<String, Point> entry) {
+                bh.consume(entry.value());
+            }
+        });
+    }
+
+    private static RTree<String, Point> create() {
+        Random random = new Random(1);
+        RTree<String, Point> tree = RTree.star().maxChildren(10).create();
+        for (int i = 0; i < 100000; i++)
+            tree = tree.add("value-" + i, Geometries.point(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000));
+        SerializerFlatBuffers<String, Point> serializer = SerializerFlatBuffers.createForFiles(
+                new Func1<String, byte[]>() {
+                    @Override
+                    public byte[] call(String s) {
+                        return s.getBytes(UTF_8);
+                    }
+                }, new Func1<byte[], String>() {
+                    @Override
+                    public String call(byte[] bytes) {
+                        return new String(bytes, UTF_8);
+                    }
+                });
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            serializer.write(tree, bytes);
+            return serializer.read(new ByteArrayInputStream(bytes.toByteArray()), bytes.size(),
+                    InternalStructure.SINGLE_ARRAY);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Action1;
+import rx.functions.Action2;
+import rx.functions.Func2;
+
+/**
+ * Joins 20,000 rectangles with 100,000 points using the synchronized
+ * traversal join and using a search of the points tree for each rectangle.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksJoin {
+
+    private final List<Entry<Integer, Rectangle>> rectangles = rectangles(20000);
+
+    private final RTree<Integer, Rectangle> rectanglesTree = RTree.maxChildren(10)
+            .create(rectangles);
+
+    private final RTree<Integer, Point> pointsTree = RTree.maxChildren(10).create(points(100000));
+
+    @Benchmark
+    public void join(final Blackhole bh) {
+        rectanglesTree.join(pointsTree,
+                new Func2<Entry<Integer, Rectangle>, Entry<Integer, Point>, Boolean>() {
+                    @Override
+                    public Boolean call(Entry<Integer, Rectangle> a, Entry<Integer, Point> b) {
+                        return true;
+                    }
+                }, new Action2<Entry<Integer, Rectangle>, Entry<Integer, Point>>() {
+                    @Override
+                    public void call(Entry<Integer, Rectangle> a, Entry<Integer, Point> b) {
+                        bh.consume(b);
+                    }
+                });
+    }
+
+    @Benchmark
+    public void searchForEachRectangle(final Blackhole bh) {
+        Action1<Entry<Integer, Point>> visitor = new Action1<Entry<Integer, Point>>() {
+            @Override
+            public void call(Entry<Integer, Point> b) {
+                bh.consume(b);
+            }
+        };
+        for (Entry<Integer, Rectangle> a : rectangles)
+            pointsTree.search(a.geometry(), visitor);
+    }
+
+    private static List<Entry<Integer, Rectangle>> rectangles(int n) {
+        Random random = new Random(1);
+        List<Entry<Integer, Rectangle>> list = new ArrayList<Entry<Integer, Rectangle>>(n);
+        for (int i = 0; i < n; i++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            list.add(Entries.entry(i, Geometries.rectangle(x, y, x + random.nextDouble() * 5,
+                    y + random.nextDouble() * 5)));
+        }
+        return list;
+    }
+
+    private static List<Entry<Integer, Point>> points(int n) {
+        Random random = new Random(2);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(n);
+        for (int i = 0; i < n; i++)
+            list.add(Entries.entry(i,
+                    Geometries.point(random.nextDouble() * 1000, random.nextDouble() * 1000)));
+        return list;
+    }
+
+}
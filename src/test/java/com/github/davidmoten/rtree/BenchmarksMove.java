@@ -0,0 +1,65 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+
+/**
+ * Moves 1,000 of 100,000 points a small distance by delete and add versus
+ * {@link RTree#move(Object, com.github.davidmoten.rtree.geometry.Geometry, com.github.davidmoten.rtree.geometry.Geometry, double)}.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksMove {
+
+    private static final int N = 100000;
+
+    private final List<Entry<Integer, Point>> entries = points();
+
+    private final RTree<Integer, Point> tree = RTree.star().maxChildren(10).create(entries);
+
+    private final List<Point> targets = targets(entries);
+
+    @Benchmark
+    public RTree<Integer, Point> moveByDeleteAndAdd() {
+        RTree<Integer, Point> t = tree;
+        for (int i = 0; i < targets.size(); i++)
+            t = t.delete(i, entries.get(i).geometry()).add(i, targets.get(i));
+        return t;
+    }
+
+    @Benchmark
+    public RTree<Integer, Point> move() {
+        RTree<Integer, Point> t = tree;
+        for (int i = 0; i < targets.size(); i++)
+            t = t.move(i, entries.get(i).geometry(), targets.get(i), 0.5);
+        return t;
+    }
+
+    private static List<Point> targets(List<Entry<Integer, Point>> entries) {
+        Random random = new Random(2);
+        List<Point> list = new ArrayList<Point>();
+        for (int i = 0; i < 1000; i++) {
+            Point p = entries.get(i).geometry();
+            list.add(Geometries.point(p.x() + random.nextGaussian() * 0.5,
+                    p.y() + random.nextGaussian() * 0.5));
+        }
+        return list;
+    }
+
+    private static List<Entry<Integer, Point>> points() {
+        Random random = new Random(1);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(N);
+        for (int i = 0; i < N; i++)
+            list.add(Entries.entry(i, Geometries.point(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000)));
+        return list;
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.github.davidmoten.rtree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Action1;
+
+/**
+ * Searches a tree of 100,000 points read in place from the flatbuffers format
+ * versus the packed format.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksPacked {
+
+    private final RTree<String, Point> tree = create();
+
+    private final RTree<String, Point> flatBuffers = roundTrip(tree,
+            Serializers.flatBuffers().<Point> utf8());
+
+    private final RTree<String, Point> packed = roundTrip(tree,
+            Serializers.packed().<Point> utf8());
+
+    private final Rectangle r = Geometries.rectangle(400, 400, 500, 500);
+
+    @Benchmark
+    public void searchFlatBuffers(Blackhole bh) {
+        search(flatBuffers, bh);
+    }
+
+    @Benchmark
+    public void searchPacked(Blackhole bh) {
+        search(packed, bh);
+    }
+
+    private void search(RTree<String, Point> tree, final Blackhole bh) {
+        tree.search(r, new Action1<Entry<String, Point>>() {
+            @Override
+            public void call(Entry<String, Point> entry) {
+                bh.consume(entry.geometry());
+            }
+        });
+    }
+
+    private static RTree<String, Point> create() {
+        Random random = new Random(1);
+        RTree<String, Point> tree = RTree.star().maxChildren(10).create();
+        for (int i = 0; i < 100000; i++)
+            tree = tree.add("value-" + i, Geometries.point(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000));
+        return tree;
+    }
+
+    private static RTree<String, Point> roundTrip(RTree<String, Point> tree,
+            Serializer<String, Point> serializer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            serializer.write(tree, bytes);
+            return serializer.read(new ByteArrayInputStream(bytes.toByteArray()), bytes.size(),
+                    InternalStructure.SINGLE_ARRAY);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Subscriber;
+
+/**
+ * Compares search throughput of bulk loaded trees packed with
+ * {@link Packing#STR} and {@link Packing#HILBERT}. Run {@link #main(String[])}
+ * to print the average number of nodes visited per search.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksPacking {
+
+    private static final int MAX_CHILDREN = 10;
+
+    private final List<Entry<Object, Point>> greek = GreekEarthquakes
+            .entriesList(Precision.DOUBLE);
+
+    private final List<Entry<Object, Point>> clustered = clustered(100000, 1);
+
+    private final RTree<Object, Point> greekStr = create(greek, Packing.STR);
+
+    private final RTree<Object, Point> greekHilbert = create(greek, Packing.HILBERT);
+
+    private final RTree<Object, Point> clusteredStr = create(clustered, Packing.STR);
+
+    private final RTree<Object, Point> clusteredHilbert = create(clustered, Packing.HILBERT);
+
+    private final List<Rectangle> greekQueries = queries(greek, 1000, 0.5, 2);
+
+    private final List<Rectangle> clusteredQueries = queries(clustered, 1000, 0.5, 3);
+
+    @Benchmark
+    public void searchGreekStr(Blackhole bh) {
+        search(greekStr, greekQueries, bh);
+    }
+
+    @Benchmark
+    public void searchGreekHilbert(Blackhole bh) {
+        search(greekHilbert, greekQueries, bh);
+    }
+
+    @Benchmark
+    public void searchClusteredStr(Blackhole bh) {
+        search(clusteredStr, clusteredQueries, bh);
+    }
+
+    @Benchmark
+    public void searchClusteredHilbert(Blackhole bh) {
+        search(clusteredHilbert, clusteredQueries, bh);
+    }
+
+    public static void main(String[] args) {
+        BenchmarksPacking b = new BenchmarksPacking();
+        report("greek STR", b.greekStr, b.greekQueries);
+        report("greek HILBERT", b.greekHilbert, b.greekQueries);
+        report("clustered STR", b.clusteredStr, b.clusteredQueries);
+        report("clustered HILBERT", b.clusteredHilbert, b.clusteredQueries);
+    }
+
+    private static void report(String name, RTree<Object, Point> tree, List<Rectangle> queries) {
+        long visits = 0;
+        for (Rectangle r : queries)
+            visits += nodesVisited(tree.root().get(), r);
+        System.out.println(name + ": nodes visited per search = "
+                + (double) visits / queries.size() + ", depth = " + tree.calculateDepth());
+    }
+
+    private static long nodesVisited(Node<Object, Point> node, Rectangle r) {
+        long count = 1;
+        if (node instanceof NonLeaf) {
+            for (Node<Object, Point> child : ((NonLeaf<Object, Point>) node).children())
+                if (child.geometry().intersects(r))
+                    count += nodesVisited(child, r);
+        }
+        return count;
+    }
+
+    private static void search(RTree<Object, Point> tree, List<Rectangle> queries,
+            final Blackhole bh) {
+        for (Rectangle r : queries)
+            tree.search(r).subscribe(new Subscriber<Entry<Object, Point>>() {
+
+                @Override
+                public void onCompleted() {
+
+                }
+
+                @Override
+                public void onError(Throwable e) {
+
+                }
+
+                @Override
+                public void onNext(Entry<Object, Point> t) {
+                    bh.consume(t);
+                }
+            });
+    }
+
+    private static RTree<Object, Point> create(List<Entry<Object, Point>> entries,
+            Packing packing) {
+        return RTree.maxChildren(MAX_CHILDREN).packing(packing).create(entries);
+    }
+
+    /**
+     * Returns points in a few dense gaussian clusters of varying size plus some
+     * uniform background noise, resembling GPS fixes in a handful of cities.
+     */
+    static List<Entry<Object, Point>> clustered(int n, long seed) {
+        Random random = new Random(seed);
+        int clusters = 20;
+        double[] cx = new double[clusters];
+        double[] cy = new double[clusters];
+        double[] sd = new double[clusters];
+        for (int i = 0; i < clusters; i++) {
+            cx[i] = random.nextDouble() * 1000;
+            cy[i] = random.nextDouble() * 1000;
+            sd[i] = 0.5 + random.nextDouble() * random.nextDouble() * 20;
+        }
+        List<Entry<Object, Point>> list = new ArrayList<Entry<Object, Point>>(n);
+        for (int i = 0; i < n; i++) {
+            Point p;
+            if (random.nextInt(20) == 0)
+                p = Geometries.point(random.nextDouble() * 1000, random.nextDouble() * 1000);
+            else {
+                // skew towards the first clusters
+                int c = (int) (clusters * random.nextDouble() * random.nextDouble());
+                p = Geometries.point(cx[c] + random.nextGaussian() * sd[c],
+                        cy[c] + random.nextGaussian() * sd[c]);
+            }
+            list.add(Entries.<Object, Point> entry(i, p));
+        }
+        return list;
+    }
+
+    /**
+     * Returns query squares centred on randomly chosen entries so that queries
+     * follow the distribution of the data.
+     */
+    private static List<Rectangle> queries(List<? extends Entry<?, ? extends Geometry>> entries,
+            int n, double halfWidth, long seed) {
+        Random random = new Random(seed);
+        List<Rectangle> list = new ArrayList<Rectangle>(n);
+        for (int i = 0; i < n; i++) {
+            Rectangle mbr = entries.get(random.nextInt(entries.size())).geometry().mbr();
+            list.add(Geometries.rectangle(mbr.x1() - halfWidth, mbr.y1() - halfWidth,
+                    mbr.x2() + halfWidth, mbr.y2() + halfWidth));
+        }
+        return list;
+    }
+
+}
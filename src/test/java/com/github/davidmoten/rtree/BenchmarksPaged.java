@@ -0,0 +1,102 @@
+package com.github.davidmoten.rtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.paged.PagedRTree;
+
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Searches a tree of 100,000 points on the heap versus paged from a file with
+ * a buffer pool that holds every page versus one that holds 64 pages.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksPaged {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RTree<String, Point> tree = create();
+
+    private final PagedRTree<String, Point> pagedLargeCache = open(tree, 1 << 30);
+
+    private final PagedRTree<String, Point> pagedSmallCache = open(tree, 64 * 4096);
+
+    private final Random random = new Random(2);
+
+    @Benchmark
+    public void searchHeap(Blackhole bh) {
+        search(tree, bh);
+    }
+
+    @Benchmark
+    public void searchPagedLargeCache(Blackhole bh) {
+        search(pagedLargeCache.tree(), bh);
+    }
+
+    @Benchmark
+    public void searchPagedSmallCache(Blackhole bh) {
+        search(pagedSmallCache.tree(), bh);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pagedLargeCache.close();
+        pagedSmallCache.close();
+    }
+
+    private void search(RTree<String, Point> tree, final Blackhole bh) {
+        double x = random.nextDouble() * 900;
+        double y = random.nextDouble() * 900;
+        Rectangle r = Geometries.rectangle(x, y, x + 100, y + 100);
+        tree.search(r, new Action1<Entry<String, Point>>() {
+            @Override
+            public void call(Entry<String, Point> entry) {
+                bh.consume(entry.geometry());
+            }
+        });
+    }
+
+    private static RTree<String, Point> create() {
+        Random random = new Random(1);
+        RTree<String, Point> tree = RTree.star().maxChildren(32).create();
+        for (int i = 0; i < 100000; i++)
+            tree = tree.add("value-" + i, Geometries.point(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000));
+        return tree;
+    }
+
+    private static PagedRTree<String, Point> open(RTree<String, Point> tree, long cacheBytes) {
+        try {
+            File file = File.createTempFile("paged", ".rtree");
+            file.deleteOnExit();
+            PagedRTree.write(tree, file, new Func1<String, byte[]>() {
+                @Override
+                public byte[] call(String s) {
+                    return s.getBytes(UTF_8);
+                }
+            });
+            return PagedRTree.open(file, cacheBytes, new Func1<byte[], String>() {
+                @Override
+                public String call(byte[] bytes) {
+                    return new String(bytes, UTF_8);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Action1;
+
+/**
+ * Wide range scan over 1,000,000 points on the calling thread versus split
+ * across subtrees on an executor.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksParallelSearch {
+
+    private static final int N = 1000000;
+
+    private final RTree<Integer, Point> tree = RTree.maxChildren(10).create(points());
+
+    private final Rectangle r = Geometries.rectangle(100, 100, 900, 900);
+
+    private final ExecutorService executor = Executors
+            .newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public long rangeScanSequential() {
+        final long[] count = new long[1];
+        tree.search(r, new Action1<Entry<Integer, Point>>() {
+            @Override
+            public void call(Entry<Integer, Point> entry) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public long rangeScanParallel() {
+        final AtomicLong count = new AtomicLong();
+        tree.search(r, new Action1<Entry<Integer, Point>>() {
+            @Override
+            public void call(Entry<Integer, Point> entry) {
+                count.incrementAndGet();
+            }
+        }, executor);
+        return count.get();
+    }
+
+    private static List<Entry<Integer, Point>> points() {
+        Random random = new Random(1);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(N);
+        for (int i = 0; i < N; i++)
+            list.add(Entries.entry(i, Geometries.point(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000)));
+        return list;
+    }
+
+}
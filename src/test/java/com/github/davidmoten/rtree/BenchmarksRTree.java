@@ -5,6 +5,7 @@ import static com.github.davidmoten.rtree.Utilities.entries1000;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 
 import org.openjdk.jmh.annotations.Benchmark;
@@ -16,6 +17,8 @@ import com.github.davidmoten.rtree.fbs.SerializerFlatBuffers;
 import com.github.davidmoten.rtree.geometry.Geometries;
 import com.github.davidmoten.rtree.geometry.Point;
 import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.Comparators;
+import com.github.davidmoten.rtree.internal.operators.OperatorBoundedPriorityQueue;
 
 import rx.Subscriber;
 import rx.functions.Action1;
@@ -42,18 +45,30 @@ public class BenchmarksRTree {
     private final RTree<Object, Point> starTreeM10 = RTree.maxChildren(10).star()
             .<Object, Point> create().add(entries);
 
+    private final RTree<Object, Point> starTreeM10Arrays = RTree.maxChildren(10).star()
+            .factory(Factories.<Object, Point> arraysFactory()).<Object, Point> create()
+            .add(entries);
+
     private final RTree<Object, Point> defaultTreeM32 = RTree.maxChildren(32)
             .<Object, Point> create().add(entries);
 
     private final RTree<Object, Point> starTreeM32 = RTree.maxChildren(32).star()
             .<Object, Point> create().add(entries);
 
+    private final RTree<Object, Point> starTreeM32Arrays = RTree.maxChildren(32).star()
+            .factory(Factories.<Object, Point> arraysFactory()).<Object, Point> create()
+            .add(entries);
+
     private final RTree<Object, Point> defaultTreeM128 = RTree.maxChildren(128)
             .<Object, Point> create().add(entries);
 
     private final RTree<Object, Point> starTreeM128 = RTree.maxChildren(128).star()
             .<Object, Point> create().add(entries);
 
+    private final RTree<Object, Point> starTreeM128Arrays = RTree.maxChildren(128).star()
+            .factory(Factories.<Object, Point> arraysFactory()).<Object, Point> create()
+            .add(entries);
+
     private final RTree<Object, Rectangle> smallDefaultTreeM4 = RTree.maxChildren(4)
             .<Object, Rectangle> create().add(some);
 
@@ -147,6 +162,17 @@ public class BenchmarksRTree {
         return RTree.maxChildren(10).star().<Object, Point> create().add(entries);
     }
 
+    @Benchmark
+    public RTree<Object, Point> mutableRTreeCreation010() {
+        return RTree.maxChildren(10).<Object, Point> createMutable().add(entries).snapshot();
+    }
+
+    @Benchmark
+    public RTree<Object, Point> mutableStarRTreeCreation010() {
+        return RTree.maxChildren(10).star().<Object, Point> createMutable().add(entries)
+                .snapshot();
+    }
+
     @Benchmark
     public RTree<Object, Point> flatBufferRTreeCreation010() {
         return createFlatBuffersGreek();
@@ -197,6 +223,27 @@ public class BenchmarksRTree {
         searchGreek(starTreeM10, bh);
     }
 
+    @Benchmark
+    public void rStarTreeSearchOfGreekDataPointsMaxChildren010Arrays(Blackhole bh) {
+        searchGreek(starTreeM10Arrays, bh);
+    }
+
+    @Benchmark
+    public RTree<Object, Point> rStarTreeInsertOneEntryIntoGreekDataEntriesMaxChildren010Arrays() {
+        return insertPoint(starTreeM10Arrays);
+    }
+
+    @Benchmark
+    public void rStarTreeSearchOfGreekDataPointsMaxChildren010Synchronous(Blackhole bh) {
+        searchGreekSynchronous(starTreeM10, bh);
+    }
+
+    @Benchmark
+    public void rStarTreeSearchOfGreekDataPointsMaxChildren010FlatBuffersSynchronous(
+            Blackhole bh) {
+        searchGreekSynchronous(starTreeM10FlatBuffers, bh);
+    }
+
     @Benchmark
     public void rStarTreeSearchOfGreekDataPointsMaxChildren010FlatBuffers(Blackhole bh) {
         searchGreek(starTreeM10FlatBuffers, bh);
@@ -208,6 +255,28 @@ public class BenchmarksRTree {
         searchGreekBackpressure(starTreeM10FlatBuffers, bh);
     }
 
+    @Benchmark
+    public void rStarTreeSearchOfGreekDataPointsMaxChildren010Iterator(Blackhole bh) {
+        searchGreekIterator(starTreeM10, bh);
+    }
+
+    @Benchmark
+    public void rStarTreeSearchOfGreekDataPointsMaxChildren010FlatBuffersIterator(
+            Blackhole bh) {
+        searchGreekIterator(starTreeM10FlatBuffers, bh);
+    }
+
+    @Benchmark
+    public int rStarTreeCountOfGreekDataPointsMaxChildren010() {
+        return starTreeM10.count(Geometries.rectangle(38, 22, 40, 26));
+    }
+
+    @Benchmark
+    public int rStarTreeSearchAndCountOfGreekDataPointsMaxChildren010() {
+        return starTreeM10.search(Geometries.rectangle(38, 22, 40, 26)).count().toBlocking()
+                .single();
+    }
+
     @Benchmark
     public void rStarTreeSearchOfGreekDataPointsMaxChildren010WithBackpressure(Blackhole bh) {
         searchGreekWithBackpressure(starTreeM10, bh);
@@ -233,6 +302,11 @@ public class BenchmarksRTree {
         searchGreek(starTreeM32, bh);
     }
 
+    @Benchmark
+    public void rStarTreeSearchOfGreekDataPointsMaxChildren032Arrays(Blackhole bh) {
+        searchGreek(starTreeM32Arrays, bh);
+    }
+
     @Benchmark
     public RTree<Object, Point> defaultRTreeInsertOneEntryIntoGreekDataEntriesMaxChildren128() {
         return insertPoint(defaultTreeM128);
@@ -253,6 +327,11 @@ public class BenchmarksRTree {
         searchGreek(starTreeM128, bh);
     }
 
+    @Benchmark
+    public void rStarTreeSearchOfGreekDataPointsMaxChildren128Arrays(Blackhole bh) {
+        searchGreek(starTreeM128Arrays, bh);
+    }
+
     @Benchmark
     public RTree<Object, Rectangle> defaultRTreeInsertOneEntryInto1000EntriesMaxChildren004() {
         return insertRectangle(smallDefaultTreeM4);
@@ -343,6 +422,26 @@ public class BenchmarksRTree {
         searchNearestGreek(starTreeM4, bh);
     }
 
+    @Benchmark
+    public void searchNearestGreekUsingRangeSearchThenSort(Blackhole bh) {
+        searchNearestGreekUsingRangeSearchThenSort(starTreeM4, bh);
+    }
+
+    @Benchmark
+    public void searchNearestFiveGreek(Blackhole bh) {
+        starTreeM10.nearest(nearestPoint(), 5, 5).subscribe(consumeWith(bh));
+    }
+
+    @Benchmark
+    public void searchNearestFiveGreekUsingRangeSearchThenSort(Blackhole bh) {
+        Point p = nearestPoint();
+        // the implementation of nearest prior to the best-first search
+        starTreeM10.search(p.mbr(), 5)
+                .lift(new OperatorBoundedPriorityQueue<Entry<Object, Point>>(5,
+                        Comparators.<Object, Point> ascendingDistance(p.mbr())))
+                .subscribe(consumeWith(bh));
+    }
+
     private RTree<Object, Point> deleteAll(RTree<Object, Point> tree) {
         return tree.delete(entries.get(1000), true);
     }
@@ -357,6 +456,11 @@ public class BenchmarksRTree {
         tree.search(Geometries.rectangle(40, 27.0, 40.5, 27.5)).subscribe(consumeWith(bh));
     }
 
+    private void searchGreekSynchronous(RTree<Object, Point> tree, Blackhole bh) {
+        // should return 22 results
+        tree.search(Geometries.rectangle(40, 27.0, 40.5, 27.5), consumeWith(bh));
+    }
+
     private Action1<Object> consumeWith(final Blackhole bh) {
         return new Action1<Object>() {
 
@@ -384,13 +488,31 @@ public class BenchmarksRTree {
     }
 
     private void searchNearestGreek(RTree<Object, Point> tree, Blackhole bh) {
-        final Point p;
+        tree.nearest(nearestPoint(), 1, 300).subscribe(consumeWith(bh));
+    }
+
+    private void searchNearestGreekUsingRangeSearchThenSort(RTree<Object, Point> tree,
+            Blackhole bh) {
+        Point p = nearestPoint();
+        tree.search(p.mbr(), 1)
+                .lift(new OperatorBoundedPriorityQueue<Entry<Object, Point>>(300,
+                        Comparators.<Object, Point> ascendingDistance(p.mbr())))
+                .subscribe(consumeWith(bh));
+    }
+
+    private static Point nearestPoint() {
         if (precision == Precision.DOUBLE) {
-            p = Geometries.point(40.0, 27.0);
+            return Geometries.point(40.0, 27.0);
         } else {
-            p = Geometries.point(40.0f, 27.0f);
+            return Geometries.point(40.0f, 27.0f);
         }
-        tree.nearest(p, 1, 300).subscribe(consumeWith(bh));
+    }
+
+    private void searchGreekIterator(RTree<Object, Point> tree, Blackhole bh) {
+        // should return 22 results
+        Iterator<Entry<Object, Point>> it = tree.searchIterator(searchRectangle());
+        while (it.hasNext())
+            bh.consume(it.next());
     }
 
     private void searchGreekWithBackpressure(RTree<Object, Point> tree, final Blackhole bh) {
@@ -0,0 +1,64 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Action1;
+
+/**
+ * Compares 1000 synchronous rectangle searches with one batch search of the
+ * same rectangles on the Greek earthquake data.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksSearchAll {
+
+    private final RTree<Object, Point> tree = RTree.star().maxChildren(10)
+            .create(GreekEarthquakes.entriesList(Precision.DOUBLE));
+
+    private final List<Rectangle> queries = queries(1000);
+
+    @Benchmark
+    public void searchEach(final Blackhole bh) {
+        Action1<Entry<Object, Point>> visitor = new Action1<Entry<Object, Point>>() {
+            @Override
+            public void call(Entry<Object, Point> entry) {
+                bh.consume(entry);
+            }
+        };
+        for (Rectangle r : queries)
+            tree.search(r, visitor);
+    }
+
+    @Benchmark
+    public void searchAll(final Blackhole bh) {
+        tree.searchAll(queries, new QueryVisitor<Object, Point>() {
+            @Override
+            public void visit(int query, Entry<Object, Point> entry) {
+                bh.consume(entry);
+            }
+        });
+    }
+
+    private List<Rectangle> queries(int n) {
+        Random random = new Random(1);
+        Rectangle mbr = tree.mbr().get();
+        List<Rectangle> list = new ArrayList<Rectangle>(n);
+        for (int i = 0; i < n; i++) {
+            double x = mbr.x1() + random.nextDouble() * (mbr.x2() - mbr.x1());
+            double y = mbr.y1() + random.nextDouble() * (mbr.y2() - mbr.y1());
+            list.add(Geometries.rectangle(x, y, x + 0.2, y + 0.2));
+        }
+        return list;
+    }
+
+}
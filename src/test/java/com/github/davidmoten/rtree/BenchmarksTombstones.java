@@ -0,0 +1,52 @@
+package com.github.davidmoten.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+
+/**
+ * Deletes a burst of 1,000 entries from a tree of 100,000 entries eagerly versus
+ * by marking tombstones.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksTombstones {
+
+    private final List<Entry<Integer, Point>> entries = points(100000);
+
+    private final RTree<Integer, Point> tree = RTree.star().maxChildren(10).create(entries);
+
+    private final List<Entry<Integer, Point>> deletes = entries.subList(0, 1000);
+
+    @Benchmark
+    public RTree<Integer, Point> deleteEagerly() {
+        RTree<Integer, Point> t = tree;
+        for (Entry<Integer, Point> entry : deletes)
+            t = t.delete(entry);
+        return t;
+    }
+
+    @Benchmark
+    public RTree<Integer, Point> deleteWithTombstones() {
+        RTree<Integer, Point> t = tree;
+        for (Entry<Integer, Point> entry : deletes)
+            t = t.markDead(entry);
+        return t;
+    }
+
+    private static List<Entry<Integer, Point>> points(int n) {
+        Random random = new Random(1);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(n);
+        for (int i = 0; i < n; i++)
+            list.add(Entries.entry(i, Geometries.point(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000)));
+        return list;
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.github.davidmoten.rtree;
+
+import static com.github.davidmoten.rtree.Utilities.entries;
+import static com.github.davidmoten.rtree.geometry.Geometries.point;
+import static com.github.davidmoten.rtree.geometry.Geometries.rectangle;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.Util;
+
+import rx.functions.Action1;
+
+public class ConcurrentRTreeTest {
+
+    @Test
+    public void testEmpty() {
+        ConcurrentRTree<Integer, Point> tree = RTree.maxChildren(4)
+                .createConcurrent(rectangle(0, 0, 100, 100), 4, 4);
+        assertTrue(tree.isEmpty());
+        assertEquals(16, tree.snapshot().size());
+        assertFalse(tree.delete(1, point(1, 1)));
+        assertEquals(0, (int) tree.entries().count().toBlocking().single());
+    }
+
+    @Test
+    public void testSearchMatchesSingleTree() {
+        ConcurrentRTree<Integer, Point> concurrent = RTree.maxChildren(4)
+                .createConcurrent(rectangle(0, 0, 100, 100), 3, 5);
+        RTree<Integer, Point> tree = RTree.maxChildren(4).create();
+        // some entries lie outside the bounds
+        for (Entry<Integer, Point> entry : entries(0, 2000, -10, 110, 1)) {
+            concurrent.add(entry);
+            tree = tree.add(entry);
+        }
+        assertEquals(2000, concurrent.size());
+        Random random = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            double x = random.nextDouble() * 120 - 10;
+            double y = random.nextDouble() * 120 - 10;
+            Rectangle r = rectangle(x, y, x + random.nextDouble() * 30,
+                    y + random.nextDouble() * 30);
+            Set<Integer> expected = values(tree.search(r).toList().toBlocking().single());
+            assertEquals(expected, values(concurrent.search(r).toList().toBlocking().single()));
+            final List<Entry<Integer, Point>> found = new ArrayList<Entry<Integer, Point>>();
+            concurrent.search(r, new Action1<Entry<Integer, Point>>() {
+                @Override
+                public void call(Entry<Integer, Point> entry) {
+                    found.add(entry);
+                }
+            });
+            assertEquals(expected, values(found));
+        }
+    }
+
+    @Test
+    public void testEntriesAreCreatedByTheFactoryOfTheTree() {
+        AtomicInteger created = new AtomicInteger();
+        ConcurrentRTree<Integer, Point> tree = RTree.maxChildren(4)
+                .factory(Utilities.<Integer, Point> countingFactory(created))
+                .createConcurrent(rectangle(0, 0, 100, 100), 2, 2);
+        tree.add(1, point(1, 1));
+        assertEquals(1, created.get());
+        assertTrue(tree.delete(1, point(1, 1)));
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByLaterChanges() {
+        ConcurrentRTree<Integer, Point> tree = RTree.maxChildren(4)
+                .createConcurrent(rectangle(0, 0, 100, 100), 2, 2);
+        List<Entry<Integer, Point>> entries = entries(0, 100, 0, 100, 3);
+        for (Entry<Integer, Point> entry : entries)
+            tree.add(entry);
+        List<RTree<Integer, Point>> snapshot = tree.snapshot();
+        for (Entry<Integer, Point> entry : entries)
+            assertTrue(tree.delete(entry));
+        assertFalse(tree.delete(entries.get(0)));
+        assertTrue(tree.isEmpty());
+        int size = 0;
+        for (RTree<Integer, Point> t : snapshot)
+            size += t.size();
+        assertEquals(100, size);
+    }
+
+    @Test
+    public void testConcurrentWritersDoNotLoseUpdates() throws Exception {
+        final ConcurrentRTree<Integer, Point> tree = RTree.maxChildren(4)
+                .createConcurrent(rectangle(0, 0, 100, 100), 4, 4);
+        int threads = 4;
+        final int perThread = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        // entries of all threads overlap in space
+                        List<Entry<Integer, Point>> entries = entries(thread * perThread,
+                                perThread, 0, 100, thread);
+                        for (Entry<Integer, Point> entry : entries)
+                            tree.add(entry);
+                        // delete every second entry again
+                        for (int i = 0; i < entries.size(); i += 2)
+                            if (!tree.delete(entries.get(i)))
+                                throw new AssertionError("not deleted " + entries.get(i));
+                        return null;
+                    }
+                }));
+            }
+            Util.getAll(futures);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread / 2, tree.size());
+        Set<Integer> values = values(tree.entries().toList().toBlocking().single());
+        assertEquals(threads * perThread / 2, values.size());
+        for (int i = 0; i < threads * perThread; i++)
+            assertEquals(i % 2 == 1, values.contains(i));
+    }
+
+    private static Set<Integer> values(List<Entry<Integer, Point>> entries) {
+        Set<Integer> set = new HashSet<Integer>();
+        for (Entry<Integer, Point> entry : entries)
+            set.add(entry.value());
+        return set;
+    }
+
+}
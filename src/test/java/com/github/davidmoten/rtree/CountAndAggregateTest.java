@@ -0,0 +1,127 @@
+package com.github.davidmoten.rtree;
+
+import static com.github.davidmoten.rtree.Utilities.entries;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
+
+public class CountAndAggregateTest {
+
+    private static final Aggregator<Integer, Point, Long> SUM = new Aggregator<Integer, Point, Long>() {
+
+        @Override
+        public Long zero() {
+            return 0L;
+        }
+
+        @Override
+        public Long map(Entry<Integer, Point> entry) {
+            return (long) entry.value();
+        }
+
+        @Override
+        public Long combine(Long a, Long b) {
+            return a + b;
+        }
+    };
+
+    private static final Aggregator<Integer, Point, Integer> MAX = new Aggregator<Integer, Point, Integer>() {
+
+        @Override
+        public Integer zero() {
+            return Integer.MIN_VALUE;
+        }
+
+        @Override
+        public Integer map(Entry<Integer, Point> entry) {
+            return entry.value();
+        }
+
+        @Override
+        public Integer combine(Integer a, Integer b) {
+            return Math.max(a, b);
+        }
+    };
+
+    @Test
+    public void testEmptyTree() {
+        RTree<Integer, Point> tree = RTree.create();
+        Rectangle r = Geometries.rectangle(0, 0, 1, 1);
+        assertEquals(0, tree.count(r));
+        assertEquals(0L, (long) tree.aggregateIndex(SUM).aggregate(r));
+        assertEquals(0L, (long) tree.aggregateIndex(SUM).total());
+    }
+
+    @Test
+    public void testCountAndAggregatesMatchSearch() {
+        List<Entry<Integer, Point>> entries = entries(0, 3000, 1);
+        MutableRTree<Integer, Point> mutable = RTree.maxChildren(5).createMutable();
+        mutable.add(entries);
+        List<RTree<Integer, Point>> trees = new ArrayList<RTree<Integer, Point>>();
+        trees.add(RTree.maxChildren(4).<Integer, Point> create().add(entries));
+        trees.add(RTree.star().maxChildren(10).<Integer, Point> create().add(entries));
+        trees.add(RTree.maxChildren(10).create(entries));
+        trees.add(RTree.maxChildren(10).factory(Factories.<Integer> pointsFactory())
+                .create(entries));
+        trees.add(mutable.snapshot());
+        Random random = new Random(2);
+        for (RTree<Integer, Point> tree : trees) {
+            assertEquals(entries.size(), NonLeafHelper.size(tree.root().get()));
+            AggregateIndex<Integer, Point, Long> sums = tree.aggregateIndex(SUM);
+            AggregateIndex<Integer, Point, Integer> maxes = tree.aggregateIndex(MAX);
+            assertEquals(sum(tree.entries().toList().toBlocking().single()), (long) sums.total());
+            for (int i = 0; i < 100; i++) {
+                double x = random.nextDouble() * 120 - 10;
+                double y = random.nextDouble() * 120 - 10;
+                double size = random.nextDouble() * random.nextDouble() * 80;
+                Rectangle r = Geometries.rectangle(x, y, x + size, y + size);
+                List<Entry<Integer, Point>> found = tree.search(r).toList().toBlocking()
+                        .single();
+                assertEquals(found.size(), tree.count(r));
+                assertEquals(sum(found), (long) sums.aggregate(r));
+                assertEquals(max(found), (int) maxes.aggregate(r));
+            }
+        }
+    }
+
+    @Test
+    public void testSizeAfterAddAndDelete() {
+        List<Entry<Integer, Point>> entries = entries(0, 500, 3);
+        RTree<Integer, Point> tree = RTree.maxChildren(4).<Integer, Point> create().add(entries);
+        for (int i = 0; i < 300; i++)
+            tree = tree.delete(entries.get(i));
+        assertEquals(200, NonLeafHelper.size(tree.root().get()));
+        assertEquals(200, tree.count(Geometries.rectangle(-1, -1, 101, 101)));
+        MutableRTree<Integer, Point> mutable = MutableRTree.from(tree);
+        mutable.add(entries.subList(0, 10));
+        assertEquals(210, NonLeafHelper.size(mutable.snapshot().root().get()));
+        for (int i = 300; i < 400; i++)
+            mutable.delete(entries.get(i));
+        assertEquals(110, NonLeafHelper.size(mutable.snapshot().root().get()));
+        assertEquals(110, mutable.snapshot().count(Geometries.rectangle(-1, -1, 101, 101)));
+    }
+
+    private static long sum(List<Entry<Integer, Point>> entries) {
+        long sum = 0;
+        for (Entry<Integer, Point> entry : entries)
+            sum += entry.value();
+        return sum;
+    }
+
+    private static int max(List<Entry<Integer, Point>> entries) {
+        int max = Integer.MIN_VALUE;
+        for (Entry<Integer, Point> entry : entries)
+            max = Math.max(max, entry.value());
+        return max;
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.github.davidmoten.rtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Action2;
+import rx.functions.Func2;
+
+public class JoinTest {
+
+    private static final Func2<Entry<Integer, Rectangle>, Entry<Integer, Point>, Boolean> ALL = new Func2<Entry<Integer, Rectangle>, Entry<Integer, Point>, Boolean>() {
+        @Override
+        public Boolean call(Entry<Integer, Rectangle> a, Entry<Integer, Point> b) {
+            return true;
+        }
+    };
+
+    private static final Func2<Entry<Integer, Rectangle>, Entry<Integer, Point>, Boolean> EVEN = new Func2<Entry<Integer, Rectangle>, Entry<Integer, Point>, Boolean>() {
+        @Override
+        public Boolean call(Entry<Integer, Rectangle> a, Entry<Integer, Point> b) {
+            return (a.value() + b.value()) % 2 == 0;
+        }
+    };
+
+    @Test
+    public void testJoinMatchesNestedLoop() {
+        List<Entry<Integer, Rectangle>> rectangles = rectangles(1500, 1);
+        List<Entry<Integer, Point>> points = points(4000, 2);
+        List<String> expected = nestedLoop(rectangles, points, ALL);
+        List<String> expectedEven = nestedLoop(rectangles, points, EVEN);
+        assertTrue(expected.size() > 1000);
+        // trees of different heights and construction methods
+        List<RTree<Integer, Rectangle>> as = new ArrayList<RTree<Integer, Rectangle>>();
+        as.add(RTree.maxChildren(4).<Integer, Rectangle> create().add(rectangles));
+        as.add(RTree.star().maxChildren(16).<Integer, Rectangle> create().add(rectangles));
+        List<RTree<Integer, Point>> bs = new ArrayList<RTree<Integer, Point>>();
+        bs.add(RTree.maxChildren(32).create(points));
+        bs.add(RTree.maxChildren(4).factory(Factories.<Integer> pointsFactory())
+                .create(points));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (RTree<Integer, Rectangle> a : as)
+                for (RTree<Integer, Point> b : bs) {
+                    assertEquals(expected, join(a, b, ALL, null));
+                    assertEquals(expectedEven, join(a, b, EVEN, null));
+                    assertEquals(expected, join(a, b, ALL, executor));
+                }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testJoinWithLeafRootAndEmptyTrees() {
+        List<Entry<Integer, Rectangle>> rectangles = rectangles(3, 3);
+        List<Entry<Integer, Point>> points = points(2000, 4);
+        RTree<Integer, Rectangle> a = RTree.<Integer, Rectangle> create().add(rectangles);
+        RTree<Integer, Point> b = RTree.maxChildren(4).<Integer, Point> create().add(points);
+        assertEquals(nestedLoop(rectangles, points, ALL), join(a, b, ALL, null));
+        assertTrue(join(RTree.<Integer, Rectangle> create(), b, ALL, null).isEmpty());
+        assertTrue(join(a, RTree.<Integer, Point> create(), ALL, null).isEmpty());
+    }
+
+    private static List<String> join(RTree<Integer, Rectangle> a, RTree<Integer, Point> b,
+            Func2<Entry<Integer, Rectangle>, Entry<Integer, Point>, Boolean> condition,
+            ExecutorService executor) {
+        final List<String> list = Collections.synchronizedList(new ArrayList<String>());
+        Action2<Entry<Integer, Rectangle>, Entry<Integer, Point>> visitor = new Action2<Entry<Integer, Rectangle>, Entry<Integer, Point>>() {
+            @Override
+            public void call(Entry<Integer, Rectangle> ea, Entry<Integer, Point> eb) {
+                list.add(ea.value() + "," + eb.value());
+            }
+        };
+        if (executor == null)
+            a.join(b, condition, visitor);
+        else
+            a.join(b, condition, visitor, executor);
+        Collections.sort(list);
+        return list;
+    }
+
+    private static List<String> nestedLoop(List<Entry<Integer, Rectangle>> as,
+            List<Entry<Integer, Point>> bs,
+            Func2<Entry<Integer, Rectangle>, Entry<Integer, Point>, Boolean> condition) {
+        List<String> list = new ArrayList<String>();
+        for (Entry<Integer, Rectangle> a : as)
+            for (Entry<Integer, Point> b : bs)
+                if (a.geometry().intersects(b.geometry().mbr()) && condition.call(a, b))
+                    list.add(a.value() + "," + b.value());
+        Collections.sort(list);
+        return list;
+    }
+
+    private static List<Entry<Integer, Rectangle>> rectangles(int n, long seed) {
+        Random random = new Random(seed);
+        List<Entry<Integer, Rectangle>> list = new ArrayList<Entry<Integer, Rectangle>>(n);
+        for (int i = 0; i < n; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            list.add(Entries.entry(i, Geometries.rectangle(x, y, x + random.nextDouble() * 5,
+                    y + random.nextDouble() * 5)));
+        }
+        return list;
+    }
+
+    private static List<Entry<Integer, Point>> points(int n, long seed) {
+        Random random = new Random(seed);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(n);
+        for (int i = 0; i < n; i++)
+            list.add(Entries.entry(i,
+                    Geometries.point(random.nextDouble() * 100, random.nextDouble() * 100)));
+        return list;
+    }
+
+}
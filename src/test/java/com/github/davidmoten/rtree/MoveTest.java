@@ -0,0 +1,85 @@
+package com.github.davidmoten.rtree;
+
+import static com.github.davidmoten.rtree.Utilities.entries;
+import static com.github.davidmoten.rtree.Utilities.sorted;
+import static com.github.davidmoten.rtree.geometry.Geometries.point;
+import static com.github.davidmoten.rtree.geometry.Geometries.rectangle;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.Util;
+
+public class MoveTest {
+
+    @Test
+    public void testMoveOfMissingEntryReturnsSameTree() {
+        RTree<Integer, Point> tree = RTree.<Integer, Point> create();
+        assertSame(tree, tree.move(1, point(1, 1), point(2, 2)));
+        tree = tree.add(1, point(1, 1));
+        assertSame(tree, tree.move(2, point(1, 1), point(2, 2)));
+        assertSame(tree, tree.move(1, point(1, 2), point(2, 2)));
+    }
+
+    @Test
+    public void testMoveWithinLeafKeepsStructure() {
+        RTree<Integer, Point> tree = RTree.maxChildren(4).<Integer, Point> create()
+                .add(1, point(0, 0)).add(2, point(10, 10)).add(3, point(0, 10));
+        RTree<Integer, Point> moved = tree.move(1, point(0, 0), point(5, 5));
+        assertEquals(3, moved.size());
+        assertEquals(tree.calculateDepth(), moved.calculateDepth());
+        assertEquals(rectangle(0, 5, 10, 10), moved.mbr().get());
+        assertEquals(1, (int) moved.search(point(5, 5)).toBlocking().single().value());
+        assertTrue(moved.search(point(0, 0)).isEmpty().toBlocking().single());
+        // the original is unchanged
+        assertEquals(1, (int) tree.search(point(0, 0)).toBlocking().single().value());
+    }
+
+    @Test
+    public void testManyMovesMatchDeleteAndAdd() {
+        for (double tolerance : new double[] { 0, 0.5, 5 }) {
+            List<Entry<Integer, Point>> entries = entries(0, 1000, 1);
+            RTree<Integer, Point> tree = RTree.star().maxChildren(6).<Integer, Point> create()
+                    .add(entries);
+            RTree<Integer, Point> expected = tree;
+            Random random = new Random(2);
+            for (int step = 0; step < 3000; step++) {
+                int i = random.nextInt(entries.size());
+                Point p = entries.get(i).geometry();
+                Point q = point(p.x() + random.nextGaussian(), p.y() + random.nextGaussian());
+                tree = tree.move(i, p, q, tolerance);
+                expected = expected.delete(i, p).add(i, q);
+                entries.set(i, Entries.entry(i, q));
+            }
+            assertEquals(1000, tree.size());
+            assertEquals(sorted(expected.entries()), sorted(tree.entries()));
+            Random r = new Random(3);
+            for (int k = 0; k < 20; k++) {
+                double x = r.nextDouble() * 100;
+                double y = r.nextDouble() * 100;
+                Rectangle query = rectangle(x, y, x + 20, y + 20);
+                assertEquals(sorted(expected.search(query)), sorted(tree.search(query)));
+            }
+            checkMbrs(tree.root().get());
+        }
+    }
+
+    private static void checkMbrs(Node<Integer, Point> node) {
+        if (node instanceof Leaf)
+            assertEquals(Util.mbr(((Leaf<Integer, Point>) node).entries()), node.geometry().mbr());
+        else {
+            NonLeaf<Integer, Point> nonLeaf = (NonLeaf<Integer, Point>) node;
+            assertEquals(Util.mbr(nonLeaf.children()), node.geometry().mbr());
+            for (Node<Integer, Point> child : nonLeaf.children())
+                checkMbrs(child);
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.github.davidmoten.rtree;
+
+import static com.github.davidmoten.rtree.Utilities.entries;
+import static com.github.davidmoten.rtree.geometry.Geometries.point;
+import static com.github.davidmoten.rtree.geometry.Geometries.rectangle;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.Util;
+
+public class MutableRTreeTest {
+
+    @Test
+    public void testEmpty() {
+        MutableRTree<Integer, Point> tree = RTree.maxChildren(4).createMutable();
+        assertTrue(tree.isEmpty());
+        assertFalse(tree.mbr().isPresent());
+        assertFalse(tree.delete(1, point(1, 1)));
+        assertEquals(0, (int) tree.snapshot().entries().count().toBlocking().single());
+    }
+
+    @Test
+    public void testAddAndSearchMatchesImmutableTree() {
+        for (boolean star : new boolean[] { false, true }) {
+            RTree.Builder builder = RTree.maxChildren(4);
+            if (star)
+                builder = builder.star();
+            MutableRTree<Integer, Point> mutable = builder.createMutable();
+            RTree<Integer, Point> tree = builder.create();
+            for (Entry<Integer, Point> entry : entries(0, 1000, 123)) {
+                mutable.add(entry);
+                tree = tree.add(entry);
+            }
+            assertEquals(1000, mutable.size());
+            RTree<Integer, Point> snapshot = mutable.snapshot();
+            assertEquals(1000, snapshot.size());
+            assertEquals(tree.mbr().get(), mutable.mbr().get());
+            Rectangle r = rectangle(10, 10, 40, 60);
+            assertEquals(values(tree.search(r).toList().toBlocking().single()),
+                    values(snapshot.search(r).toList().toBlocking().single()));
+            assertEquals(1000, (int) snapshot.entries().count().toBlocking().single());
+            checkStructure(snapshot);
+        }
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByLaterChanges() {
+        MutableRTree<Integer, Point> tree = RTree.maxChildren(4).createMutable();
+        List<Entry<Integer, Point>> entries = entries(0, 200, 456);
+        tree.add(entries);
+        RTree<Integer, Point> snapshot = tree.snapshot();
+        String before = snapshot.asString();
+        for (Entry<Integer, Point> entry : entries(1000, 200, 789))
+            tree.add(entry);
+        for (int i = 0; i < 100; i++)
+            assertTrue(tree.delete(entries.get(i)));
+        assertEquals(300, tree.size());
+        assertEquals(before, snapshot.asString());
+        assertEquals(200, (int) snapshot.entries().count().toBlocking().single());
+        assertEquals(300, (int) tree.snapshot().entries().count().toBlocking().single());
+    }
+
+    @Test
+    public void testDeleteReinsertsOrphans() {
+        MutableRTree<Integer, Point> tree = RTree.maxChildren(4).createMutable();
+        List<Entry<Integer, Point>> entries = entries(0, 500, 321);
+        tree.add(entries);
+        Set<Integer> remaining = new HashSet<Integer>(values(entries));
+        for (int i = 0; i < entries.size(); i += 2) {
+            assertTrue(tree.delete(entries.get(i)));
+            remaining.remove(entries.get(i).value());
+        }
+        assertFalse(tree.delete(entries.get(0)));
+        assertEquals(250, tree.size());
+        RTree<Integer, Point> snapshot = tree.snapshot();
+        assertEquals(remaining, values(snapshot.entries().toList().toBlocking().single()));
+        checkStructure(snapshot);
+    }
+
+    @Test
+    public void testDeleteAllDuplicates() {
+        MutableRTree<Integer, Point> tree = RTree.maxChildren(4).createMutable();
+        for (int i = 0; i < 10; i++)
+            tree.add(1, point(1, 1));
+        tree.add(2, point(1, 1));
+        assertEquals(1, tree.delete(Entries.entry(1, point(1, 1)), false));
+        assertEquals(9, tree.delete(Entries.entry(1, point(1, 1)), true));
+        assertEquals(1, tree.size());
+        assertEquals(2, (int) tree.snapshot().entries().toBlocking().single().value());
+    }
+
+    @Test
+    public void testDeleteEverything() {
+        MutableRTree<Integer, Point> tree = RTree.maxChildren(4).createMutable();
+        List<Entry<Integer, Point>> entries = entries(0, 100, 654);
+        tree.add(entries);
+        for (Entry<Integer, Point> entry : entries)
+            assertTrue(tree.delete(entry));
+        assertTrue(tree.isEmpty());
+        assertFalse(tree.mbr().isPresent());
+        tree.add(1, point(1, 2));
+        assertEquals(rectangle(1, 2, 1, 2), tree.mbr().get());
+    }
+
+    @Test
+    public void testFromImmutableTreeDoesNotModifyIt() {
+        RTree<Integer, Point> tree = RTree.maxChildren(4).<Integer, Point> create()
+                .add(entries(0, 100, 111));
+        String before = tree.asString();
+        MutableRTree<Integer, Point> mutable = MutableRTree.from(tree);
+        mutable.add(entries(1000, 100, 222));
+        mutable.delete(tree.entries().toBlocking().first());
+        assertEquals(199, mutable.size());
+        assertEquals(before, tree.asString());
+        assertEquals(199, (int) mutable.snapshot().entries().count().toBlocking().single());
+    }
+
+    @Test
+    public void testImmutableOperationsOnSnapshot() {
+        MutableRTree<Integer, Point> mutable = RTree.maxChildren(4).createMutable();
+        List<Entry<Integer, Point>> entries = entries(0, 100, 333);
+        mutable.add(entries);
+        RTree<Integer, Point> snapshot = mutable.snapshot();
+        RTree<Integer, Point> tree = snapshot.add(1000, point(1, 1)).delete(entries.get(0));
+        assertEquals(100, tree.size());
+        assertEquals(100, (int) tree.entries().count().toBlocking().single());
+        assertEquals(100, (int) snapshot.entries().count().toBlocking().single());
+        assertEquals(100, mutable.size());
+    }
+
+    private static <T> void checkStructure(RTree<T, Point> tree) {
+        if (tree.root().isPresent())
+            checkStructure(tree.root().get(), tree.context(), true);
+    }
+
+    private static <T> void checkStructure(Node<T, Point> node, Context<T, Point> context,
+            boolean isRoot) {
+        assertTrue(node.count() <= context.maxChildren());
+        if (node instanceof Leaf) {
+            Leaf<T, Point> leaf = (Leaf<T, Point>) node;
+            assertTrue(isRoot || leaf.count() >= 1);
+            assertEquals(Util.mbr(leaf.entries()), node.geometry().mbr());
+        } else {
+            NonLeaf<T, Point> nonLeaf = (NonLeaf<T, Point>) node;
+            assertEquals(Util.mbr(nonLeaf.children()), node.geometry().mbr());
+            for (Node<T, Point> child : nonLeaf.children())
+                checkStructure(child, context, false);
+        }
+    }
+
+    private static Set<Integer> values(List<Entry<Integer, Point>> entries) {
+        Set<Integer> set = new HashSet<Integer>();
+        for (Entry<Integer, Point> entry : entries)
+            set.add(entry.value());
+        return set;
+    }
+
+}
@@ -23,7 +23,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -136,6 +139,88 @@ public class RTreeTest {
         assertEquals(entrySize, entries.size());
     }
 
+    @Test
+    public void testParallelBulkLoadingIsIdenticalToSequentialBulkLoading() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Random random = new Random(5);
+            List<Entry<Integer, Point>> entries = new ArrayList<Entry<Integer, Point>>(100000);
+            for (int i = 0; i < 100000; i++)
+                // coarse coordinates so that sort keys are often equal
+                entries.add(Entries.entry(i,
+                        Geometries.point(random.nextInt(1000), random.nextInt(1000))));
+            RTree<Integer, Point> tree = RTree.maxChildren(16)
+                    .create(new ArrayList<Entry<Integer, Point>>(entries));
+            RTree<Integer, Point> tree2 = RTree.maxChildren(16)
+                    .create(new ArrayList<Entry<Integer, Point>>(entries), executor);
+            assertEquals(100000, tree2.size());
+            assertEquals(tree.asString(), tree2.asString());
+            assertEquals(tree.entries().toList().toBlocking().single(),
+                    tree2.entries().toList().toBlocking().single());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelBulkLoadingSmallAndEmpty() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(RTree.maxChildren(4)
+                    .create(new ArrayList<Entry<Object, Point>>(), executor).isEmpty());
+            List<Entry<Object, Rectangle>> entries = new ArrayList<Entry<Object, Rectangle>>();
+            for (int i = 0; i < 100; i++)
+                entries.add(e(i));
+            assertEquals(100, (int) RTree.maxChildren(4).create(entries, executor).entries()
+                    .count().toBlocking().single());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testHilbertBulkLoadingSearchMatchesStr() {
+        Random random = new Random(7);
+        List<Entry<Integer, Rectangle>> entries = new ArrayList<Entry<Integer, Rectangle>>();
+        for (int i = 0; i < 20000; i++) {
+            double x = random.nextGaussian() * (i % 3 + 1) + (i % 5) * 20;
+            double y = random.nextGaussian() * (i % 3 + 1) + (i % 7) * 20;
+            entries.add(Entries.entry(i, Geometries.rectangle(x, y, x + 0.5, y + 0.5)));
+        }
+        RTree<Integer, Rectangle> str = RTree.maxChildren(8).create(entries);
+        RTree<Integer, Rectangle> hilbert = RTree.maxChildren(8).packing(Packing.HILBERT)
+                .create(entries);
+        assertEquals(20000, hilbert.size());
+        assertEquals(20000, (int) hilbert.entries().count().toBlocking().single());
+        for (int i = 0; i < 20; i++) {
+            double x = random.nextDouble() * 120 - 10;
+            double y = random.nextDouble() * 160 - 10;
+            Rectangle r = Geometries.rectangle(x, y, x + 10, y + 10);
+            assertEquals(new HashSet<Entry<Integer, Rectangle>>(
+                    str.search(r).toList().toBlocking().single()),
+                    new HashSet<Entry<Integer, Rectangle>>(
+                            hilbert.search(r).toList().toBlocking().single()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals(hilbert.asString(), RTree.maxChildren(8).packing(Packing.HILBERT)
+                    .create(entries, executor).asString());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testHilbertBulkLoadingOfIdenticalPoints() {
+        List<Entry<Integer, Point>> entries = new ArrayList<Entry<Integer, Point>>();
+        for (int i = 0; i < 100; i++)
+            entries.add(Entries.entry(i, Geometries.point(1, 2)));
+        RTree<Integer, Point> tree = RTree.maxChildren(4).packing(Packing.HILBERT)
+                .create(entries);
+        assertEquals(100, (int) tree.search(Geometries.point(1, 2)).count().toBlocking()
+                .single());
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testSearchOnOneItemOnBulkLoadingRTree() {
@@ -560,6 +645,70 @@ public class RTreeTest {
         assertFalse(completeCalled.get());
     }
 
+    @Test
+    public void testNearestMatchesSortedRangeSearch() {
+        List<Entry<Object, Geometry>> entries = createRandomEntries(1000);
+        RTree<Object, Geometry> tree = RTree.maxChildren(8).<Object, Geometry>create()
+                .add(entries);
+        final Rectangle r = rectangle(500, 500, 501, 501);
+        List<Entry<Object, Geometry>> expected = tree.search(r, 200).toSortedList(
+                new Func2<Entry<Object, Geometry>, Entry<Object, Geometry>, Integer>() {
+                    @Override
+                    public Integer call(Entry<Object, Geometry> a, Entry<Object, Geometry> b) {
+                        return Double.compare(a.geometry().distance(r),
+                                b.geometry().distance(r));
+                    }
+                }).toBlocking().single().subList(0, 20);
+        List<Entry<Object, Geometry>> list = tree.nearest(r, 200, 20).toList().toBlocking()
+                .single();
+        assertEquals(20, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(expected.get(i).geometry().distance(r),
+                    list.get(i).geometry().distance(r), PRECISION);
+        }
+    }
+
+    @Test
+    public void testNearestWithBackpressure() {
+        RTree<Object, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 1; i <= 100; i++)
+            tree = tree.add(i, point(i, i));
+        List<Entry<Object, Geometry>> list = new ArrayList<Entry<Object, Geometry>>();
+        tree.nearest(point(0, 0), 1000, 10).subscribe(createBackpressureSubscriber(list));
+        assertEquals(10, list.size());
+        for (int i = 0; i < list.size(); i++)
+            assertEquals(point(i + 1, i + 1), list.get(i).geometry());
+    }
+
+    @Test
+    public void testNearestRequestsInBatches() {
+        RTree<Object, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 1; i <= 100; i++)
+            tree = tree.add(i, point(i, i));
+        tree.nearest(point(0, 0), 1000, 10) //
+                .test(3) //
+                .assertValueCount(3) //
+                .assertNotCompleted() //
+                .requestMore(7) //
+                .assertValueCount(10) //
+                .assertCompleted();
+    }
+
+    @Test
+    public void testNearestOnEmptyTree() {
+        RTree<Object, Geometry> tree = RTree.create();
+        tree.nearest(point(0, 0), 10, 10).test().assertNoValues().assertCompleted();
+    }
+
+    @Test
+    public void testNearestExcludesEntriesAtMaxDistance() {
+        RTree<Object, Geometry> tree = RTree.create().add(1, point(1, 0)).add(2, point(2, 0));
+        List<Entry<Object, Geometry>> list = tree.nearest(point(0, 0), 2, 10).toList()
+                .toBlocking().single();
+        assertEquals(1, list.size());
+        assertEquals(1, list.get(0).value());
+    }
+
     @Test
     public void testVisualizer() {
         List<Entry<Object, Geometry>> entries = createRandomEntries(1000);
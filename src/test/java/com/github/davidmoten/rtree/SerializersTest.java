@@ -82,6 +82,20 @@ public class SerializersTest {
         check(serializer, a, b);
     }
 
+    @Test
+    public void testPackedStringPointSerialization() throws IOException {
+        Serializer<String, Point> serializer = Serializers.packed().utf8();
+        checkRoundTripPoint(serializer);
+    }
+
+    @Test
+    public void testPackedStringCircleDoubleSerialization() throws IOException {
+        Serializer<String, Circle> serializer = Serializers.packed().utf8();
+        Entry<String, Circle> a = Entries.entry("hello", Geometries.circle(1.0000000001, 2, 3));
+        Entry<String, Circle> b = Entries.entry("there", Geometries.circle(3.0000000001, 4, 5));
+        check(serializer, a, b);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testAddToFlatBuffers() throws IOException {
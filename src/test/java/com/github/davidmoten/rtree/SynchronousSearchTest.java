@@ -0,0 +1,237 @@
+package com.github.davidmoten.rtree;
+
+import static com.github.davidmoten.rtree.Utilities.entries;
+import static com.github.davidmoten.rtree.Utilities.sorted;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+public class SynchronousSearchTest {
+
+    @Test
+    public void testEmptyTree() {
+        List<Entry<Integer, Point>> found = new ArrayList<Entry<Integer, Point>>();
+        RTree<Integer, Point> tree = RTree.create();
+        tree.search(Geometries.rectangle(0, 0, 1, 1), collect(found));
+        tree.entries(collect(found));
+        assertTrue(found.isEmpty());
+    }
+
+    @Test
+    public void testSearchMatchesObservableSearchForEachFactory() {
+        List<Entry<Integer, Point>> entries = entries(0, 2000, 1);
+        List<RTree<Integer, Point>> trees = new ArrayList<RTree<Integer, Point>>();
+        trees.add(RTree.maxChildren(4).<Integer, Point> create().add(entries));
+        trees.add(RTree.star().maxChildren(10).<Integer, Point> create().add(entries));
+        trees.add(RTree.maxChildren(10).create(entries));
+        trees.add(RTree.maxChildren(10).factory(Factories.<Integer, Point> arraysFactory())
+                .create(entries));
+        trees.add(RTree.maxChildren(10).factory(Factories.<Integer> pointsFactory())
+                .create(entries));
+        MutableRTree<Integer, Point> mutable = RTree.maxChildren(6).createMutable();
+        mutable.add(entries);
+        trees.add(mutable.snapshot());
+        Random random = new Random(2);
+        for (RTree<Integer, Point> tree : trees) {
+            for (int i = 0; i < 30; i++) {
+                double x = random.nextDouble() * 100;
+                double y = random.nextDouble() * 100;
+                Rectangle r = Geometries.rectangle(x, y, x + random.nextDouble() * 20,
+                        y + random.nextDouble() * 20);
+                assertEquals(sorted(tree.search(r)), sorted(search(tree, r)));
+                Point p = entries.get(i).geometry();
+                assertEquals(sorted(tree.search(p)), sorted(search(tree, p)));
+                final Point centre = Geometries.point(x, y);
+                assertEquals(sorted(tree.search(new Func1<Geometry, Boolean>() {
+                    @Override
+                    public Boolean call(Geometry g) {
+                        return g.distance(centre.mbr()) < 7;
+                    }
+                })), sorted(search(tree, new GeometryPredicate() {
+                    @Override
+                    public boolean test(Geometry g) {
+                        return g.distance(centre.mbr()) < 7;
+                    }
+                })));
+            }
+            Rectangle r = Geometries.rectangle(20, 20, 60, 50);
+            assertEquals(sorted(tree.search(r)), sorted(toList(tree.searchIterator(r))));
+            assertEquals(sorted(tree.search(r)), sorted(toList(tree.searchIterable(r).iterator())));
+            List<Entry<Integer, Point>> all = new ArrayList<Entry<Integer, Point>>();
+            tree.entries(collect(all));
+            assertEquals(sorted(tree.entries()), sorted(all));
+        }
+    }
+
+    @Test
+    public void testIteratorOnDeepTree() {
+        List<Entry<Integer, Point>> entries = entries(0, 5000, 3);
+        RTree<Integer, Point> tree = RTree.maxChildren(3).<Integer, Point> create().add(entries);
+        assertTrue(tree.calculateDepth() > 8);
+        Rectangle r = Geometries.rectangle(0, 0, 70, 70);
+        assertEquals(sorted(tree.search(r)), sorted(toList(tree.searchIterator(r))));
+    }
+
+    @Test
+    public void testIteratorIsLazyAndHasNextIsIdempotent() {
+        RTree<Integer, Point> tree = RTree.maxChildren(4).<Integer, Point> create()
+                .add(entries(0, 100, 4));
+        Iterator<Entry<Integer, Point>> it = tree.searchIterator(new GeometryPredicate() {
+            int count;
+
+            @Override
+            public boolean test(Geometry g) {
+                if (++count > 20)
+                    throw new IllegalStateException("searched too far");
+                return true;
+            }
+        });
+        assertTrue(it.hasNext());
+        assertTrue(it.hasNext());
+        Entry<Integer, Point> first = it.next();
+        assertTrue(it.hasNext());
+        assertTrue(first != it.next());
+    }
+
+    @Test
+    public void testIteratorOnEmptyTree() {
+        Iterator<Entry<Integer, Point>> it = RTree.<Integer, Point> create()
+                .searchIterator(Geometries.rectangle(0, 0, 1, 1));
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testIteratorRemoveNotSupported() {
+        RTree<Integer, Point> tree = RTree.<Integer, Point> create().add(1,
+                Geometries.point(1, 1));
+        Iterator<Entry<Integer, Point>> it = tree.searchIterator(Geometries.rectangle(0, 0, 2, 2));
+        it.next();
+        it.remove();
+    }
+
+    @Test
+    public void testSearchAllMatchesIndividualSearches() {
+        List<Entry<Integer, Point>> entries = entries(0, 3000, 5);
+        List<Rectangle> queries = new ArrayList<Rectangle>();
+        Random random = new Random(6);
+        for (int i = 0; i < 200; i++) {
+            double x = random.nextDouble() * 110 - 5;
+            double y = random.nextDouble() * 110 - 5;
+            queries.add(Geometries.rectangle(x, y, x + random.nextDouble() * 10,
+                    y + random.nextDouble() * 10));
+        }
+        // a query that matches nothing and a duplicate query
+        queries.add(Geometries.rectangle(200, 200, 300, 300));
+        queries.add(queries.get(0));
+        for (RTree<Integer, Point> tree : Arrays.asList(
+                RTree.maxChildren(4).<Integer, Point> create().add(entries),
+                RTree.maxChildren(10).factory(Factories.<Integer> pointsFactory())
+                        .create(entries),
+                RTree.maxChildren(10).<Integer, Point> create().add(entries.subList(0, 5)))) {
+            List<List<Entry<Integer, Point>>> results = tree.searchAll(queries);
+            assertEquals(queries.size(), results.size());
+            for (int i = 0; i < queries.size(); i++)
+                assertEquals(sorted(tree.search(queries.get(i))), sorted(results.get(i)));
+        }
+        RTree<Integer, Point> empty = RTree.create();
+        assertTrue(empty.searchAll(queries).get(0).isEmpty());
+    }
+
+    @Test
+    public void testParallelSearchMatchesSequentialSearch() {
+        List<Entry<Integer, Point>> entries = entries(0, 5000, 7);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (RTree<Integer, Point> tree : Arrays.asList(RTree.<Integer, Point> create(),
+                    RTree.<Integer, Point> create().add(entries.subList(0, 3)),
+                    RTree.maxChildren(4).<Integer, Point> create().add(entries),
+                    RTree.maxChildren(10).factory(Factories.<Integer> pointsFactory())
+                            .create(entries))) {
+                for (Rectangle r : Arrays.asList(Geometries.rectangle(-1, -1, 101, 101),
+                        Geometries.rectangle(10, 20, 60, 50),
+                        Geometries.rectangle(200, 200, 300, 300))) {
+                    List<Entry<Integer, Point>> found = Collections
+                            .synchronizedList(new ArrayList<Entry<Integer, Point>>());
+                    tree.search(r, collect(found), executor);
+                    assertEquals(sorted(tree.search(r)), sorted(found));
+                    assertEquals(sorted(tree.search(r)),
+                            sorted(tree.search(r, Schedulers.from(executor))));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelSearchOfMergedObservableCanBeCancelled() {
+        RTree<Integer, Point> tree = RTree.maxChildren(4).<Integer, Point> create()
+                .add(entries(0, 5000, 8));
+        assertEquals(10, (int) tree.search(Geometries.rectangle(0, 0, 100, 100),
+                Schedulers.computation()).take(10).count().toBlocking().single());
+    }
+
+    private static <T> List<T> toList(Iterator<T> it) {
+        List<T> list = new ArrayList<T>();
+        while (it.hasNext())
+            list.add(it.next());
+        return list;
+    }
+
+    private static List<Entry<Integer, Point>> search(RTree<Integer, Point> tree, Rectangle r) {
+        List<Entry<Integer, Point>> found = new ArrayList<Entry<Integer, Point>>();
+        tree.search(r, collect(found));
+        return found;
+    }
+
+    private static List<Entry<Integer, Point>> search(RTree<Integer, Point> tree, Point p) {
+        List<Entry<Integer, Point>> found = new ArrayList<Entry<Integer, Point>>();
+        tree.search(p, collect(found));
+        return found;
+    }
+
+    private static List<Entry<Integer, Point>> search(RTree<Integer, Point> tree,
+            GeometryPredicate criterion) {
+        List<Entry<Integer, Point>> found = new ArrayList<Entry<Integer, Point>>();
+        tree.search(criterion, collect(found));
+        return found;
+    }
+
+    private static <T> Action1<T> collect(final List<T> list) {
+        return new Action1<T>() {
+            @Override
+            public void call(T t) {
+                list.add(t);
+            }
+        };
+    }
+
+}
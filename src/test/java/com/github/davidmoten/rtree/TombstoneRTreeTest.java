@@ -0,0 +1,267 @@
+package com.github.davidmoten.rtree;
+
+import static com.github.davidmoten.rtree.Utilities.entries;
+import static com.github.davidmoten.rtree.Utilities.sorted;
+import static com.github.davidmoten.rtree.geometry.Geometries.point;
+import static com.github.davidmoten.rtree.geometry.Geometries.rectangle;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.schedulers.TestScheduler;
+
+public class TombstoneRTreeTest {
+
+    @Test
+    public void testDeletedEntriesAreNotFound() {
+        List<Entry<Integer, Point>> entries = entries(0, 1000, 1);
+        TestScheduler scheduler = new TestScheduler();
+        TombstoneRTree<Integer, Point> tree = TombstoneRTree
+                .create(RTree.maxChildren(4).<Integer, Point> create().add(entries), 0.5, scheduler);
+        RTree<Integer, Point> initial = tree.tree();
+        RTree<Integer, Point> expected = initial;
+        for (int i = 0; i < 300; i++) {
+            assertTrue(tree.delete(entries.get(i)));
+            expected = expected.delete(entries.get(i));
+        }
+        assertFalse(tree.delete(entries.get(0)));
+        assertFalse(tree.delete(-1, point(1, 1)));
+        assertEquals(700, tree.size());
+        // dead entries are dropped with leaves that have no live entries left
+        int dropped = 0;
+        for (Leaf<Integer, Point> leaf : leaves(initial.root().get()))
+            if (entries.subList(0, 300).containsAll(leaf.entries()))
+                dropped += leaf.count();
+        assertEquals(300 - dropped, tree.deadCount());
+        checkSameEntries(expected, tree.tree());
+        // mbr of the tree is unchanged by lazy deletes
+        assertEquals(RTree.maxChildren(4).<Integer, Point> create().add(entries).mbr().get(),
+                tree.tree().mbr().get());
+    }
+
+    @Test
+    public void testAddAfterDeleteDropsDeadEntriesOfLeaf() {
+        TombstoneRTree<Integer, Point> tree = TombstoneRTree.create(
+                RTree.maxChildren(4).<Integer, Point> create().add(1, point(1, 1)).add(2,
+                        point(2, 2)),
+                0.9, new TestScheduler());
+        assertTrue(tree.delete(1, point(1, 1)));
+        assertEquals(1, tree.deadCount());
+        tree.add(1, point(1, 1));
+        assertEquals(0, tree.deadCount());
+        assertEquals(2, (int) tree.search(rectangle(0, 0, 3, 3)).count().toBlocking().single());
+        assertTrue(tree.delete(1, point(1, 1)));
+        assertTrue(tree.delete(2, point(2, 2)));
+        assertEquals(0, tree.size());
+        assertTrue(tree.tree().entries().isEmpty().toBlocking().single());
+    }
+
+    @Test
+    public void testCompactsInBackgroundAndReplaysConcurrentUpdates() {
+        List<Entry<Integer, Point>> entries = entries(0, 1000, 2);
+        TestScheduler scheduler = new TestScheduler();
+        TombstoneRTree<Integer, Point> tree = TombstoneRTree
+                .create(RTree.maxChildren(4).<Integer, Point> create().add(entries), 0.2, scheduler);
+        RTree<Integer, Point> expected = tree.tree();
+        // the 201st delete passes the threshold and starts a compaction
+        for (int i = 0; i < 201; i++) {
+            tree.delete(entries.get(i));
+            expected = expected.delete(entries.get(i));
+        }
+        // updates while the compaction is pending
+        for (int i = 201; i < 300; i++) {
+            tree.delete(entries.get(i));
+            expected = expected.delete(entries.get(i));
+        }
+        for (Entry<Integer, Point> entry : entries(1000, 50, 3)) {
+            tree.add(entry);
+            expected = expected.add(entry);
+        }
+        assertTrue(tree.deadCount() > 0);
+        scheduler.triggerActions();
+        assertEquals(750, tree.size());
+        // only the deletes replayed onto the compacted tree remain dead
+        assertTrue(tree.deadCount() <= 99);
+        checkSameEntries(expected, tree.tree());
+        assertEquals(0, tree.compact().deadCount());
+        checkSameEntries(expected, tree.tree());
+        tree.close();
+    }
+
+    @Test
+    public void testFailedCompactionIsAbandonedAndRetried() {
+        final AtomicBoolean fail = new AtomicBoolean();
+        final Factory<Integer, Point> factory = Factories.defaultFactory();
+        Factory<Integer, Point> failing = new Factory<Integer, Point>() {
+
+            @Override
+            public Leaf<Integer, Point> createLeaf(List<Entry<Integer, Point>> entries,
+                    Context<Integer, Point> context) {
+                if (fail.get())
+                    throw new IllegalStateException("boom");
+                return factory.createLeaf(entries, context);
+            }
+
+            @Override
+            public NonLeaf<Integer, Point> createNonLeaf(
+                    List<? extends Node<Integer, Point>> children,
+                    Context<Integer, Point> context) {
+                return factory.createNonLeaf(children, context);
+            }
+
+            @Override
+            public Entry<Integer, Point> createEntry(Integer value, Point geometry) {
+                return factory.createEntry(value, geometry);
+            }
+        };
+        List<Entry<Integer, Point>> entries = entries(0, 1000, 5);
+        TestScheduler scheduler = new TestScheduler();
+        TombstoneRTree<Integer, Point> tree = TombstoneRTree.create(
+                RTree.maxChildren(4).factory(failing).<Integer, Point> create().add(entries), 0.2,
+                scheduler);
+        int deleted = 0;
+        while (!tree.isCompacting())
+            assertTrue(tree.delete(entries.get(deleted++)));
+        fail.set(true);
+        try {
+            scheduler.triggerActions();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(tree.isCompacting());
+        fail.set(false);
+        // the next delete past the threshold starts a new compaction
+        assertTrue(tree.delete(entries.get(deleted++)));
+        assertTrue(tree.isCompacting());
+        scheduler.triggerActions();
+        assertFalse(tree.isCompacting());
+        assertEquals(1000 - deleted, tree.size());
+        assertEquals(0, tree.deadCount());
+        tree.close();
+    }
+
+    @Test
+    public void testDeleteAfterCloseDoesNotStartCompaction() {
+        List<Entry<Integer, Point>> entries = entries(0, 1000, 6);
+        TombstoneRTree<Integer, Point> tree = TombstoneRTree.create(
+                RTree.maxChildren(4).<Integer, Point> create().add(entries), 0.2,
+                new TestScheduler());
+        tree.close();
+        for (int i = 0; i < 300; i++)
+            assertTrue(tree.delete(entries.get(i)));
+        assertFalse(tree.isCompacting());
+        assertEquals(700, tree.size());
+        assertEquals(0, tree.compact().deadCount());
+    }
+
+    @Test
+    public void testCompactSupersedesBackgroundCompaction() {
+        List<Entry<Integer, Point>> entries = entries(0, 1000, 7);
+        TestScheduler scheduler = new TestScheduler();
+        TombstoneRTree<Integer, Point> tree = TombstoneRTree.create(
+                RTree.maxChildren(4).<Integer, Point> create().add(entries), 0.2, scheduler);
+        int deleted = 0;
+        while (!tree.isCompacting())
+            assertTrue(tree.delete(entries.get(deleted++)));
+        RTree<Integer, Point> compacted = tree.compact();
+        assertFalse(tree.isCompacting());
+        tree.add(-1, point(1, 1));
+        RTree<Integer, Point> expected = tree.tree();
+        scheduler.triggerActions();
+        // the result of the background compaction is discarded
+        assertTrue(expected == tree.tree());
+        assertEquals(1001 - deleted, tree.size());
+        assertEquals(1000 - deleted, compacted.size());
+        tree.close();
+    }
+
+    @Test
+    public void testEntriesAreCreatedByTheFactoryOfTheTree() {
+        AtomicInteger created = new AtomicInteger();
+        RTree<Integer, Point> empty = RTree.maxChildren(4)
+                .factory(Utilities.<Integer, Point> countingFactory(created)).create();
+        TombstoneRTree<Integer, Point> tree = TombstoneRTree.create(empty, 0.5,
+                new TestScheduler());
+        tree.add(1, point(1, 1));
+        assertEquals(1, created.get());
+        assertTrue(tree.delete(1, point(1, 1)));
+        assertEquals(2, created.get());
+        tree.close();
+    }
+
+    @Test
+    public void testDeletingAllEntriesOfALeafRemovesItAndTreeCanBeSerialized()
+            throws IOException {
+        List<Entry<Integer, Point>> entries = entries(0, 40, 4);
+        TombstoneRTree<Integer, Point> tree = TombstoneRTree.create(
+                RTree.maxChildren(4).<Integer, Point> create().add(entries), 0.9,
+                new TestScheduler());
+        List<Entry<Integer, Point>> leafEntries = null;
+        for (Leaf<Integer, Point> leaf : leaves(tree.tree().root().get()))
+            if (leaf.count() == 4)
+                leafEntries = leaf.entries();
+        assertEquals(4, leafEntries.size());
+        RTree<Integer, Point> expected = tree.tree();
+        for (Entry<Integer, Point> entry : leafEntries) {
+            assertTrue(tree.delete(entry));
+            expected = expected.delete(entry);
+        }
+        assertEquals(36, tree.size());
+        checkNoEmptyNodes(tree.tree().root().get());
+        Serializer<Integer, Point> serializer = Serializers.flatBuffers().javaIo();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(tree.tree(), bytes);
+        RTree<Integer, Point> read = serializer.read(new ByteArrayInputStream(bytes.toByteArray()),
+                bytes.size(), InternalStructure.DEFAULT);
+        checkSameEntries(expected, read);
+        tree.close();
+    }
+
+    private static List<Leaf<Integer, Point>> leaves(Node<Integer, Point> node) {
+        List<Leaf<Integer, Point>> list = new ArrayList<Leaf<Integer, Point>>();
+        if (node instanceof Leaf)
+            list.add((Leaf<Integer, Point>) node);
+        else
+            for (Node<Integer, Point> child : ((NonLeaf<Integer, Point>) node).children())
+                list.addAll(leaves(child));
+        return list;
+    }
+
+    private static void checkNoEmptyNodes(Node<Integer, Point> node) {
+        assertTrue(node.count() > 0);
+        if (node instanceof NonLeaf)
+            for (Node<Integer, Point> child : ((NonLeaf<Integer, Point>) node).children())
+                checkNoEmptyNodes(child);
+    }
+
+    private static void checkSameEntries(RTree<Integer, Point> expected,
+            RTree<Integer, Point> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(sorted(expected.entries()), sorted(actual.entries()));
+        Random random = new Random(9);
+        for (int i = 0; i < 20; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            Rectangle r = rectangle(x, y, x + 20, y + 20);
+            assertEquals(sorted(expected.search(r)), sorted(actual.search(r)));
+            assertEquals(expected.count(r), actual.count(r));
+        }
+    }
+
+}
@@ -4,11 +4,18 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
 import com.github.davidmoten.rtree.geometry.Rectangle;
 
+import rx.Observable;
+
 public class Utilities {
 
     static List<Entry<Object, Rectangle>> entries1000(Precision precision) {
@@ -36,4 +43,89 @@ public class Utilities {
         return list;
     }
 
+    /**
+     * Returns n entries with values start, start + 1, ... at random double
+     * precision points in [0, 100) x [0, 100).
+     */
+    public static List<Entry<Integer, Point>> entries(int start, int n, long seed) {
+        return entries(start, n, 0, 100, seed);
+    }
+
+    /**
+     * Returns n entries with values start, start + 1, ... at random double
+     * precision points in [min, max) x [min, max).
+     */
+    public static List<Entry<Integer, Point>> entries(int start, int n, double min, double max,
+            long seed) {
+        Random random = new Random(seed);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(n);
+        for (int i = 0; i < n; i++)
+            list.add(Entries.entry(start + i,
+                    Geometries.point(min + random.nextDouble() * (max - min),
+                            min + random.nextDouble() * (max - min))));
+        return list;
+    }
+
+    /**
+     * Returns a random geometry in [0, 100) x [0, 100) that is a single
+     * precision point, a double precision rectangle or a double precision
+     * circle depending on i.
+     */
+    /**
+     * Returns a factory that creates the same nodes and entries as the default
+     * factory and counts the entries it creates.
+     */
+    public static <T, S extends Geometry> Factory<T, S> countingFactory(
+            final AtomicInteger created) {
+        final Factory<T, S> factory = Factories.defaultFactory();
+        return new Factory<T, S>() {
+
+            @Override
+            public Leaf<T, S> createLeaf(List<Entry<T, S>> entries, Context<T, S> context) {
+                return factory.createLeaf(entries, context);
+            }
+
+            @Override
+            public NonLeaf<T, S> createNonLeaf(List<? extends Node<T, S>> children,
+                    Context<T, S> context) {
+                return factory.createNonLeaf(children, context);
+            }
+
+            @Override
+            public Entry<T, S> createEntry(T value, S geometry) {
+                created.incrementAndGet();
+                return factory.createEntry(value, geometry);
+            }
+        };
+    }
+
+    public static Geometry geometry(Random random, int i) {
+        double x = random.nextDouble() * 100;
+        double y = random.nextDouble() * 100;
+        if (i % 3 == 0)
+            return Geometries.point((float) x, (float) y);
+        else if (i % 3 == 1)
+            return Geometries.rectangle(x, y, x + 1, y + 2);
+        else
+            return Geometries.circle(x, y, 1.5);
+    }
+
+    /**
+     * Returns the entries as sorted strings (including the precision of their
+     * geometries) so that the entries of two trees can be compared regardless
+     * of order.
+     */
+    public static <T, S extends Geometry> List<String> sorted(Observable<Entry<T, S>> entries) {
+        return sorted(entries.toBlocking().toIterable());
+    }
+
+    public static <T, S extends Geometry> List<String> sorted(Iterable<Entry<T, S>> entries) {
+        List<String> list = new ArrayList<String>();
+        for (Entry<T, S> entry : entries)
+            list.add(entry.value() + " " + entry.geometry() + " "
+                    + entry.geometry().isDoublePrecision());
+        Collections.sort(list);
+        return list;
+    }
+
 }
@@ -0,0 +1,297 @@
+package com.github.davidmoten.rtree.appendonly;
+
+import static com.github.davidmoten.rtree.Utilities.geometry;
+import static com.github.davidmoten.rtree.Utilities.sorted;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.Utilities;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.functions.Func1;
+
+public class AppendOnlyStoreTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Func1<String, byte[]> SERIALIZER = new Func1<String, byte[]>() {
+        @Override
+        public byte[] call(String s) {
+            return s.getBytes(UTF_8);
+        }
+    };
+
+    private static final Func1<byte[], String> DESERIALIZER = new Func1<byte[], String>() {
+        @Override
+        public String call(byte[] bytes) {
+            return new String(bytes, UTF_8);
+        }
+    };
+
+    @Test
+    public void testCheckpointsAppendOnlyNewNodesAndRecover() throws IOException {
+        File file = newFile("target/append-only-recover");
+        AppendOnlyStore<String, Geometry> store = open(file);
+        assertTrue(store.tree().isEmpty());
+        RTree<String, Geometry> tree = RTree.maxChildren(8).create();
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++)
+            tree = tree.add(String.valueOf(i), geometry(random, i));
+        assertEquals(countNodes(tree.root().get()), store.checkpoint(tree));
+        // nothing changed so only a root record is appended
+        assertEquals(0, store.checkpoint(tree));
+        for (int i = 0; i < 20; i++) {
+            tree = tree.add("new" + i, geometry(random, i));
+            // a new path to a leaf plus any nodes created by splits
+            assertTrue(store.checkpoint(tree) <= 2 * tree.calculateDepth());
+        }
+        store.close();
+
+        store = open(file);
+        RTree<String, Geometry> recovered = store.tree();
+        checkSame(tree, recovered);
+        assertEquals(8, recovered.context().maxChildren());
+        // recovered nodes are known to be written
+        recovered = recovered.delete("0", recovered.entries().filter(valueIs("0")).toBlocking()
+                .single().geometry());
+        assertTrue(store.checkpoint(recovered) <= tree.calculateDepth());
+        store.close();
+        store = open(file);
+        checkSame(recovered, store.tree());
+        store.close();
+    }
+
+    @Test
+    public void testRecoversLastCompleteCheckpointAfterTornWrite() throws IOException {
+        File file = newFile("target/append-only-torn");
+        AppendOnlyStore<String, Geometry> store = open(file);
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), geometry(random, i));
+        store.checkpoint(tree);
+        long length = store.fileSize();
+        store.close();
+        // simulate a crash part way through appending another checkpoint
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(length);
+        raf.writeInt(1000);
+        raf.write(new byte[] { 1, 2, 3 });
+        raf.close();
+
+        store = open(file);
+        assertEquals(length, store.fileSize());
+        assertEquals(length, file.length());
+        checkSame(tree, store.tree());
+        // appends continue after the last complete checkpoint
+        tree = tree.add("a", Geometries.point(1, 1));
+        store.checkpoint(tree);
+        store.close();
+        store = open(file);
+        checkSame(tree, store.tree());
+        store.close();
+    }
+
+    @Test
+    public void testCompactionReclaimsNodesOfEarlierVersions() throws IOException {
+        File file = newFile("target/append-only-compact");
+        AppendOnlyStore<String, Geometry> store = open(file);
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        Random random = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            tree = tree.add(String.valueOf(i), geometry(random, i));
+            store.checkpoint(tree);
+        }
+        long before = store.fileSize();
+        store.compact();
+        assertTrue(store.fileSize() < before / 5);
+        assertEquals(store.fileSize(), file.length());
+        checkSame(tree, store.tree());
+        // nodes written by the compaction are not written again
+        assertEquals(0, store.checkpoint(tree));
+        tree = tree.add("a", Geometries.point(1, 1));
+        store.checkpoint(tree);
+        store.close();
+        store = open(file);
+        checkSame(tree, store.tree());
+        store.close();
+    }
+
+    @Test
+    public void testEmptyTreeCheckpoint() throws IOException {
+        File file = newFile("target/append-only-empty");
+        AppendOnlyStore<String, Geometry> store = open(file);
+        RTree<String, Geometry> tree = RTree.maxChildren(5).create();
+        tree = tree.add("a", Geometries.point(1, 1));
+        store.checkpoint(tree);
+        tree = tree.delete("a", Geometries.point(1, 1));
+        assertEquals(0, store.checkpoint(tree));
+        store.close();
+        store = open(file);
+        assertTrue(store.tree().isEmpty());
+        assertEquals(5, store.tree().context().maxChildren());
+        store.close();
+    }
+
+    @Test
+    public void testOpenAdoptsCompactedLogWhenLogIsMissing() throws IOException {
+        File file = newFile("target/append-only-adopt");
+        File compacted = newFile("target/append-only-adopt.compact");
+        AppendOnlyStore<String, Geometry> store = open(file);
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        Random random = new Random(4);
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), geometry(random, i));
+        store.checkpoint(tree);
+        store.close();
+        // simulate a crash of a compaction after it deleted the log
+        assertTrue(file.renameTo(compacted));
+
+        store = open(file);
+        assertTrue(file.exists());
+        assertFalse(compacted.exists());
+        checkSame(tree, store.tree());
+        store.close();
+    }
+
+    @Test
+    public void testFailedCompactionKeepsTheLog() throws IOException {
+        File file = newFile("target/append-only-compact-fail");
+        File compacted = newFile("target/append-only-compact-fail.compact");
+        final AtomicBoolean failing = new AtomicBoolean();
+        Func1<String, byte[]> serializer = new Func1<String, byte[]>() {
+            @Override
+            public byte[] call(String s) {
+                if (failing.get())
+                    throw new RuntimeException("boo");
+                return SERIALIZER.call(s);
+            }
+        };
+        AppendOnlyStore<String, Geometry> store = AppendOnlyStore.open(file, serializer,
+                DESERIALIZER);
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        Random random = new Random(5);
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), geometry(random, i));
+        store.checkpoint(tree);
+        long length = store.fileSize();
+        failing.set(true);
+        try {
+            store.compact();
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        failing.set(false);
+        assertFalse(compacted.exists());
+        assertEquals(length, store.fileSize());
+        // the store carries on with the log
+        tree = tree.add("a", Geometries.point(1, 1));
+        store.checkpoint(tree);
+        store.close();
+        store = open(file);
+        checkSame(tree, store.tree());
+        store.close();
+    }
+
+    @Test
+    public void testRecoveredTreeUsesContextOfInitialTree() throws IOException {
+        File file = newFile("target/append-only-initial");
+        AtomicInteger created = new AtomicInteger();
+        RTree<String, Geometry> initial = RTree.maxChildren(6)
+                .factory(Utilities.<String, Geometry> countingFactory(created)).create();
+        AppendOnlyStore<String, Geometry> store = AppendOnlyStore.open(file, initial,
+                SERIALIZER, DESERIALIZER);
+        assertSame(initial, store.tree());
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        Random random = new Random(6);
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), geometry(random, i));
+        store.checkpoint(tree);
+        store.close();
+
+        created.set(0);
+        store = AppendOnlyStore.open(file, initial, SERIALIZER, DESERIALIZER);
+        RTree<String, Geometry> recovered = store.tree();
+        checkSame(tree, recovered);
+        // min and max children are those of the checkpoint
+        assertEquals(4, recovered.context().maxChildren());
+        assertSame(initial.context().factory(), recovered.context().factory());
+        assertSame(initial.context().selector(), recovered.context().selector());
+        assertSame(initial.context().splitter(), recovered.context().splitter());
+        assertEquals(100, created.get());
+        store.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenOfOtherFileThrows() throws IOException {
+        File file = newFile("target/append-only-other");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[100]);
+        raf.close();
+        open(file);
+    }
+
+    private static AppendOnlyStore<String, Geometry> open(File file) throws IOException {
+        return AppendOnlyStore.open(file, SERIALIZER, DESERIALIZER);
+    }
+
+    private static File newFile(String name) {
+        File file = new File(name);
+        file.delete();
+        return file;
+    }
+
+    private static int countNodes(Node<String, Geometry> node) {
+        if (node instanceof Leaf)
+            return 1;
+        int count = 1;
+        for (Node<String, Geometry> child : ((NonLeaf<String, Geometry>) node).children())
+            count += countNodes(child);
+        return count;
+    }
+
+    private static Func1<Entry<String, Geometry>, Boolean> valueIs(final String value) {
+        return new Func1<Entry<String, Geometry>, Boolean>() {
+            @Override
+            public Boolean call(Entry<String, Geometry> entry) {
+                return entry.value().equals(value);
+            }
+        };
+    }
+
+    private static void checkSame(RTree<String, Geometry> expected,
+            RTree<String, Geometry> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.asString(), actual.asString());
+        assertEquals(sorted(expected.entries()), sorted(actual.entries()));
+        Random random = new Random(9);
+        for (int i = 0; i < 10; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            Rectangle r = Geometries.rectangle(x, y, x + 20, y + 20);
+            assertEquals(sorted(expected.search(r)), sorted(actual.search(r)));
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.github.davidmoten.rtree.appendonly;
+
+import static com.github.davidmoten.rtree.Utilities.geometry;
+import static com.github.davidmoten.rtree.Utilities.sorted;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+import rx.functions.Func1;
+
+public class DurableRTreeTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Func1<String, byte[]> SERIALIZER = new Func1<String, byte[]>() {
+        @Override
+        public byte[] call(String s) {
+            return s.getBytes(UTF_8);
+        }
+    };
+
+    private static final Func1<byte[], String> DESERIALIZER = new Func1<byte[], String>() {
+        @Override
+        public String call(byte[] bytes) {
+            return new String(bytes, UTF_8);
+        }
+    };
+
+    @Test
+    public void testUpdatesAreReplayedOnOpen() throws IOException {
+        File directory = newDirectory("target/durable-replay");
+        DurableRTree<String, Geometry> durable = open(directory);
+        assertTrue(durable.tree().isEmpty());
+        Random random = new Random(1);
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        for (int i = 0; i < 1000; i++) {
+            Geometry g = geometry(random, i);
+            geometries.add(g);
+            durable.add(String.valueOf(i), g);
+        }
+        for (int i = 0; i < 1000; i += 3)
+            durable.delete(String.valueOf(i), geometries.get(i));
+        // deleting an absent entry is not logged
+        long size = durable.logSize();
+        durable.delete("absent", Geometries.point(1, 1));
+        assertEquals(size, durable.logSize());
+        // a delete of an entry re-added after a delete leaves one instance
+        durable.add("0", geometries.get(0));
+        RTree<String, Geometry> expected = durable.tree();
+        assertEquals(667, expected.size());
+        durable.close();
+
+        durable = open(directory);
+        checkSame(expected, durable.tree());
+        durable.close();
+    }
+
+    @Test
+    public void testCheckpointWritesSnapshotAndStartsNewLog() throws IOException {
+        File directory = newDirectory("target/durable-checkpoint");
+        DurableRTree<String, Geometry> durable = DurableRTree.open(directory,
+                RTree.maxChildren(6).<String, Geometry> create(), SERIALIZER, DESERIALIZER);
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++)
+            durable.add(String.valueOf(i), geometry(random, i));
+        durable.checkpoint();
+        assertEquals(Arrays.asList("snapshot-1", "wal-1"), files(directory));
+        assertEquals(WriteAheadLog.HEADER_SIZE, durable.logSize());
+        for (int i = 500; i < 600; i++)
+            durable.add(String.valueOf(i), geometry(random, i));
+        durable.delete(durable.tree().entries().toBlocking().first());
+        RTree<String, Geometry> expected = durable.tree();
+        durable.checkpoint();
+        durable.add("a", Geometries.point(1, 2));
+        expected = expected.add("a", Geometries.point(1, 2));
+        assertEquals(Arrays.asList("snapshot-2", "wal-2"), files(directory));
+        durable.close();
+
+        durable = open(directory);
+        checkSame(expected, durable.tree());
+        assertEquals(6, durable.tree().context().maxChildren());
+        durable.close();
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        File directory = newDirectory("target/durable-torn");
+        DurableRTree<String, Geometry> durable = open(directory);
+        for (int i = 0; i < 10; i++)
+            durable.add(String.valueOf(i), Geometries.point(i, i));
+        RTree<String, Geometry> expected = durable.tree();
+        long size = durable.logSize();
+        durable.close();
+        // a record cut short by a crash
+        RandomAccessFile raf = new RandomAccessFile(new File(directory, "wal-0"), "rw");
+        raf.seek(size);
+        raf.writeInt(30);
+        raf.write(new byte[] { 1, 0, 0 });
+        raf.close();
+        // and an interrupted checkpoint
+        new File(directory, "snapshot-1.tmp").createNewFile();
+
+        durable = open(directory);
+        checkSame(expected, durable.tree());
+        assertEquals(size, durable.logSize());
+        assertFalse(new File(directory, "snapshot-1.tmp").exists());
+        durable.add("a", Geometries.point(1, 2));
+        expected = durable.tree();
+        durable.close();
+        durable = open(directory);
+        checkSame(expected, durable.tree());
+        durable.close();
+    }
+
+    @Test
+    public void testTornRecordInEarlierLogThrows() throws IOException {
+        File directory = newDirectory("target/durable-torn-earlier");
+        File other = newDirectory("target/durable-torn-earlier-other");
+        DurableRTree<String, Geometry> durable = open(directory);
+        for (int i = 0; i < 10; i++)
+            durable.add(String.valueOf(i), Geometries.point(i, i));
+        long size = durable.logSize();
+        durable.close();
+        durable = open(other);
+        durable.add("a", Geometries.point(1, 2));
+        durable.close();
+        // a later log whose updates follow those of the damaged one
+        assertTrue(new File(other, "wal-0").renameTo(new File(directory, "wal-1")));
+        RandomAccessFile raf = new RandomAccessFile(new File(directory, "wal-0"), "rw");
+        raf.setLength(size - 3);
+        raf.close();
+        try {
+            open(directory);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("damaged"));
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersShareSyncs() throws Exception {
+        File directory = newDirectory("target/durable-concurrent");
+        final DurableRTree<String, Geometry> durable = open(directory);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100; i++) {
+                            durable.add(thread + "-" + i, Geometries.point(thread, i));
+                            if (thread == 0 && i % 25 == 0)
+                                durable.checkpoint();
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            throw new RuntimeException(error.get());
+        RTree<String, Geometry> expected = durable.tree();
+        assertEquals(800, expected.size());
+        durable.close();
+        DurableRTree<String, Geometry> reopened = open(directory);
+        checkSame(expected, reopened.tree());
+        reopened.close();
+    }
+
+    @Test
+    public void testReplayOfManyUpdates() throws IOException {
+        File directory = newDirectory("target/durable-many");
+        directory.mkdirs();
+        File log = new File(directory, "wal-0");
+        WriteAheadLog<String, Geometry> wal = WriteAheadLog.open(log, 0, SERIALIZER);
+        RTree<String, Geometry> expected = RTree.create();
+        Random random = new Random(3);
+        List<Entry<String, Geometry>> live = new ArrayList<Entry<String, Geometry>>();
+        for (int i = 0; i < 200000; i++) {
+            if (i % 4 == 3) {
+                // delete a recent entry so deletes cancel adds in the same batch
+                Entry<String, Geometry> entry = live
+                        .remove(live.size() - 1 - random.nextInt(Math.min(10, live.size())));
+                wal.delete(entry);
+            } else {
+                Geometry g = geometry(random, i);
+                String value = String.valueOf(i);
+                Entry<String, Geometry> entry = expected.context().factory().createEntry(value,
+                        g);
+                live.add(entry);
+                wal.add(entry);
+            }
+        }
+        wal.close();
+        expected = RTree.create(live);
+        DurableRTree<String, Geometry> durable = open(directory);
+        assertEquals(150000 - 50000, durable.tree().size());
+        checkSame(expected, durable.tree());
+        durable.close();
+    }
+
+    @Test
+    public void testReplayOntoSnapshotUsesContextOfInitialTree() throws IOException {
+        File directory = newDirectory("target/durable-snapshot-replay");
+        RTree<String, Geometry> initial = RTree.maxChildren(6).<String, Geometry> create();
+        DurableRTree<String, Geometry> durable = DurableRTree.open(directory, initial,
+                SERIALIZER, DESERIALIZER);
+        Random random = new Random(4);
+        List<Entry<String, Geometry>> entries = new ArrayList<Entry<String, Geometry>>();
+        for (int i = 0; i < 20000; i++) {
+            Entry<String, Geometry> entry = initial.context().factory()
+                    .createEntry(String.valueOf(i), geometry(random, i));
+            entries.add(entry);
+            durable.add(entry);
+            if (i == 9999)
+                durable.checkpoint();
+        }
+        for (int i = 0; i < 20000; i += 2)
+            durable.delete(entries.get(i));
+        RTree<String, Geometry> expected = durable.tree();
+        durable.close();
+
+        durable = DurableRTree.open(directory, initial, SERIALIZER, DESERIALIZER);
+        RTree<String, Geometry> tree = durable.tree();
+        checkSame(expected, tree);
+        assertEquals(6, tree.context().maxChildren());
+        assertTrue(tree.context().factory() == initial.context().factory());
+        assertTrue(tree.context().splitter() == initial.context().splitter());
+        // updates after recovery are applied to the recovered tree
+        durable.add("a", Geometries.point(1, 2));
+        expected = expected.add("a", Geometries.point(1, 2));
+        checkSame(expected, durable.tree());
+        durable.close();
+    }
+
+    private static DurableRTree<String, Geometry> open(File directory) throws IOException {
+        return DurableRTree.open(directory, SERIALIZER, DESERIALIZER);
+    }
+
+    private static File newDirectory(String name) {
+        File directory = new File(name);
+        if (directory.exists()) {
+            for (File f : directory.listFiles())
+                f.delete();
+            directory.delete();
+        }
+        return directory;
+    }
+
+    private static List<String> files(File directory) {
+        List<String> names = new ArrayList<String>(Arrays.asList(directory.list()));
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void checkSame(RTree<String, Geometry> expected,
+            RTree<String, Geometry> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(sorted(expected.entries()), sorted(actual.entries()));
+    }
+
+}
@@ -3,30 +3,49 @@ package com.github.davidmoten.rtree.fbs;
 import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
+import com.github.davidmoten.rtree.Entries;
 import com.github.davidmoten.rtree.Entry;
 import com.github.davidmoten.rtree.GreekEarthquakes;
 import com.github.davidmoten.rtree.InternalStructure;
 import com.github.davidmoten.rtree.Precision;
 import com.github.davidmoten.rtree.RTree;
 import com.github.davidmoten.rtree.Serializer;
+import com.github.davidmoten.rtree.fbs.generated.Node_;
+import com.github.davidmoten.rtree.fbs.generated.Tree_;
 import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
 
 import rx.Observable;
+import rx.functions.Action1;
 import rx.functions.Func1;
 
 public class SerializerFlatBuffersTest {
 
     private static final byte[] EMPTY = new byte[] {};
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     @Test
     public void testSerializeRoundTripToFlatBuffersSingleArray() throws Exception {
         roundTrip(InternalStructure.SINGLE_ARRAY, false);
@@ -60,6 +79,21 @@ public class SerializerFlatBuffersTest {
         deserialize(structure, file, fbSerializer, backpressure);
     }
 
+    private static <S extends Geometry> SerializerFlatBuffers<String, S>
+            createStringSerializer() {
+        return SerializerFlatBuffers.createForFiles(new Func1<String, byte[]>() {
+            @Override
+            public byte[] call(String s) {
+                return s.getBytes(UTF_8);
+            }
+        }, new Func1<byte[], String>() {
+            @Override
+            public String call(byte[] bytes) {
+                return new String(bytes, UTF_8);
+            }
+        });
+    }
+
     private static Serializer<Object, Point> createSerializer() {
         Func1<Object, byte[]> serializer = new Func1<Object, byte[]>() {
             @Override
@@ -105,6 +139,284 @@ public class SerializerFlatBuffersTest {
         System.out.println(tr.size());
     }
 
+    @Test
+    public void testReadMemoryMappedFileSingleArray() throws Exception {
+        readMemoryMapped(InternalStructure.SINGLE_ARRAY);
+    }
+
+    @Test
+    public void testReadMemoryMappedFileDefaultStructure() throws Exception {
+        readMemoryMapped(InternalStructure.DEFAULT);
+    }
+
+    private static void readMemoryMapped(InternalStructure structure) throws Exception {
+        RTree<String, Point> tree = RTree.star().maxChildren(10).create();
+        int i = 0;
+        for (Entry<Object, Point> entry : GreekEarthquakes.entries(Precision.SINGLE)
+                .toBlocking().toIterable())
+            tree = tree.add(String.valueOf(i++), entry.geometry());
+        SerializerFlatBuffers<String, Point> serializer = createStringSerializer();
+        File file = new File("target/mapped-" + structure);
+        FileOutputStream os = new FileOutputStream(file);
+        serializer.write(tree, os);
+        os.close();
+        RTree<String, Point> tr = serializer.read(file, structure);
+        assertEquals(tree.size(), tr.size());
+        Rectangle r = Geometries.rectangle(40, 27.0, 40.5, 27.5);
+        Set<Entry<String, Point>> expected = new HashSet<Entry<String, Point>>(
+                tree.search(r).toList().toBlocking().single());
+        assertEquals(22, expected.size());
+        assertEquals(expected,
+                new HashSet<Entry<String, Point>>(tr.search(r).toList().toBlocking().single()));
+        assertEquals(tree.size(), (int) tr.entries().count().toBlocking().single());
+    }
+
+    @Test
+    public void testStreamingWriteRoundTrip() throws Exception {
+        for (Precision precision : Precision.values()) {
+            RTree<String, Point> tree = RTree.star().maxChildren(10).create();
+            int i = 0;
+            for (Entry<Object, Point> entry : GreekEarthquakes.entries(precision).toBlocking()
+                    .toIterable())
+                tree = tree.add(String.valueOf(i++), entry.geometry());
+            SerializerFlatBuffers<String, Point> serializer = createStringSerializer();
+            File file = new File("target/streamed-" + precision);
+            // check that existing content is overwritten
+            FileOutputStream os = new FileOutputStream(file);
+            os.write(new byte[10000000]);
+            os.close();
+            serializer.write(tree, file);
+            for (InternalStructure structure : InternalStructure.values()) {
+                RTree<String, Point> tr = serializer.read(file, structure);
+                assertEquals(tree.size(), tr.size());
+                assertEquals(tree.context().maxChildren(), tr.context().maxChildren());
+                assertEquals(tree.mbr().get(), tr.mbr().get());
+                assertEquals(
+                        new HashSet<Entry<String, Point>>(
+                                tree.entries().toList().toBlocking().single()),
+                        new HashSet<Entry<String, Point>>(
+                                tr.entries().toList().toBlocking().single()));
+                Rectangle r = Geometries.rectangle(40, 27.0, 40.5, 27.5);
+                assertEquals(22, (int) tr.search(r).count().toBlocking().single());
+            }
+            InputStream is = new FileInputStream(file);
+            RTree<String, Point> tr = serializer.read(is, file.length(),
+                    InternalStructure.SINGLE_ARRAY);
+            is.close();
+            assertEquals(tree.asString(), tr.asString());
+        }
+    }
+
+    @Test
+    public void testStreamingWriteOfEmptyAndSingleLeafTrees() throws Exception {
+        SerializerFlatBuffers<String, Point> serializer = createStringSerializer();
+        File file = new File("target/streamed-small");
+        RTree<String, Point> tree = RTree.create();
+        serializer.write(tree, file);
+        assertEquals(0, serializer.read(file, InternalStructure.SINGLE_ARRAY).size());
+        tree = tree.add("a", Geometries.point(1, 2)).add("b", Geometries.point(3, 4));
+        serializer.write(tree, file);
+        RTree<String, Point> tr = serializer.read(file, InternalStructure.SINGLE_ARRAY);
+        assertEquals(2, tr.size());
+        assertEquals(tree.entries().toList().toBlocking().single(),
+                tr.entries().toList().toBlocking().single());
+    }
+
+    @Test
+    public void testSubtreeSizesAreStoredInNonLeafNodes() throws Exception {
+        SerializerFlatBuffers<String, Point> serializer = createStringSerializer();
+        Random random = new Random(2);
+        RTree<String, Point> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 1000; i++)
+            tree = tree.add(String.valueOf(i),
+                    Geometries.point(random.nextDouble() * 100, random.nextDouble() * 100));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(tree, bytes);
+        checkSizes(Tree_.getRootAsTree_(ByteBuffer.wrap(bytes.toByteArray())).root());
+        File file = new File("target/sizes");
+        serializer.write(tree, file);
+        InputStream is = new FileInputStream(file);
+        byte[] written = SerializerFlatBuffers.readFully(is, (int) file.length());
+        is.close();
+        checkSizes(Tree_.getRootAsTree_(ByteBuffer.wrap(written)).root());
+        RTree<String, Point> tr = serializer.read(file, InternalStructure.SINGLE_ARRAY);
+        Rectangle r = Geometries.rectangle(10, 10, 60, 70);
+        assertEquals(tree.count(r), tr.count(r));
+    }
+
+    private static long checkSizes(Node_ node) {
+        if (node.childrenLength() == 0)
+            return node.entriesLength();
+        long size = 0;
+        for (int i = 0; i < node.childrenLength(); i++)
+            size += checkSizes(node.children(i));
+        assertEquals(size, node.size());
+        return size;
+    }
+
+    @Test
+    public void testRectangleSearchOfPointsMatchesDefaultStructure() throws Exception {
+        Random random = new Random(1);
+        for (Precision precision : Precision.values()) {
+            RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+            for (int i = 0; i < 1000; i++)
+                tree = tree.add(String.valueOf(i),
+                        point(precision, random.nextDouble() * 100, random.nextDouble() * 100));
+            // points on the edges of a query rectangle must be found
+            tree = tree.add("edge", point(precision, 20, 30));
+            checkRectangleSearches(tree, random);
+        }
+    }
+
+    @Test
+    public void testRectangleSearchOfRectanglesAndCirclesMatchesDefaultStructure()
+            throws Exception {
+        Random random = new Random(2);
+        for (Precision precision : Precision.values()) {
+            RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+            for (int i = 0; i < 1000; i++) {
+                double x = random.nextDouble() * 100;
+                double y = random.nextDouble() * 100;
+                double size = random.nextDouble() * 5;
+                Geometry g;
+                if (i % 2 == 0)
+                    g = precision == Precision.SINGLE
+                            ? Geometries.rectangle((float) x, (float) y, (float) (x + size),
+                                    (float) (y + size))
+                            : Geometries.rectangle(x, y, x + size, y + size);
+                else
+                    g = precision == Precision.SINGLE
+                            ? Geometries.circle((float) x, (float) y, (float) size)
+                            : Geometries.circle(x, y, size);
+                tree = tree.add(String.valueOf(i), g);
+            }
+            checkRectangleSearches(tree, random);
+        }
+    }
+
+    @Test
+    public void testRectangleSearchStopsWhenUnsubscribed() throws Exception {
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 1000; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 100, i / 100));
+        RTree<String, Geometry> fb = roundTrip(tree);
+        Rectangle r = Geometries.rectangle(0, 0, 100, 100);
+        assertEquals(7, (int) fb.search(r).take(7).count().toBlocking().single());
+        assertEquals(0, (int) fb.search(Geometries.rectangle(200, 200, 300, 300)).count()
+                .toBlocking().single());
+    }
+
+    @Test
+    public void testValuesAreDeserializedLazilyAndOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        SerializerFlatBuffers<String, Point> serializer = SerializerFlatBuffers
+                .createForFiles(new Func1<String, byte[]>() {
+                    @Override
+                    public byte[] call(String s) {
+                        return s.getBytes(UTF_8);
+                    }
+                }, new Func1<byte[], String>() {
+                    @Override
+                    public String call(byte[] bytes) {
+                        calls.incrementAndGet();
+                        return new String(bytes, UTF_8);
+                    }
+                });
+        RTree<String, Point> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 10, i / 10));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(tree, bytes);
+        RTree<String, Point> fb = serializer.read(new ByteArrayInputStream(bytes.toByteArray()),
+                bytes.size(), InternalStructure.SINGLE_ARRAY);
+        Rectangle r = Geometries.rectangle(0, 0, 4.5, 4.5);
+        // geometry only consumers do not deserialize values
+        assertEquals(25, (int) fb.search(r).count().toBlocking().single());
+        assertEquals(100, (int) fb.entries().count().toBlocking().single());
+        assertEquals(0, calls.get());
+        List<Entry<String, Point>> found = fb.search(r).toList().toBlocking().single();
+        for (Entry<String, Point> entry : found) {
+            Point p = entry.geometry();
+            assertEquals(String.valueOf((int) (p.y() * 10 + p.x())), entry.value());
+            assertEquals(String.valueOf((int) (p.y() * 10 + p.x())), entry.value());
+        }
+        assertEquals(25, calls.get());
+        // lazy entries are equal to default entries both ways
+        Entry<String, Point> entry = found.get(0);
+        Entry<String, Point> other = Entries.entry(entry.value(), entry.geometry());
+        assertEquals(other, entry);
+        assertEquals(entry, other);
+        assertEquals(other.hashCode(), entry.hashCode());
+        // deletes match lazy entries by value and geometry
+        assertEquals(99, fb.delete(other).size());
+    }
+
+    @Test
+    public void testDefaultStructureDeserializesValuesWhenRead() throws Exception {
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 10, i / 10));
+        SerializerFlatBuffers<String, Geometry> serializer = createStringSerializer();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(tree, bytes);
+        ByteBuffer bb = ByteBuffer.wrap(bytes.toByteArray());
+        RTree<String, Geometry> read = serializer.read(bb, InternalStructure.DEFAULT);
+        // entries must not refer to the buffer (which may be a mapped file)
+        Arrays.fill(bb.array(), (byte) 0);
+        assertEquals(sorted(tree.entries()), sorted(read.entries()));
+    }
+
+    private static void checkRectangleSearches(RTree<String, Geometry> tree, Random random)
+            throws IOException {
+        RTree<String, Geometry> fb = roundTrip(tree);
+        List<Rectangle> queries = new ArrayList<Rectangle>();
+        queries.add(Geometries.rectangle(20, 30, 40, 50));
+        queries.add(Geometries.rectangle(-10, -10, 200, 200));
+        for (int i = 0; i < 50; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            queries.add(Geometries.rectangle(x, y, x + random.nextDouble() * 20,
+                    y + random.nextDouble() * 20));
+        }
+        for (Rectangle r : queries) {
+            List<String> expected = sorted(tree.search(r));
+            assertEquals(expected, sorted(fb.search(r)));
+            final List<Entry<String, Geometry>> found = new ArrayList<Entry<String, Geometry>>();
+            fb.search(r, new Action1<Entry<String, Geometry>>() {
+                @Override
+                public void call(Entry<String, Geometry> entry) {
+                    found.add(entry);
+                }
+            });
+            assertEquals(expected, sorted(Observable.from(found)));
+            assertEquals(expected.size(), fb.count(r));
+        }
+    }
+
+    private static RTree<String, Geometry> roundTrip(RTree<String, Geometry> tree)
+            throws IOException {
+        SerializerFlatBuffers<String, Geometry> serializer = createStringSerializer();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(tree, bytes);
+        return serializer.read(new ByteArrayInputStream(bytes.toByteArray()), bytes.size(),
+                InternalStructure.SINGLE_ARRAY);
+    }
+
+    private static Geometry point(Precision precision, double x, double y) {
+        if (precision == Precision.SINGLE)
+            return Geometries.point((float) x, (float) y);
+        else
+            return Geometries.point(x, y);
+    }
+
+    private static List<String> sorted(Observable<Entry<String, Geometry>> entries) {
+        List<String> list = new ArrayList<String>();
+        for (Entry<String, Geometry> entry : entries.toBlocking().toIterable())
+            list.add(entry.value() + " " + entry.geometry());
+        Collections.sort(list);
+        return list;
+    }
+
     @Test(expected = RuntimeException.class)
     public void testInputStreamNotAsLongAsExpected() throws IOException {
         SerializerFlatBuffers.readFully(new ByteArrayInputStream(new byte[10]), 12);
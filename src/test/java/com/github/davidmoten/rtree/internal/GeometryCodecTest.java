@@ -0,0 +1,48 @@
+package com.github.davidmoten.rtree.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+public class GeometryCodecTest {
+
+    @Test
+    public void testRoundTripKeepsTypeAndPrecision() {
+        List<Geometry> geometries = Arrays.<Geometry> asList(Geometries.point(1.5f, 2.5f),
+                Geometries.point(1.1, 2.2), Geometries.rectangle(1f, 2f, 3f, 4f),
+                Geometries.rectangle(1.1, 2.2, 3.3, 4.4), Geometries.circle(1f, 2f, 3f),
+                Geometries.circle(1.1, 2.2, 3.3), Geometries.line(1f, 2f, 3f, 4f),
+                Geometries.line(1.1, 2.2, 3.3, 4.4));
+        double[] c = new double[4];
+        for (Geometry g : geometries) {
+            int type = GeometryCodec.encode(g, c);
+            assertEquals(g.isDoublePrecision(),
+                    (type & GeometryCodec.DOUBLE_PRECISION) != 0);
+            assertEquals(g, GeometryCodec.decode(type, c[0], c[1], c[2], c[3]));
+        }
+    }
+
+    @Test
+    public void testPointsAndRectanglesAreEncodedAsBounds() {
+        double[] c = new double[4];
+        int type = GeometryCodec.encode(Geometries.point(1, 2), c);
+        assertTrue(GeometryCodec.isRectangular(type));
+        assertEquals(2, GeometryCodec.dimensions(type));
+        assertEquals(Geometries.rectangle(1, 2, 1, 2),
+                GeometryCodec.bounds(type, c[0], c[1], c[2], c[3]));
+        assertTrue(GeometryCodec.isRectangular(
+                GeometryCodec.encode(Geometries.rectangle(1, 2, 3, 4), c)));
+        type = GeometryCodec.encode(Geometries.circle(1, 2, 3), c);
+        assertFalse(GeometryCodec.isRectangular(type));
+        assertEquals(3, GeometryCodec.dimensions(type));
+    }
+
+}
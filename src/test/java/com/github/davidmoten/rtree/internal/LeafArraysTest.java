@@ -0,0 +1,135 @@
+package com.github.davidmoten.rtree.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entries;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Factories;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.SelectorMinimalAreaIncrease;
+import com.github.davidmoten.rtree.SplitterQuadratic;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import rx.Observable;
+
+public class LeafArraysTest {
+
+    private static final Context<Integer, Geometry> CONTEXT = new Context<Integer, Geometry>(2,
+            4, new SelectorMinimalAreaIncrease(), new SplitterQuadratic(),
+            Factories.<Integer, Geometry> arraysFactory());
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCannotHaveZeroChildren() {
+        new LeafArrays<Integer, Geometry>(new ArrayList<Entry<Integer, Geometry>>(), CONTEXT);
+    }
+
+    @Test
+    public void testEntriesAndMbrMatchLeafDefault() {
+        List<Entry<Integer, Geometry>> entries = entries(50, 1);
+        LeafArrays<Integer, Geometry> leaf = new LeafArrays<Integer, Geometry>(entries, CONTEXT);
+        assertEquals(entries, leaf.entries());
+        assertEquals(entries.get(3), leaf.entry(3));
+        assertEquals(Util.mbr(entries), leaf.geometry());
+        List<Entry<Integer, Geometry>> floats = Arrays.asList(
+                Entries.<Integer, Geometry> entry(1, Geometries.point(1f, 2f)),
+                Entries.<Integer, Geometry> entry(2, Geometries.rectangle(0f, 0f, 3f, 1f)));
+        assertEquals(Util.mbr(floats),
+                new LeafArrays<Integer, Geometry>(floats, CONTEXT).geometry());
+    }
+
+    @Test
+    public void testSearchesMatchDefaultFactory() {
+        List<Entry<Integer, Geometry>> entries = entries(2000, 2);
+        RTree<Integer, Geometry> tree = RTree.maxChildren(8).<Integer, Geometry> create()
+                .add(entries);
+        RTree<Integer, Geometry> arrays = RTree.maxChildren(8)
+                .factory(Factories.<Integer, Geometry> arraysFactory())
+                .<Integer, Geometry> create().add(entries);
+        RTree<Integer, Geometry> bulk = RTree.maxChildren(8)
+                .factory(Factories.<Integer, Geometry> arraysFactory()).create(entries);
+        Random random = new Random(3);
+        for (int i = 0; i < 50; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            Rectangle r = Geometries.rectangle(x, y, x + random.nextDouble() * 20,
+                    y + random.nextDouble() * 20);
+            List<String> expected = sorted(tree.search(r));
+            assertEquals(expected, sorted(arrays.search(r)));
+            assertEquals(expected, sorted(bulk.search(r)));
+            // a criterion other than rectangle intersection
+            assertEquals(sorted(tree.search(Geometries.point(x, y), 5)),
+                    sorted(arrays.search(Geometries.point(x, y), 5)));
+        }
+        assertEquals(3, (int) arrays.search(Geometries.rectangle(0, 0, 100, 100)).take(3).count()
+                .toBlocking().single());
+    }
+
+    @Test
+    public void testDelete() {
+        List<Entry<Integer, Geometry>> entries = entries(200, 4);
+        RTree<Integer, Geometry> tree = RTree.maxChildren(4)
+                .factory(Factories.<Integer, Geometry> arraysFactory())
+                .<Integer, Geometry> create().add(entries);
+        for (int i = 0; i < entries.size(); i += 2)
+            tree = tree.delete(entries.get(i));
+        assertEquals(100, tree.size());
+        List<String> expected = new ArrayList<String>();
+        for (int i = 1; i < entries.size(); i += 2)
+            expected.add(entries.get(i).toString());
+        Collections.sort(expected);
+        assertEquals(expected, sorted(tree.entries()));
+    }
+
+    private static List<Entry<Integer, Geometry>> entries(int n, long seed) {
+        Random random = new Random(seed);
+        List<Entry<Integer, Geometry>> list = new ArrayList<Entry<Integer, Geometry>>(n);
+        for (int i = 0; i < n; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            double size = random.nextDouble() * 3;
+            Geometry g;
+            switch (i % 6) {
+            case 0:
+                g = Geometries.point(x, y);
+                break;
+            case 1:
+                g = Geometries.point((float) x, (float) y);
+                break;
+            case 2:
+                g = Geometries.rectangle(x, y, x + size, y + size);
+                break;
+            case 3:
+                g = Geometries.rectangle((float) x, (float) y, (float) (x + size),
+                        (float) (y + size));
+                break;
+            case 4:
+                g = Geometries.circle(x, y, size);
+                break;
+            default:
+                g = Geometries.line(x, y, x + size, y - size);
+            }
+            list.add(Entries.entry(i, g));
+        }
+        return list;
+    }
+
+    private static List<String> sorted(Observable<Entry<Integer, Geometry>> entries) {
+        List<String> list = new ArrayList<String>();
+        for (Entry<Integer, Geometry> entry : entries.toBlocking().toIterable())
+            list.add(entry.toString());
+        Collections.sort(list);
+        return list;
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.github.davidmoten.rtree.internal;
+
+import static com.github.davidmoten.rtree.Utilities.sorted;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.Context;
+import com.github.davidmoten.rtree.Entries;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Factories;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.SelectorMinimalAreaIncrease;
+import com.github.davidmoten.rtree.SplitterQuadratic;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+public class LeafPointsTest {
+
+    private static final Context<Integer, Point> CONTEXT = new Context<Integer, Point>(2, 4,
+            new SelectorMinimalAreaIncrease(), new SplitterQuadratic(),
+            Factories.<Integer> pointsFactory());
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCannotHaveZeroChildren() {
+        new LeafPoints<Integer>(new ArrayList<Entry<Integer, Point>>(), CONTEXT);
+    }
+
+    @Test
+    public void testEntriesAndMbrKeepPrecision() {
+        for (int doubles : new int[] { 0, 2, 5 }) {
+            List<Entry<Integer, Point>> entries = new ArrayList<Entry<Integer, Point>>();
+            for (int i = 0; i < 5; i++)
+                entries.add(Entries.entry(i, i < doubles ? Geometries.point(i + 0.1, i * 2.3)
+                        : Geometries.point(i + 0.1f, i * 2.3f)));
+            LeafPoints<Integer> leaf = new LeafPoints<Integer>(entries, CONTEXT);
+            assertEquals(entries, leaf.entries());
+            assertEquals(entries.get(2), leaf.entry(2));
+            assertEquals(Util.mbr(entries), leaf.geometry());
+        }
+    }
+
+    @Test
+    public void testSearchesMatchDefaultFactory() {
+        List<Entry<Integer, Point>> entries = entries(3000, 1);
+        // include a point on the edge of the first query rectangle
+        entries.add(Entries.entry(-1, Geometries.point(10.0, 20.0)));
+        RTree<Integer, Point> tree = RTree.maxChildren(8).<Integer, Point> create().add(entries);
+        RTree<Integer, Point> points = RTree.maxChildren(8)
+                .factory(Factories.<Integer> pointsFactory()).<Integer, Point> create()
+                .add(entries);
+        RTree<Integer, Point> bulk = RTree.maxChildren(8)
+                .factory(Factories.<Integer> pointsFactory()).create(entries);
+        List<Rectangle> queries = new ArrayList<Rectangle>(
+                Arrays.asList(Geometries.rectangle(10, 20, 30, 40)));
+        Random random = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            queries.add(Geometries.rectangle(x, y, x + random.nextDouble() * 20,
+                    y + random.nextDouble() * 20));
+        }
+        for (Rectangle r : queries) {
+            List<String> expected = sorted(tree.search(r));
+            assertEquals(expected, sorted(points.search(r)));
+            assertEquals(expected, sorted(bulk.search(r)));
+            Point p = Geometries.point(r.x1(), r.y1());
+            assertEquals(sorted(tree.search(p, 3)), sorted(points.search(p, 3)));
+            assertEquals(sorted(tree.nearest(p, 10, 5)), sorted(points.nearest(p, 10, 5)));
+        }
+        assertEquals(sorted(tree.entries()), sorted(bulk.entries()));
+    }
+
+    @Test
+    public void testDelete() {
+        List<Entry<Integer, Point>> entries = entries(200, 3);
+        RTree<Integer, Point> tree = RTree.maxChildren(4)
+                .factory(Factories.<Integer> pointsFactory()).<Integer, Point> create()
+                .add(entries);
+        for (int i = 0; i < entries.size(); i += 2)
+            tree = tree.delete(entries.get(i));
+        assertEquals(100, tree.size());
+        assertEquals(100, (int) tree.entries().count().toBlocking().single());
+        assertEquals(entries.get(1),
+                tree.search(entries.get(1).geometry()).toBlocking().single());
+    }
+
+    @Test
+    public void testSinglePrecisionLeavesUseAQuarterOfTheMemoryOfDefaultLeaves() {
+        // large enough that the garbage of other tests collected during the
+        // measurement is small in comparison
+        int numLeaves = 10000;
+        int leafSize = 100;
+        Random random = new Random(2);
+        float[] coordinates = new float[numLeaves * leafSize * 2];
+        for (int i = 0; i < coordinates.length; i++)
+            coordinates[i] = random.nextFloat() * 100;
+        // all entries share one value so only the per entry overhead is measured
+        Integer value = 1;
+        Context<Integer, Point> defaultContext = new Context<Integer, Point>(2, leafSize,
+                new SelectorMinimalAreaIncrease(), new SplitterQuadratic(),
+                Factories.<Integer, Point> defaultFactory());
+        List<Leaf<Integer, Point>> leaves = new ArrayList<Leaf<Integer, Point>>(numLeaves);
+
+        long start = usedMemory();
+        for (int i = 0; i < numLeaves; i++)
+            leaves.add(new LeafPoints<Integer>(leafEntries(coordinates, i, leafSize, value),
+                    CONTEXT));
+        long pointsBytes = usedMemory() - start;
+        leaves.clear();
+
+        start = usedMemory();
+        for (int i = 0; i < numLeaves; i++)
+            leaves.add(new LeafDefault<Integer, Point>(leafEntries(coordinates, i, leafSize, value),
+                    defaultContext));
+        long defaultBytes = usedMemory() - start;
+        assertEquals(numLeaves, leaves.size());
+        // keep the coordinates reachable until after the last measurement
+        assertEquals(numLeaves * leafSize * 2, coordinates.length);
+        assertTrue("default " + defaultBytes + " bytes, points " + pointsBytes + " bytes",
+                defaultBytes >= 3 * pointsBytes);
+    }
+
+    private static List<Entry<Integer, Point>> leafEntries(float[] coordinates, int leaf,
+            int leafSize, Integer value) {
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(leafSize);
+        for (int j = 0; j < leafSize; j++) {
+            int k = 2 * (leaf * leafSize + j);
+            list.add(Entries.entry(value, Geometries.point(coordinates[k], coordinates[k + 1])));
+        }
+        return list;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // repeat until a collection frees nothing more
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long u = runtime.totalMemory() - runtime.freeMemory();
+            if (u >= used)
+                break;
+            used = u;
+        }
+        return used;
+    }
+
+    private static List<Entry<Integer, Point>> entries(int n, long seed) {
+        Random random = new Random(seed);
+        List<Entry<Integer, Point>> list = new ArrayList<Entry<Integer, Point>>(n);
+        for (int i = 0; i < n; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            list.add(Entries.entry(i, i % 3 == 0 ? Geometries.point((float) x, (float) y)
+                    : Geometries.point(x, y)));
+        }
+        return list;
+    }
+
+}
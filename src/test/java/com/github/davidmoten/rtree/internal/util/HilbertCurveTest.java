@@ -0,0 +1,47 @@
+package com.github.davidmoten.rtree.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class HilbertCurveTest {
+
+    @Test
+    public void testOrderOne() {
+        assertEquals(0, HilbertCurve.index(1, 0, 0));
+        assertEquals(1, HilbertCurve.index(1, 0, 1));
+        assertEquals(2, HilbertCurve.index(1, 1, 1));
+        assertEquals(3, HilbertCurve.index(1, 1, 0));
+    }
+
+    @Test
+    public void testCurveVisitsEveryCellOnceMovingToAdjacentCells() {
+        for (int order = 1; order <= 6; order++) {
+            int n = 1 << order;
+            long[][] cells = new long[n * n][];
+            for (long x = 0; x < n; x++)
+                for (long y = 0; y < n; y++) {
+                    int d = (int) HilbertCurve.index(order, x, y);
+                    assertNull(cells[d]);
+                    cells[d] = new long[] { x, y };
+                }
+            for (int d = 1; d < cells.length; d++)
+                assertEquals(1, Math.abs(cells[d][0] - cells[d - 1][0])
+                        + Math.abs(cells[d][1] - cells[d - 1][1]));
+        }
+    }
+
+    @Test
+    public void testMaxOrderCorners() {
+        long max = (1L << HilbertCurve.MAX_ORDER) - 1;
+        assertEquals(0, HilbertCurve.index(HilbertCurve.MAX_ORDER, 0, 0));
+        assertEquals(max * (max + 2), HilbertCurve.index(HilbertCurve.MAX_ORDER, max, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOrderTooLarge() {
+        HilbertCurve.index(HilbertCurve.MAX_ORDER + 1, 0, 0);
+    }
+
+}
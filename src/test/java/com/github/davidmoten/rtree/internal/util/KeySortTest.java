@@ -0,0 +1,146 @@
+package com.github.davidmoten.rtree.internal.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class KeySortTest {
+
+    private static final double[] SPECIAL = { 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE,
+            -Double.MAX_VALUE, 1, -1 };
+
+    @Test
+    public void testKeyOrderingMatchesDoubleCompare() {
+        for (double a : SPECIAL)
+            for (double b : SPECIAL)
+                assertEquals(Integer.signum(Double.compare(a, b)),
+                        Integer.signum(compare(KeySort.key(a), KeySort.key(b))));
+    }
+
+    @Test
+    public void testSortIsStableAndMatchesCollectionsSort() {
+        for (int n : new int[] { 0, 1, 5, 31, 32, 33, 1000, 20000 }) {
+            double[] values = randomValues(n, n);
+            long[] keys = keys(values);
+            int[] index = identity(n);
+            KeySort.sort(keys, index, 0, n);
+            assertArrayEquals(expected(values), index);
+            checkKeys(values, keys, index);
+        }
+    }
+
+    @Test
+    public void testSortOfRange() {
+        double[] values = randomValues(1000, 1);
+        long[] keys = keys(values);
+        int[] index = identity(1000);
+        KeySort.sort(keys, index, 100, 900);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, index[i]);
+            assertEquals(i + 900, index[i + 900]);
+        }
+        for (int i = 101; i < 900; i++)
+            assertTrue(keys[i - 1] <= keys[i]);
+    }
+
+    @Test
+    public void testParallelSortIsStableAndMatchesCollectionsSort() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int parallelism : new int[] { 1, 2, 3, 7, 16 }) {
+                for (int n : new int[] { 10, KeySort.MIN_CHUNK_SIZE * 2 - 1,
+                        KeySort.MIN_CHUNK_SIZE * 5 + 3 }) {
+                    double[] values = randomValues(n, parallelism);
+                    long[] keys = keys(values);
+                    int[] index = identity(n);
+                    KeySort.sort(keys, index, executor, parallelism);
+                    assertArrayEquals(expected(values), index);
+                    checkKeys(values, keys, index);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelSortOnSingleThreadedExecutor() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            int n = KeySort.MIN_CHUNK_SIZE * 8;
+            double[] values = randomValues(n, 1);
+            int[] index = identity(n);
+            KeySort.sort(keys(values), index, executor, 8);
+            assertArrayEquals(expected(values), index);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static double[] randomValues(int n, long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            int r = random.nextInt(10);
+            if (r == 0)
+                values[i] = SPECIAL[random.nextInt(SPECIAL.length)];
+            else if (r < 5)
+                // few distinct values so that stability is exercised
+                values[i] = random.nextInt(50) - 25;
+            else
+                values[i] = (random.nextDouble() - 0.5) * 1000;
+        }
+        return values;
+    }
+
+    private static long[] keys(double[] values) {
+        long[] keys = new long[values.length];
+        for (int i = 0; i < values.length; i++)
+            keys[i] = KeySort.key(values[i]);
+        return keys;
+    }
+
+    private static int[] identity(int n) {
+        int[] index = new int[n];
+        for (int i = 0; i < n; i++)
+            index[i] = i;
+        return index;
+    }
+
+    private static int[] expected(final double[] values) {
+        List<Integer> list = new ArrayList<Integer>(values.length);
+        for (int i = 0; i < values.length; i++)
+            list.add(i);
+        Collections.sort(list, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(values[a], values[b]);
+            }
+        });
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = list.get(i);
+        return result;
+    }
+
+    private static void checkKeys(double[] values, long[] keys, int[] index) {
+        for (int i = 0; i < index.length; i++)
+            assertEquals(KeySort.key(values[index[i]]), keys[i]);
+    }
+
+}
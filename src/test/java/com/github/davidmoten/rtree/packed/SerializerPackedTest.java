@@ -0,0 +1,289 @@
+package com.github.davidmoten.rtree.packed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.Entries;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.GreekEarthquakes;
+import com.github.davidmoten.rtree.InternalStructure;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.Precision;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
+
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+public class SerializerPackedTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testRoundTripViaMemoryMappedFile() throws Exception {
+        for (Precision precision : Precision.values()) {
+            RTree<String, Point> tree = RTree.star().maxChildren(10).create();
+            int i = 0;
+            for (Entry<Object, Point> entry : GreekEarthquakes.entries(precision).toBlocking()
+                    .toIterable())
+                tree = tree.add(String.valueOf(i++), entry.geometry());
+            SerializerPacked<String, Point> serializer = createStringSerializer();
+            File file = new File("target/packed-" + precision);
+            serializer.write(tree, file);
+            for (InternalStructure structure : InternalStructure.values()) {
+                RTree<String, Point> tr = serializer.read(file, structure);
+                assertEquals(tree.size(), tr.size());
+                assertEquals(tree.context().maxChildren(), tr.context().maxChildren());
+                assertEquals(tree.context().minChildren(), tr.context().minChildren());
+                assertEquals(tree.mbr().get(), tr.mbr().get());
+                assertEquals(tree.asString(), tr.asString());
+                assertEquals(
+                        new HashSet<Entry<String, Point>>(
+                                tree.entries().toList().toBlocking().single()),
+                        new HashSet<Entry<String, Point>>(
+                                tr.entries().toList().toBlocking().single()));
+                Rectangle r = Geometries.rectangle(40, 27.0, 40.5, 27.5);
+                assertEquals(22, (int) tr.search(r).count().toBlocking().single());
+                assertEquals(22, (int) tr.search(r).take(10000).count().toBlocking().single());
+            }
+        }
+    }
+
+    @Test
+    public void testSearchesOfMixedGeometriesMatchOriginal() throws Exception {
+        Random random = new Random(1);
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            double size = random.nextDouble() * 5;
+            boolean single = i % 8 < 4;
+            final Geometry g;
+            if (i % 4 == 0)
+                g = single ? Geometries.point((float) x, (float) y) : Geometries.point(x, y);
+            else if (i % 4 == 1)
+                g = single
+                        ? Geometries.rectangle((float) x, (float) y, (float) (x + size),
+                                (float) (y + size))
+                        : Geometries.rectangle(x, y, x + size, y + size);
+            else if (i % 4 == 2)
+                g = single ? Geometries.circle((float) x, (float) y, (float) size)
+                        : Geometries.circle(x, y, size);
+            else
+                g = single
+                        ? Geometries.line((float) x, (float) y, (float) (x + size),
+                                (float) (y - size))
+                        : Geometries.line(x, y, x + size, y - size);
+            tree = tree.add(String.valueOf(i), g);
+        }
+        // points on the edges of a query rectangle must be found
+        tree = tree.add("edge", Geometries.point(20, 30));
+        RTree<String, Geometry> packed = roundTrip(tree, InternalStructure.SINGLE_ARRAY);
+        assertEquals(sorted(tree.entries()), sorted(packed.entries()));
+        // node bounds keep their precision
+        assertEquals(tree.asString(), packed.asString());
+        // subtree sizes are read from the slots
+        checkSizes(tree.root().get(), packed.root().get());
+        List<Rectangle> queries = new ArrayList<Rectangle>();
+        queries.add(Geometries.rectangle(20, 30, 40, 50));
+        queries.add(Geometries.rectangle(-10, -10, 200, 200));
+        for (int i = 0; i < 50; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            queries.add(Geometries.rectangle(x, y, x + random.nextDouble() * 20,
+                    y + random.nextDouble() * 20));
+        }
+        for (Rectangle r : queries) {
+            List<String> expected = sorted(tree.search(r));
+            assertEquals(expected, sorted(packed.search(r)));
+            final List<Entry<String, Geometry>> found = new ArrayList<Entry<String, Geometry>>();
+            packed.search(r, new Action1<Entry<String, Geometry>>() {
+                @Override
+                public void call(Entry<String, Geometry> entry) {
+                    found.add(entry);
+                }
+            });
+            assertEquals(expected, sorted(Observable.from(found)));
+            assertEquals(expected.size(), packed.count(r));
+            // searches other than by rectangle go through the nodes
+            Point p = Geometries.point(r.x1(), r.y1());
+            assertEquals(sorted(tree.search(p, 3)), sorted(packed.search(p, 3)));
+        }
+    }
+
+    private static void checkSizes(Node<String, Geometry> expected,
+            Node<String, Geometry> actual) {
+        assertEquals(NonLeafHelper.size(expected), NonLeafHelper.size(actual));
+        if (expected instanceof NonLeaf) {
+            NonLeaf<String, Geometry> nonLeaf = (NonLeaf<String, Geometry>) expected;
+            for (int i = 0; i < nonLeaf.count(); i++)
+                checkSizes(nonLeaf.child(i), ((NonLeaf<String, Geometry>) actual).child(i));
+        }
+    }
+
+    @Test
+    public void testRectangleSearchStopsWhenUnsubscribed() throws Exception {
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 1000; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 100, i / 100));
+        RTree<String, Geometry> packed = roundTrip(tree, InternalStructure.SINGLE_ARRAY);
+        Rectangle r = Geometries.rectangle(0, 0, 100, 100);
+        assertEquals(7, (int) packed.search(r).take(7).count().toBlocking().single());
+    }
+
+    @Test
+    public void testEmptyAndSingleLeafTrees() throws Exception {
+        RTree<String, Geometry> tree = RTree.create();
+        for (InternalStructure structure : InternalStructure.values())
+            assertTrue(roundTrip(tree, structure).isEmpty());
+        tree = tree.add("a", Geometries.point(1, 2)).add("b", Geometries.point(3, 4));
+        for (InternalStructure structure : InternalStructure.values()) {
+            RTree<String, Geometry> tr = roundTrip(tree, structure);
+            assertEquals(tree.entries().toList().toBlocking().single(),
+                    tr.entries().toList().toBlocking().single());
+            assertEquals(1, (int) tr.search(Geometries.rectangle(0, 0, 2, 2)).count()
+                    .toBlocking().single());
+        }
+    }
+
+    @Test
+    public void testReadsFromPositionOfBuffer() throws Exception {
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 10, i / 10));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[13]);
+        SerializerPacked<String, Geometry> serializer = createStringSerializer();
+        serializer.write(tree, bytes);
+        ByteBuffer bb = ByteBuffer.wrap(bytes.toByteArray());
+        bb.position(13);
+        RTree<String, Geometry> tr = serializer.read(bb, InternalStructure.SINGLE_ARRAY);
+        assertEquals(sorted(tree.entries()), sorted(tr.entries()));
+    }
+
+    @Test
+    public void testAddAndDeleteOnReadTree() throws Exception {
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 10, i / 10));
+        RTree<String, Geometry> tr = roundTrip(tree, InternalStructure.SINGLE_ARRAY);
+        Entry<String, Geometry> a = Entries.<String, Geometry> entry("a",
+                Geometries.point(4.5f, 4.5f));
+        Entry<String, Geometry> b = Entries.<String, Geometry> entry("55",
+                Geometries.point(5f, 5f));
+        tree = tree.add(a).delete(b);
+        tr = tr.add(a).delete(b);
+        assertEquals(100, tr.size());
+        assertEquals(sorted(tree.entries()), sorted(tr.entries()));
+    }
+
+    @Test
+    public void testValuesAreDeserializedLazilyAndOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        SerializerPacked<String, Point> serializer = SerializerPacked
+                .create(new Func1<String, byte[]>() {
+                    @Override
+                    public byte[] call(String s) {
+                        return s.getBytes(UTF_8);
+                    }
+                }, new Func1<byte[], String>() {
+                    @Override
+                    public String call(byte[] bytes) {
+                        calls.incrementAndGet();
+                        return new String(bytes, UTF_8);
+                    }
+                });
+        RTree<String, Point> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 10, i / 10));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(tree, bytes);
+        RTree<String, Point> tr = serializer.read(new ByteArrayInputStream(bytes.toByteArray()),
+                bytes.size(), InternalStructure.SINGLE_ARRAY);
+        Rectangle r = Geometries.rectangle(0, 0, 4.5, 4.5);
+        assertEquals(25, (int) tr.search(r).count().toBlocking().single());
+        assertEquals(0, calls.get());
+        for (Entry<String, Point> entry : tr.search(r).toBlocking().toIterable()) {
+            Point p = entry.geometry();
+            assertEquals(String.valueOf((int) (p.y() * 10 + p.x())), entry.value());
+            assertEquals(String.valueOf((int) (p.y() * 10 + p.x())), entry.value());
+        }
+        assertEquals(25, calls.get());
+    }
+
+    @Test
+    public void testDefaultStructureDeserializesValuesWhenRead() throws Exception {
+        RTree<String, Geometry> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 10, i / 10));
+        SerializerPacked<String, Geometry> serializer = createStringSerializer();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(tree, bytes);
+        ByteBuffer bb = ByteBuffer.wrap(bytes.toByteArray());
+        RTree<String, Geometry> read = serializer.read(bb, InternalStructure.DEFAULT);
+        // entries must not refer to the buffer (which may be a mapped file)
+        Arrays.fill(bb.array(), (byte) 0);
+        assertEquals(sorted(tree.entries()), sorted(read.entries()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadOfOtherFormatThrows() {
+        SerializerPacked.<String, Point> create(null, null)
+                .read(ByteBuffer.allocate(100), InternalStructure.SINGLE_ARRAY);
+    }
+
+    private static RTree<String, Geometry> roundTrip(RTree<String, Geometry> tree,
+            InternalStructure structure) throws IOException {
+        SerializerPacked<String, Geometry> serializer = createStringSerializer();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(tree, bytes);
+        return serializer.read(new ByteArrayInputStream(bytes.toByteArray()), bytes.size(),
+                structure);
+    }
+
+    private static <S extends Geometry> SerializerPacked<String, S> createStringSerializer() {
+        return SerializerPacked.create(new Func1<String, byte[]>() {
+            @Override
+            public byte[] call(String s) {
+                return s.getBytes(UTF_8);
+            }
+        }, new Func1<byte[], String>() {
+            @Override
+            public String call(byte[] bytes) {
+                return new String(bytes, UTF_8);
+            }
+        });
+    }
+
+    private static <S extends Geometry> List<String> sorted(Observable<Entry<String, S>> entries) {
+        List<String> list = new ArrayList<String>();
+        for (Entry<String, S> entry : entries.toBlocking().toIterable())
+            list.add(entry.value() + " " + entry.geometry() + " "
+                    + entry.geometry().isDoublePrecision());
+        Collections.sort(list);
+        return list;
+    }
+
+}
@@ -0,0 +1,381 @@
+package com.github.davidmoten.rtree.paged;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.rtree.Entries;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.rtree.internal.NonLeafHelper;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+public class PagedRTreeTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Func1<String, byte[]> SERIALIZER = new Func1<String, byte[]>() {
+        @Override
+        public byte[] call(String s) {
+            return s.getBytes(UTF_8);
+        }
+    };
+
+    private static final Func1<byte[], String> DESERIALIZER = new Func1<byte[], String>() {
+        @Override
+        public String call(byte[] bytes) {
+            return new String(bytes, UTF_8);
+        }
+    };
+
+    @Test
+    public void testSearchesWithSmallBufferPoolMatchHeapTree() throws IOException {
+        Random random = new Random(1);
+        RTree<String, Geometry> tree = RTree.star().maxChildren(8).create();
+        for (int i = 0; i < 5000; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            double size = random.nextDouble() * 2;
+            final Geometry g;
+            if (i % 3 == 0)
+                g = Geometries.point((float) x, (float) y);
+            else if (i % 3 == 1)
+                g = Geometries.rectangle(x, y, x + size, y + size);
+            else
+                g = Geometries.circle(x, y, size);
+            tree = tree.add(String.valueOf(i), g);
+        }
+        File file = new File("target/paged-mixed");
+        PagedRTree.write(tree, file, 512, SERIALIZER);
+        PagedRTree<String, Geometry> paged = PagedRTree.open(file, 4 * 512, DESERIALIZER);
+        try {
+            RTree<String, Geometry> tr = paged.tree();
+            assertEquals(4, paged.cacheCapacity());
+            assertEquals(tree.size(), tr.size());
+            assertEquals(tree.mbr().get(), tr.mbr().get());
+            assertEquals(tree.context().maxChildren(), tr.context().maxChildren());
+            assertEquals(tree.asString(), tr.asString());
+            assertEquals(sorted(tree.entries()), sorted(tr.entries()));
+            for (int i = 0; i < 30; i++) {
+                double x = random.nextDouble() * 100;
+                double y = random.nextDouble() * 100;
+                Rectangle r = Geometries.rectangle(x, y, x + random.nextDouble() * 20,
+                        y + random.nextDouble() * 20);
+                List<String> expected = sorted(tree.search(r));
+                assertEquals(expected, sorted(tr.search(r)));
+                assertEquals(expected, sorted(tr.search(r).take(100000)));
+                assertEquals(expected.size(), tr.count(r));
+                Point p = Geometries.point(x, y);
+                assertEquals(sorted(tree.nearest(p, 10, 5)), sorted(tr.nearest(p, 10, 5)));
+            }
+            assertTrue(paged.cachedPages() <= 4);
+            assertTrue(paged.pageFaults() > 0);
+            assertTrue(paged.pageHits() > 0);
+        } finally {
+            paged.close();
+        }
+    }
+
+    @Test
+    public void testUpdatesOfPagedTreeAreOnHeap() throws IOException {
+        RTree<String, Point> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 10, i / 10));
+        File file = new File("target/paged-updates");
+        PagedRTree.write(tree, file, SERIALIZER);
+        PagedRTree<String, Point> paged = PagedRTree.open(file, 1 << 20, DESERIALIZER);
+        try {
+            Entry<String, Point> a = Entries.entry("a", Geometries.point(4.5, 4.5));
+            Entry<String, Point> b = Entries.entry("55", Geometries.point(5f, 5f));
+            RTree<String, Point> tr = paged.tree().add(a).delete(b);
+            tree = tree.add(a).delete(b);
+            assertEquals(100, tr.size());
+            assertEquals(sorted(tree.entries()), sorted(tr.entries()));
+            // the paged tree is unchanged
+            assertEquals(100, paged.tree().size());
+            assertEquals(1, (int) paged.tree().search(Geometries.point(5, 5)).count()
+                    .toBlocking().single());
+        } finally {
+            paged.close();
+        }
+    }
+
+    @Test
+    public void testSubtreeSizesAreReadFromParentPage() throws IOException {
+        RTree<String, Point> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 1000; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 100, i / 100));
+        File file = new File("target/paged-sizes");
+        PagedRTree.write(tree, file, SERIALIZER);
+        PagedRTree<String, Point> paged = PagedRTree.open(file, 1 << 20, DESERIALIZER);
+        try {
+            NonLeaf<String, Point> root = (NonLeaf<String, Point>) paged.tree().root().get();
+            long faults = paged.pageFaults();
+            assertEquals(1000, NonLeafHelper.size(root));
+            int size = 0;
+            for (Node<String, Point> child : root.children()) {
+                assertTrue(child instanceof NonLeaf);
+                size += NonLeafHelper.size(child);
+            }
+            assertEquals(1000, size);
+            // only the page of the root was read
+            assertEquals(faults + 1, paged.pageFaults());
+        } finally {
+            paged.close();
+        }
+    }
+
+    @Test
+    public void testIndexedChildAccessReadsThePageOnce() throws IOException {
+        RTree<String, Point> tree = RTree.maxChildren(4).create();
+        for (int i = 0; i < 1000; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i % 100, i / 100));
+        File file = new File("target/paged-indexed");
+        PagedRTree.write(tree, file, SERIALIZER);
+        PagedRTree<String, Point> paged = PagedRTree.open(file, 1 << 20, DESERIALIZER);
+        try {
+            NonLeaf<String, Point> root = (NonLeaf<String, Point>) paged.tree().root().get();
+            long reads = paged.pageHits() + paged.pageFaults();
+            for (int i = 0; i < root.count(); i++)
+                assertTrue(root.child(i) instanceof NonLeaf);
+            assertEquals(reads + 1, paged.pageHits() + paged.pageFaults());
+        } finally {
+            paged.close();
+        }
+    }
+
+    @Test
+    public void testEmptyAndSingleLeafTrees() throws IOException {
+        File file = new File("target/paged-small");
+        RTree<String, Point> tree = RTree.create();
+        PagedRTree.write(tree, file, SERIALIZER);
+        PagedRTree<String, Point> paged = PagedRTree.open(file, 4096, DESERIALIZER);
+        assertTrue(paged.tree().isEmpty());
+        paged.close();
+        tree = tree.add("a", Geometries.point(1, 2)).add("b", Geometries.point(3, 4));
+        PagedRTree.write(tree, file, SERIALIZER);
+        paged = PagedRTree.open(file, 4096, DESERIALIZER);
+        try {
+            assertEquals(tree.entries().toList().toBlocking().single(),
+                    paged.tree().entries().toList().toBlocking().single());
+            assertEquals("a", paged.tree().search(Geometries.rectangle(0, 0, 2, 2)).toBlocking()
+                    .single().value());
+        } finally {
+            paged.close();
+        }
+    }
+
+    @Test
+    public void testBulkWriteOfEntriesMatchesHeapTree() throws IOException {
+        Random random = new Random(2);
+        List<Entry<String, Geometry>> entries = new ArrayList<Entry<String, Geometry>>();
+        for (int i = 0; i < 20000; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            double size = random.nextDouble() * 2;
+            final Geometry g;
+            if (i % 4 == 0)
+                g = Geometries.point((float) x, (float) y);
+            else if (i % 4 == 1)
+                g = Geometries.rectangle(x, y, x + size, y + size);
+            else if (i % 4 == 2)
+                g = Geometries.circle((float) x, (float) y, (float) size);
+            else
+                g = Geometries.line(x, y, x + size, y - size);
+            entries.add(Entries.entry(String.valueOf(i), g));
+        }
+        File file = new File("target/paged-bulk");
+        // sort buffers of 150 items so that the sorts of the slices merge runs
+        PagedRTree.write(entries, file, 1024, 8, 150 * 84, SERIALIZER);
+        assertEquals(0, new File("target").list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("rtree-bulk-");
+            }
+        }).length);
+        RTree<String, Geometry> tree = RTree.create(entries);
+        PagedRTree<String, Geometry> paged = PagedRTree.open(file, 1 << 20, DESERIALIZER);
+        try {
+            RTree<String, Geometry> tr = paged.tree();
+            assertEquals(20000, tr.size());
+            assertEquals(8, tr.context().maxChildren());
+            assertEquals(tree.mbr().get(), tr.mbr().get());
+            assertEquals(sorted(Observable.from(entries)), sorted(tr.entries()));
+            checkNode(tr.root().get(), tr.calculateDepth());
+            for (int i = 0; i < 30; i++) {
+                double x = random.nextDouble() * 100;
+                double y = random.nextDouble() * 100;
+                Rectangle r = Geometries.rectangle(x, y, x + random.nextDouble() * 20,
+                        y + random.nextDouble() * 20);
+                List<String> expected = sorted(tree.search(r));
+                assertEquals(expected, sorted(tr.search(r)));
+                assertEquals(expected.size(), tr.count(r));
+                Point p = Geometries.point(x, y);
+                assertEquals(sorted(tree.nearest(p, 10, 5)), sorted(tr.nearest(p, 10, 5)));
+            }
+        } finally {
+            paged.close();
+        }
+    }
+
+    @Test
+    public void testBulkWriteMergesRunsInPasses() throws IOException {
+        List<Entry<String, Point>> entries = new ArrayList<Entry<String, Point>>();
+        Random random = new Random(5);
+        for (int i = 0; i < 5000; i++)
+            entries.add(Entries.entry(String.valueOf(i),
+                    Geometries.point(random.nextDouble() * 100, random.nextDouble() * 100)));
+        File file = new File("target/paged-bulk-passes");
+        // runs of 8 items so that the 625 runs of the first sort are more
+        // than can be merged in one pass
+        PagedRTree.write(entries, file, 1024, 8, 8 * 84, SERIALIZER);
+        assertTrue(5000 / 8 > BulkLoader.MAX_MERGE_RUNS);
+        PagedRTree<String, Point> paged = PagedRTree.open(file, 1 << 20, DESERIALIZER);
+        try {
+            RTree<String, Point> tr = paged.tree();
+            assertEquals(5000, tr.size());
+            assertEquals(sorted(Observable.from(entries)), sorted(tr.entries()));
+            checkNode(tr.root().get(), tr.calculateDepth());
+            RTree<String, Point> tree = RTree.create(entries);
+            Rectangle r = Geometries.rectangle(20, 30, 45, 50);
+            assertEquals(sorted(tree.search(r)), sorted(tr.search(r)));
+        } finally {
+            paged.close();
+        }
+    }
+
+    @Test
+    public void testBulkWriteOfObservable() throws IOException {
+        File file = new File("target/paged-bulk-small");
+        PagedRTree.write(Observable.<Entry<String, Point>> empty(), file, SERIALIZER);
+        PagedRTree<String, Point> paged = PagedRTree.open(file, 4096, DESERIALIZER);
+        assertTrue(paged.tree().isEmpty());
+        paged.close();
+        List<Entry<String, Point>> entries = new ArrayList<Entry<String, Point>>();
+        for (int i = 0; i < 1000; i++)
+            entries.add(Entries.entry(String.valueOf(i), Geometries.point(i % 30, i / 30)));
+        for (int n : new int[] { 1, 85, 1000 }) {
+            PagedRTree.write(Observable.from(entries.subList(0, n)), file, SERIALIZER);
+            paged = PagedRTree.open(file, 4096, DESERIALIZER);
+            try {
+                assertEquals(n, paged.tree().size());
+                assertEquals(PagedRTree.maxChildren(PagedRTree.DEFAULT_PAGE_SIZE),
+                        paged.tree().context().maxChildren());
+                assertEquals(sorted(Observable.from(entries.subList(0, n))),
+                        sorted(paged.tree().entries()));
+                checkNode(paged.tree().root().get(), paged.tree().calculateDepth());
+            } finally {
+                paged.close();
+            }
+        }
+    }
+
+    /**
+     * Checks that the leaves are at the given depth, that nodes are not over
+     * full, that bounds contain the children and that the stored sizes are
+     * right. Returns the number of entries below the node.
+     */
+    private static <S extends Geometry> int checkNode(Node<String, S> node, int depth) {
+        assertTrue(node.count() > 0);
+        assertTrue(node.count() <= node.context().maxChildren());
+        int size = 0;
+        if (node instanceof Leaf) {
+            assertEquals(1, depth);
+            for (Entry<String, S> entry : ((Leaf<String, S>) node).entries()) {
+                assertTrue(contains(node.geometry().mbr(), entry.geometry().mbr()));
+                size++;
+            }
+        } else {
+            for (Node<String, S> child : ((NonLeaf<String, S>) node).children()) {
+                assertTrue(contains(node.geometry().mbr(), child.geometry().mbr()));
+                size += checkNode(child, depth - 1);
+            }
+        }
+        assertEquals(size, NonLeafHelper.size(node));
+        return size;
+    }
+
+    private static boolean contains(Rectangle a, Rectangle b) {
+        return a.x1() <= b.x1() && a.y1() <= b.y1() && a.x2() >= b.x2() && a.y2() >= b.y2();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageTooSmallForNodesThrows() throws IOException {
+        RTree<String, Point> tree = RTree.maxChildren(32).create();
+        for (int i = 0; i < 100; i++)
+            tree = tree.add(String.valueOf(i), Geometries.point(i, i));
+        PagedRTree.write(tree, new File("target/paged-too-small"), 256, SERIALIZER);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOpenOfOtherFormatThrows() throws IOException {
+        File file = new File("target/paged-other");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.write(new byte[4096]);
+        raf.close();
+        PagedRTree.open(file, 4096, DESERIALIZER);
+    }
+
+    @Test
+    public void testBufferPoolEvictsWithClock() throws IOException {
+        File file = new File("target/paged-pool");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            for (int i = 0; i < 5; i++) {
+                byte[] page = new byte[16];
+                page[0] = (byte) i;
+                raf.write(page);
+            }
+            BufferPool pool = new BufferPool(raf.getChannel(), 16, 2);
+            assertEquals(1, pool.get(1).get(0));
+            assertEquals(2, pool.get(2).get(0));
+            // marks page 1 referenced
+            ByteBuffer one = pool.get(1);
+            assertEquals(1, pool.hits());
+            // page 1 gets a second chance so page 2 is evicted
+            assertEquals(3, pool.get(3).get(0));
+            assertEquals(2, pool.cachedPages());
+            pool.get(1);
+            assertEquals(2, pool.hits());
+            pool.get(2);
+            assertEquals(4, pool.faults());
+            // buffers stay valid after eviction
+            assertEquals(1, one.get(0));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static <S extends Geometry> List<String> sorted(Observable<Entry<String, S>> entries) {
+        List<String> list = new ArrayList<String>();
+        for (Entry<String, S> entry : entries.toBlocking().toIterable())
+            list.add(entry.value() + " " + entry.geometry() + " "
+                    + entry.geometry().isDoublePrecision());
+        Collections.sort(list);
+        return list;
+    }
+
+}